@@ -11,20 +11,24 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Objects;
-import java.util.PriorityQueue;
 //import java.util.Queue;
 import java.util.Set;
+import java.util.SplittableRandom;
 //import java.util.Stack;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.BiFunction;
 
 public class Algorithms {
     public final HopperOperation ho;
+    private CHDistanceTable distanceTable = null;      // created on first use when SimulationParameters.useDistanceTable is set
     public final double[][][] Speed;
+    public final double MaxSpeed;           // highest speed of any hour and region pair, for lower bounds of travel durations
     private final double[][][] SurgePriceFactor;
     private final HashMap<Integer,Double> AverageTip;
+    private final double MaxTip;            // highest average tip of any distance, for upper bounds of the revenue
     private final double BaseFare = 1.8;
     private final double PerMinuteCost = 0.27;
     private final double PerMeterCost = 0.8 / Utility.MileToKM / 1000;  // from 0.8 per-mile to per-meter, in dollars
@@ -39,17 +43,28 @@ public class Algorithms {
     private final double MediumSedanDepreciation20 = (3703.0+1306.0)/20000.0 / Utility.MileToKM / 1000;
     private double MinRadius; // in kilometers
     private double distanceCandidateConst = 2.0;
+    private final double CandidateGridCellSize = 1.0;   // in kilometers, cell size of the grid over passengers' origins
+    private PassengerGridIndex passengerGrid;           // both indexes are over the passengers of the current base matches
+    private TimeWindowIndex passengerTimeWindows;
     //private final Location Airport_Midway = new Location(-87.74175010393411, 41.78850894013623);
     
     private final double Radian = Math.PI / 180.0;
-    public long[][] travelDistance;         // travel distance (in meter) by vehicles for [D.source + P.source + P.dest] x [D.dest + P.source + P.dest]
-    public HashMap<Integer, Integer> tripIDtoTravelDistanceIndex = null;
+    public final LongAdder routesPrunedByLowerBounds = new LongAdder();     // routes rejected by passesLowerBounds before routing any leg
+    public final LongAdder groupsPrunedByProfitBound = new LongAdder();     // groups dropped by ProfitBound with their larger groups
+    public DistanceStore travelDistance;    // travel distance (in meter) by vehicles for [D.source + P.source + P.dest] x [D.dest + P.source + P.dest], only evaluated legs are stored
+    public TripIndex tripIDtoTravelDistanceIndex = null;
+    public MatchStore matchStore = new MatchStore();      // matches built in the current interval
+    public ShareabilityGraph shareability = null;         // of the passengers of the base matches, for computeAllMatches*
+    public final GroupOrderMemo groupOrders = new GroupOrderMemo(this);   // possibly feasible stop orders of passenger groups, for all drivers
+    public MatchSink matchSink = new InMemoryMatchSink();  // receives the matches of each driver from computeAllMatches*
+    private volatile boolean enumerating = false;          // computeAllMatches* is running, new matches go to the store of matchSink
     public int driverSize = 0;		// use for getting the index of travelDistance
     public int passengerSize = 0;	// use for getting the index of travelDistance
     public volatile int matchID = 0;
     public int currentHourIndex = 0;
+    public int currentInterval = 0;     // seeds the take rates of the interval
     private long currentBestDist = Long.MAX_VALUE;
-    private SFP bestSFP = null;
+    private final FeasibilityKernel feasibilityKernel = new FeasibilityKernel(this, false);    // for the serial methods
     private int largestMatchSize = 0;
     
     private ExecutorService executor;
@@ -60,8 +75,21 @@ public class Algorithms {
     public Algorithms(HopperOperation ho, double[][][] speed, double[][][] priceFactor, HashMap<Integer,Double> averageTip) {
         this.ho = ho;
         this.Speed = speed;
+        double maxSpeed = 0;
+        for (double[][] hourSpeed : speed)
+            for (double[] regionSpeed : hourSpeed)
+                for (double regionPairSpeed : regionSpeed)
+                    maxSpeed = Math.max(maxSpeed, regionPairSpeed);
+        this.MaxSpeed = maxSpeed;
         this.SurgePriceFactor = priceFactor;
         this.AverageTip = averageTip;
+        double maxTip = 0;
+        for (int miles = 1; miles <= 35; miles++) {     // the distances of roundDistanceForTip
+            Double tip = averageTip.get(miles);
+            if (tip != null)
+                maxTip = Math.max(maxTip, tip);
+        }
+        this.MaxTip = maxTip;
         if (SimulationParameters.candidateTest == 1)
             this.MinRadius = SimulationParameters.distanceRadius;
         else
@@ -69,11 +97,17 @@ public class Algorithms {
     }
     
     public long computeAllMatches(List<Driver> drivers, List<Passenger> passengers) {
-        long computeDuration;
+        long computeDuration = buildShareabilityGraph(drivers);
         matchID = 0;
+        matchSink = newMatchSink();
+        enumerating = true;
+        if (SimulationParameters.useDistanceTable && SimulationParameters.computeDistanceMethod == 0)
+            computeDuration = computeDuration + fillGroupLegsFromTable(drivers);
         if (SimulationParameters.useMultiThread) {
-            computeDuration = computeAllMatchesThreads(drivers);
+            computeDuration = computeDuration + computeAllMatchesThreads(drivers);
             startTime = System.currentTimeMillis();
+            enumerating = false;
+            matchSink.finish(drivers);
             setMatchIDs(drivers);
             endTime = System.currentTimeMillis();
             computeDuration = computeDuration + endTime - startTime;
@@ -81,10 +115,14 @@ public class Algorithms {
             System.out.println("computeAllMatches() is called with drivers = " + (drivers.size()) + " and passengers = " + (passengers.size()));
             startTime = System.currentTimeMillis();
             List<Passenger> passengerList;
-            Set<Passenger> currentMatchPassengers;
-            Set<Passenger> extendMatchPassengers;
-            Set<Passenger> temp;
-            List<Integer> skipIndices;
+            List<long[]> matchPassengers;     // passengers of each match of the driver, as bits over passengerList
+            long[] currentMatchPassengers;
+            long[] extendMatchPassengers;
+            long[] candidates;                 // passengers adjacent to every passenger of the current match
+            long[][] adjacency;                // of the passengers of the driver, null without the shareability graph
+            ProfitBound profitBound;           // null unless groups are dropped by their profit bound
+            int words;
+            PassengerGroupIndex groupIndex;        // match index of each group of the driver
             int counter;
             int capLimit;
             int endIndex;
@@ -94,17 +132,24 @@ public class Algorithms {
 
             for (Driver driver : drivers) {
                 counter = driver.getMatches().size();
-                if (counter == 0 || driver.getCapacity() < 2) // process next driver
-                    continue;
-                else if (counter >= SimulationParameters.maxNumMatchesPerDriver)
+                if (counter == 0 || driver.getCapacity() < 2 || counter >= SimulationParameters.maxNumMatchesPerDriver) { // process next driver
+                    matchSink.accept(driver);
                     continue;
+                }
 
                 passengerList = new ArrayList<>(counter);
-                skipIndices=  new ArrayList<>(counter*2);
+                matchPassengers = new ArrayList<>(counter*2);
+                words = PassengerBits.words(counter);
+                groupIndex = new PassengerGroupIndex(words, counter*2);
                 for (int i = 0; i < counter; i++) {	 // every match consists of 1 passenger at this point
-                    passengerList.addAll(driver.getMatches().get(i).sfp.passengers);
-                    skipIndices.add(i);
+                    passengerList.addAll(driver.getMatches().get(i).passengers());
+                    matchPassengers.add(PassengerBits.of(words, i));
+                    groupIndex.add(matchPassengers.get(i), i);
                 }
+                extendMatchPassengers = new long[words];
+                candidates = new long[words];
+                adjacency = shareability == null ? null : shareability.localAdjacency(passengerList, words);
+                profitBound = profitBound(driver, passengerList);
 
                 capLimit = 2;
                 startIndex = 0;
@@ -113,35 +158,32 @@ public class Algorithms {
                 while (driver.getCapacity() >= capLimit) {
                     endIndex = driver.getMatches().size();
                     for (int i = startIndex; i < endIndex; i++) {	// grow each match
-                        currentMatchPassengers = driver.getMatches().get(i).sfp.passengers;
-                        for (int index = 0; index < passengerList.size(); index++) {        // grow each match with a passenger
-                            if (index <= skipIndices.get(i))
-                                continue;
+                        currentMatchPassengers = matchPassengers.get(i);
+                        PassengerBits.adjacentToAll(currentMatchPassengers, adjacency, candidates);
+                        for (int index = PassengerBits.next(candidates, PassengerBits.last(currentMatchPassengers)+1); index >= 0 && index < passengerList.size(); index = PassengerBits.next(candidates, index+1)) {        // grow each match with a later passenger adjacent to all of its passengers
+                            // try to expand the current sigma set by including the new passenger
+                            System.arraycopy(currentMatchPassengers, 0, extendMatchPassengers, 0, words);
+                            PassengerBits.set(extendMatchPassengers, index);
 
-                            extendMatchPassengers = new HashSet<>(currentMatchPassengers);
-                            extendMatchPassengers.add(passengerList.get(index));
-
-                            temp = new HashSet<>(extendMatchPassengers);
-                            for (Passenger p: currentMatchPassengers) { // check (currentSet \setminus pID \cup passenger), and it must be true to be considered 
-                                observation = false;
-                                temp.remove(p);
-                                for (int j = startIndex; j < endIndex; j++) {
-                                    if (temp.equals(driver.getMatches().get(j).sfp.passengers)) {
-                                        observation = true;
-                                        break;
-                                    }
-                                }
+                            // check (currentSet \setminus pID \cup passenger), and it must be true to be considered
+                            for (int p = PassengerBits.next(currentMatchPassengers, 0); p >= 0; p = PassengerBits.next(currentMatchPassengers, p+1)) {
+                                PassengerBits.flip(extendMatchPassengers, p);
+                                observation = groupIndex.indexOf(extendMatchPassengers) >= 0;
+                                PassengerBits.flip(extendMatchPassengers, p);
                                 if (!observation)
                                     break;
-                                temp.add(p);
                             }
                             if (!observation)		// observation does not hold for this passenger
                                 continue;		// skips this passenger
+                            if (profitBound != null && !profitBound.canBeNonNegative(extendMatchPassengers))
+                                continue;       // neither this group nor any group containing it can have a non-negative profit
 
                             // check if the extendMatchPassengers has a feasible shortest path
-                            m = constructMatch(driver, extendMatchPassengers);
+                            m = constructMatch(driver, PassengerBits.toSet(extendMatchPassengers, passengerList), driver.getMatches().get(i), passengerList.get(index));
                             if (m != null) {
                                 driver.addMatch(m);
+                                matchPassengers.add(extendMatchPassengers.clone());
+                                groupIndex.add(extendMatchPassengers, driver.getMatches().size()-1);
                                 calculateProfit(m, driver);
                                 matchID++;
                                 if (driver.getMatches().size() % 5000 == 0)
@@ -150,7 +192,6 @@ public class Algorithms {
                                     driver.addIndexLevel(driver.getMatches().size());
                                     break outerWhile;
                                 }
-                                skipIndices.add(index);
                             }
                         }
                     }
@@ -161,35 +202,70 @@ public class Algorithms {
                     startIndex = endIndex;
                     capLimit++;
                 }
+                matchSink.accept(driver);
+            }
+            enumerating = false;
+            matchSink.finish(drivers);
+            if (!matchSink.keepsMatches()) {
+                matchID = 0;
+                setMatchIDs(drivers);
             }
             endTime = System.currentTimeMillis();
-            computeDuration = endTime- startTime;
+            computeDuration = computeDuration + endTime - startTime;
             System.out.println("computeAllMatchesDP completed. It took " + (computeDuration/1000) + " seconds.");
         }
         return computeDuration;
     }
     
+    // the shareability graph of the passengers of the base matches, unless disabled or without lower bounds of the travel durations
+    private long buildShareabilityGraph(List<Driver> drivers) {
+        shareability = null;
+        if (!SimulationParameters.useShareabilityGraph || MaxSpeed <= 0)
+            return 0;
+        startTime = System.currentTimeMillis();
+        shareability = new ShareabilityGraph(this, drivers);
+        endTime = System.currentTimeMillis();
+        System.out.println("Shareability graph: " + shareability.edges() + " edges out of " + shareability.testedPairs() + " pairs of passengers sharing a driver. Time it took: "
+                            + (endTime-startTime) + " milliseconds.");
+        return endTime - startTime;
+    }
+    
     private long computeAllMatchesThreads(List<Driver> drivers) {
         System.out.println("computeAllMatchesThreads() is called with drivers = " + (driverSize) + " and passengers = " + (passengerSize) );
+        travelDistance.resetStatistics();
+        routesPrunedByLowerBounds.reset();
         startTime = System.currentTimeMillis();
 
-        executor = Executors.newFixedThreadPool(SimulationParameters.nThreads);
-        for (Driver driver: drivers)
-            executor.execute( new DriverConsumer(this, driver) );
-
-        executor.shutdown();
-        try {
-            executor.awaitTermination(360000, TimeUnit.SECONDS);
-        } catch (InterruptedException e) {
-            System.out.println(e.toString());
+        if (!new DriverScheduler(SimulationParameters.nThreads).run(drivers, driver -> thenAccept(driver, new DriverConsumer(this, driver))))
             return 360000;
-        }
 
         endTime = System.currentTimeMillis();
         System.out.println("computeAllMatchesThreads completed. It took " + ((endTime-startTime)/1000) + " seconds.");
+        displayDistanceCacheStatistics();
         return endTime - startTime;
     }
     
+    // runs the consumer of the driver, then hands the driver over to the match sink
+    private Runnable thenAccept(Driver driver, Runnable consumer) {
+        return () -> {
+            consumer.run();
+            matchSink.accept(driver);
+        };
+    }
+    
+    private MatchSink newMatchSink() {
+        switch (SimulationParameters.matchSink) {
+            case 1:
+                return new TopKMatchSink(this, SimulationParameters.matchSinkTopK);
+            case 2:
+                return new SolverEdgeSink();
+            case 3:
+                return new SpillMatchSink(this);
+            default:
+                return new InMemoryMatchSink();
+        }
+    }
+    
     public int getPassengerRegionIndex(Pair<Passenger, Boolean> OD) {
         if (OD.getP2())
             return OD.getP1().getEndRegion();
@@ -202,135 +278,162 @@ public class Algorithms {
         return new Location(OD.getP1().getStartLongitude(), OD.getP1().getStartLatitude());
     }
     
-    public boolean computeFeasiblePath(Driver driver, Set<Passenger> passengers, List<Pair<Passenger, Boolean>> originOrDest) {
-        int size = originOrDest.size();
-        int[] travelDistanceIndex = new int[size];
-        int[] hourIndex = new int[size];
-        long[] travelDuration = new long[size];
-        int driverIndex = tripIDtoTravelDistanceIndex.get(driver.getID());
+    // travel distance of the leg from one passenger location to the next, routed once and shared by all threads
+    public long computeLegDistance(int fromIndex, int toIndex, Pair<Passenger, Boolean> from, Pair<Passenger, Boolean> to) {
+        return travelDistance.computeIfAbsent(fromIndex, toIndex, 
+                    () -> (long) (ho.getDistanceBetweenTrips(from.getP1(), from.getP2(), to.getP1(), to.getP2())));
+    }
+    
+    public long computeLegDistanceEstimate(int fromIndex, int toIndex, Pair<Passenger, Boolean> from, Pair<Passenger, Boolean> to) {
+        return travelDistance.computeIfAbsent(fromIndex, toIndex, 
+                    () -> (long) (ManhattanDistance(getPassengerODLocations(from), getPassengerODLocations(to))));
+    }
+    
+    // legs from a driver's origin to the origins of its candidate passengers, and from their destinations to the driver's destination
+    private long fillBaseMatchLegsFromTable(List<Driver> drivers, List<Passenger> passengers, BiFunction<Driver, Passenger, Boolean> candidateMethod) {
+        HashMap<Integer, Set<Integer>> legs = new HashMap<>();
+        HashMap<Integer, Location> sourceLocations = new HashMap<>();
+        HashMap<Integer, Location> targetLocations = new HashMap<>();
+        int driverIndex;
         int passengerIndex;
-        long driverDeparture;
-        long arrivedTime;
-        long accDuration;
-        
-        for (int i = 0; i < size; i++) {
-            passengerIndex = tripIDtoTravelDistanceIndex.get(originOrDest.get(i).getP1().getID());
-            if (originOrDest.get(i).getP2())  // destination of passenger at index j
-                travelDistanceIndex[i] = passengerIndex+passengerSize;
-            else                     // origin of passenger at index j
-                travelDistanceIndex[i] = passengerIndex;
-        }
-            
-        travelDuration[0] = (long) (travelDistance[driverIndex][tripIDtoTravelDistanceIndex.get(originOrDest.get(0).getP1().getID())] / 
-                                        Speed[currentHourIndex][driver.getStartRegion()][originOrDest.get(0).getP1().getStartRegion()]);
-        accDuration = travelDuration[0];
-        
-        driverDeparture = Math.max(driver.getDepartureTime(), originOrDest.get(0).getP1().getDepartureTime() - travelDuration[0]);   
-        arrivedTime = driverDeparture + travelDuration[0];
-        hourIndex[0] = Math.min((int)(arrivedTime / 3600.0), 23) - SimulationParameters.startHour;
-        int j;
-        for (j = 0; j < size-1; j++) {
-            if (travelDistance[travelDistanceIndex[j]][travelDistanceIndex[j+1]] == 0)
-                travelDistance[travelDistanceIndex[j]][travelDistanceIndex[j+1]] = 
-                                    (long) (ho.getDistanceBetweenTwoLocs(getPassengerODLocations(originOrDest.get(j)), getPassengerODLocations(originOrDest.get(j+1))));
-            travelDuration[j+1] = (long) (travelDistance[travelDistanceIndex[j]][travelDistanceIndex[j+1]] /
-                        Speed[hourIndex[j]][getPassengerRegionIndex(originOrDest.get(j))][getPassengerRegionIndex(originOrDest.get(j+1))]); // from l_j to l_{j+1}
-            accDuration = accDuration + travelDuration[j+1];
-            arrivedTime = driverDeparture + accDuration;     // time arrived at l_{j+1}
-            
-            if (!originOrDest.get(j+1).getP2()) {   // if this the origin of passenger at index j+1
-                // Due to earliest departure times for all drivers and passengers are in the same interval, they all have the same travel speed in the beginning.
-                //driverDeparture = Math.max(driver.getDepartureTime(), pathToBeTested.get(j+1).getP1().getDepartureTime() - accDuration);
-                if (originOrDest.get(j+1).getP1().getDepartureTime() > arrivedTime) {   // there is waiting time if firstDepartureTime is used
-                    //System.out.println("There is waiting time at Passegner origin: " + pathToBeTested.get(j+1).getP1().getID());
-                    driverDeparture =  originOrDest.get(j+1).getP1().getDepartureTime() - accDuration;
-                    arrivedTime = originOrDest.get(j+1).getP1().getDepartureTime(); // the actual time left at l_{j+1}
-                    /* total duration is not changed if driverDeparture time is set to the latest (the exact time arrived at Passenger's origin) since travel time not changed */
-                    //accDuration = accDuration + (pathToBeTested.get(j+1).getP1().getDepartureTime() - arrivedTime);   // the total duration is increased
-                }
+        for (Driver driver : drivers) {
+            driverIndex = tripIDtoTravelDistanceIndex.get(driver.getID());
+            for (Passenger passenger : candidatePassengers(driver)) {
+                if (!candidateMethod.apply(driver, passenger))
+                    continue;
+                passengerIndex = tripIDtoTravelDistanceIndex.get(passenger.getID());
+                legs.computeIfAbsent(driverIndex, k -> new HashSet<>()).add(passengerIndex);
+                legs.computeIfAbsent(passengerIndex+passengerSize, k -> new HashSet<>()).add(driverIndex);
+                sourceLocations.putIfAbsent(driverIndex, new Location(driver.getStartLongitude(), driver.getStartLatitude()));
+                sourceLocations.putIfAbsent(passengerIndex+passengerSize, new Location(passenger.getEndLongitude(), passenger.getEndLatitude()));
+                targetLocations.putIfAbsent(passengerIndex, new Location(passenger.getStartLongitude(), passenger.getStartLatitude()));
+                targetLocations.putIfAbsent(driverIndex, new Location(driver.getEndLongitude(), driver.getEndLatitude()));
             }
-            hourIndex[j+1] = Math.min((int)(arrivedTime / 3600.0), 23) - SimulationParameters.startHour;
+        }
+        return fillLegsFromTable(legs, sourceLocations, targetLocations);
+    }
+    
+    /*
+     * Legs between the stops of every two passengers that can share a vehicle: the edges of the shareability graph, which joins only
+     * passengers of the same driver. A group with two passengers not adjacent is infeasible, so the other legs are never evaluated.
+     * Without lower bounds of the travel durations the pairs cannot be screened, and the legs are routed when they are evaluated.
+     */
+    private long fillGroupLegsFromTable(List<Driver> drivers) {
+        ShareabilityGraph graph = shareability;
+        if (graph == null) {
+            if (MaxSpeed <= 0)
+                return 0;
+            graph = new ShareabilityGraph(this, drivers);
+        }
+        int[][] neighbors = new int[passengerSize][];
+        int[] position = new int[passengerSize];      // of the origin of the passenger among the locations, its destination next
+        int count = 0;
+        for (int a = 0; a < passengerSize; a++) {
+            neighbors[a] = graph.neighbors(a);
+            position[a] = neighbors[a].length > 0 ? 2*count++ : -1;
+        }
+        int[] locationIndices = new int[2*count];
+        List<Location> locations = new ArrayList<>(2*count);
+        for (int a = 0; a < passengerSize; a++) {
+            if (position[a] < 0)
+                continue;
+            Passenger passenger = graph.passenger(a);
+            locationIndices[position[a]] = a + driverSize;
+            locationIndices[position[a]+1] = a + driverSize + passengerSize;
+            locations.add(new Location(passenger.getStartLongitude(), passenger.getStartLatitude()));
+            locations.add(new Location(passenger.getEndLongitude(), passenger.getEndLatitude()));
         }
         
-        /* Due to earliest departure times for all drivers and passengers are in the same interval, they all have the same travel speed in the beginning.
-       // the following binary search is not needed.
-        // there are some room to adjust the departure time of the driver
-        // find one such that there is no waiting time for every one
-        long bestDeparture = originalDeparture;
-        if (latestDepartureTime > firstDepartureTime) {
-            long dt;
-            while (firstDepartureTime <= latestDepartureTime) {
-                dt = (firstDepartureTime + latestDepartureTime) / 2;
-                if (isDepartureForDriverValid(pathToBeTested, dt, travelDuration, travelDistanceIndex)) {
-                    bestDeparture = dt;
-                    latestDepartureTime = dt - 1;
-                } else {
-                    firstDepartureTime = dt + 1;
-                }
-            }
-            
-            // calculate travel duration using the updated driverDeparture
-            if (bestDeparture > originalDeparture) {
-                arrivedTime = bestDeparture + travelDuration[0];
-                accDuration = travelDuration[0];
-                hourIndex[0] = Math.min((int)(arrivedTime / 3600.0) - startHour, 23);
-                 for (j = 0; j < size-1; j++) {
-                    travelDuration[j+1] = (long) (travelDistance[travelDistanceIndex[j]][travelDistanceIndex[j+1]] /
-                                Speed[hourIndex[j]][getPassengerRegionIndex(pathToBeTested.get(j))][getPassengerRegionIndex(pathToBeTested.get(j+1))]); // from l_j to l_{j+1}
-                    accDuration = accDuration + travelDuration[j+1];
-                    arrivedTime = firstDepartureTime + accDuration;     // time arrived at l_{j+1}
-                    if (!pathToBeTested.get(j+1).getP2()) {   // if this the origin of passenger at index j+1
-                        if (pathToBeTested.get(j+1).getP1().getDepartureTime() > arrivedTime) {
-                            arrivedTime = pathToBeTested.get(j+1).getP1().getDepartureTime();  // the actual time left at l_{j+1}
-                            System.out.println("Should not reach here. Driver id: "+ driver.getID());
-                            System.out.println("Passenger: "+ pathToBeTested.get(j+1).getP1().toStringAll());
-                        }
-                    }
-                    hourIndex[j+1] = Math.min((int)(arrivedTime / 3600.0) - startHour, 23);
+        int[][] requestedTargets = new int[2*count][];
+        int[] to = new int[0];
+        int n;
+        for (int a = 0; a < passengerSize; a++) {
+            if (position[a] < 0)
+                continue;
+            if (to.length < 2*neighbors[a].length)
+                to = new int[2*neighbors[a].length];
+            for (int from = position[a]; from <= position[a]+1; from++) {
+                n = 0;
+                for (int b : neighbors[a]) {
+                    if (!travelDistance.contains(locationIndices[from], locationIndices[position[b]]))
+                        to[n++] = position[b];
+                    if (!travelDistance.contains(locationIndices[from], locationIndices[position[b]+1]))
+                        to[n++] = position[b]+1;
                 }
+                requestedTargets[from] = Arrays.copyOf(to, n);
             }
-            System.out.println("Found better depature than original ("+originalDeparture+") for driver: " + bestDeparture);
-        }*/
-        
-        long driverDur = accDuration + (long) (travelDistance[travelDistanceIndex[j]][driverIndex] /
-                                Speed[hourIndex[j]][getPassengerRegionIndex(originOrDest.get(j))][driver.getEndRegion()]);
-
-        if (driverDur > driver.getMaxTravelDuration() || driverDeparture + driverDur > driver.getArrivalTime()) {
-            return false;
-        }
-        // driver is okay, now check each passenger
-        HashMap<Passenger,Integer> passengerStartIndex = new HashMap<>();
-        HashMap<Passenger,Integer> passengerEndIndex  = new HashMap<>();
-        for (int i = 0; i < originOrDest.size(); i++) {
-            if (originOrDest.get(i).getP2())
-                passengerEndIndex.put(originOrDest.get(i).getP1(), i+1);
-            else
-                passengerStartIndex.put(originOrDest.get(i).getP1(), i+1);
         }
-        long passengerDur;
-        for (Passenger p : passengers) {
-            passengerDur = 0L;
-            for (int i = passengerStartIndex.get(p); i < passengerEndIndex.get(p); i++)
-                passengerDur = passengerDur + travelDuration[i];
-            if (passengerDur > p.getMaxTravelDuration())
-                return false;
-            passengerDur = passengerDur + driverDeparture;
-            for (int i = 0; i < passengerStartIndex.get(p); i++)
-                passengerDur = passengerDur + travelDuration[i];
-            if (passengerDur > p.getArrivalTime())
-                return false;
+        return fillLegsFromTable(locationIndices, locations, locationIndices, locations, requestedTargets);
+    }
+    
+    // computes the requested legs (keyed by travelDistance index) that are not stored yet in one many-to-many search
+    private long fillLegsFromTable(HashMap<Integer, Set<Integer>> legs, HashMap<Integer, Location> sourceLocations, HashMap<Integer, Location> targetLocations) {
+        int[] sourceIndices = new int[legs.size()];
+        List<Location> sources = new ArrayList<>(legs.size());
+        int[] targetIndices = new int[targetLocations.size()];
+        List<Location> targets = new ArrayList<>(targetLocations.size());
+        HashMap<Integer, Integer> targetPosition = new HashMap<>(targetLocations.size());
+        for (Map.Entry<Integer, Location> entry : targetLocations.entrySet()) {
+            targetPosition.put(entry.getKey(), targets.size());
+            targetIndices[targets.size()] = entry.getKey();
+            targets.add(entry.getValue());
         }
         
-        //
-        if (driverDur < currentBestDist) {
-            List<Pair<Passenger, Boolean>> originOrDestCopy = new ArrayList<>(originOrDest.size());
-            for (Pair pair : originOrDest)
-                originOrDestCopy.add(new Pair(pair.getP1(), pair.getP2()));
-
-            currentBestDist = driverDur;
-            bestSFP = new SFP(passengers, originOrDestCopy, travelDistanceIndex, hourIndex, driverDeparture);
-        }
-        return true;
+        int[][] requestedTargets = new int[legs.size()][];
+        for (Map.Entry<Integer, Set<Integer>> entry : legs.entrySet()) {
+            int from = entry.getKey();
+            requestedTargets[sources.size()] = entry.getValue().stream().filter(to -> !travelDistance.contains(from, to))
+                                                    .mapToInt(targetPosition::get).toArray();
+            sourceIndices[sources.size()] = from;
+            sources.add(sourceLocations.get(from));
+        }
+        return fillLegsFromTable(sourceIndices, sources, targetIndices, targets, requestedTargets);
+    }
+    
+    // computes the legs from each source to its requested targets (positions in targets), by travelDistance index, in one many-to-many search
+    private long fillLegsFromTable(int[] sourceIndices, List<Location> sources, int[] targetIndices, List<Location> targets, int[][] requestedTargets) {
+        if (distanceTable == null)
+            distanceTable = ho.createDistanceTable();
+        if (distanceTable == null)
+            return 0;
+        
+        long start = System.currentTimeMillis();
+        int numRequested = 0;
+        for (int[] requested : requestedTargets)
+            numRequested = numRequested + requested.length;
+        int found = distanceTable.compute(sources, targets, requestedTargets, 
+                        (i, j, distance) -> travelDistance.put(sourceIndices[i], targetIndices[j], (long) distance));
+        long duration = System.currentTimeMillis() - start;
+        System.out.format("Distance table: %d of %d legs filled from %d sources and %d targets. It took %d milliseconds.%n", 
+                            found, numRequested, sources.size(), targets.size(), duration);
+        return duration;
+    }
+    
+    public void displayDistanceCacheStatistics() {
+        System.out.format("Distance cache: %d legs stored, hits = %d, misses (routed) = %d, duplicates suppressed = %d%n", 
+                            travelDistance.size(), travelDistance.getHits(), travelDistance.getMisses(), travelDistance.getDuplicatesSuppressed());
+        System.out.println("Routes rejected by lower bounds before routing: " + routesPrunedByLowerBounds.sum());
+        if (SimulationParameters.profitBoundPruning)
+            System.out.println("Groups dropped by the profit bound (with all groups containing them): " + groupsPrunedByProfitBound.sum());
+        if (groupOrders.getHits() + groupOrders.getMisses() > 0)
+            System.out.format("Group order memo: %d groups kept, hits = %d, misses = %d, lookups of infeasible groups = %d%n",
+                                groupOrders.size(), groupOrders.getHits(), groupOrders.getMisses(), groupOrders.getInfeasibleHits());
+        ho.displaySnapCacheStatistics();
+        ho.displayLegCacheStatistics();
+    }
+    
+    // lower bound (in meters) of the travel distance of a leg not computed yet
+    public long legDistanceLowerBound(Pair<Passenger, Boolean> from, Pair<Passenger, Boolean> to, boolean estimate) {
+        Location fromLocation = getPassengerODLocations(from);
+        Location toLocation = getPassengerODLocations(to);
+        double bound = distance(fromLocation.getLatitude(), fromLocation.getLongitude(), toLocation.getLatitude(), toLocation.getLongitude()) * 1000 * 0.999 - 1;
+        if (!estimate)
+            bound = bound - ho.getSnapDistance(from.getP1(), from.getP2()) - ho.getSnapDistance(to.getP1(), to.getP2());
+        return Math.max(0L, (long) bound);
+    }
+    
+    public boolean computeFeasiblePath(Driver driver, Set<Passenger> passengers, List<Pair<Passenger, Boolean>> originOrDest) {
+        return feasibilityKernel.computeFeasiblePath(driver, passengers, originOrDest);
     }
     
     public boolean isDepartureForDriverValid(List<Pair<Passenger, Boolean>> originOrDest, long dt, long[] travelDuration, int[] travelDistanceIndex) {
@@ -339,7 +442,7 @@ public class Algorithms {
         long accDuration = travelDuration[0];
         for (int j = 0; j < originOrDest.size()-1; j++) {
             hourIndexTemp = Math.min((int)(arrivedTime / 3600.0), 23) - SimulationParameters.startHour;
-            travelDuration[j+1] = (long) (travelDistance[travelDistanceIndex[j]][travelDistanceIndex[j+1]] /
+            travelDuration[j+1] = (long) (travelDistance.get(travelDistanceIndex[j], travelDistanceIndex[j+1]) /
                         Speed[hourIndexTemp][getPassengerRegionIndex(originOrDest.get(j))][getPassengerRegionIndex(originOrDest.get(j+1))]); // from l_j to l_{j+1}
             accDuration = accDuration + travelDuration[j+1];
             arrivedTime = dt + accDuration;
@@ -353,12 +456,47 @@ public class Algorithms {
         return true;
     }
     
+    // route of the group (parent plus passenger) by the method chosen with SimulationParameters.routeConstruction
+    public Match constructMatch(Driver driver, Set<Passenger> passengers, Match parent, Passenger passenger) {
+        GroupOrderMemo.GroupOrders orders = groupOrders.get(passengers);
+        if (orders != null && !orders.isFeasible())
+            return null;        // no order of the stops of the group is feasible, whatever the driver
+        SFP sfp;
+        if (SimulationParameters.routeConstruction == 1)
+            sfp = new RouteSearch(this, driver).insert(parent, passenger, passengers);
+        else if (SimulationParameters.routeConstruction == 2)
+            sfp = new RouteSearch(this, driver).exact(passengers);
+        else if (orders != null && orders.hasOrders())
+            return constructMatch(driver, passengers, orders);
+        else
+            return constructMatch(driver, passengers);
+        if (sfp == null)
+            return null;
+        return newMatch(driver, matchID, sfp);
+    }
+    
+    // tests only the orders of the stops kept for the group by the memo, each with the driver's own first and last legs;
+    // routes of equal duration are ranked in Heap's order, so the route is the one of the permutation search
+    private Match constructMatch(Driver driver, Set<Passenger> passengers, GroupOrderMemo.GroupOrders orders) {
+        List<Pair<Passenger, Boolean>> originOrDest = new ArrayList<>(passengers.size()*2);
+        int[] slot = orders.groupSlots(passengers);
+        int[] stop = new int[passengers.size()*2];
+        feasibilityKernel.reset();
+        for (int k = 0; k < orders.orderCount(); k++) {
+            orders.route(k, originOrDest, slot, stop);
+            feasibilityKernel.computeFeasiblePath(driver, passengers, originOrDest, stop);
+        }
+        SFP sfp = feasibilityKernel.best();
+        if (sfp == null)
+            return null;
+        return newMatch(driver, matchID, sfp);
+    }
+    
     public Match constructMatch(Driver driver, Set<Passenger> passengers) {
         List<Pair<Passenger, Boolean>> originOrDest = new ArrayList<>(passengers.size()*2); // <(Passenger), (false = origin, true = destination)>
         int[] indexes = new int[passengers.size()*2];
         Pair<Passenger, Boolean> temp;
-        bestSFP = null;
-        currentBestDist = Long.MAX_VALUE;
+        feasibilityKernel.reset();
         
         //int numValidRoutes = 1;
         //int count = 1;
@@ -404,9 +542,10 @@ public class Algorithms {
         }
         
         //System.out.println("Number of permutations: " + count +". Number of valid routes tested: " + numValidRoutes);
-        if (bestSFP == null)
+        SFP sfp = feasibilityKernel.best();
+        if (sfp == null)
             return null;
-        return new Match(matchID, bestSFP);
+        return newMatch(driver, matchID, sfp);
     }
     
     public SFP compareTwoSFP(Driver driver, SFP currentBest, SFP newSFP) {
@@ -421,18 +560,18 @@ public class Algorithms {
         int i;
         if (currentBestDist == Long.MAX_VALUE) {
             dist = currentBest.travelDistanceIndex;
-            currentBestDist = travelDistance[driverIndex][dist[0]];
+            currentBestDist = travelDistance.get(driverIndex, dist[0]);
             for (i = 0; i < dist.length-1; i++)
-                currentBestDist = currentBestDist + travelDistance[dist[i]][dist[i+1]];
-            currentBestDist = currentBestDist + travelDistance[dist[i]][driverIndex];
+                currentBestDist = currentBestDist + travelDistance.get(dist[i], dist[i+1]);
+            currentBestDist = currentBestDist + travelDistance.get(dist[i], driverIndex);
         }
         
         long newSFPDist;
         dist = newSFP.travelDistanceIndex;
-        newSFPDist = travelDistance[driverIndex][dist[0]];
+        newSFPDist = travelDistance.get(driverIndex, dist[0]);
         for (i = 0; i < dist.length-1; i++)
-            newSFPDist = newSFPDist + travelDistance[dist[i]][dist[i+1]];
-        newSFPDist = newSFPDist + travelDistance[dist[i]][driverIndex];
+            newSFPDist = newSFPDist + travelDistance.get(dist[i], dist[i+1]);
+        newSFPDist = newSFPDist + travelDistance.get(dist[i], driverIndex);
         
         if (newSFPDist > currentBestDist) {
             currentBestDist = newSFPDist;
@@ -460,11 +599,17 @@ public class Algorithms {
     }
     
     public long computeAllMatchesDP(List<Driver> drivers, List<Passenger> passengers, boolean estimate) {
-        long computeDuration;
+        long computeDuration = buildShareabilityGraph(drivers);
         matchID = 0;
+        matchSink = newMatchSink();
+        enumerating = true;
+        if (SimulationParameters.useDistanceTable && SimulationParameters.computeDistanceMethod == 0)
+            computeDuration = computeDuration + fillGroupLegsFromTable(drivers);
         if (SimulationParameters.useMultiThread) {
-            computeDuration = computeAllMatchesDPThreads(drivers, estimate);
+            computeDuration = computeDuration + computeAllMatchesDPThreads(drivers, estimate);
             startTime = System.currentTimeMillis();
+            enumerating = false;
+            matchSink.finish(drivers);
             setMatchIDs(drivers);
             endTime = System.currentTimeMillis();
             computeDuration = computeDuration + endTime - startTime;
@@ -472,39 +617,50 @@ public class Algorithms {
             System.out.println("computeAllMatchesDP() is called with drivers = " + (drivers.size()) + " and passengers = " + (passengers.size()));
             startTime = System.currentTimeMillis();
             List<Passenger> passengerList;
-            Set<Passenger> currentMatchPassengers;
-            Set<Passenger> extendMatchPassengers;
+            List<long[]> matchPassengers;     // passengers of each match of the driver, as bits over passengerList
+            long[] currentMatchPassengers;
+            long[] extendMatchPassengers;
+            long[] candidates;                 // passengers adjacent to every passenger of the current match
+            long[][] adjacency;                // of the passengers of the driver, null without the shareability graph
+            ProfitBound profitBound;           // null unless groups are dropped by their profit bound
+            int words;
+            PassengerGroupIndex groupIndex;        // match index of each group of the driver
             HashMap<Integer, List<FeasiblePath>> feasiblePathsForMatchAtIndex;
-            List<Integer> skipIndices;
             int counter;
             int capLimit;
             int endIndex;
             int startIndex;
             boolean observation = false;
             Pair<Match, List<FeasiblePath>> matchAndPaths;
-            Set<Passenger> temp;
             FeasiblePath feasiblePath;
 
             for (Driver driver : drivers) {
                 //System.out.println("Processing Drvier "+ driver.getID() + " with capacity and stop = " + driver.getCapacity() + " : " + driver.getMaxNStop());
                 counter = driver.getMatches().size();
-                if (counter == 0 || driver.getCapacity() < 2) // process next driver
-                    continue;
-                else if (counter >= SimulationParameters.maxNumMatchesPerDriver)
+                if (counter == 0 || driver.getCapacity() < 2 || counter >= SimulationParameters.maxNumMatchesPerDriver) { // process next driver
+                    matchSink.accept(driver);
                     continue;
+                }
 
                 passengerList = new ArrayList<>(counter);
-                skipIndices=  new ArrayList<>(counter*2);
+                matchPassengers = new ArrayList<>(counter*2);
+                words = PassengerBits.words(counter);
+                groupIndex = new PassengerGroupIndex(words, counter*2);
                 feasiblePathsForMatchAtIndex = new HashMap<>(counter);
                 for (int i = 0; i < counter; i++) {	 // every match consists of 1 passenger at this point
-                    passengerList.addAll(driver.getMatches().get(i).sfp.passengers);
+                    passengerList.addAll(driver.getMatches().get(i).passengers());
                     feasiblePathsForMatchAtIndex.put(i, new ArrayList<>(1));
                     feasiblePath = new FeasiblePath();
                     feasiblePath.addLocation(new Pair(passengerList.get(i),false));
                     feasiblePath.addLocation(new Pair(passengerList.get(i),true));
                     feasiblePathsForMatchAtIndex.get(i).add(feasiblePath);
-                    skipIndices.add(i);
+                    matchPassengers.add(PassengerBits.of(words, i));
+                    groupIndex.add(matchPassengers.get(i), i);
                 }
+                extendMatchPassengers = new long[words];
+                candidates = new long[words];
+                adjacency = shareability == null ? null : shareability.localAdjacency(passengerList, words);
+                profitBound = profitBound(driver, passengerList);
 
                 capLimit = 2;
                 startIndex = 0;
@@ -513,38 +669,35 @@ public class Algorithms {
                 while (driver.getCapacity() >= capLimit) {
                     endIndex = driver.getMatches().size();
                     for (int i = startIndex; i < endIndex; i++) {	// grow each match, based on the previous computed/stored feasible paths
-                        currentMatchPassengers = driver.getMatches().get(i).sfp.passengers;
-                        for (int index = 0; index < passengerList.size(); index++) {        // grow each match with a passenger
-                            if (index <= skipIndices.get(i))
-                                continue;
-
-                            extendMatchPassengers = new HashSet<>(currentMatchPassengers);
-                            extendMatchPassengers.add(passengerList.get(index));
+                        currentMatchPassengers = matchPassengers.get(i);
+                        PassengerBits.adjacentToAll(currentMatchPassengers, adjacency, candidates);
+                        for (int index = PassengerBits.next(candidates, PassengerBits.last(currentMatchPassengers)+1); index >= 0 && index < passengerList.size(); index = PassengerBits.next(candidates, index+1)) {        // grow each match with a later passenger adjacent to all of its passengers
+                            // try to expand the current sigma set by including the new passenger
+                            System.arraycopy(currentMatchPassengers, 0, extendMatchPassengers, 0, words);
+                            PassengerBits.set(extendMatchPassengers, index);
 
-                            temp = new HashSet<>(extendMatchPassengers);
-                            for (Passenger p: currentMatchPassengers) { // check (currentSet \setminus pID \cup passenger), and it must be true to be considered 
-                                observation = false;
-                                temp.remove(p);
-                                for (int j = startIndex; j < endIndex; j++) {
-                                    if (temp.equals(driver.getMatches().get(j).sfp.passengers)) {
-                                        observation = true;
-                                        break;
-                                    }
-                                }
+                            // check (currentSet \setminus pID \cup passenger), and it must be true to be considered
+                            for (int p = PassengerBits.next(currentMatchPassengers, 0); p >= 0; p = PassengerBits.next(currentMatchPassengers, p+1)) {
+                                PassengerBits.flip(extendMatchPassengers, p);
+                                observation = groupIndex.indexOf(extendMatchPassengers) >= 0;
+                                PassengerBits.flip(extendMatchPassengers, p);
                                 if (!observation)
                                     break;
-                                temp.add(p);
                             }
                             if (!observation)		// observation does not hold for this passenger
                                 continue;		// skips this passenger
+                            if (profitBound != null && !profitBound.canBeNonNegative(extendMatchPassengers))
+                                continue;       // neither this group nor any group containing it can have a non-negative profit
 
                             if (feasiblePathsForMatchAtIndex.get(i) == null) {
                                 System.out.println("Match at index (" +i+ ")");
                             }
                             // check if the extendMatchPassengers has a feasible shortest path                        
-                            matchAndPaths = constructMatchDP(driver, extendMatchPassengers, passengerList.get(index), feasiblePathsForMatchAtIndex.get(i));
+                            matchAndPaths = constructMatchDP(driver, PassengerBits.toSet(extendMatchPassengers, passengerList), passengerList.get(index), feasiblePathsForMatchAtIndex.get(i));
                             if (matchAndPaths != null) {
                                 driver.addMatch(matchAndPaths.getP1());
+                                matchPassengers.add(extendMatchPassengers.clone());
+                                groupIndex.add(extendMatchPassengers, driver.getMatches().size()-1);
                                 calculateProfit(matchAndPaths.getP1(), driver);
                                 matchID++;
                                 if (driver.getMatches().size() % 5000 == 0)
@@ -553,7 +706,6 @@ public class Algorithms {
                                     driver.addIndexLevel(driver.getMatches().size());
                                     break outerWhile;
                                 }
-                                skipIndices.add(index);
                                 feasiblePathsForMatchAtIndex.put(driver.getMatches().size()-1, matchAndPaths.getP2());
                             }
                         }
@@ -566,9 +718,16 @@ public class Algorithms {
                     startIndex = endIndex;
                     capLimit++;
                 }
+                matchSink.accept(driver);
+            }
+            enumerating = false;
+            matchSink.finish(drivers);
+            if (!matchSink.keepsMatches()) {
+                matchID = 0;
+                setMatchIDs(drivers);
             }
             endTime = System.currentTimeMillis();
-            computeDuration = endTime- startTime;
+            computeDuration = computeDuration + endTime - startTime;
             System.out.println("computeAllMatchesDP completed. It took " + (computeDuration/1000) + " seconds.");
         }
         return computeDuration;
@@ -576,37 +735,33 @@ public class Algorithms {
     
     private long computeAllMatchesDPThreads(List<Driver> drivers, boolean estimate) {
         System.out.println("computeAllMatchesDPThreads() is called with drivers = " + (driverSize) + " and passengers = " + (passengerSize) + " and estimation: " + estimate);
+        travelDistance.resetStatistics();
+        routesPrunedByLowerBounds.reset();
         startTime = System.currentTimeMillis();
 
-        executor = Executors.newFixedThreadPool(SimulationParameters.nThreads);
-        if (estimate) {
-            for (Driver driver: drivers)
-                executor.execute( new DriverConsumerDPEstimate(this, driver) );
-        } else {
-            for (Driver driver: drivers)
-                executor.execute( new DriverConsumerDP(this, driver) );
-        }
-
-        executor.shutdown();
-        try {
-            executor.awaitTermination(360000, TimeUnit.SECONDS);
-        } catch (InterruptedException e) {
-            System.out.println(e.toString());
+        DriverScheduler scheduler = new DriverScheduler(SimulationParameters.nThreads);
+        boolean completed;
+        if (estimate)
+            completed = scheduler.run(drivers, driver -> thenAccept(driver, new DriverConsumerDPEstimate(this, driver)));
+        else
+            completed = scheduler.run(drivers, driver -> thenAccept(driver, new DriverConsumerDP(this, driver)));
+        if (!completed)
             return 360000;
-        }
 
         endTime = System.currentTimeMillis();
         System.out.println("computeAllMatchesDPThreads completed. It took " + ((endTime-startTime)/1000) + " seconds.");
+        displayDistanceCacheStatistics();
         return endTime - startTime;
     }
     
     public Pair<Match, List<FeasiblePath>> constructMatchDP(Driver driver, Set<Passenger> passengers, Passenger passenger, List<FeasiblePath> feasiblePaths) {
+        GroupOrderMemo.GroupOrders orders = groupOrders.get(passengers);
+        if (orders != null && !orders.isFeasible())
+            return null;        // no order of the stops of the group is feasible, whatever the driver
         int size = feasiblePaths.get(0).originOrDest.size() + 2;
         List<Pair<Passenger, Boolean>> pathToBeTested = new ArrayList<>(size); // <(Passenger), (false = origin, true = destination)>
         List<FeasiblePath> newFeasiblePaths = new ArrayList<>();
-        FeasiblePath feasiblePath;
-        bestSFP = null;
-        currentBestDist = Long.MAX_VALUE;
+        feasibilityKernel.reset();
         //int count = 1;
         int startIndex;
         int endIndex;
@@ -632,10 +787,7 @@ public class Algorithms {
                         pathToBeTested.set(i, fp.originOrDest.get(i-2));
 
                     if (computeFeasiblePath(driver, passengers, pathToBeTested)) {
-                        feasiblePath = new FeasiblePath(size);
-                        for (Pair pair : pathToBeTested)
-                            feasiblePath.addLocation(new Pair(pair.getP1(), pair.getP2()));
-                        newFeasiblePaths.add(feasiblePath);
+                        newFeasiblePaths.add(new FeasiblePath(new ArrayList<>(pathToBeTested)));   // the stops are shared, they are never changed
                     }
                 }
                 startIndex++;
@@ -643,17 +795,22 @@ public class Algorithms {
         }
         
         //System.out.println("Number of permutations: " + count +". Number of valid routes tested: " + numValidRoutes);
-        if (bestSFP == null)
+        SFP sfp = feasibilityKernel.best();
+        if (sfp == null)
             return null;
-        return new Pair(new Match(matchID, bestSFP), newFeasiblePaths);
+        return new Pair(newMatch(driver, matchID, sfp), newFeasiblePaths);
     }
     
 	// this is for testing Manhattan distance only
     public long constructBaseMatchesMD(List<Driver> drivers, List<Passenger> passengers, BiFunction<Driver, Passenger, Boolean> candidateMethod) {
         long computeDuration;
         matchID = 0;
-        if (SimulationParameters.useMultiThread) {
+        if (SimulationParameters.useMultiThread)
             computeDuration = constructBaseMatchesMDPreprocessingThreads(passengers);
+        else
+            computeDuration = constructBaseMatchesMDPreprocessing(passengers);
+        computeDuration = computeDuration + buildCandidateIndexes(passengers);
+        if (SimulationParameters.useMultiThread) {
             computeDuration = computeDuration + constructBaseMatchesMDThreads(drivers, passengers, candidateMethod);
             startTime = System.currentTimeMillis();
             setPassengerInNumMatches(drivers);
@@ -661,7 +818,6 @@ public class Algorithms {
             endTime = System.currentTimeMillis();
             computeDuration = computeDuration + endTime - startTime;
         } else {
-            computeDuration = constructBaseMatchesMDPreprocessing(passengers);
             System.out.println("constructBaseMatches()......");
             int driverIndex ;
             int passengerIndex;
@@ -677,7 +833,7 @@ public class Algorithms {
             startTime = System.currentTimeMillis();
             for (Driver driver : drivers) {
                 driverIndex = tripIDtoTravelDistanceIndex.get(driver.getID());
-                for (Passenger passenger : passengers) {
+                for (Passenger passenger : candidatePassengers(driver)) {
                     // check driver and passenger are within some radius
                     if (candidateMethod.apply(driver, passenger)) {
                         passengersInMatch = new HashSet<>(1);
@@ -687,9 +843,9 @@ public class Algorithms {
                         passengerIndex = tripIDtoTravelDistanceIndex.get(passenger.getID());
                         
                         // from driver's origin to passenger's origin
-                        travelDistance[driverIndex][passengerIndex] = (long)(ManhattanDistance(driver.getStartLatitude(), driver.getStartLongitude(),
-                                                                                        passenger.getStartLatitude(), passenger.getStartLongitude()));
-                        duration = (long) (travelDistance[driverIndex][passengerIndex] / Speed[currentHourIndex][driver.getStartRegion()][passenger.getStartRegion()]);
+                        travelDistance.put(driverIndex, passengerIndex, (long)(ManhattanDistance(driver.getStartLatitude(), driver.getStartLongitude(),
+                                                                                        passenger.getStartLatitude(), passenger.getStartLongitude())));
+                        duration = (long) (travelDistance.get(driverIndex, passengerIndex) / Speed[currentHourIndex][driver.getStartRegion()][passenger.getStartRegion()]);
                         durationDriver = duration;
                         
                         // time arrived at passenger's origin
@@ -700,7 +856,7 @@ public class Algorithms {
                         travelDistanceIndex[0] = passengerIndex;
                         
                         // from passenger's origin to passenger's destination
-                        duration = (long) (travelDistance[passengerIndex][passengerIndex+passengerSize] / Speed[hourIndex[0]][passenger.getStartRegion()][passenger.getEndRegion()]);
+                        duration = (long) (travelDistance.get(passengerIndex, passengerIndex+passengerSize) / Speed[hourIndex[0]][passenger.getStartRegion()][passenger.getEndRegion()]);
                         arrivedTime = arrivedTime + duration;
                         
                         // see if passenger is okay, second condition is unnecessary
@@ -708,9 +864,9 @@ public class Algorithms {
                             hourIndex[1] = Math.min((int)(arrivedTime / 3600.0), 23) - SimulationParameters.startHour;
                             durationDriver = durationDriver + duration;     // duration from driver's origin to passenger's destination
                             // from passenger's destination to driver's destination
-                            travelDistance[passengerIndex+passengerSize][driverIndex] = (long)(ManhattanDistance(passenger.getEndLatitude(), driver.getEndLongitude(),
-                                                                                                driver.getEndLatitude(), driver.getEndLongitude()));
-                            duration = (long) (travelDistance[passengerIndex+passengerSize][driverIndex] / Speed[hourIndex[1]][passenger.getEndRegion()][driver.getEndRegion()]);
+                            travelDistance.put(passengerIndex+passengerSize, driverIndex, (long)(ManhattanDistance(passenger.getEndLatitude(), driver.getEndLongitude(),
+                                                                                                driver.getEndLatitude(), driver.getEndLongitude())));
+                            duration = (long) (travelDistance.get(passengerIndex+passengerSize, driverIndex) / Speed[hourIndex[1]][passenger.getEndRegion()][driver.getEndRegion()]);
                             durationDriver = durationDriver + duration;
                             // see if driver is okay
                             if (arrivedTime + duration <= driver.getArrivalTime() && durationDriver <= driver.getMaxTravelDuration()) {
@@ -718,7 +874,7 @@ public class Algorithms {
                                 originOrDest.add(new Pair<>(passenger, Boolean.TRUE));
                                 travelDistanceIndex[1] = passengerIndex+passengerSize;
                                 sfp = new SFP(passengersInMatch, originOrDest, travelDistanceIndex, hourIndex, driverDeparture);
-                                driver.addMatch(new Match(matchID, sfp));
+                                driver.addMatch(newMatch(driver, matchID, sfp));
                                 calculateProfit(driver.getMatches().get(driver.getMatches().size()-1), driver);
                                 passenger.incrementNAssignments();
                                 matchID++;
@@ -741,8 +897,14 @@ public class Algorithms {
     public long constructBaseMatches(List<Driver> drivers, List<Passenger> passengers, BiFunction<Driver, Passenger, Boolean> candidateMethod) {
         long computeDuration;
         matchID = 0;
-        if (SimulationParameters.useMultiThread) {
+        if (SimulationParameters.useMultiThread)
             computeDuration = constructBaseMatchesPreprocessingThreads(passengers);
+        else
+            computeDuration = constructBaseMatchesPreprocessing(passengers);
+        computeDuration = computeDuration + buildCandidateIndexes(passengers);
+        if (SimulationParameters.useDistanceTable)
+            computeDuration = computeDuration + fillBaseMatchLegsFromTable(drivers, passengers, candidateMethod);
+        if (SimulationParameters.useMultiThread) {
             computeDuration = computeDuration + constructBaseMatchesThreads(drivers, passengers, candidateMethod);
             startTime = System.currentTimeMillis();
             setPassengerInNumMatches(drivers);
@@ -750,7 +912,6 @@ public class Algorithms {
             endTime = System.currentTimeMillis();
             computeDuration = computeDuration + endTime - startTime;
         } else {
-            computeDuration = constructBaseMatchesPreprocessing(passengers);
             System.out.println("constructBaseMatches()......");
             int driverIndex ;
             int passengerIndex;
@@ -766,7 +927,7 @@ public class Algorithms {
             startTime = System.currentTimeMillis();
             for (Driver driver : drivers) {
                 driverIndex = tripIDtoTravelDistanceIndex.get(driver.getID());
-                for (Passenger passenger : passengers) {
+                for (Passenger passenger : candidatePassengers(driver)) {
                     // check driver and passenger are within some radius
                     if (candidateMethod.apply(driver, passenger)) {
                     //if (testCandidate(driver, passenger)) {
@@ -777,9 +938,8 @@ public class Algorithms {
                         passengerIndex = tripIDtoTravelDistanceIndex.get(passenger.getID());
                         
                         // from driver's origin to passenger's origin
-                        travelDistance[driverIndex][passengerIndex] = (long) (ho.getDistanceBetweenTwoLocs(driver.getStartLongitude(), driver.getStartLatitude(), 
-                                                                                    passenger.getStartLongitude(), passenger.getStartLatitude()));
-                        duration = (long) (travelDistance[driverIndex][passengerIndex] / Speed[currentHourIndex][driver.getStartRegion()][passenger.getStartRegion()]);
+                        travelDistance.computeIfAbsent(driverIndex, passengerIndex, () -> (long) (ho.getDistanceBetweenTrips(driver, false, passenger, false)));
+                        duration = (long) (travelDistance.get(driverIndex, passengerIndex) / Speed[currentHourIndex][driver.getStartRegion()][passenger.getStartRegion()]);
                         durationDriver = duration;
                         
                         // time arrived at passenger's origin
@@ -790,7 +950,7 @@ public class Algorithms {
                         travelDistanceIndex[0] = passengerIndex;
                         
                         // from passenger's origin to passenger's destination
-                        duration = (long) (travelDistance[passengerIndex][passengerIndex+passengerSize] / Speed[hourIndex[0]][passenger.getStartRegion()][passenger.getEndRegion()]);
+                        duration = (long) (travelDistance.get(passengerIndex, passengerIndex+passengerSize) / Speed[hourIndex[0]][passenger.getStartRegion()][passenger.getEndRegion()]);
                         arrivedTime = arrivedTime + duration;
                         
                         // see if passenger is okay, second condition is unnecessary
@@ -798,9 +958,8 @@ public class Algorithms {
                             hourIndex[1] = Math.min((int)(arrivedTime / 3600.0), 23) - SimulationParameters.startHour;
                             durationDriver = durationDriver + duration;     // duration from driver's origin to passenger's destination
                             // from passenger's destination to driver's destination
-                            travelDistance[passengerIndex+passengerSize][driverIndex] = (long) (ho.getDistanceBetweenTwoLocs(passenger.getEndLongitude(), passenger.getEndLatitude(), 
-                                                                                                        driver.getEndLongitude(), driver.getEndLatitude()));
-                            duration = (long) (travelDistance[passengerIndex+passengerSize][driverIndex] / Speed[hourIndex[1]][passenger.getEndRegion()][driver.getEndRegion()]);
+                            travelDistance.computeIfAbsent(passengerIndex+passengerSize, driverIndex, () -> (long) (ho.getDistanceBetweenTrips(passenger, true, driver, true)));
+                            duration = (long) (travelDistance.get(passengerIndex+passengerSize, driverIndex) / Speed[hourIndex[1]][passenger.getEndRegion()][driver.getEndRegion()]);
                             durationDriver = durationDriver + duration;
                             // see if driver is okay
                             if (arrivedTime + duration <= driver.getArrivalTime() && durationDriver <= driver.getMaxTravelDuration()) {
@@ -808,7 +967,7 @@ public class Algorithms {
                                 originOrDest.add(new Pair<>(passenger, Boolean.TRUE));
                                 travelDistanceIndex[1] = passengerIndex+passengerSize;
                                 sfp = new SFP(passengersInMatch, originOrDest, travelDistanceIndex, hourIndex, driverDeparture);
-                                driver.addMatch(new Match(matchID, sfp));
+                                driver.addMatch(newMatch(driver, matchID, sfp));
                                 calculateProfit(driver.getMatches().get(driver.getMatches().size()-1), driver);
                                 passenger.incrementNAssignments();
                                 matchID++;
@@ -824,6 +983,8 @@ public class Algorithms {
         }
         System.out.println("Constructed base matches. - matchID: " + matchID + " - total sets: " + countTotalNumMatches(drivers).getP1() + 
                                         ". It took " + (computeDuration/1000) + " seconds.");
+        ho.displaySnapCacheStatistics();
+        ho.displayLegCacheStatistics();
         return computeDuration;
     }
     
@@ -845,7 +1006,7 @@ public class Algorithms {
                     List<Pair<Passenger, Boolean>> originOrDest;
                     int[] travelDistanceIndex;
                     int[] hourIndex;
-                    for (Passenger passenger : passengers) {
+                    for (Passenger passenger : candidatePassengers(driver)) {
                         if (candidateMethod.apply(driver, passenger)) {
                             passengersInMatch = new HashSet<>(1);
                             originOrDest = new ArrayList<>(2);
@@ -854,10 +1015,10 @@ public class Algorithms {
                             passengerIndex = tripIDtoTravelDistanceIndex.get(passenger.getID());
 
                             // from driver's origin to passenger's origin
-                            travelDistance[driverIndex][passengerIndex] = (long)(ManhattanDistance(driver.getStartLatitude(), driver.getStartLongitude(),
-                                                                                        passenger.getStartLatitude(), passenger.getStartLongitude()));
-                            //System.out.format("travelDistance[%d][%d] = %d%n", driverIndex, passengerIndex, travelDistance[driverIndex][passengerIndex]);
-                            duration = (long) (travelDistance[driverIndex][passengerIndex] / Speed[currentHourIndex][driver.getStartRegion()][passenger.getStartRegion()]);
+                            travelDistance.put(driverIndex, passengerIndex, (long)(ManhattanDistance(driver.getStartLatitude(), driver.getStartLongitude(),
+                                                                                        passenger.getStartLatitude(), passenger.getStartLongitude())));
+                            //System.out.format("travelDistance[%d][%d] = %d%n", driverIndex, passengerIndex, travelDistance.get(driverIndex, passengerIndex));
+                            duration = (long) (travelDistance.get(driverIndex, passengerIndex) / Speed[currentHourIndex][driver.getStartRegion()][passenger.getStartRegion()]);
                             durationDriver = duration;
 
                             // time arrived at passenger's origin
@@ -868,7 +1029,7 @@ public class Algorithms {
                             travelDistanceIndex[0] = passengerIndex;
 
                             // from passenger's origin to passenger's destination
-                            duration = (long) (travelDistance[passengerIndex][passengerIndex+passengerSize] / Speed[hourIndex[0]][passenger.getStartRegion()][passenger.getEndRegion()]);
+                            duration = (long) (travelDistance.get(passengerIndex, passengerIndex+passengerSize) / Speed[hourIndex[0]][passenger.getStartRegion()][passenger.getEndRegion()]);
                             arrivedTime = arrivedTime + duration;
 
                             // see if passenger is okay, second condition is unnecessary?
@@ -876,10 +1037,10 @@ public class Algorithms {
                                 hourIndex[1] = Math.min((int)(arrivedTime / 3600.0), 23) - SimulationParameters.startHour;
                                 durationDriver = durationDriver + duration;         // duration from driver's origin to passenger's destination
                                 // from passenger's destination to driver's destination
-                                travelDistance[passengerIndex+passengerSize][driverIndex] = (long)(ManhattanDistance(passenger.getEndLatitude(), driver.getEndLongitude(),
-                                                                                        driver.getEndLatitude(), driver.getEndLongitude()));
+                                travelDistance.put(passengerIndex+passengerSize, driverIndex, (long)(ManhattanDistance(passenger.getEndLatitude(), driver.getEndLongitude(),
+                                                                                        driver.getEndLatitude(), driver.getEndLongitude())));
 
-                                duration = (long) (travelDistance[passengerIndex+passengerSize][driverIndex] / Speed[hourIndex[1]][passenger.getEndRegion()][driver.getEndRegion()]);
+                                duration = (long) (travelDistance.get(passengerIndex+passengerSize, driverIndex) / Speed[hourIndex[1]][passenger.getEndRegion()][driver.getEndRegion()]);
                                 durationDriver = durationDriver + duration;
                                 // see if driver is okay
                                 if (arrivedTime + duration <= driver.getArrivalTime() && durationDriver <= driver.getMaxTravelDuration()) {
@@ -887,7 +1048,7 @@ public class Algorithms {
                                     originOrDest.add(new Pair<>(passenger, Boolean.TRUE));
                                     travelDistanceIndex[1] = passengerIndex+passengerSize;
                                     sfp = new SFP(passengersInMatch, originOrDest, travelDistanceIndex, hourIndex, driverDeparture);
-                                    driver.addMatch(new Match(sfp));
+                                    driver.addMatch(newMatch(driver, 0, sfp));
                                     calculateProfit(driver.getMatches().get(driver.getMatches().size()-1), driver);
                                 }
                             }
@@ -926,7 +1087,7 @@ public class Algorithms {
                     List<Pair<Passenger, Boolean>> originOrDest;
                     int[] travelDistanceIndex;
                     int[] hourIndex;
-                    for (Passenger passenger : passengers) {
+                    for (Passenger passenger : candidatePassengers(driver)) {
                         if (candidateMethod.apply(driver, passenger)) {
                             passengersInMatch = new HashSet<>(1);
                             originOrDest = new ArrayList<>(2);
@@ -935,10 +1096,9 @@ public class Algorithms {
                             passengerIndex = tripIDtoTravelDistanceIndex.get(passenger.getID());
 
                             // from driver's origin to passenger's origin
-                            travelDistance[driverIndex][passengerIndex] = (long) (ho.getDistanceBetweenTwoLocs(driver.getStartLongitude(), driver.getStartLatitude(), 
-                                                                                        passenger.getStartLongitude(), passenger.getStartLatitude()));
-                            //System.out.format("travelDistance[%d][%d] = %d%n", driverIndex, passengerIndex, travelDistance[driverIndex][passengerIndex]);
-                            duration = (long) (travelDistance[driverIndex][passengerIndex] / Speed[currentHourIndex][driver.getStartRegion()][passenger.getStartRegion()]);
+                            travelDistance.computeIfAbsent(driverIndex, passengerIndex, () -> (long) (ho.getDistanceBetweenTrips(driver, false, passenger, false)));
+                            //System.out.format("travelDistance[%d][%d] = %d%n", driverIndex, passengerIndex, travelDistance.get(driverIndex, passengerIndex));
+                            duration = (long) (travelDistance.get(driverIndex, passengerIndex) / Speed[currentHourIndex][driver.getStartRegion()][passenger.getStartRegion()]);
                             durationDriver = duration;
 
                             // time arrived at passenger's origin
@@ -949,7 +1109,7 @@ public class Algorithms {
                             travelDistanceIndex[0] = passengerIndex;
 
                             // from passenger's origin to passenger's destination
-                            duration = (long) (travelDistance[passengerIndex][passengerIndex+passengerSize] / Speed[hourIndex[0]][passenger.getStartRegion()][passenger.getEndRegion()]);
+                            duration = (long) (travelDistance.get(passengerIndex, passengerIndex+passengerSize) / Speed[hourIndex[0]][passenger.getStartRegion()][passenger.getEndRegion()]);
                             arrivedTime = arrivedTime + duration;
 
                             // see if passenger is okay, second condition is unnecessary?
@@ -957,9 +1117,8 @@ public class Algorithms {
                                 hourIndex[1] = Math.min((int)(arrivedTime / 3600.0), 23) - SimulationParameters.startHour;
                                 durationDriver = durationDriver + duration;         // duration from driver's origin to passenger's destination
                                 // from passenger's destination to driver's destination
-                                travelDistance[passengerIndex+passengerSize][driverIndex] = (long) (ho.getDistanceBetweenTwoLocs(passenger.getEndLongitude(), passenger.getEndLatitude(), 
-                                                                                                            driver.getEndLongitude(), driver.getEndLatitude()));
-                                duration = (long) (travelDistance[passengerIndex+passengerSize][driverIndex] / Speed[hourIndex[1]][passenger.getEndRegion()][driver.getEndRegion()]);
+                                travelDistance.computeIfAbsent(passengerIndex+passengerSize, driverIndex, () -> (long) (ho.getDistanceBetweenTrips(passenger, true, driver, true)));
+                                duration = (long) (travelDistance.get(passengerIndex+passengerSize, driverIndex) / Speed[hourIndex[1]][passenger.getEndRegion()][driver.getEndRegion()]);
                                 durationDriver = durationDriver + duration;
                                 // see if driver is okay
                                 if (arrivedTime + duration <= driver.getArrivalTime() && durationDriver <= driver.getMaxTravelDuration()) {
@@ -967,7 +1126,7 @@ public class Algorithms {
                                     originOrDest.add(new Pair<>(passenger, Boolean.TRUE));
                                     travelDistanceIndex[1] = passengerIndex+passengerSize;
                                     sfp = new SFP(passengersInMatch, originOrDest, travelDistanceIndex, hourIndex, driverDeparture);
-                                    driver.addMatch(new Match(sfp));
+                                    driver.addMatch(newMatch(driver, 0, sfp));
                                     calculateProfit(driver.getMatches().get(driver.getMatches().size()-1), driver);
                                 }
                             }
@@ -995,7 +1154,7 @@ public class Algorithms {
         for (Driver driver : drivers) {
             for (int j = driver.getMatches().size()-1; j >= 0; j--) {   // there is a reason why it is not j >= minNumBaseMatchesPerDriver
                 if (driver.getMatches().size() > SimulationParameters.minNumBaseMatchesPerDriver) {
-                    tempPassenger = driver.getMatches().get(j).sfp.passengers.iterator().next();
+                    tempPassenger = driver.getMatches().get(j).getPassenger(0);
                     if (tempPassenger.getNAssignments() > SimulationParameters.thresholdMatchesForEachPassenger) {
                         tempPassenger.decrementNAssignments();
                         driver.getMatches().remove(j);
@@ -1009,7 +1168,7 @@ public class Algorithms {
             if (driver.getMatches().size() > SimulationParameters.maxNumBaseMatchesPerDriver) {
                 driver.getMatches().sort(new PassengerMatchesMinComparator());
                 for (int j = driver.getMatches().size()-1; j >= 0; j--) {
-                    tempPassenger = driver.getMatches().get(j).sfp.passengers.iterator().next();
+                    tempPassenger = driver.getMatches().get(j).getPassenger(0);
                     if (tempPassenger.getNAssignments() > SimulationParameters.thresholdMatchesForEachPassenger/2) {
                         tempPassenger.decrementNAssignments();
                         driver.getMatches().remove(j);
@@ -1033,26 +1192,22 @@ public class Algorithms {
     
     // this is a workaround for RPC1 (RPC+ should not call this)
     public double computeTravelDistance(Match match, Driver driver, int driverIndex) {
-        SFP s = match.sfp;
-        int lastIndex = s.originOrDest.size()-1;
-        Passenger passenger = s.passengers.iterator().next();
-        if (travelDistance[driverIndex][s.travelDistanceIndex[0]] == 0)
-            travelDistance[driverIndex][s.travelDistanceIndex[0]] = (long) (ho.getDistanceBetweenTwoLocs(driver.getStartLongitude(), driver.getStartLatitude(), 
-                                                                                    passenger.getStartLongitude(), passenger.getStartLatitude()));
-        double accumalativeDistance = travelDistance[driverIndex][s.travelDistanceIndex[0]];
+        int lastIndex = match.stopCount()-1;
+        Passenger passenger = match.getPassenger(0);
+        if (travelDistance.get(driverIndex, match.getTravelDistanceIndex(0)) == 0)
+            travelDistance.put(driverIndex, match.getTravelDistanceIndex(0), (long) (ho.getDistanceBetweenTrips(driver, false, passenger, false)));
+        double accumalativeDistance = travelDistance.get(driverIndex, match.getTravelDistanceIndex(0));
         
-        if (travelDistance[s.travelDistanceIndex[0]][s.travelDistanceIndex[1]] == 0)
-            travelDistance[s.travelDistanceIndex[0]][s.travelDistanceIndex[1]] = (long) (ho.getDistanceBetweenTwoLocs(passenger.getStartLongitude(), passenger.getStartLatitude(), 
-                                                                                    passenger.getEndLongitude(), passenger.getEndLatitude()));
-        if (travelDistance[s.travelDistanceIndex[lastIndex]][driverIndex] == 0)
-            travelDistance[s.travelDistanceIndex[lastIndex]][driverIndex] = (long) (ho.getDistanceBetweenTwoLocs(passenger.getEndLongitude(), passenger.getEndLatitude(), 
-                                                                                    driver.getEndLongitude(), driver.getEndLatitude()));
+        if (travelDistance.get(match.getTravelDistanceIndex(0), match.getTravelDistanceIndex(1)) == 0)
+            travelDistance.put(match.getTravelDistanceIndex(0), match.getTravelDistanceIndex(1), (long) (ho.getDistanceBetweenTrips(passenger, false, passenger, true)));
+        if (travelDistance.get(match.getTravelDistanceIndex(lastIndex), driverIndex) == 0)
+            travelDistance.put(match.getTravelDistanceIndex(lastIndex), driverIndex, (long) (ho.getDistanceBetweenTrips(passenger, true, driver, true)));
         
         for (int i = 0; i < lastIndex; i++) {
-            // from s.travelDistanceIndex[j] to s.travelDistanceIndex[j+1]
-            accumalativeDistance = accumalativeDistance + travelDistance[s.travelDistanceIndex[i]][s.travelDistanceIndex[i+1]];
+            // from match.getTravelDistanceIndex(j) to match.getTravelDistanceIndex(j+1)
+            accumalativeDistance = accumalativeDistance + travelDistance.get(match.getTravelDistanceIndex(i), match.getTravelDistanceIndex(i+1));
         }
-        return accumalativeDistance + travelDistance[s.travelDistanceIndex[lastIndex]][driverIndex];
+        return accumalativeDistance + travelDistance.get(match.getTravelDistanceIndex(lastIndex), driverIndex);
     }
     
     public void decreaseProfitByIncreasingCost(List<Driver> drivers, List<Passenger> passengers, double increaseAmountInPercentage, int operatingCost) {
@@ -1064,12 +1219,12 @@ public class Algorithms {
             case 1:
                 for (Driver driver : drivers) {
                     for (Match match : driver.getMatches()) {
-                        match.cost = match.cost * increaseAmountInPercentage;
+                        match.setCost(match.getCost() * increaseAmountInPercentage);
                         travelDistanceOfMatch = computeTravelDistance(match, driver, tripIDtoTravelDistanceIndex.get(driver.getID()));
                         if (driver.getCostPerMeter()+0.0000001 > mediumSedanCostPerMeter)
-                            match.cost = match.cost + travelDistanceOfMatch * MediumSedanMaintenance + travelDistanceOfMatch * MediumSedanDepreciation15;
+                            match.setCost(match.getCost() + travelDistanceOfMatch * MediumSedanMaintenance + travelDistanceOfMatch * MediumSedanDepreciation15);
                         else if (driver.getCostPerMeter()+0.0000001 > smallSedanCostPerMeter)
-                            match.cost = match.cost + travelDistanceOfMatch * SmallSedanMaintenance + travelDistanceOfMatch * SmallSedanDepreciation15;
+                            match.setCost(match.getCost() + travelDistanceOfMatch * SmallSedanMaintenance + travelDistanceOfMatch * SmallSedanDepreciation15);
                         else
                             System.out.println("Driver (" + driver.getID()+") has vehicle cost " + driver.getCostPerMeter());
                     }
@@ -1078,12 +1233,12 @@ public class Algorithms {
             case 2:
                 for (Driver driver : drivers) {
                     for (Match match : driver.getMatches()) {
-                        match.cost = match.cost * increaseAmountInPercentage;
+                        match.setCost(match.getCost() * increaseAmountInPercentage);
                         travelDistanceOfMatch = computeTravelDistance(match, driver, tripIDtoTravelDistanceIndex.get(driver.getID()));
                         if (driver.getCostPerMeter()+0.0000001 > mediumSedanCostPerMeter)
-                            match.cost = match.cost + travelDistanceOfMatch * MediumSedanMaintenance + travelDistanceOfMatch * MediumSedanDepreciation20;
+                            match.setCost(match.getCost() + travelDistanceOfMatch * MediumSedanMaintenance + travelDistanceOfMatch * MediumSedanDepreciation20);
                         else if (driver.getCostPerMeter()+0.0000001 > smallSedanCostPerMeter)
-                            match.cost = match.cost + travelDistanceOfMatch * SmallSedanMaintenance + travelDistanceOfMatch * SmallSedanDepreciation20;
+                            match.setCost(match.getCost() + travelDistanceOfMatch * SmallSedanMaintenance + travelDistanceOfMatch * SmallSedanDepreciation20);
                         else
                             System.out.println("Driver (" + driver.getID()+") has vehicle cost " + driver.getCostPerMeter());
                     }
@@ -1102,9 +1257,9 @@ public class Algorithms {
         for (Driver driver : drivers) {
             for (Match match : driver.getMatches()) {
                 if (Utility.random.nextDouble() < chance)
-                    match.cost = match.cost * increaseAmountInPercentage + fixedAmount;
+                    match.setCost(match.getCost() * increaseAmountInPercentage + fixedAmount);
                 else
-                    match.cost = match.cost * increaseAmountInPercentage;
+                    match.setCost(match.getCost() * increaseAmountInPercentage);
             }
         }
         
@@ -1115,17 +1270,17 @@ public class Algorithms {
                         for (Match match : driver.getMatches()) {
                             travelDistanceOfMatch = computeTravelDistance(match, driver, tripIDtoTravelDistanceIndex.get(driver.getID()));
                             //System.out.println("travelDistanceOfMatch * MediumSedanDepreciation15 = " + (travelDistanceOfMatch) + " * "+ (MediumSedanDepreciation15) + " = "+travelDistanceOfMatch * MediumSedanDepreciation15);
-                            //System.out.print("match.cost = " + match.cost + " + "+(travelDistanceOfMatch * MediumSedanMaintenance + travelDistanceOfMatch * MediumSedanDepreciation15));
-                            match.cost = match.cost + travelDistanceOfMatch * MediumSedanMaintenance + travelDistanceOfMatch * MediumSedanDepreciation15;
-                            //System.out.println(" = " + match.cost);
+                            //System.out.print("match.getCost() = " + match.getCost() + " + "+(travelDistanceOfMatch * MediumSedanMaintenance + travelDistanceOfMatch * MediumSedanDepreciation15));
+                            match.setCost(match.getCost() + travelDistanceOfMatch * MediumSedanMaintenance + travelDistanceOfMatch * MediumSedanDepreciation15);
+                            //System.out.println(" = " + match.getCost());
                         }
                     } else if (driver.getCostPerMeter()+0.0000001 > smallSedanCostPerMeter) {
                         for (Match match : driver.getMatches()) {
                             travelDistanceOfMatch = computeTravelDistance(match, driver, tripIDtoTravelDistanceIndex.get(driver.getID()));
                             //System.out.println("travelDistanceOfMatch * SmallSedanDepreciation15 = " + (travelDistanceOfMatch) + " * "+ (SmallSedanDepreciation15) + " = "+ travelDistanceOfMatch * SmallSedanDepreciation15);
-                            //System.out.print("match.cost = " + match.cost + " + "+(travelDistanceOfMatch * MediumSedanMaintenance + travelDistanceOfMatch * SmallSedanDepreciation15));
-                            match.cost = match.cost + travelDistanceOfMatch * SmallSedanMaintenance + travelDistanceOfMatch * SmallSedanDepreciation15;
-                            //System.out.println(" = " + match.cost);
+                            //System.out.print("match.getCost() = " + match.getCost() + " + "+(travelDistanceOfMatch * MediumSedanMaintenance + travelDistanceOfMatch * SmallSedanDepreciation15));
+                            match.setCost(match.getCost() + travelDistanceOfMatch * SmallSedanMaintenance + travelDistanceOfMatch * SmallSedanDepreciation15);
+                            //System.out.println(" = " + match.getCost());
                         }
                     } else
                         System.out.println("Driver (" + driver.getID()+") has vehicle cost " + driver.getCostPerMeter());
@@ -1137,17 +1292,17 @@ public class Algorithms {
                         for (Match match : driver.getMatches()) {
                             travelDistanceOfMatch = computeTravelDistance(match, driver, tripIDtoTravelDistanceIndex.get(driver.getID()));
                             //System.out.println("travelDistanceOfMatch * MediumSedanDepreciation20 = " + (travelDistanceOfMatch) + " * "+ (MediumSedanDepreciation20) + " = "+ travelDistanceOfMatch * MediumSedanDepreciation20);
-                            //System.out.print("match.cost = " + match.cost + " + "+(travelDistanceOfMatch * MediumSedanMaintenance + travelDistanceOfMatch * MediumSedanDepreciation20));
-                            match.cost = match.cost + travelDistanceOfMatch * MediumSedanMaintenance + travelDistanceOfMatch * MediumSedanDepreciation20;
-                            //System.out.println(" = " + match.cost);
+                            //System.out.print("match.getCost() = " + match.getCost() + " + "+(travelDistanceOfMatch * MediumSedanMaintenance + travelDistanceOfMatch * MediumSedanDepreciation20));
+                            match.setCost(match.getCost() + travelDistanceOfMatch * MediumSedanMaintenance + travelDistanceOfMatch * MediumSedanDepreciation20);
+                            //System.out.println(" = " + match.getCost());
                         }
                     } else if (driver.getCostPerMeter()+0.0000001 > smallSedanCostPerMeter) {
                         for (Match match : driver.getMatches()) {
                             travelDistanceOfMatch = computeTravelDistance(match, driver, tripIDtoTravelDistanceIndex.get(driver.getID()));
                             //System.out.println("travelDistanceOfMatch * SmallSedanDepreciation20 = " + (travelDistanceOfMatch) + " * "+ (SmallSedanDepreciation20) + " = "+ travelDistanceOfMatch * SmallSedanDepreciation20);
-                            //System.out.print("match.cost = " + match.cost + " + "+(travelDistanceOfMatch * MediumSedanMaintenance + travelDistanceOfMatch * SmallSedanDepreciation20));
-                            match.cost = match.cost + travelDistanceOfMatch * SmallSedanMaintenance + travelDistanceOfMatch * SmallSedanDepreciation20;
-                            //System.out.println(" = " + match.cost);
+                            //System.out.print("match.getCost() = " + match.getCost() + " + "+(travelDistanceOfMatch * MediumSedanMaintenance + travelDistanceOfMatch * SmallSedanDepreciation20));
+                            match.setCost(match.getCost() + travelDistanceOfMatch * SmallSedanMaintenance + travelDistanceOfMatch * SmallSedanDepreciation20);
+                            //System.out.println(" = " + match.getCost());
                         }
                     } else
                         System.out.println("Driver (" + driver.getID()+") has vehicle cost " + driver.getCostPerMeter());
@@ -1157,10 +1312,20 @@ public class Algorithms {
         calculateProfitOnly(drivers);
     }
     
+    // maintenance and depreciation per meter of the vehicle of the driver under the operating cost type (1 or 2), as decreaseProfitByIncreasingCost adds them
+    public double[] operatingCostPerMeter(Driver driver, int operatingCost) {
+        if (driver.getCostPerMeter()+0.0000001 > mediumSedanCostPerMeter)
+            return new double[] {MediumSedanMaintenance, operatingCost == 1 ? MediumSedanDepreciation15 : MediumSedanDepreciation20};
+        if (driver.getCostPerMeter()+0.0000001 > smallSedanCostPerMeter)
+            return new double[] {SmallSedanMaintenance, operatingCost == 1 ? SmallSedanDepreciation15 : SmallSedanDepreciation20};
+        System.out.println("Driver (" + driver.getID()+") has vehicle cost " + driver.getCostPerMeter());
+        return new double[] {0, 0};
+    }
+    
     public void decreaseProfitByReducingRevenue(List<Driver> drivers, double remainingRevenueInPercentage) {
         for (Driver driver : drivers) {
             for (Match match : driver.getMatches())
-                match.revenue = match.revenue * remainingRevenueInPercentage;
+                match.setRevenue(match.getRevenue() * remainingRevenueInPercentage);
         }
         calculateProfitOnly(drivers);
     }
@@ -1185,8 +1350,8 @@ public class Algorithms {
             for (Match match : driver.getMatches()) {
                 calculateRevenue(match, driver);
                 calculateCost(match, driver, tripIDtoTravelDistanceIndex.get(driver.getID()));
-                temp = Math.round((match.revenue - match.cost)*100.0) / 100.0;
-                match.profit = (int) (temp*100.0);
+                temp = Math.round((match.getRevenue() - match.getCost())*100.0) / 100.0;
+                match.setProfit((int) (temp*100.0));
             }
         }
     }
@@ -1195,8 +1360,8 @@ public class Algorithms {
         double temp;
         for (Driver driver : drivers) {
             for (Match match : driver.getMatches()) {
-                temp = Math.round((match.revenue - match.cost)*100.0) / 100.0 ;
-                match.profit = (int) (temp*100.0);
+                temp = Math.round((match.getRevenue() - match.getCost())*100.0) / 100.0 ;
+                match.setProfit((int) (temp*100.0));
             }
         }
     }
@@ -1204,13 +1369,34 @@ public class Algorithms {
     public void calculateProfit(Match match, Driver driver) {
         calculateRevenue(match, driver);
         calculateCost(match, driver, tripIDtoTravelDistanceIndex.get(driver.getID()));
-        double temp = Math.round((match.revenue - match.cost)*100.0) / 100.0;
-        match.profit = (int) (temp*100.0);
+        double temp = Math.round((match.getRevenue() - match.getCost())*100.0) / 100.0;
+        match.setProfit((int) (temp*100.0));
     }
     
+    // the profit bound of the groups of the driver, null unless groups that cannot have a non-negative profit are dropped
+    public ProfitBound profitBound(Driver driver, List<Passenger> passengerList) {
+        if (!SimulationParameters.profitBoundPruning || SimulationParameters.problemVariant != 2 || MaxSpeed <= 0)
+            return null;
+        return new ProfitBound(this, driver, passengerList);
+    }
+    
+    /*
+     * Upper bound of the revenue from the passenger in any match of a driver with the capacity (see calculateRevenue).
+     * The passenger pays for at most its maximum travel duration, over at most 2*capacity-1 legs, each shorter than its truncated
+     * duration plus one second at the highest speed, alone in the vehicle, at the highest surge price factor of its regions.
+     * (1-takeRate)*discountRate is at most 0.8 (no discount, the lowest take rate), and the tip at most the highest average tip.
+     */
+    public double revenueUpperBound(Passenger passenger, int capacity) {
+        double surge = 0;
+        for (double[][] hourFactor : SurgePriceFactor)
+            surge = Math.max(surge, hourFactor[passenger.getStartRegion()][passenger.getEndRegion()]);
+        double distance = (passenger.getMaxTravelDuration() + 2*capacity - 1) * MaxSpeed;
+        double fare = BaseFare + PerMinuteCost/60.0 * passenger.getMaxTravelDuration() + PerMeterCost * distance;
+        return 0.8 * surge * fare + MaxTip;
+    }
+    
+    // the durations and distances of the legs are those recorded in the match by newMatch
     public void calculateRevenue(Match match, Driver driver) {
-        HashMap<Passenger,Integer> passengerStartIndex;     // this is to get the acumalative duration index
-        HashMap<Passenger,Integer> passengerEndIndex;       //
         int differentNumPassengers;     // dp(r_j, R_i) in paper
         double discountRate;
         double takeRate;
@@ -1218,119 +1404,84 @@ public class Algorithms {
         int maxRange;
         double cost;
         double revenue = 0d;
-        double numPassengers;
         long timeArrivedAtPassengerOrigin;
-        double distance;
-        passengerStartIndex = new HashMap<>();
-        passengerEndIndex = new HashMap<>();
-        SFP s = match.sfp;
-        long[] accumalativeDuration = new long[s.originOrDest.size()];
+        long legDistance;
+        int start;
+        int end;
+        long matchKey = takeRateKey(match, driver);
         
-        for (int i = 0; i < accumalativeDuration.length-1; i++) {
-            // from s.travelDistanceIndex[j] to s.travelDistanceIndex[j+1]
-            if (s.originOrDest.get(i).getP2()) { // this is the destination of the passenger in index j of SFP
-                if (s.originOrDest.get(i+1).getP2())
-                    accumalativeDuration[i+1] = (long) (accumalativeDuration[i] + travelDistance[s.travelDistanceIndex[i]][s.travelDistanceIndex[i+1]] / 
-                                Speed[s.hourIndex[i]][s.originOrDest.get(i).getP1().getEndRegion()][s.originOrDest.get(i+1).getP1().getEndRegion()]);
-                else
-                    accumalativeDuration[i+1] = (long) (accumalativeDuration[i] + travelDistance[s.travelDistanceIndex[i]][s.travelDistanceIndex[i+1]] / 
-                                Speed[s.hourIndex[i]][s.originOrDest.get(i).getP1().getEndRegion()][s.originOrDest.get(i+1).getP1().getStartRegion()]);
-            } else {    // this is the origin of the passenger in index j of SFP
-                if (s.originOrDest.get(i+1).getP2())
-                    accumalativeDuration[i+1] = (long) (accumalativeDuration[i] + travelDistance[s.travelDistanceIndex[i]][s.travelDistanceIndex[i+1]] / 
-                                Speed[s.hourIndex[i]][s.originOrDest.get(i).getP1().getStartRegion()][s.originOrDest.get(i+1).getP1().getEndRegion()]);
-                else
-                    accumalativeDuration[i+1] = (long) (accumalativeDuration[i] + travelDistance[s.travelDistanceIndex[i]][s.travelDistanceIndex[i+1]] / 
-                                Speed[s.hourIndex[i]][s.originOrDest.get(i).getP1().getStartRegion()][s.originOrDest.get(i+1).getP1().getStartRegion()]);
+        // one pass over the stops: the stops of each passenger, and the passengers on the vehicle and picked up before each stop
+        int n = match.passengerCount();
+        int[] passengerStartIndex = new int[n];
+        int[] passengerEndIndex = new int[n];
+        int[] onVehicleBefore = new int[2*n+1];
+        int[] pickedUpBefore = new int[2*n+1];
+        for (int i = 0; i < 2*n; i++) {
+            if (match.isStopDestination(i)) {
+                passengerEndIndex[match.getStopPassengerSlot(i)] = i;
+                onVehicleBefore[i+1] = onVehicleBefore[i] - 1;
+                pickedUpBefore[i+1] = pickedUpBefore[i];
+            } else {
+                passengerStartIndex[match.getStopPassengerSlot(i)] = i;
+                onVehicleBefore[i+1] = onVehicleBefore[i] + 1;
+                pickedUpBefore[i+1] = pickedUpBefore[i] + 1;
             }
         }
-        accumalativeDuration[0] = (long) (travelDistance[tripIDtoTravelDistanceIndex.get(driver.getID())][s.travelDistanceIndex[0]] /
-                            Speed[Math.min((int)(s.departureTimeOfDriver / 3600.0),23)-SimulationParameters.startHour][driver.getStartRegion()][s.originOrDest.get(0).getP1().getStartRegion()]);
-        
-        for (int i = 0; i < s.originOrDest.size(); i++) {
-            if (s.originOrDest.get(i).getP2())
-                passengerEndIndex.put(s.originOrDest.get(i).getP1(), i);
-            else
-                passengerStartIndex.put(s.originOrDest.get(i).getP1(), i);
-        }
         
-        int passengersOnVehicle;
-        for (Passenger passenger : s.passengers) {
+        Passenger passenger;
+        for (int k = 0; k < n; k++) {
+            passenger = match.getPassenger(k);
+            start = passengerStartIndex[k];
+            end = passengerEndIndex[k];
             // need to consider the passengers that are already in the car too
-            passengersOnVehicle = 0;
-            for (int i = 0; i < passengerStartIndex.get(passenger); i++) {
-                if (s.originOrDest.get(i).getP2())
-                    passengersOnVehicle--;
-                else
-                    passengersOnVehicle++;
-            }
-            
-            differentNumPassengers = 0;    // dp(r_j, R_i) in paper
-            for (int i = passengerStartIndex.get(passenger)+1; i < passengerEndIndex.get(passenger); i++)
-                if (!s.originOrDest.get(i).getP2())
-                    differentNumPassengers++;
-            differentNumPassengers = differentNumPassengers + passengersOnVehicle;
+            differentNumPassengers = pickedUpBefore[end] - pickedUpBefore[start+1] + onVehicleBefore[start];    // dp(r_j, R_i) in paper
             
             discountRate = Math.max(1-0.2*differentNumPassengers, 0.2);
             // takeRate: [max(20*discountRate, 5), max(25*dp, 10)]
             minRange = (int) (Math.max(0.2*discountRate, 0.05) * 100000000);
             maxRange = (int) (Math.max(0.25*discountRate, 0.1) * 100000000);
-            takeRate = (Utility.random.nextInt(maxRange - minRange + 1) + minRange)/100000000.0;
+            takeRate = (new SplittableRandom(mix(matchKey + passenger.getID())).nextInt(maxRange - minRange + 1) + minRange)/100000000.0;
             
             cost = 0d;
-            distance = 0d;
-            numPassengers = passengersOnVehicle;
-            for (int i = passengerStartIndex.get(passenger); i < passengerEndIndex.get(passenger); i++) {
-                if (s.originOrDest.get(i).getP2())
-                    numPassengers--;
-                else
-                    numPassengers++;
-                
-                distance = distance + travelDistance[s.travelDistanceIndex[i]][s.travelDistanceIndex[i+1]];                
-                if (s.originOrDest.get(i).getP2()) { // this is the destination of the passenger in index j of SFP
-                    if (s.originOrDest.get(i+1).getP2())
-                        cost = cost + (PerMinuteCost/60.0 * 
-                            (long) (travelDistance[s.travelDistanceIndex[i]][s.travelDistanceIndex[i+1]]/Speed[s.hourIndex[i]][s.originOrDest.get(i).getP1().getEndRegion()][s.originOrDest.get(i+1).getP1().getEndRegion()])
-                                + PerMeterCost*travelDistance[s.travelDistanceIndex[i]][s.travelDistanceIndex[i+1]])/numPassengers;
-                    else
-                        cost = cost + (PerMinuteCost/60.0 * 
-                            (long) (travelDistance[s.travelDistanceIndex[i]][s.travelDistanceIndex[i+1]]/Speed[s.hourIndex[i]][s.originOrDest.get(i).getP1().getEndRegion()][s.originOrDest.get(i+1).getP1().getStartRegion()])
-                                + PerMeterCost*travelDistance[s.travelDistanceIndex[i]][s.travelDistanceIndex[i+1]])/numPassengers;
-                } else {
-                    if (s.originOrDest.get(i+1).getP2())
-                        cost = cost + (PerMinuteCost/60.0 * 
-                            (long) (travelDistance[s.travelDistanceIndex[i]][s.travelDistanceIndex[i+1]]/Speed[s.hourIndex[i]][s.originOrDest.get(i).getP1().getStartRegion()][s.originOrDest.get(i+1).getP1().getEndRegion()])
-                                + PerMeterCost*travelDistance[s.travelDistanceIndex[i]][s.travelDistanceIndex[i+1]])/numPassengers;
-                    else
-                        cost = cost + (PerMinuteCost/60.0 * 
-                            (long) (travelDistance[s.travelDistanceIndex[i]][s.travelDistanceIndex[i+1]]/Speed[s.hourIndex[i]][s.originOrDest.get(i).getP1().getStartRegion()][s.originOrDest.get(i+1).getP1().getStartRegion()])
-                                + PerMeterCost*travelDistance[s.travelDistanceIndex[i]][s.travelDistanceIndex[i+1]])/numPassengers;
-                }
+            for (int i = start; i < end; i++) {
+                legDistance = match.getStopDistance(i+1) - match.getStopDistance(i);
+                cost = cost + (PerMinuteCost/60.0 * (match.getStopDuration(i+1) - match.getStopDuration(i)) + PerMeterCost*legDistance)/(double) onVehicleBefore[i+1];
             }
             cost = cost + BaseFare;
-            if (passengerStartIndex.get(passenger) == 0)
-                timeArrivedAtPassengerOrigin = s.departureTimeOfDriver + accumalativeDuration[0];
-            else
-                timeArrivedAtPassengerOrigin = s.departureTimeOfDriver + accumalativeDuration[0] + accumalativeDuration[passengerStartIndex.get(passenger)];
+            timeArrivedAtPassengerOrigin = match.getDepartureTimeOfDriver() + match.getStopDuration(start);
             
             timeArrivedAtPassengerOrigin = Math.min((long)(timeArrivedAtPassengerOrigin / 3600.0), 23) - SimulationParameters.startHour;
             cost = (1-takeRate) * SurgePriceFactor[(int) timeArrivedAtPassengerOrigin][passenger.getStartRegion()][passenger.getEndRegion()] * discountRate
-                                  * cost + AverageTip.get(roundDistanceForTip(distance));
+                                  * cost + AverageTip.get(roundDistanceForTip(match.getStopDistance(end) - match.getStopDistance(start)));
             revenue += cost;
         }
-        match.revenue = revenue;
+        match.setRevenue(revenue);
+    }
+    
+    /*
+     * Seed of the take rates of the passengers of the match, from the seed of the simulation, the interval, the driver and the passengers
+     * of the match (in any order). Each passenger draws its take rate from a SplittableRandom of its own seeded by this key and its ID,
+     * so the profits do not depend on the order in which the matches are built: they are the same with or without threads,
+     * and the threads do not contend on Utility.random. ProfitScenarios seeds the extra costs of the match with it too.
+     */
+    long takeRateKey(Match match, Driver driver) {
+        long key = mix(((long) Utility.SEED << 32) ^ currentInterval);
+        key = mix(key + driver.getID());
+        long passengers = 0;
+        for (int i = 0; i < match.passengerCount(); i++)
+            passengers = passengers + mix(match.getPassenger(i).getID());
+        return mix(key ^ passengers);
+    }
+    
+    // the finalizer of SplittableRandom (Stafford's variant 13 of MurmurHash3)
+    static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
     }
     
     public void calculateCost(Match match, Driver driver, int driverIndex) {
-        SFP s = match.sfp;
-        int lastIndex = s.originOrDest.size()-1;
-        double accumalativeDistance = travelDistance[driverIndex][s.travelDistanceIndex[0]];
-        for (int i = 0; i < lastIndex; i++) {
-            // from s.travelDistanceIndex[j] to s.travelDistanceIndex[j+1]
-            accumalativeDistance = accumalativeDistance + travelDistance[s.travelDistanceIndex[i]][s.travelDistanceIndex[i+1]];
-        }
-        accumalativeDistance = accumalativeDistance + travelDistance[s.travelDistanceIndex[lastIndex]][driverIndex];
-        match.cost = driver.getCostPerMeter() * accumalativeDistance;
+        match.setCost(driver.getCostPerMeter() * match.getRouteDistance());
     }
     
     public Pair<Integer,Integer> setMatchIDs(List<Driver> drivers, int start) {
@@ -1380,8 +1531,8 @@ public class Algorithms {
             if (!driver.getMatches().isEmpty()) {
                 count = count + driver.getMatches().size();
                 if (!driver.getIndexLevel().isEmpty()) {
-                    if (driver.getMatches().get(driver.getIndexLevel().get(driver.getIndexLevel().size()-1)-1).sfp.passengers.size() > largestMatchSize)
-                        largestMatchSize = driver.getMatches().get(driver.getIndexLevel().get(driver.getIndexLevel().size()-1)-1).sfp.passengers.size();
+                    if (driver.getMatches().get(driver.getIndexLevel().get(driver.getIndexLevel().size()-1)-1).passengerCount() > largestMatchSize)
+                        largestMatchSize = driver.getMatches().get(driver.getIndexLevel().get(driver.getIndexLevel().size()-1)-1).passengerCount();
                 }
             }
         }
@@ -1400,8 +1551,10 @@ public class Algorithms {
     public void setPassengerInNumMatches(List<Driver> drivers) {
         for (Driver d : drivers) {
             for (Match match : d.getMatches())
-                for (Passenger passenger : match.sfp.passengers)
+                for (int k = 0; k < match.passengerCount(); k++) {
+                    Passenger passenger = match.getPassenger(k);
                     passenger.incrementNAssignments();
+                }
         }
     }
     
@@ -1441,93 +1594,56 @@ public class Algorithms {
         return 0;
     }
     
+    // the durations of the legs are those recorded in the match by newMatch
     public boolean verifyMatches(List<Driver> drivers, boolean checkDuplicate) {
         boolean valid = true;
         int driverIndex;
-        SFP s;
         HashMap<Passenger,Integer> passengerStartIndex;     // this is to get the acumalative duration index
         HashMap<Passenger,Integer> passengerEndIndex;       //
         long duration;
         long timeArrivedAtPassengerDest;
-        long[] accumalativeDuration;
         int lastIndex;
         int hourIndex;
         for (Driver d : drivers) {
             driverIndex = tripIDtoTravelDistanceIndex.get(d.getID());
             for (Match match : d.getMatches()) {
-                s = match.sfp;
-                // accumalative travel duration from first location to the last location in SFP
-                // accumalativeDistance[0] is driver to first passenger's origin
-                lastIndex = s.originOrDest.size()-1;
-                accumalativeDuration = new long[s.originOrDest.size()];
-                
-                for (int i = 0; i < accumalativeDuration.length-1; i++) {
-                    // from s.travelDistanceIndex[j] to s.travelDistanceIndex[j+1]
-                    if (s.originOrDest.get(i).getP2()) { // this is the destination of the passenger in index j of SFP
-                        if (s.originOrDest.get(i+1).getP2())
-                            accumalativeDuration[i+1] = (long) (accumalativeDuration[i] + travelDistance[s.travelDistanceIndex[i]][s.travelDistanceIndex[i+1]] / 
-                                        Speed[s.hourIndex[i]][s.originOrDest.get(i).getP1().getEndRegion()][s.originOrDest.get(i+1).getP1().getEndRegion()]);
-                        else
-                            accumalativeDuration[i+1] = (long) (accumalativeDuration[i] + travelDistance[s.travelDistanceIndex[i]][s.travelDistanceIndex[i+1]] / 
-                                        Speed[s.hourIndex[i]][s.originOrDest.get(i).getP1().getEndRegion()][s.originOrDest.get(i+1).getP1().getStartRegion()]);
-                    } else {    // this is the origin of the passenger in index j of SFP
-                        if (s.originOrDest.get(i+1).getP2())
-                            accumalativeDuration[i+1] = (long) (accumalativeDuration[i] + travelDistance[s.travelDistanceIndex[i]][s.travelDistanceIndex[i+1]] / 
-                                        Speed[s.hourIndex[i]][s.originOrDest.get(i).getP1().getStartRegion()][s.originOrDest.get(i+1).getP1().getEndRegion()]);
-                        else
-                            accumalativeDuration[i+1] = (long) (accumalativeDuration[i] + travelDistance[s.travelDistanceIndex[i]][s.travelDistanceIndex[i+1]] / 
-                                        Speed[s.hourIndex[i]][s.originOrDest.get(i).getP1().getStartRegion()][s.originOrDest.get(i+1).getP1().getStartRegion()]);
-                    }
-                }
-                
-                hourIndex = Math.min((int)(s.departureTimeOfDriver / 3600.0), 23) - SimulationParameters.startHour;
-                accumalativeDuration[0] = (long) (travelDistance[driverIndex][s.travelDistanceIndex[0]] /
-                                                        Speed[hourIndex][d.getStartRegion()][s.originOrDest.get(0).getP1().getStartRegion()]);    
-                
                 // driver max travel duration
-                long lastDestToDriverDest = (long) (travelDistance[s.travelDistanceIndex[lastIndex]][driverIndex] / 
-                                                                    Speed[s.hourIndex[lastIndex]][s.originOrDest.get(lastIndex).getP1().getEndRegion()][d.getEndRegion()]);
-                duration = accumalativeDuration[0] + accumalativeDuration[lastIndex] + lastDestToDriverDest;
+                lastIndex = match.stopCount()-1;
+                duration = match.getRouteDuration();
                 
-                if (duration == 0 || duration > d.getMaxTravelDuration() || s.departureTimeOfDriver + duration > d.getArrivalTime()) {
+                if (duration == 0 || duration > d.getMaxTravelDuration() || match.getDepartureTimeOfDriver() + duration > d.getArrivalTime()) {
+                    hourIndex = Math.min((int)(match.getDepartureTimeOfDriver() / 3600.0), 23) - SimulationParameters.startHour;
                     System.out.print("MatchID :"+match.id);
-                    System.out.println(" [Either] Arrive time ("+(s.departureTimeOfDriver+duration)+") later than ArrivalTime = "+d.getArrivalTime()+" of Driver: "+d.getID() + " (driverIndex="+driverIndex+")");
+                    System.out.println(" [Either] Arrive time ("+(match.getDepartureTimeOfDriver()+duration)+") later than ArrivalTime = "+d.getArrivalTime()+" of Driver: "+d.getID() + " (driverIndex="+driverIndex+")");
                     System.out.println("[or] Travel duration ("+duration+") incorrect: 0 or longer than MaxTravelDuration="+d.getMaxTravelDuration());
-                    System.out.println("Driver departure time: " + s.departureTimeOfDriver +", durationFromLastPassengerDestToDriverDest = "+ lastDestToDriverDest);
-                    System.out.println("travelDistance[driverIndex][s.travelDistanceIndex[0]] = "+travelDistance[driverIndex][s.travelDistanceIndex[0]]+
-                                            ", s.travelDistanceIndex[0]="+s.travelDistanceIndex[0]);
-                    System.out.println("Speed[hourIndex][d.getStartRegion()][s.originOrDest.get(0).getP1().getStartRegion()] = "+Speed[hourIndex][d.getStartRegion()][s.originOrDest.get(0).getP1().getStartRegion()]);
-                    System.out.println(Arrays.toString(accumalativeDuration));
+                    System.out.println("Driver departure time: " + match.getDepartureTimeOfDriver() +", durationFromLastPassengerDestToDriverDest = "+ (duration - match.getStopDuration(lastIndex)));
+                    System.out.println("travelDistance.get(driverIndex, match.getTravelDistanceIndex(0)) = "+travelDistance.get(driverIndex, match.getTravelDistanceIndex(0))+
+                                            ", match.getTravelDistanceIndex(0)="+match.getTravelDistanceIndex(0));
+                    System.out.println("Speed[hourIndex][d.getStartRegion()][match.getStopPassenger(0).getStartRegion()] = "+Speed[hourIndex][d.getStartRegion()][match.getStopPassenger(0).getStartRegion()]);
+                    System.out.println(stopDurations(match));
                     int ind;
                     System.out.print("[[ ");
-                    for (ind = 0; ind < s.originOrDest.size()-1; ind++)
-                        System.out.print("Passenger "+ s.originOrDest.get(ind).getP1().getID() + "("+s.originOrDest.get(ind).getP2()+") -- ");
-                    System.out.println("Passenger "+ s.originOrDest.get(ind).getP1().getID() + "("+s.originOrDest.get(ind).getP2()+") ]]");
+                    for (ind = 0; ind < match.stopCount()-1; ind++)
+                        System.out.print("Passenger "+ match.getStopPassenger(ind).getID() + "("+match.isStopDestination(ind)+") -- ");
+                    System.out.println("Passenger "+ match.getStopPassenger(ind).getID() + "("+match.isStopDestination(ind)+") ]]");
                     valid = false;
                 }
                 
                 passengerStartIndex = new HashMap<>();
                 passengerEndIndex = new HashMap<>();
-                for (int i = 0; i < s.originOrDest.size(); i++) {
-                    if (s.originOrDest.get(i).getP2())
-                        passengerEndIndex.put(s.originOrDest.get(i).getP1(), i);
+                for (int i = 0; i < match.stopCount(); i++) {
+                    if (match.isStopDestination(i))
+                        passengerEndIndex.put(match.getStopPassenger(i), i);
                     else
-                        passengerStartIndex.put(s.originOrDest.get(i).getP1(), i);
+                        passengerStartIndex.put(match.getStopPassenger(i), i);
                 }
                 
-                for (Passenger passenger : s.passengers) {
+                for (int k = 0; k < match.passengerCount(); k++) {
+                    Passenger passenger = match.getPassenger(k);
                     // calcualte travel duration for passenger
                     // the duration to reach passenger's dest - the duration to reach passenger's origin
-                    if (passengerStartIndex.get(passenger) > 0)
-                        duration = accumalativeDuration[passengerEndIndex.get(passenger)] - (accumalativeDuration[passengerStartIndex.get(passenger)]);
-                    else
-                        duration = accumalativeDuration[passengerEndIndex.get(passenger)];
-
-                    // calculate arrival time at destination: arrival time at passenger's origin + duration from passenger's origin to their destination
-                    if (passengerStartIndex.get(passenger) > 0)
-                        timeArrivedAtPassengerDest = s.departureTimeOfDriver + accumalativeDuration[0] + accumalativeDuration[passengerStartIndex.get(passenger)] + duration;
-                    else
-                        timeArrivedAtPassengerDest = s.departureTimeOfDriver + accumalativeDuration[0] + duration;
+                    duration = match.getStopDuration(passengerEndIndex.get(passenger)) - match.getStopDuration(passengerStartIndex.get(passenger));
+                    timeArrivedAtPassengerDest = match.getDepartureTimeOfDriver() + match.getStopDuration(passengerEndIndex.get(passenger));
                     if (timeArrivedAtPassengerDest > passenger.getArrivalTime() || duration == 0 || duration > passenger.getMaxTravelDuration()) {
                         valid = false;
                         System.out.print("MatchID :"+match.id + ", Driver Id: "+d.getID() + " (driverIndex="+driverIndex+")");
@@ -1535,10 +1651,10 @@ public class Algorithms {
                         System.out.println("[Or] Travel duration ("+duration+") incorrect: 0 or longer than MaxTravelDuration="+passenger.getMaxTravelDuration()+" of Passenger: "+passenger.getID());
                         int ind;
                         System.out.print("[[ ");
-                        for (ind = 0; ind < s.originOrDest.size()-1; ind++)
-                            System.out.print("Passenger "+ s.originOrDest.get(ind).getP1().getID() + "("+s.originOrDest.get(ind).getP2()+") -- ");
-                        System.out.println("Passenger "+ s.originOrDest.get(ind).getP1().getID() + "("+s.originOrDest.get(ind).getP2()+") ]]");
-                        System.out.println(Arrays.toString(accumalativeDuration));
+                        for (ind = 0; ind < match.stopCount()-1; ind++)
+                            System.out.print("Passenger "+ match.getStopPassenger(ind).getID() + "("+match.isStopDestination(ind)+") -- ");
+                        System.out.println("Passenger "+ match.getStopPassenger(ind).getID() + "("+match.isStopDestination(ind)+") ]]");
+                        System.out.println(stopDurations(match));
                         System.out.println("Passenger: " + passenger.toStringAll());
                         break;
                     }
@@ -1557,8 +1673,9 @@ public class Algorithms {
     public void potentialPairsFixedRadius(List<Driver> drivers, List<Passenger> passengers) {
         startTime = System.currentTimeMillis();
         int candidates = 0;
+        PassengerGridIndex passengerGrid = new PassengerGridIndex(passengers, CandidateGridCellSize);
         for (Driver driver : drivers)
-            for (Passenger passenger : passengers)
+            for (Passenger passenger : passengerGrid.originsWithin(driver.getStartLatitude(), driver.getStartLongitude(), candidateRadius(driver, 2)))
                 if (testCandidateFixedRadius(driver, passenger))
                     candidates++;
         endTime = System.currentTimeMillis();
@@ -1570,8 +1687,9 @@ public class Algorithms {
     public void potentialPairsDriverDetour(List<Driver> drivers, List<Passenger> passengers) {
         startTime = System.currentTimeMillis();
         int candidates = 0;
+        PassengerGridIndex passengerGrid = new PassengerGridIndex(passengers, CandidateGridCellSize);
         for (Driver driver : drivers)
-            for (Passenger passenger : passengers)
+            for (Passenger passenger : passengerGrid.originsWithin(driver.getStartLatitude(), driver.getStartLongitude(), candidateRadius(driver, 1)))
                 if (testCandidate(driver, passenger))
                     candidates++;
         endTime = System.currentTimeMillis();
@@ -1579,6 +1697,45 @@ public class Algorithms {
                             +". Time it took: "+ (endTime-startTime) + " milliseconds.");
     }
     
+    /*
+     * Radius (in km) around the driver's origin outside of which no passenger's origin passes the candidate test (1: testCandidate, 2: testCandidateFixedRadius),
+     * both tests add the distance between the two origins to nonnegative terms. A small margin keeps rounding from dropping a candidate.
+     */
+    private double candidateRadius(Driver driver, int candidateTest) {
+        double radius;
+        if (candidateTest == 1)
+            radius = driver.getMaxTravelDuration() * Speed[currentHourIndex][driver.getStartRegion()][driver.getEndRegion()] / (distanceCandidateConst * 1000);
+        else
+            radius = MinRadius;
+        return radius * (1 + 1e-9) + 1e-9;
+    }
+    
+    /*
+     * Indexes over the passengers' origins and time windows for the base matches, built once the passengers' own legs are known.
+     * A ride lasts at least the passenger's leg at the highest speed of any hour and region pair (durations are truncated the same way).
+     */
+    private long buildCandidateIndexes(List<Passenger> passengers) {
+        startTime = System.currentTimeMillis();
+        long[] minRideDuration = new long[passengers.size()];
+        int passengerIndex;
+        for (int i = 0; i < passengers.size(); i++) {
+            passengerIndex = tripIDtoTravelDistanceIndex.get(passengers.get(i).getID());
+            if (MaxSpeed > 0)
+                minRideDuration[i] = (long) (travelDistance.get(passengerIndex, passengerIndex+passengerSize) / MaxSpeed);
+        }
+        passengerGrid = new PassengerGridIndex(passengers, CandidateGridCellSize);
+        passengerTimeWindows = new TimeWindowIndex(passengers, minRideDuration);
+        endTime = System.currentTimeMillis();
+        System.out.println("Candidate indexes: " + passengerTimeWindows.size() + " of " + passengers.size() + " passengers can be served in time. It took " + (endTime - startTime) + " milliseconds.");
+        return endTime - startTime;
+    }
+    
+    // passengers that may pass the candidate test of the current configuration and meet the driver's time window, the candidate method is still applied to each of them
+    private List<Passenger> candidatePassengers(Driver driver) {
+        return passengerGrid.originsWithin(driver.getStartLatitude(), driver.getStartLongitude(), candidateRadius(driver, SimulationParameters.candidateTest), 
+                                            passengerTimeWindows.compatibleWith(driver));
+    }
+    
     public boolean testCandidateFixedRadius(Driver driver, Passenger passenger) {
         return distance(driver.getStartLatitude(),driver.getStartLongitude(), passenger.getStartLatitude(),passenger.getStartLongitude()) +
                 distance(passenger.getStartLatitude(),passenger.getStartLongitude(), passenger.getEndLatitude(),passenger.getEndLongitude()) +
@@ -1602,10 +1759,23 @@ public class Algorithms {
     }
     
     private void BaseMatchSetup(List<Driver> drivers, List<Passenger> passengers) {
+        ho.clearSnapCache();
+        groupOrders.clear();
         passengerSize = passengers.size();
         driverSize = drivers.size();
-        travelDistance = new long[driverSize+2*passengerSize][driverSize+2*passengerSize];
-        tripIDtoTravelDistanceIndex = new HashMap<>(drivers.size()+passengers.size());
+        travelDistance = new SparseDistanceStore(2*driverSize*SimulationParameters.maxNumBaseMatchesPerDriver + passengerSize);
+        int firstID = Integer.MAX_VALUE;
+        int lastID = Integer.MIN_VALUE;
+        for (Driver d : drivers) {
+            firstID = Math.min(firstID, d.getID());
+            lastID = Math.max(lastID, d.getID());
+        }
+        for (Passenger p : passengers) {
+            firstID = Math.min(firstID, p.getID());
+            lastID = Math.max(lastID, p.getID());
+        }
+        tripIDtoTravelDistanceIndex = driverSize + passengerSize == 0 ? new TripIndex() : new TripIndex(firstID, lastID);
+        matchStore = new MatchStore();
         // always drivers before passengers for fixed order for indices.
         int index = 0;
         for (Driver d : drivers) {
@@ -1619,9 +1789,58 @@ public class Algorithms {
     }
     
     public void matchLoadedSetup(List<Driver> drivers, List<Passenger> passengers, int currentHourIndex) {
+        ho.clearSnapCache();
+        groupOrders.clear();
         this.currentHourIndex = currentHourIndex;
         passengerSize = passengers.size();
         driverSize = drivers.size();
+        matchStore = new MatchStore();
+    }
+
+    /*
+     * Copies the feasible path into the match store, with the travel duration and distance from the driver's origin to each stop and to
+     * the driver's destination, for calculateRevenue, calculateCost and verifyMatches. Each leg is timed as they time it:
+     * the leg of the driver's origin at the hour of its departure, and every other leg at the hour of its first stop.
+     */
+    public Match newMatch(Driver driver, int id, SFP sfp) {
+        int driverIndex = tripIDtoTravelDistanceIndex.get(driver.getID());
+        List<Pair<Passenger, Boolean>> originOrDest = sfp.originOrDest;
+        int n = originOrDest.size();
+        long[] duration = new long[n+1];
+        long[] distance = new long[n+1];
+        int from = driver.getStartRegion();
+        int to = stopRegion(originOrDest.get(0));
+        long leg = travelDistance.get(driverIndex, sfp.travelDistanceIndex[0]);
+        distance[0] = leg;
+        duration[0] = (long) (leg / Speed[Math.min((int)(sfp.departureTimeOfDriver / 3600.0), 23)-SimulationParameters.startHour][from][to]);
+        for (int i = 1; i <= n; i++) {
+            from = to;
+            if (i < n) {
+                to = stopRegion(originOrDest.get(i));
+                leg = travelDistance.get(sfp.travelDistanceIndex[i-1], sfp.travelDistanceIndex[i]);
+            } else {
+                to = driver.getEndRegion();
+                leg = travelDistance.get(sfp.travelDistanceIndex[n-1], driverIndex);
+            }
+            distance[i] = distance[i-1] + leg;
+            duration[i] = duration[i-1] + (long) (leg / Speed[sfp.hourIndex[i-1]][from][to]);
+        }
+        MatchStore store = enumerating ? matchSink.storeFor(driver) : null;
+        if (store == null)
+            store = matchStore;
+        return store.add(driverIndex, id, sfp, duration, distance);
+    }
+    
+    private static int stopRegion(Pair<Passenger, Boolean> stop) {
+        return stop.getP2() ? stop.getP1().getEndRegion() : stop.getP1().getStartRegion();
+    }
+    
+    // durations from the driver's origin to each stop of the match
+    private static String stopDurations(Match match) {
+        long[] duration = new long[match.stopCount()];
+        for (int i = 0; i < duration.length; i++)
+            duration[i] = match.getStopDuration(i);
+        return Arrays.toString(duration);
     }
     
     public boolean isThereAnyDuplicateMatch(List<Driver> drivers) {
@@ -1632,10 +1851,10 @@ public class Algorithms {
             for (int n = 0; n < drivers.size(); n++) {
                 driver = drivers.get(n);
                 for (int i = 0; i < driver.getMatches().size(); i++) {
-                    passengersInMatch = driver.getMatches().get(i).sfp.passengers;
+                    passengersInMatch = driver.getMatches().get(i).passengers();
                     endIndex = driver.getIndexLevel().get(passengersInMatch.size()-1);
                     for (int j = i+1; j < endIndex; j++) {
-                        if (driver.getMatches().get(j).sfp.passengers.equals(passengersInMatch))
+                        if (driver.getMatches().get(j).passengers().equals(passengersInMatch))
                             return true;
                     }
                 }
@@ -1657,7 +1876,7 @@ public class Algorithms {
             if (!driver.getMatches().isEmpty()) {
                 List<Match> matches = new ArrayList<>(2);
                 for (Match match : driver.getMatches()) {
-                    if (match.profit < 0)
+                    if (match.getProfit() < 0)
                         matches.add(match);
                 }
                 if (!matches.isEmpty())
@@ -1672,7 +1891,7 @@ public class Algorithms {
         int num = 0;
         for (Driver driver: drivers) {
             for (Match match : driver.getMatches()) {
-                if (match.profit < 0)
+                if (match.getProfit() < 0)
                     num++;
             }
         }
@@ -1684,7 +1903,7 @@ public class Algorithms {
     public void validateSolutionMD(HashMap<Driver, Match> solution) {
         System.out.println("Number of matches before validation: " + solution.size());
         //int driverIndex;
-        SFP sfp;
+        Match match;
         HashMap<Passenger,Integer> passengerStartIndex;     // this is to get the acumalative duration index
         HashMap<Passenger,Integer> passengerEndIndex;       //
         long accumalativeDuration;
@@ -1703,54 +1922,49 @@ public class Algorithms {
         while(matchIter.hasNext()) {
             tempMatch = matchIter.next();
             d = tempMatch.getKey();
-            sfp = tempMatch.getValue().sfp;
-            size = sfp.originOrDest.size();
+            match = tempMatch.getValue();
+            size = match.stopCount();
             // accumalative travel duration from first location to the last location in SFP
             // accumalativeDistance[0] is driver to first passenger's origin
             travelDuration = new long[size];
             accumalativeDuration = 0L;
             hourIndex = new int[size];
             
-            dist = (long)(ho.getDistanceBetweenTwoLocs(d.getStartLongitude(), d.getStartLatitude(),
-                                                       sfp.originOrDest.get(0).getP1().getStartLongitude(), sfp.originOrDest.get(0).getP1().getStartLatitude()));
-            travelDuration[0] = (long) (dist / Speed[currentHourIndex][d.getStartRegion()][sfp.originOrDest.get(0).getP1().getStartRegion()]);
+            dist = (long)(ho.getDistanceBetweenTrips(d, false, match.getStopPassenger(0), false));
+            travelDuration[0] = (long) (dist / Speed[currentHourIndex][d.getStartRegion()][match.getStopPassenger(0).getStartRegion()]);
             
-            driverDeparture = Math.max(d.getDepartureTime(), sfp.originOrDest.get(0).getP1().getDepartureTime() - travelDuration[0]);
+            driverDeparture = Math.max(d.getDepartureTime(), match.getStopPassenger(0).getDepartureTime() - travelDuration[0]);
             arrivedTime = driverDeparture + travelDuration[0];
             hourIndex[0] = Math.min((int)(arrivedTime / 3600.0), 23) - SimulationParameters.startHour;
             
             for (int i = 0; i < size-1; i++) {
-                // from s.travelDistanceIndex[i] to s.travelDistanceIndex[i+1]
-                if (sfp.originOrDest.get(i).getP2()) { // this is the destination of the passenger in index i of SFP
-                    if (sfp.originOrDest.get(i+1).getP2()) {  // the destination of the passenger in index i+1 of SFP
-                        dist = (long)(ho.getDistanceBetweenTwoLocs(sfp.originOrDest.get(i).getP1().getEndLongitude(), sfp.originOrDest.get(i).getP1().getEndLatitude(),
-                                                    sfp.originOrDest.get(i+1).getP1().getEndLongitude(), sfp.originOrDest.get(i+1).getP1().getEndLatitude()));
-                        travelDuration[i+1] = (long) (dist / Speed[hourIndex[i]][sfp.originOrDest.get(i).getP1().getEndRegion()][sfp.originOrDest.get(i+1).getP1().getEndRegion()]);
+                // from match.getTravelDistanceIndex(i) to match.getTravelDistanceIndex(i+1)
+                if (match.isStopDestination(i)) { // this is the destination of the passenger in index i of SFP
+                    if (match.isStopDestination(i+1)) {  // the destination of the passenger in index i+1 of SFP
+                        dist = (long)(ho.getDistanceBetweenTrips(match.getStopPassenger(i), true, match.getStopPassenger(i+1), true));
+                        travelDuration[i+1] = (long) (dist / Speed[hourIndex[i]][match.getStopPassenger(i).getEndRegion()][match.getStopPassenger(i+1).getEndRegion()]);
                     } else {    // the origin of the passenger in index i+1 of SFP
-                        dist = (long)(ho.getDistanceBetweenTwoLocs(sfp.originOrDest.get(i).getP1().getEndLongitude(), sfp.originOrDest.get(i).getP1().getEndLatitude(),
-                                                    sfp.originOrDest.get(i+1).getP1().getStartLongitude(), sfp.originOrDest.get(i+1).getP1().getStartLatitude()));
-                        travelDuration[i+1] = (long) (dist / Speed[hourIndex[i]][sfp.originOrDest.get(i).getP1().getEndRegion()][sfp.originOrDest.get(i+1).getP1().getStartRegion()]);
+                        dist = (long)(ho.getDistanceBetweenTrips(match.getStopPassenger(i), true, match.getStopPassenger(i+1), false));
+                        travelDuration[i+1] = (long) (dist / Speed[hourIndex[i]][match.getStopPassenger(i).getEndRegion()][match.getStopPassenger(i+1).getStartRegion()]);
                     }
                 } else {    // this is the origin of the passenger in index i of SFP
-                    if (sfp.originOrDest.get(i+1).getP2()) {    // the destination of the passenger in index i+1 of SFP
-                        dist = (long)(ho.getDistanceBetweenTwoLocs(sfp.originOrDest.get(i).getP1().getStartLongitude(), sfp.originOrDest.get(i).getP1().getStartLatitude(),
-                                                    sfp.originOrDest.get(i+1).getP1().getEndLongitude(), sfp.originOrDest.get(i+1).getP1().getEndLatitude()));
-                        travelDuration[i+1] = (long) (dist / Speed[hourIndex[i]][sfp.originOrDest.get(i).getP1().getStartRegion()][sfp.originOrDest.get(i+1).getP1().getEndRegion()]);
+                    if (match.isStopDestination(i+1)) {    // the destination of the passenger in index i+1 of SFP
+                        dist = (long)(ho.getDistanceBetweenTrips(match.getStopPassenger(i), false, match.getStopPassenger(i+1), true));
+                        travelDuration[i+1] = (long) (dist / Speed[hourIndex[i]][match.getStopPassenger(i).getStartRegion()][match.getStopPassenger(i+1).getEndRegion()]);
                     } else {    // the destination of the passenger in index i+1 of SFP
-                        dist = (long)(ho.getDistanceBetweenTwoLocs(sfp.originOrDest.get(i).getP1().getStartLongitude(), sfp.originOrDest.get(i).getP1().getStartLatitude(),
-                                                    sfp.originOrDest.get(i+1).getP1().getStartLongitude(), sfp.originOrDest.get(i+1).getP1().getStartLatitude()));
-                        travelDuration[i+1] = (long) (dist / Speed[hourIndex[i]][sfp.originOrDest.get(i).getP1().getStartRegion()][sfp.originOrDest.get(i+1).getP1().getStartRegion()]);
+                        dist = (long)(ho.getDistanceBetweenTrips(match.getStopPassenger(i), false, match.getStopPassenger(i+1), false));
+                        travelDuration[i+1] = (long) (dist / Speed[hourIndex[i]][match.getStopPassenger(i).getStartRegion()][match.getStopPassenger(i+1).getStartRegion()]);
                     }
                 }
                 
                 accumalativeDuration = accumalativeDuration + travelDuration[i+1];
                 arrivedTime = driverDeparture + accumalativeDuration;     // time arrived at l_{j+1}
                 
-                if (!sfp.originOrDest.get(i+1).getP2()) { 
-                    if (sfp.originOrDest.get(i+1).getP1().getDepartureTime() > arrivedTime) {   // there is waiting time if firstDepartureTime is used
+                if (!match.isStopDestination(i+1)) { 
+                    if (match.getStopPassenger(i+1).getDepartureTime() > arrivedTime) {   // there is waiting time if firstDepartureTime is used
                         //System.out.println("There is waiting time at Passegner origin: " + pathToBeTested.get(j+1).getP1().getID());
-                        driverDeparture = sfp.originOrDest.get(i+1).getP1().getDepartureTime() - accumalativeDuration;
-                        arrivedTime = sfp.originOrDest.get(i+1).getP1().getDepartureTime(); // the actual time left at l_{j+1}
+                        driverDeparture = match.getStopPassenger(i+1).getDepartureTime() - accumalativeDuration;
+                        arrivedTime = match.getStopPassenger(i+1).getDepartureTime(); // the actual time left at l_{j+1}
                         /* total duration is not changed if driverDeparture time is set to the latest (the exact time arrived at Passenger's origin) since travel time not changed */
                         //accDuration = accDuration + (pathToBeTested.get(j+1).getP1().getDepartureTime() - arrivedTime);   // the total duration is increased
                     }
@@ -1759,8 +1973,8 @@ public class Algorithms {
             }
             
             // driver max travel duration
-            long driverDur = accumalativeDuration + (long)(ho.getDistanceBetweenTwoLocs(sfp.originOrDest.get(size-1).getP1().getEndLongitude(),sfp.originOrDest.get(size-1).getP1().getEndLatitude(),d.getEndLongitude(), d.getEndLatitude())
-                                                           /Speed[hourIndex[size-1]][sfp.originOrDest.get(size-1).getP1().getEndRegion()][d.getEndRegion()]);
+            long driverDur = accumalativeDuration + (long)(ho.getDistanceBetweenTrips(match.getStopPassenger(size-1), true, d, true)
+                                                           /Speed[hourIndex[size-1]][match.getStopPassenger(size-1).getEndRegion()][d.getEndRegion()]);
             if (driverDur > d.getMaxTravelDuration() || driverDeparture + driverDur > d.getArrivalTime()) {
                 //System.out.println("Match ("+tempMatch.getValue().id + ") is not valid due to Driver's constraint and is removed from the solution.");
                 matchIter.remove();
@@ -1771,14 +1985,15 @@ public class Algorithms {
             passengerStartIndex = new HashMap<>();
             passengerEndIndex = new HashMap<>();
             for (int i = 0; i < size; i++) {
-                if (sfp.originOrDest.get(i).getP2())
-                    passengerEndIndex.put(sfp.originOrDest.get(i).getP1(), i+1);
+                if (match.isStopDestination(i))
+                    passengerEndIndex.put(match.getStopPassenger(i), i+1);
                 else
-                    passengerStartIndex.put(sfp.originOrDest.get(i).getP1(), i+1);
+                    passengerStartIndex.put(match.getStopPassenger(i), i+1);
             }
             long passengerDur;
             invalid = false;
-            for (Passenger p : sfp.passengers) {
+            for (int k = 0; k < match.passengerCount(); k++) {
+                Passenger p = match.getPassenger(k);
                 // calcualte travel duration for passenger
                 passengerDur = 0L;
                 for (int i = passengerStartIndex.get(p); i < passengerEndIndex.get(p); i++)
@@ -1802,6 +2017,8 @@ public class Algorithms {
                 matchIter.remove();
         }
         System.out.println("Number of matches after validation: " + solution.size());
+        ho.displaySnapCacheStatistics();
+        ho.displayLegCacheStatistics();
     }
     
     public void verifySolution(List<Pair<Driver, Match>> solution) {
@@ -1814,7 +2031,7 @@ public class Algorithms {
             } else {
                 driversInSln.add(match.getP1());
             }
-            for (Passenger p : match.getP2().sfp.passengers) {
+            for (Passenger p : match.getP2().passengers()) {
                 if (passengersInSln.contains(p)) {
                     System.out.println("Incorrect solution - multiple passengers.");
                 } else {
@@ -1828,7 +2045,7 @@ public class Algorithms {
         Set<Passenger> passengersInSln = new HashSet<>();
         System.out.println("solution size = " + solution.size());
         for (Map.Entry<Driver, Match> entry : solution.entrySet()) {
-            for (Passenger p : entry.getValue().sfp.passengers) {
+            for (Passenger p : entry.getValue().passengers()) {
                 if (passengersInSln.contains(p)) {
                     System.out.println("Incorrect solution - multiple passengers.");
                 } else {
@@ -1844,7 +2061,7 @@ public class Algorithms {
         
         int profit = 0;
         for (int i = 0; i < solution.size(); i++)
-            profit = profit + solution.get(i).getP2().profit;
+            profit = profit + solution.get(i).getP2().getProfit();
         return profit;
     }
     
@@ -1857,21 +2074,16 @@ public class Algorithms {
             return Integer.MIN_VALUE;
         int profit = 0;
         for (Match entry : solution.values())
-            profit = profit + entry.profit;
+            profit = profit + entry.getProfit();
         return profit;
     }
     
     public void displayData() {
         System.out.format("size of tripIDtoTravelDistanceIndex = %d%n", tripIDtoTravelDistanceIndex.size());
-        for (Map.Entry<Integer, Integer> entry : tripIDtoTravelDistanceIndex.entrySet())
-            System.out.print("("+entry.getKey() +": "+ entry.getValue()+") ");
+        tripIDtoTravelDistanceIndex.forEach((id, index) -> System.out.print("("+id +": "+ index+") "));
         
-        System.out.println("\ntravelDistance:");
-        for (int i = 0; i < travelDistance.length; i++) {
-            for (int j = 0; j < travelDistance[i].length; j++)
-                System.out.format("[%d][%d] = %d ", i,j, travelDistance[i][j]);
-            System.out.println("");
-        }
+        System.out.format("%ntravelDistance (%d legs):%n", travelDistance.size());
+        travelDistance.forEach((i, j, distance) -> System.out.format("[%d][%d] = %d%n", i, j, distance));
     }
     
     public void sortDriversBasedOnMatches(List<Driver> drivers, int sort) {
@@ -1946,8 +2158,8 @@ public class Algorithms {
             executor.submit(() -> {
                     int passengerIndex = tripIDtoTravelDistanceIndex.get(p.getID());
                     // from passenger's origin to passenger's destination
-                    travelDistance[passengerIndex][passengerIndex+passengerSize] = (long) ManhattanDistance(p.getStartLatitude(), p.getStartLongitude(),
-                                                                                                            p.getEndLatitude(), p.getEndLongitude());
+                    travelDistance.put(passengerIndex, passengerIndex+passengerSize, (long) ManhattanDistance(p.getStartLatitude(), p.getStartLongitude(),
+                                                                                                            p.getEndLatitude(), p.getEndLongitude()));
             });
         }
         executor.shutdown();
@@ -1969,7 +2181,7 @@ public class Algorithms {
             executor.submit(() -> {
                     int passengerIndex = tripIDtoTravelDistanceIndex.get(p.getID());
                     // from passenger's origin to passenger's destination
-                    travelDistance[passengerIndex][passengerIndex+passengerSize] = (long) p.getDistance();
+                    travelDistance.put(passengerIndex, passengerIndex+passengerSize, (long) p.getDistance());
             });
         }
         executor.shutdown();
@@ -1989,8 +2201,8 @@ public class Algorithms {
         for (Passenger p: passengers) {
             passengerIndex = tripIDtoTravelDistanceIndex.get(p.getID());
             // from passenger's origin to passenger's destination
-            travelDistance[passengerIndex][passengerIndex+passengerSize] = (long) ManhattanDistance(p.getStartLatitude(), p.getStartLongitude(),
-                                                                                                            p.getEndLatitude(), p.getEndLongitude());
+            travelDistance.put(passengerIndex, passengerIndex+passengerSize, (long) ManhattanDistance(p.getStartLatitude(), p.getStartLongitude(),
+                                                                                                            p.getEndLatitude(), p.getEndLongitude()));
         }
         endTime = System.currentTimeMillis();
         return (endTime - startTime);
@@ -2003,7 +2215,7 @@ public class Algorithms {
         for (Passenger p: passengers) {
             passengerIndex = tripIDtoTravelDistanceIndex.get(p.getID());
             // from passenger's origin to passenger's destination
-            travelDistance[passengerIndex][passengerIndex+passengerSize] = (long) p.getDistance();
+            travelDistance.put(passengerIndex, passengerIndex+passengerSize, (long) p.getDistance());
         }
         endTime = System.currentTimeMillis();
         return (endTime - startTime);
@@ -2018,209 +2230,6 @@ public class Algorithms {
         return (int)temp;
     }
     
-    public void changeToNonNegativeWeight(Graph graph) {       
-        int[] potential = BellmanFordSpecialized(graph);
-        for (MatchEdge edge : graph.edgeSet) {
-            edge.reducedCost = edge.cost + potential[edge.tail] - potential[edge.head];
-            edge.cost = edge.cost + potential[edge.tail] - potential[edge.head];
-        }
-    }
-    
-    // Only three iterations are required, and detecting a negative-weight cycle is not needed.
-    public int[] BellmanFordSpecialized(Graph graph) { 
-        //System.out.println("BellmanFordSpecialized() is called....");
-        int[] distanceFromRoot = new int[graph.outEdges.size()];
-        for (Integer vertex: graph.outEdges.keySet())
-            distanceFromRoot[vertex] = Integer.MAX_VALUE;
-        distanceFromRoot[graph.sourceVertex] = 0;
-        
-        int alt;
-        for (int i = 0; i < 3; i++) {
-            for (MatchEdge edge : graph.edgeSet) {
-                if (distanceFromRoot[edge.tail] != Integer.MAX_VALUE) {
-                    alt = distanceFromRoot[edge.tail] + edge.cost;
-                    if (alt < distanceFromRoot[edge.head])
-                        distanceFromRoot[edge.head] = alt;
-                }
-            }
-        }
-
-        return distanceFromRoot;
-    }
-    
-    public Pair<Integer[], List<MatchEdge>> DijkstraMinHeap(Graph graph) {
-        //System.out.println("DijkstraMinHeap() is called....");
-        Integer[] distanceFromRoot = new Integer[graph.outEdges.size()];
-        MatchEdge[] predecessor = new MatchEdge[graph.outEdges.size()];
-        boolean[] visitedVertex = new boolean[graph.outEdges.size()];
-        PriorityQueue<Pair<Integer, Integer>> toBeVisited = new PriorityQueue<>(new DistComparator());
-        
-        for (Integer vertex : graph.outEdges.keySet()) {
-            distanceFromRoot[vertex] = Integer.MAX_VALUE;
-        }
-        distanceFromRoot[graph.sourceVertex] = 0;
-        toBeVisited.add(new Pair(graph.sourceVertex, 0));
-        
-        Pair<Integer, Integer> currentVertex;
-        int alt;
-        while (!toBeVisited.isEmpty()) {
-            currentVertex = toBeVisited.poll();
-            //toBeVisited.remove(currentVertex);
-            visitedVertex[currentVertex.getP1()] = true;
-            
-            for (MatchEdge edge : graph.outEdges.get(currentVertex.getP1())) {
-                //alt = distanceFromRoot[currentVertex.getP1()] + edge.reducedCost;
-                alt = currentVertex.getP2() + edge.reducedCost;
-                if (alt < distanceFromRoot[edge.head]) {
-                    distanceFromRoot[edge.head] = alt;
-                    predecessor[edge.head] = edge;
-                    
-                    if (!visitedVertex[edge.head])
-                        toBeVisited.add(new Pair(edge.head, distanceFromRoot[edge.head]));
-                }
-            }
-        }
-        
-        List<MatchEdge> st_Path = null;
-        MatchEdge target = predecessor[graph.sinkVertex];
-        if (target != null || Objects.equals(target, graph.sourceVertex)) {
-            st_Path = new ArrayList<>();
-            //st_Path.add(graph.sinkVertex);
-            while (target != null) {
-                //System.out.println("Current target vertex: " + target);
-                st_Path.add(target);
-                target = predecessor[target.tail];
-                /*if (Objects.equals(target, graph.sourceVertex)) {
-                    st_Path.add(graph.sourceVertex);
-                    break;
-                }*/
-            }
-        }
-        
-        return new Pair(distanceFromRoot, st_Path);
-    }
-    
-    public Triple<Integer[], List<MatchEdge>, Set<Integer>> DijkstraFibonacciHeapEarlyStop(Graph graph) {
-        //System.out.println("DijkstraMinHeap() is called....");
-        Integer[] distanceFromRoot = new Integer[graph.outEdges.size()];
-        MatchEdge[] predecessor = new MatchEdge[graph.outEdges.size()];
-        boolean[] visitedVertex = new boolean[graph.outEdges.size()];
-        Set<Integer> permanent = new HashSet<>();
-		
-        FibonacciHeap toBeVisited = new FibonacciHeap();
-        // <data, key>
-        toBeVisited.insert(0, graph.sourceVertex);
-        
-        for (Integer vertex : graph.outEdges.keySet()) {
-            distanceFromRoot[vertex] = Integer.MAX_VALUE;
-        }
-        distanceFromRoot[graph.sourceVertex] = 0;
-        
-        Integer currentVertex;
-        int alt;
-        while (!toBeVisited.isEmpty()) {
-            currentVertex = (Integer) toBeVisited.removeMin();
-            visitedVertex[currentVertex] = true;
-            
-            for (MatchEdge edge : graph.outEdges.get(currentVertex)) {
-                alt = distanceFromRoot[currentVertex] + edge.reducedCost;
-                if (alt < distanceFromRoot[edge.head]) {
-                    distanceFromRoot[edge.head] = alt;
-                    predecessor[edge.head] = edge;
-                    
-                    if (!visitedVertex[edge.head])
-                        toBeVisited.insert(edge.head, distanceFromRoot[edge.head]);
-                }
-            }
-            permanent.add(currentVertex);
-            if (Objects.equals(currentVertex, graph.sinkVertex))
-                break;
-        }
-        
-        List<MatchEdge> st_Path = null;
-        MatchEdge target = predecessor[graph.sinkVertex];
-        if (target != null || Objects.equals(target, graph.sourceVertex)) {
-            st_Path = new ArrayList<>();
-            //st_Path.add(graph.sinkVertex);
-            while (target != null) {
-                //System.out.println("Current target vertex: " + target);
-                st_Path.add(target);
-                target = predecessor[target.tail];
-                /*if (Objects.equals(target, graph.sourceVertex)) {
-                    st_Path.add(graph.sourceVertex);
-                    break;
-                }*/
-            }
-        }
-        
-        return new Triple(distanceFromRoot, st_Path, permanent);
-    }
-    
-    public Pair<Integer[], List<MatchEdge>> DijkstraFibonacciHeap(Graph graph) {
-        //System.out.println("DijkstraMinHeap() is called....");
-        Integer[] distanceFromRoot = new Integer[graph.outEdges.size()];
-        MatchEdge[] predecessor = new MatchEdge[graph.outEdges.size()];
-        boolean[] visitedVertex = new boolean[graph.outEdges.size()];
-        FibonacciHeap toBeVisited = new FibonacciHeap();
-        // <data, key>
-        toBeVisited.insert(0, graph.sourceVertex);
-        
-        for (Integer vertex : graph.outEdges.keySet()) {
-            distanceFromRoot[vertex] = Integer.MAX_VALUE;
-        }
-        distanceFromRoot[graph.sourceVertex] = 0;
-        
-        //Node currentVertex;
-        Integer currentVertex;
-        int alt;
-        while (!toBeVisited.isEmpty()) {
-            currentVertex = (Integer) toBeVisited.removeMin();
-            //toBeVisited.removeMin();
-            visitedVertex[currentVertex] = true;
-            
-            for (MatchEdge edge : graph.outEdges.get(currentVertex)) {
-                alt = distanceFromRoot[currentVertex] + edge.reducedCost;
-                if (alt < distanceFromRoot[edge.head]) {
-                    distanceFromRoot[edge.head] = alt;
-                    predecessor[edge.head] = edge;
-                    
-                    if (!visitedVertex[edge.head])
-                        toBeVisited.insert(edge.head, distanceFromRoot[edge.head]);
-                }
-            }
-        }
-        
-        List<MatchEdge> st_Path = null;
-        MatchEdge target = predecessor[graph.sinkVertex];
-        if (target != null || Objects.equals(target, graph.sourceVertex)) {
-            st_Path = new ArrayList<>();
-            //st_Path.add(graph.sinkVertex);
-            while (target != null) {
-                //System.out.println("Current target vertex: " + target);
-                st_Path.add(target);
-                target = predecessor[target.tail];
-                /*if (Objects.equals(target, graph.sourceVertex)) {
-                    st_Path.add(graph.sourceVertex);
-                    break;
-                }*/
-            }
-        }
-        
-        return new Pair(distanceFromRoot, st_Path);
-    }
-    
-    public class DistComparator implements Comparator<Pair<Integer,Integer>> {
-        
-        @Override
-        public int compare(Pair<Integer, Integer> e1, Pair<Integer, Integer> e2) {
-            if (e1.getP2() > e2.getP2())
-                return 1;
-            else if (e1.getP2() < e2.getP2())
-                return -1;
-            return 0;
-        }
-    }
-    
     // Sort the drivers in descending order of the number of matches for each driver 
     public class DriverMatchesMaxComparator implements Comparator<Driver> {
         public DriverMatchesMaxComparator() {}
@@ -2292,8 +2301,8 @@ public class Algorithms {
 
         @Override
         public int compare(Match a1, Match a2) {
-            Passenger p1 = a1.sfp.passengers.iterator().next();
-            Passenger p2 = a2.sfp.passengers.iterator().next();
+            Passenger p1 = a1.getPassenger(0);
+            Passenger p2 = a2.getPassenger(0);
             if (p1.getNAssignments() > p2.getNAssignments())
                 return 1;
             else if (p1.getNAssignments() < p2.getNAssignments())
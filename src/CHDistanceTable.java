@@ -0,0 +1,316 @@
+package simulation;
+
+import com.graphhopper.routing.ch.ShortcutUnpacker;
+import com.graphhopper.routing.util.EdgeFilter;
+import com.graphhopper.routing.weighting.Weighting;
+import com.graphhopper.storage.RoutingCHEdgeExplorer;
+import com.graphhopper.storage.RoutingCHEdgeIterator;
+import com.graphhopper.storage.RoutingCHGraph;
+import com.graphhopper.storage.index.LocationIndex;
+import com.graphhopper.util.EdgeIterator;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/*
+ * Many-to-many distance table on the contraction hierarchy (bucket-based).
+ * A backward upward search from every target leaves (target, weight, distance) entries in the buckets of the settled nodes,
+ * then one forward upward search from every source scans the buckets to get the shortest paths to all of its requested targets.
+ * As in a single query, a location is snapped to a point on the closest edge and the searches start from both ends of that edge.
+ * The weights of a search and the buckets are kept by node in arrays of the table, reset through the list of the nodes they touched.
+ * Not thread-safe: use one table per thread.
+ */
+public class CHDistanceTable {
+    private final RoutingCHGraph chGraph;
+    private final LocationIndex locationIndex;
+    private final EdgeFilter snapFilter;
+    private final Weighting weighting;
+    private final RoutingCHEdgeExplorer outExplorer;
+    private final RoutingCHEdgeExplorer inExplorer;
+    private final ShortcutUnpacker unpacker;
+    private final EdgeDistances edgeDistance = new EdgeDistances();     // distance (in meter) of CH edges, shortcuts are unpacked once
+    private double unpackedDistance;
+
+    // weight of each node reached by the current search, +infinity for the others
+    private final double[] weights;
+    private int[] reached = new int[64];
+    private int reachedCount = 0;
+
+    // bucket of each node: linked entries in the order they were added, -1 for none
+    private final int[] bucketHead;
+    private final int[] bucketTail;
+    private int[] bucketNodes = new int[64];
+    private int bucketNodeCount = 0;
+    private int[] entryNext = new int[256];
+    private int[] entryTarget = new int[256];
+    private double[] entryWeight = new double[256];
+    private double[] entryDistance = new double[256];
+    private int entryCount = 0;
+
+    public CHDistanceTable(RoutingCHGraph chGraph, LocationIndex locationIndex, EdgeFilter snapFilter) {
+        this.chGraph = chGraph;
+        this.locationIndex = locationIndex;
+        this.snapFilter = snapFilter;
+        weighting = chGraph.getWeighting();
+        outExplorer = chGraph.createOutEdgeExplorer();
+        inExplorer = chGraph.createInEdgeExplorer();
+        unpacker = new ShortcutUnpacker(chGraph, (edge, reverse, prevOrNextEdgeId) -> unpackedDistance += edge.getDistance(), false);
+        weights = new double[chGraph.getNodes()];
+        Arrays.fill(weights, Double.POSITIVE_INFINITY);
+        bucketHead = new int[chGraph.getNodes()];
+        bucketTail = new int[chGraph.getNodes()];
+        Arrays.fill(bucketHead, -1);
+    }
+
+    @FunctionalInterface
+    public interface TableConsumer {
+        void accept(int source, int target, double distance);
+    }
+
+    @FunctionalInterface
+    private interface SettledVisitor {
+        void settled(int node, double weight, double distance);
+    }
+
+    private static class SearchEntry implements Comparable<SearchEntry> {
+        final int node;
+        final double weight;
+        final double distance;
+
+        SearchEntry(int node, double weight, double distance) {
+            this.node = node;
+            this.weight = weight;
+            this.distance = distance;
+        }
+
+        @Override
+        public int compareTo(SearchEntry o) {
+            return Double.compare(weight, o.weight);
+        }
+    }
+
+    // distance by CH edge ID, open addressing
+    private static class EdgeDistances {
+        private int[] keys = new int[1024];
+        private double[] values = new double[1024];
+        private int size = 0;
+
+        EdgeDistances() {
+            Arrays.fill(keys, -1);
+        }
+
+        private int slotOf(int[] table, int edge) {
+            int mask = table.length - 1;
+            int slot = (edge * 0x9E3779B9) >>> 1 & mask;
+            while (table[slot] != -1 && table[slot] != edge)
+                slot = (slot + 1) & mask;
+            return slot;
+        }
+
+        // NaN if the edge has no distance yet
+        double get(int edge) {
+            int slot = slotOf(keys, edge);
+            return keys[slot] == edge ? values[slot] : Double.NaN;
+        }
+
+        void put(int edge, double distance) {
+            if (2*(size+1) > keys.length) {
+                int[] oldKeys = keys;
+                double[] oldValues = values;
+                keys = new int[oldKeys.length*2];
+                values = new double[oldKeys.length*2];
+                Arrays.fill(keys, -1);
+                for (int i = 0; i < oldKeys.length; i++) {
+                    if (oldKeys[i] != -1) {
+                        int slot = slotOf(keys, oldKeys[i]);
+                        keys[slot] = oldKeys[i];
+                        values[slot] = oldValues[i];
+                    }
+                }
+            }
+            int slot = slotOf(keys, edge);
+            if (keys[slot] != edge) {
+                keys[slot] = edge;
+                size++;
+            }
+            values[slot] = distance;
+        }
+    }
+
+    // search entries to leave the location (reverse = false) or to arrive at it (reverse = true)
+    private static List<SearchEntry> startEntries(SnappedLocation snapped, boolean reverse) {
+        List<SearchEntry> entries = new ArrayList<>(2);
+        for (SnappedLocation.EdgeEnd end : snapped.ends(reverse))
+            entries.add(new SearchEntry(end.node, end.weight, end.distance));
+        return entries;
+    }
+
+    private SnappedLocation snap(Location loc) {
+        return SnappedLocation.of(locationIndex.findClosest(loc.getLatitude(), loc.getLongitude(), snapFilter), weighting);
+    }
+
+    /*
+     * requestedTargets[i] lists the positions (in targets) of the targets needed from sources.get(i).
+     * The consumer receives the distance (in meter) of every requested pair that is connected; the number of such pairs is returned.
+     */
+    public int compute(List<Location> sources, List<Location> targets, int[][] requestedTargets, TableConsumer consumer) {
+        boolean[] targetNeeded = new boolean[targets.size()];
+        for (int[] requested : requestedTargets)
+            for (int j : requested)
+                targetNeeded[j] = true;
+
+        SnappedLocation[] snappedTargets = new SnappedLocation[targets.size()];
+        for (int j = 0; j < targets.size(); j++) {
+            if (!targetNeeded[j])
+                continue;
+            snappedTargets[j] = snap(targets.get(j));
+            if (snappedTargets[j] == null)
+                continue;
+            final int target = j;
+            upwardSearch(startEntries(snappedTargets[j], true), true, (node, weight, distance) -> addToBucket(node, target, weight, distance));
+        }
+
+        int[] slotOfTarget = new int[targets.size()];
+        Arrays.fill(slotOfTarget, -1);
+        int found = 0;
+        for (int i = 0; i < sources.size(); i++) {
+            int[] requested = requestedTargets[i];
+            if (requested.length == 0)
+                continue;
+            SnappedLocation source = snap(sources.get(i));
+            if (source == null)
+                continue;
+
+            double[] bestWeight = new double[requested.length];
+            double[] bestDistance = new double[requested.length];
+            Arrays.fill(bestWeight, Double.POSITIVE_INFINITY);
+            for (int k = 0; k < requested.length; k++) {
+                slotOfTarget[requested[k]] = k;
+                directOnSameEdge(source, snappedTargets[requested[k]], bestWeight, bestDistance, k);
+            }
+
+            upwardSearch(startEntries(source, false), false, (node, weight, distance) -> {
+                for (int e = bucketHead[node]; e >= 0; e = entryNext[e]) {
+                    int k = slotOfTarget[entryTarget[e]];
+                    if (k >= 0 && weight + entryWeight[e] < bestWeight[k]) {
+                        bestWeight[k] = weight + entryWeight[e];
+                        bestDistance[k] = distance + entryDistance[e];
+                    }
+                }
+            });
+
+            for (int k = 0; k < requested.length; k++) {
+                slotOfTarget[requested[k]] = -1;
+                if (bestWeight[k] < Double.POSITIVE_INFINITY) {
+                    consumer.accept(i, requested[k], bestDistance[k]);
+                    found++;
+                }
+            }
+        }
+        clearBuckets();
+        return found;
+    }
+
+    private void addToBucket(int node, int target, double weight, double distance) {
+        if (entryCount == entryNext.length) {
+            int length = entryCount*2;
+            entryNext = Arrays.copyOf(entryNext, length);
+            entryTarget = Arrays.copyOf(entryTarget, length);
+            entryWeight = Arrays.copyOf(entryWeight, length);
+            entryDistance = Arrays.copyOf(entryDistance, length);
+        }
+        int e = entryCount++;
+        entryNext[e] = -1;
+        entryTarget[e] = target;
+        entryWeight[e] = weight;
+        entryDistance[e] = distance;
+        if (bucketHead[node] < 0) {
+            if (bucketNodeCount == bucketNodes.length)
+                bucketNodes = Arrays.copyOf(bucketNodes, bucketNodeCount*2);
+            bucketNodes[bucketNodeCount++] = node;
+            bucketHead[node] = e;
+        } else {
+            entryNext[bucketTail[node]] = e;
+        }
+        bucketTail[node] = e;
+    }
+
+    private void clearBuckets() {
+        for (int i = 0; i < bucketNodeCount; i++)
+            bucketHead[bucketNodes[i]] = -1;
+        bucketNodeCount = 0;
+        entryCount = 0;
+    }
+
+    // source and target on the same edge can be connected without passing any node
+    private void directOnSameEdge(SnappedLocation source, SnappedLocation target, double[] bestWeight, double[] bestDistance, int k) {
+        if (target == null || !source.sharesEdgeWith(target))
+            return;
+        double targetFraction = source.fractionOf(target);
+        double edgeWeight = targetFraction >= source.fraction ? source.forwardWeight : source.backwardWeight;
+        if (Double.isInfinite(edgeWeight))
+            return;
+        double part = Math.abs(targetFraction - source.fraction);
+        bestWeight[k] = edgeWeight * part;
+        bestDistance[k] = source.edgeLength * part;
+    }
+
+    // Dijkstra restricted to edges going up in the hierarchy, reverse is for the backward search to a target
+    private void upwardSearch(List<SearchEntry> startEntries, boolean reverse, SettledVisitor visitor) {
+        RoutingCHEdgeExplorer explorer = reverse ? inExplorer : outExplorer;
+        PriorityQueue<SearchEntry> queue = new PriorityQueue<>();
+        for (SearchEntry entry : startEntries) {
+            if (entry.weight < weights[entry.node]) {
+                reach(entry.node, entry.weight);
+                queue.add(entry);
+            }
+        }
+        SearchEntry current;
+        while (!queue.isEmpty()) {
+            current = queue.poll();
+            if (current.weight > weights[current.node])    // outdated entry
+                continue;
+            visitor.settled(current.node, current.weight, current.distance);
+
+            int level = chGraph.getLevel(current.node);
+            RoutingCHEdgeIterator iter = explorer.setBaseNode(current.node);
+            while (iter.next()) {
+                int adjNode = iter.getAdjNode();
+                if (chGraph.getLevel(adjNode) < level)
+                    continue;
+                double edgeWeight = iter.getWeight(reverse);
+                if (Double.isInfinite(edgeWeight))
+                    continue;
+                double weight = current.weight + edgeWeight;
+                if (weight < weights[adjNode]) {
+                    reach(adjNode, weight);
+                    queue.add(new SearchEntry(adjNode, weight, current.distance + distanceOf(iter)));
+                }
+            }
+        }
+        for (int i = 0; i < reachedCount; i++)
+            weights[reached[i]] = Double.POSITIVE_INFINITY;
+        reachedCount = 0;
+    }
+
+    private void reach(int node, double weight) {
+        if (weights[node] == Double.POSITIVE_INFINITY) {
+            if (reachedCount == reached.length)
+                reached = Arrays.copyOf(reached, reachedCount*2);
+            reached[reachedCount++] = node;
+        }
+        weights[node] = weight;
+    }
+
+    private double distanceOf(RoutingCHEdgeIterator iter) {
+        double distance = edgeDistance.get(iter.getEdge());
+        if (Double.isNaN(distance)) {
+            unpackedDistance = 0;
+            unpacker.visitOriginalEdgesFwd(iter.getEdge(), iter.getAdjNode(), false, EdgeIterator.NO_EDGE);
+            distance = unpackedDistance;
+            edgeDistance.put(iter.getEdge(), distance);
+        }
+        return distance;
+    }
+}
@@ -0,0 +1,330 @@
+package simulation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.Set;
+
+/*
+ * Timing of the successive shortest path algorithm of RPCOne.ExactNF with each implementation of Dijkstra's algorithm: the indexed heap
+ * of FlowNetwork, and the Graph based variants it replaced (DijkstraFibonacciHeapEarlyStop, which ExactNF used, DijkstraFibonacciHeap and
+ * DijkstraMinHeap, kept here as they were in Algorithms). A plain main, as the simulation has no build to run JMH from: each variant is warmed
+ * up, then the median of the timed runs is reported. The network is built before the timing, from a random instance of single-passenger
+ * matches; the flow is augmented until no s-t path is left, and every variant has to end with the same total profit.
+ * Arguments: drivers, passengers, matches per driver, timed runs, seed (default 400 1000 50 5 1).
+ */
+public class DijkstraBenchmark {
+    private static final int WARMUP = 3;
+
+    public static void main(String[] args) {
+        int numDrivers = args.length > 0 ? Integer.parseInt(args[0]) : 400;
+        int numPassengers = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        int matchesPerDriver = args.length > 2 ? Integer.parseInt(args[2]) : 50;
+        int runs = args.length > 3 ? Integer.parseInt(args[3]) : 5;
+        long seed = args.length > 4 ? Long.parseLong(args[4]) : 1;
+        List<List<Match>> matches = randomMatches(numDrivers, numPassengers, matchesPerDriver, seed);
+        System.out.println("Drivers: " + numDrivers + ", passengers: " + numPassengers + ", matches per driver: " + matchesPerDriver + ", runs: " + runs);
+
+        String[] variant = {"IndexedHeap (FlowNetwork)", "FibonacciHeap early stop (Graph)", "FibonacciHeap (Graph)", "PriorityQueue (Graph, DijkstraMinHeap)"};
+        for (int v = 0; v < variant.length; v++) {
+            long[] time = new long[runs];
+            int profit = 0;
+            for (int r = -WARMUP; r < runs; r++) {
+                long[] result = v == 0 ? solveFlowNetwork(matches) : solveGraph(matches, v);
+                if (r >= 0)
+                    time[r] = result[1];
+                profit = (int) result[0];
+            }
+            Arrays.sort(time);
+            System.out.format("%-40s median %8.2f ms, min %8.2f ms, total profit %d%n", variant[v], time[runs/2]/1e6, time[0]/1e6, profit);
+        }
+    }
+
+    // matches of each driver to distinct random passengers, with profits in [-100, 200) dollars
+    private static List<List<Match>> randomMatches(int numDrivers, int numPassengers, int matchesPerDriver, long seed) {
+        Random random = new Random(seed);
+        List<Passenger> passengers = new ArrayList<>(numPassengers);
+        for (int j = 0; j < numPassengers; j++)
+            passengers.add(new Passenger(numDrivers + j, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0));
+        MatchStore store = new MatchStore();
+        List<List<Match>> matches = new ArrayList<>(numDrivers);
+        int id = 0;
+        for (int i = 0; i < numDrivers; i++) {
+            Collections.shuffle(passengers, random);
+            List<Match> driverMatches = new ArrayList<>(matchesPerDriver);
+            for (Passenger passenger : passengers.subList(0, Math.min(matchesPerDriver, numPassengers))) {
+                List<Pair<Passenger, Boolean>> originOrDest = new ArrayList<>(2);
+                originOrDest.add(new Pair<>(passenger, false));
+                originOrDest.add(new Pair<>(passenger, true));
+                Match match = store.add(i, id++, new SFP(Collections.singleton(passenger), originOrDest, new int[2], new int[2], 0), new long[3], new long[3]);
+                match.setProfit(random.nextInt(30000) - 10000);
+                driverMatches.add(match);
+            }
+            matches.add(driverMatches);
+        }
+        return matches;
+    }
+
+    // {total profit, nanoseconds}
+    private static long[] solveFlowNetwork(List<List<Match>> matches) {
+        FlowNetwork N = new FlowNetwork(0, 0);
+        HashMap<Passenger, Integer> passengerVertex = new HashMap<>();
+        int driverVertex;
+        Passenger passenger;
+        for (List<Match> driverMatches : matches) {
+            driverVertex = N.addVertex();
+            N.addEdge(FlowNetwork.SOURCE, driverVertex, null, 0);
+            for (Match match : driverMatches) {
+                passenger = match.getPassenger(0);
+                if (!passengerVertex.containsKey(passenger)) {
+                    passengerVertex.put(passenger, N.addVertex());
+                    N.addEdge(passengerVertex.get(passenger), FlowNetwork.SINK, null, 0);
+                }
+                N.addEdge(driverVertex, passengerVertex.get(passenger), match, -match.getProfit());
+            }
+        }
+        N.build();
+
+        long startTime = System.nanoTime();
+        N.changeToNonNegativeWeight();
+        int[] nodePotential = new int[N.vertexCount()];
+        int totalProfit = 0;
+        int arc;
+        while (N.shortestPath()) {
+            for (arc = N.predecessorArc(FlowNetwork.SINK); arc >= 0; arc = N.predecessorArc(N.arcTail(arc)))
+                totalProfit += N.arcProfit(arc);
+            N.updatePotentials(nodePotential);
+            for (arc = N.predecessorArc(FlowNetwork.SINK); arc >= 0; arc = N.predecessorArc(N.arcTail(arc)))
+                N.augment(arc);
+        }
+        return new long[]{totalProfit, System.nanoTime() - startTime};
+    }
+
+    // the loop of ExactNF before FlowNetwork, with the Dijkstra variant v
+    private static long[] solveGraph(List<List<Match>> matches, int v) {
+        int edgeId = 0;
+        Graph N = new Graph(matches.size() + 2, 0);
+        N.addVertex(0);
+        N.sourceVertex = 0;
+        N.addVertex(1);
+        N.sinkVertex = 1;
+        HashMap<Passenger, Integer> passengerVertex = new HashMap<>();
+        int vertexId = 2;
+        int driverVertex;
+        Passenger passenger;
+        for (List<Match> driverMatches : matches) {
+            driverVertex = vertexId++;
+            N.addVertex(driverVertex);
+            N.addEdge(new MatchEdge(edgeId++, 0, driverVertex, null, 0));
+            for (Match match : driverMatches) {
+                passenger = match.getPassenger(0);
+                if (!passengerVertex.containsKey(passenger)) {
+                    passengerVertex.put(passenger, vertexId);
+                    N.addVertex(vertexId);
+                    N.addEdge(new MatchEdge(edgeId++, vertexId, 1, null, 0));
+                    vertexId++;
+                }
+                N.addEdge(new MatchEdge(edgeId++, driverVertex, passengerVertex.get(passenger), match, -match.getProfit()));
+            }
+        }
+
+        long startTime = System.nanoTime();
+        changeToNonNegativeWeight(N);
+        Integer[] nodePotential = new Integer[N.outEdges.size()];
+        for (Integer u : N.outEdges.keySet())
+            nodePotential[u] = 0;
+        int totalProfit = 0;
+        Integer temp;
+        while (true) {
+            Triple<Integer[], List<MatchEdge>, Set<Integer>> pair;
+            if (v == 1) {
+                pair = DijkstraFibonacciHeapEarlyStop(N);
+            } else {
+                Pair<Integer[], List<MatchEdge>> full = v == 2 ? DijkstraFibonacciHeap(N) : DijkstraMinHeap(N);
+                pair = new Triple<>(full.getP1(), full.getP2(), null);
+            }
+            Integer[] distanceFromRoot = pair.getP1();
+            List<MatchEdge> st_Path = pair.getP2();
+            if (st_Path == null)
+                break;
+            for (MatchEdge edge : st_Path)
+                totalProfit += edge.reversedEdge ? -edge.profit : edge.profit;
+            // without the early stop, a vertex at most as far as the sink changes its potential as if it had been made permanent
+            for (Integer u : N.outEdges.keySet()) {
+                if (pair.getP3() != null ? pair.getP3().contains(u) : distanceFromRoot[u] <= distanceFromRoot[N.sinkVertex])
+                    nodePotential[u] = nodePotential[u] - distanceFromRoot[u] + distanceFromRoot[N.sinkVertex];
+            }
+            for (MatchEdge e : N.edgeSet) {
+                if (!e.reversedEdge)
+                    e.reducedCost = e.cost - nodePotential[e.tail] + nodePotential[e.head];
+            }
+            for (MatchEdge edge : st_Path) {
+                edge.reversedEdge = !edge.reversedEdge;
+                N.outEdges.get(edge.head).add(edge);
+                N.outEdges.get(edge.tail).remove(edge);
+                temp = edge.head;
+                edge.head = edge.tail;
+                edge.tail = temp;
+            }
+        }
+        return new long[]{totalProfit, System.nanoTime() - startTime};
+    }
+
+    private static void changeToNonNegativeWeight(Graph graph) {
+        int[] potential = BellmanFordSpecialized(graph);
+        for (MatchEdge edge : graph.edgeSet) {
+            edge.reducedCost = edge.cost + potential[edge.tail] - potential[edge.head];
+            edge.cost = edge.cost + potential[edge.tail] - potential[edge.head];
+        }
+    }
+
+    // Only three iterations are required, and detecting a negative-weight cycle is not needed.
+    private static int[] BellmanFordSpecialized(Graph graph) {
+        int[] distanceFromRoot = new int[graph.outEdges.size()];
+        for (Integer vertex: graph.outEdges.keySet())
+            distanceFromRoot[vertex] = Integer.MAX_VALUE;
+        distanceFromRoot[graph.sourceVertex] = 0;
+
+        int alt;
+        for (int i = 0; i < 3; i++) {
+            for (MatchEdge edge : graph.edgeSet) {
+                if (distanceFromRoot[edge.tail] != Integer.MAX_VALUE) {
+                    alt = distanceFromRoot[edge.tail] + edge.cost;
+                    if (alt < distanceFromRoot[edge.head])
+                        distanceFromRoot[edge.head] = alt;
+                }
+            }
+        }
+        return distanceFromRoot;
+    }
+
+    private static Pair<Integer[], List<MatchEdge>> DijkstraMinHeap(Graph graph) {
+        Integer[] distanceFromRoot = new Integer[graph.outEdges.size()];
+        MatchEdge[] predecessor = new MatchEdge[graph.outEdges.size()];
+        boolean[] visitedVertex = new boolean[graph.outEdges.size()];
+        PriorityQueue<Pair<Integer, Integer>> toBeVisited = new PriorityQueue<>(new DistComparator());
+
+        for (Integer vertex : graph.outEdges.keySet()) {
+            distanceFromRoot[vertex] = Integer.MAX_VALUE;
+        }
+        distanceFromRoot[graph.sourceVertex] = 0;
+        toBeVisited.add(new Pair<>(graph.sourceVertex, 0));
+
+        Pair<Integer, Integer> currentVertex;
+        int alt;
+        while (!toBeVisited.isEmpty()) {
+            currentVertex = toBeVisited.poll();
+            visitedVertex[currentVertex.getP1()] = true;
+
+            for (MatchEdge edge : graph.outEdges.get(currentVertex.getP1())) {
+                alt = currentVertex.getP2() + edge.reducedCost;
+                if (alt < distanceFromRoot[edge.head]) {
+                    distanceFromRoot[edge.head] = alt;
+                    predecessor[edge.head] = edge;
+
+                    if (!visitedVertex[edge.head])
+                        toBeVisited.add(new Pair<>(edge.head, distanceFromRoot[edge.head]));
+                }
+            }
+        }
+        return new Pair<>(distanceFromRoot, path(graph, predecessor));
+    }
+
+    private static Triple<Integer[], List<MatchEdge>, Set<Integer>> DijkstraFibonacciHeapEarlyStop(Graph graph) {
+        Integer[] distanceFromRoot = new Integer[graph.outEdges.size()];
+        MatchEdge[] predecessor = new MatchEdge[graph.outEdges.size()];
+        boolean[] visitedVertex = new boolean[graph.outEdges.size()];
+        Set<Integer> permanent = new HashSet<>();
+
+        FibonacciHeap toBeVisited = new FibonacciHeap();
+        // <data, key>
+        toBeVisited.insert(graph.sourceVertex, 0);
+
+        for (Integer vertex : graph.outEdges.keySet()) {
+            distanceFromRoot[vertex] = Integer.MAX_VALUE;
+        }
+        distanceFromRoot[graph.sourceVertex] = 0;
+
+        Integer currentVertex;
+        int alt;
+        while (!toBeVisited.isEmpty()) {
+            currentVertex = (Integer) toBeVisited.removeMin();
+            visitedVertex[currentVertex] = true;
+
+            for (MatchEdge edge : graph.outEdges.get(currentVertex)) {
+                alt = distanceFromRoot[currentVertex] + edge.reducedCost;
+                if (alt < distanceFromRoot[edge.head]) {
+                    distanceFromRoot[edge.head] = alt;
+                    predecessor[edge.head] = edge;
+
+                    if (!visitedVertex[edge.head])
+                        toBeVisited.insert(edge.head, distanceFromRoot[edge.head]);
+                }
+            }
+            permanent.add(currentVertex);
+            if (Objects.equals(currentVertex, graph.sinkVertex))
+                break;
+        }
+        return new Triple<>(distanceFromRoot, path(graph, predecessor), permanent);
+    }
+
+    private static Pair<Integer[], List<MatchEdge>> DijkstraFibonacciHeap(Graph graph) {
+        Integer[] distanceFromRoot = new Integer[graph.outEdges.size()];
+        MatchEdge[] predecessor = new MatchEdge[graph.outEdges.size()];
+        boolean[] visitedVertex = new boolean[graph.outEdges.size()];
+        FibonacciHeap toBeVisited = new FibonacciHeap();
+        // <data, key>
+        toBeVisited.insert(graph.sourceVertex, 0);
+
+        for (Integer vertex : graph.outEdges.keySet()) {
+            distanceFromRoot[vertex] = Integer.MAX_VALUE;
+        }
+        distanceFromRoot[graph.sourceVertex] = 0;
+
+        Integer currentVertex;
+        int alt;
+        while (!toBeVisited.isEmpty()) {
+            currentVertex = (Integer) toBeVisited.removeMin();
+            visitedVertex[currentVertex] = true;
+
+            for (MatchEdge edge : graph.outEdges.get(currentVertex)) {
+                alt = distanceFromRoot[currentVertex] + edge.reducedCost;
+                if (alt < distanceFromRoot[edge.head]) {
+                    distanceFromRoot[edge.head] = alt;
+                    predecessor[edge.head] = edge;
+
+                    if (!visitedVertex[edge.head])
+                        toBeVisited.insert(edge.head, distanceFromRoot[edge.head]);
+                }
+            }
+        }
+        return new Pair<>(distanceFromRoot, path(graph, predecessor));
+    }
+
+    // the edges of the s-t path from the sink back to the source, null if the sink was not reached
+    private static List<MatchEdge> path(Graph graph, MatchEdge[] predecessor) {
+        MatchEdge target = predecessor[graph.sinkVertex];
+        if (target == null)
+            return null;
+        List<MatchEdge> st_Path = new ArrayList<>();
+        while (target != null) {
+            st_Path.add(target);
+            target = predecessor[target.tail];
+        }
+        return st_Path;
+    }
+
+    private static class DistComparator implements Comparator<Pair<Integer,Integer>> {
+        @Override
+        public int compare(Pair<Integer, Integer> e1, Pair<Integer, Integer> e2) {
+            return Integer.compare(e1.getP2(), e2.getP2());
+        }
+    }
+}
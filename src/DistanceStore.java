@@ -0,0 +1,37 @@
+package simulation;
+
+import java.util.function.LongSupplier;
+
+/**
+ * Travel distance (in meter) between two trip locations, keyed by the travelDistance indices
+ * [D.source + P.source + P.dest] x [D.dest + P.source + P.dest]. A leg that has not been stored yet has distance 0.
+ */
+public interface DistanceStore {
+    long get(int fromIndex, int toIndex);
+    
+    void put(int fromIndex, int toIndex, long distance);
+    
+    boolean contains(int fromIndex, int toIndex);
+    
+    // returns the stored distance, or routes the leg exactly once even if several threads ask for it at the same time
+    long computeIfAbsent(int fromIndex, int toIndex, LongSupplier router);
+    
+    int size();
+    
+    void clear();
+    
+    void forEach(LegConsumer consumer);
+    
+    long getHits();
+    
+    long getMisses();
+    
+    long getDuplicatesSuppressed();
+    
+    void resetStatistics();
+    
+    @FunctionalInterface
+    public interface LegConsumer {
+        void accept(int fromIndex, int toIndex, long distance);
+    }
+}
@@ -1,20 +1,33 @@
 package simulation;
 
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class DriverConsumer implements Runnable {
+    private static final int SplitThreshold = 32;  // matches of a level expanded by one task at least before splitting it
     private final Algorithms Alg;
     private final Driver driver;
-    private SFP bestSFP = null;
-    private long currentBestDist = Long.MAX_VALUE;
+    private final FeasibilityKernel feasibilityKernel;
+    private final RouteSearch routeSearch;
+    private Thread owner;                       // thread running the driver; subtasks on other threads use their own kernel
+    
+    // groups of the driver, shared by the subtasks of a level and only changed between levels
+    private List<Passenger> passengerList;
+    private List<long[]> matchPassengers;       // passengers of each match of the driver, as bits over passengerList
+    private PassengerGroupIndex groupIndex;     // match index of each group of the driver
+    private long[][] adjacency;                 // of the passengers of the driver, null without the shareability graph
+    private ProfitBound profitBound;            // null unless groups are dropped by their profit bound
+    private int words;
 
     public DriverConsumer(Algorithms alg, Driver driver) {
         Alg = alg;
         this.driver = driver;
+        this.feasibilityKernel = new FeasibilityKernel(alg, false);
+        this.routeSearch = new RouteSearch(alg, driver);
     }
 
     @Override
@@ -26,71 +39,60 @@ public class DriverConsumer implements Runnable {
             return;
         
         long startTime = System.currentTimeMillis();
-        List<Passenger> passengerList;
-        Set<Passenger> currentMatchPassengers;
-        Set<Passenger> extendMatchPassengers;
-        Set<Passenger> temp;
-        List<Integer> skipIndices;
+        List<Segment> segments;
+        AtomicInteger found;            // matches found in the level so far
+        int limit;
+        int added;
         int capLimit;
         int endIndex;
         int startIndex;
-        boolean observation = false;
-        Match m;
         
         //System.out.println("Driver "+driverId+": "+Thread.currentThread().getName());
         
+        owner = Thread.currentThread();
         passengerList = new ArrayList<>(counter);
-        skipIndices=  new ArrayList<>(counter*2);
+        matchPassengers = new ArrayList<>(counter*2);
+        words = PassengerBits.words(counter);
+        groupIndex = new PassengerGroupIndex(words, counter*2);
         for (int i = 0; i < counter; i++) {	 // every match consists of 1 passenger at this point
-            passengerList.addAll(driver.getMatches().get(i).sfp.passengers);
-            skipIndices.add(i);
+            passengerList.addAll(driver.getMatches().get(i).passengers());
+            matchPassengers.add(PassengerBits.of(words, i));
+            groupIndex.add(matchPassengers.get(i), i);
         }
+        adjacency = Alg.shareability == null ? null : Alg.shareability.localAdjacency(passengerList, words);
+        profitBound = Alg.profitBound(driver, passengerList);
             
         capLimit = 2;
         startIndex = 0;
 		
         while (driver.getCapacity() >= capLimit) {
             endIndex = driver.getMatches().size();
-            for (int i = startIndex; i < endIndex; i++) {	// grow each match
-                currentMatchPassengers = driver.getMatches().get(i).sfp.passengers;
-                for (int index = 0; index < passengerList.size(); index++) {        // grow each match with a passenger
-                    if (index <= skipIndices.get(i))
-                        continue;
-
-                    // try to expand the current sigma set by including the new passenger
-                    extendMatchPassengers = new HashSet<>(currentMatchPassengers);
-                    extendMatchPassengers.add(passengerList.get(index));
-
-                    temp = new HashSet<>(extendMatchPassengers);
-                    for (Passenger p: currentMatchPassengers) { // check (currentSet \setminus pID \cup passenger), and it must be true to be considered 
-                        observation = false;
-                        temp.remove(p);
-                        for (int j = startIndex; j < endIndex; j++) {
-                            if (temp.equals(driver.getMatches().get(j).sfp.passengers)) {
-                                observation = true;
-                                break;
-                            }
-                        }
-                        if (!observation)
-                            break;
-                        temp.add(p);
-                    }
-                    if (!observation)		// observation does not hold for this passenger
-                        continue;		// skips this passenger
-					
-                    // check if the extendMatchPassengers has a feasible shortest path
-                    m = constructMatch(driver, extendMatchPassengers);
-                    if (m != null) {
-                        driver.addMatch(m);
-                        Alg.calculateProfit(m, driver);
-                        if (driver.getMatches().size() % 5000 == 0)
-                            System.out.println("Driver " + driver.getID() + ": Added " + counter + " matches and taken "+(System.currentTimeMillis()- startTime) + " milliseconds.");
-                        if (driver.getMatches().size() >= SimulationParameters.maxNumMatchesPerDriver) {
-                            //System.out.println("Processed: Driver "+driver.getID()+" with "+driver.getMatches().size()+" matches took "+(System.currentTimeMillis()- startTime)+" milliseconds to finish.");
-                            driver.addIndexLevel(driver.getMatches().size());
-                            return;
-                        }
-                        skipIndices.add(index);
+            limit = SimulationParameters.maxNumMatchesPerDriver - endIndex;
+            found = new AtomicInteger();
+            // the new groups of a level are found from the groups of the previous level only, so its matches can be expanded in parallel
+            if (ForkJoinTask.inForkJoinPool()) {
+                segments = new LevelTask(startIndex, endIndex, found, limit).invoke();
+            } else {
+                segments = new ArrayList<>(1);
+                segments.add(expand(new Segment(startIndex, endIndex), this, found, limit));
+            }
+            // added in the order of the serial expansion
+            added = 0;
+            for (Segment segment : segments) {
+                if (!segment.isComplete())      // stopped since the level had enough matches, but those before it may not be among them
+                    expand(segment, this, new AtomicInteger(added + segment.extensions.size()), limit);
+                for (Extension e : segment.extensions) {
+                    driver.addMatch(e.match);
+                    matchPassengers.add(e.passengers);
+                    groupIndex.add(e.passengers, driver.getMatches().size()-1);
+                    Alg.calculateProfit(e.match, driver);
+                    added++;
+                    if (driver.getMatches().size() % 5000 == 0)
+                        System.out.println("Driver " + driver.getID() + ": Added " + counter + " matches and taken "+(System.currentTimeMillis()- startTime) + " milliseconds.");
+                    if (driver.getMatches().size() >= SimulationParameters.maxNumMatchesPerDriver) {
+                        //System.out.println("Processed: Driver "+driver.getID()+" with "+driver.getMatches().size()+" matches took "+(System.currentTimeMillis()- startTime)+" milliseconds to finish.");
+                        driver.addIndexLevel(driver.getMatches().size());
+                        return;
                     }
                 }
             }
@@ -103,103 +105,163 @@ public class DriverConsumer implements Runnable {
         }
     }
     
-    private boolean computeFeasiblePath(Driver driver, Set<Passenger> passengers, List<Pair<Passenger, Boolean>> originOrDest) {
-        int size = originOrDest.size();
-        int[] travelDistanceIndex = new int[size];
-        int[] hourIndex = new int[size];
-        long[] travelDuration = new long[size];
-        int driverIndex = Alg.tripIDtoTravelDistanceIndex.get(driver.getID());
-        int passengerIndex;
-        long driverDeparture;
-        long arrivedTime;
-        long accDuration;
-        
-        for (int i = 0; i < size; i++) {
-            passengerIndex = Alg.tripIDtoTravelDistanceIndex.get(originOrDest.get(i).getP1().getID());
-            if (originOrDest.get(i).getP2())  // destination of passenger at index j
-                travelDistanceIndex[i] = passengerIndex+Alg.passengerSize;
-            else                     // origin of passenger at index j
-                travelDistanceIndex[i] = passengerIndex;
-        }
-        
-        travelDuration[0] = (long) (Alg.travelDistance[driverIndex][travelDistanceIndex[0]] / 
-                                        Alg.Speed[Alg.currentHourIndex][driver.getStartRegion()][originOrDest.get(0).getP1().getStartRegion()]);
-        accDuration = travelDuration[0];
-        
-        driverDeparture = Math.max(driver.getDepartureTime(), originOrDest.get(0).getP1().getDepartureTime() - travelDuration[0]);     
-        arrivedTime = driverDeparture + travelDuration[0];
-        hourIndex[0] = Math.min((int)(arrivedTime / 3600.0), 23) - SimulationParameters.startHour;
-        int j;
-        for (j = 0; j < size-1; j++) {
-            if (Alg.travelDistance[travelDistanceIndex[j]][travelDistanceIndex[j+1]] == 0)
-                Alg.travelDistance[travelDistanceIndex[j]][travelDistanceIndex[j+1]] = 
-                                    (long) (Alg.ho.getDistanceBetweenTwoLocs(Alg.getPassengerODLocations(originOrDest.get(j)), Alg.getPassengerODLocations(originOrDest.get(j+1))));
-            travelDuration[j+1] = (long) (Alg.travelDistance[travelDistanceIndex[j]][travelDistanceIndex[j+1]] /
-                        Alg.Speed[hourIndex[j]][Alg.getPassengerRegionIndex(originOrDest.get(j))][Alg.getPassengerRegionIndex(originOrDest.get(j+1))]); // from l_j to l_{j+1}
-            accDuration = accDuration + travelDuration[j+1];
-            arrivedTime = driverDeparture + accDuration;     // time arrived at l_{j+1}
-            
-            if (!originOrDest.get(j+1).getP2()) {   // if this the origin of passenger at index j+1
-                // Due to earliest departure times for all drivers and passengers are in the same interval, they all have the same travel speed in the beginning.
-                //driverDeparture = Math.max(driver.getDepartureTime(), pathToBeTested.get(j+1).getP1().getDepartureTime() - accDuration);
-                if (originOrDest.get(j+1).getP1().getDepartureTime() > arrivedTime) {   // there is waiting time if firstDepartureTime is used
-                    //System.out.println("There is waiting time at Passegner origin: " + pathToBeTested.get(j+1).getP1().getID());
-                    driverDeparture =  originOrDest.get(j+1).getP1().getDepartureTime() - accDuration;
-                    arrivedTime = originOrDest.get(j+1).getP1().getDepartureTime(); // the actual time left at l_{j+1}
-                    /* total duration is not changed if driverDeparture time is set to the latest (the exact time arrived at Passenger's origin) since travel time not changed */
-                    //accDuration = accDuration + (pathToBeTested.get(j+1).getP1().getDepartureTime() - arrivedTime);   // the total duration is increased
+    /*
+     * Grows the matches of the segment with the routes of consumer, from where the segment stopped.
+     * Stops once the matches found in the level (found) reach limit, the number the driver can still take.
+     */
+    private Segment expand(Segment segment, DriverConsumer consumer, AtomicInteger found, int limit) {
+        long[] currentMatchPassengers;
+        long[] extendMatchPassengers = new long[words];
+        long[] candidates = new long[words];     // passengers adjacent to every passenger of the current match
+        boolean observation = false;
+        Match m;
+        for (int i = segment.index; i < segment.endIndex; i++) {	// grow each match
+            currentMatchPassengers = matchPassengers.get(i);
+            PassengerBits.adjacentToAll(currentMatchPassengers, adjacency, candidates);
+            int index = i == segment.index && segment.passenger >= 0 ? segment.passenger : PassengerBits.last(currentMatchPassengers)+1;
+            for (index = PassengerBits.next(candidates, index); index >= 0 && index < passengerList.size(); index = PassengerBits.next(candidates, index+1)) {        // grow each match with a later passenger adjacent to all of its passengers
+                if (found.get() >= limit) {
+                    segment.index = i;
+                    segment.passenger = index;
+                    return segment;
+                }
+                // try to expand the current sigma set by including the new passenger
+                System.arraycopy(currentMatchPassengers, 0, extendMatchPassengers, 0, words);
+                PassengerBits.set(extendMatchPassengers, index);
+
+                // check (currentSet \setminus pID \cup passenger), and it must be true to be considered
+                for (int p = PassengerBits.next(currentMatchPassengers, 0); p >= 0; p = PassengerBits.next(currentMatchPassengers, p+1)) {
+                    PassengerBits.flip(extendMatchPassengers, p);
+                    observation = groupIndex.indexOf(extendMatchPassengers) >= 0;
+                    PassengerBits.flip(extendMatchPassengers, p);
+                    if (!observation)
+                        break;
+                }
+                if (!observation)		// observation does not hold for this passenger
+                    continue;		// skips this passenger
+                if (profitBound != null && !profitBound.canBeNonNegative(extendMatchPassengers))
+                    continue;       // neither this group nor any group containing it can have a non-negative profit
+
+                // check if the extendMatchPassengers has a feasible shortest path
+                m = consumer.constructMatch(driver, PassengerBits.toSet(extendMatchPassengers, passengerList), driver.getMatches().get(i), passengerList.get(index));
+                if (m != null) {
+                    segment.extensions.add(new Extension(m, extendMatchPassengers.clone()));
+                    found.incrementAndGet();
                 }
             }
-            hourIndex[j+1] = Math.min((int)(arrivedTime / 3600.0), 23) - SimulationParameters.startHour;
         }
-        
-        long driverDur = accDuration + (long) (Alg.travelDistance[travelDistanceIndex[j]][driverIndex] /
-                                Alg.Speed[hourIndex[j]][Alg.getPassengerRegionIndex(originOrDest.get(j))][driver.getEndRegion()]);
+        segment.index = segment.endIndex;
+        return segment;
+    }
+    
+    // new matches of a level grown from the matches from index to endIndex, and where the expansion stopped
+    private static class Segment {
+        private final List<Extension> extensions = new ArrayList<>();
+        private final int endIndex;
+        private int index;              // next match to grow
+        private int passenger = -1;     // next passenger to add to it, -1 for the first one after its passengers
 
-        if (driverDur > driver.getMaxTravelDuration() || driverDeparture + driverDur > driver.getArrivalTime()) {
-            return false;
+        private Segment(int index, int endIndex) {
+            this.index = index;
+            this.endIndex = endIndex;
         }
-        // driver is okay, now check each passenger
-        HashMap<Passenger,Integer> passengerStartIndex = new HashMap<>();
-        HashMap<Passenger,Integer> passengerEndIndex  = new HashMap<>();
-        for (int i = 0; i < originOrDest.size(); i++) {
-            if (originOrDest.get(i).getP2())
-                passengerEndIndex.put(originOrDest.get(i).getP1(), i+1);
-            else
-                passengerStartIndex.put(originOrDest.get(i).getP1(), i+1);
+
+        private boolean isComplete() {
+            return index >= endIndex;
         }
-        long passengerDur;
-        for (Passenger p : passengers) {
-            passengerDur = 0L;
-            for (int i = passengerStartIndex.get(p); i < passengerEndIndex.get(p); i++)
-                passengerDur = passengerDur + travelDuration[i];
-            if (passengerDur > p.getMaxTravelDuration())
-                return false;
-            passengerDur = passengerDur + driverDeparture;
-            for (int i = 0; i < passengerStartIndex.get(p); i++)
-                passengerDur = passengerDur + travelDuration[i];
-            if (passengerDur > p.getArrivalTime())
-                return false;
+    }
+    
+    // a new match of a level and its passengers
+    private static class Extension {
+        private final Match match;
+        private final long[] passengers;
+
+        private Extension(Match match, long[] passengers) {
+            this.match = match;
+            this.passengers = passengers;
         }
+    }
+    
+    /*
+     * Expansion of a range of matches of a level. The range is halved while other workers have no queued tasks to take,
+     * and the segments are returned in range order, the order of the serial expansion.
+     */
+    private class LevelTask extends RecursiveTask<List<Segment>> {
+        private static final long serialVersionUID = 1L;
+        private final int startIndex;
+        private final int endIndex;
+        private final AtomicInteger found;
+        private final int limit;
 
-        //
-        if (driverDur < currentBestDist) {
-            List<Pair<Passenger, Boolean>> originOrDestCopy = new ArrayList<>(originOrDest.size());
-            for (Pair pair : originOrDest)
-                originOrDestCopy.add(new Pair(pair.getP1(), pair.getP2()));
+        private LevelTask(int startIndex, int endIndex, AtomicInteger found, int limit) {
+            this.startIndex = startIndex;
+            this.endIndex = endIndex;
+            this.found = found;
+            this.limit = limit;
+        }
 
-            currentBestDist = driverDur;
-            bestSFP = new SFP(passengers, originOrDestCopy, travelDistanceIndex, hourIndex, driverDeparture);
+        @Override
+        protected List<Segment> compute() {
+            if (endIndex - startIndex > SplitThreshold && getSurplusQueuedTaskCount() <= 2) {
+                int middle = (startIndex + endIndex) >>> 1;
+                LevelTask right = new LevelTask(middle, endIndex, found, limit);
+                right.fork();
+                List<Segment> segments = new LevelTask(startIndex, middle, found, limit).compute();
+                segments.addAll(right.join());
+                return segments;
+            }
+            DriverConsumer consumer = Thread.currentThread() == owner ? DriverConsumer.this : new DriverConsumer(Alg, driver);
+            List<Segment> segments = new ArrayList<>(1);
+            segments.add(expand(new Segment(startIndex, endIndex), consumer, found, limit));
+            DriverScheduler.taskDone();
+            return segments;
         }
-        return true;
+    }
+    
+    private boolean computeFeasiblePath(Driver driver, Set<Passenger> passengers, List<Pair<Passenger, Boolean>> originOrDest) {
+        return feasibilityKernel.computeFeasiblePath(driver, passengers, originOrDest);
+    }
+    
+    private Match constructMatch(Driver driver, Set<Passenger> passengers, Match parent, Passenger passenger) {
+        GroupOrderMemo.GroupOrders orders = Alg.groupOrders.get(passengers);
+        if (orders != null && !orders.isFeasible())
+            return null;        // no order of the stops of the group is feasible, whatever the driver
+        SFP sfp;
+        if (SimulationParameters.routeConstruction == 1)
+            sfp = routeSearch.insert(parent, passenger, passengers);
+        else if (SimulationParameters.routeConstruction == 2)
+            sfp = routeSearch.exact(passengers);
+        else if (orders != null && orders.hasOrders())
+            return constructMatch(driver, passengers, orders);
+        else
+            return constructMatch(driver, passengers);
+        if (sfp == null)
+            return null;
+        return Alg.newMatch(driver, 0, sfp);
+    }
+    
+    // tests only the orders of the stops kept for the group by the memo, each with the driver's own first and last legs;
+    // routes of equal duration are ranked in Heap's order, so the route is the one of the permutation search
+    private Match constructMatch(Driver driver, Set<Passenger> passengers, GroupOrderMemo.GroupOrders orders) {
+        List<Pair<Passenger, Boolean>> originOrDest = new ArrayList<>(passengers.size()*2);
+        int[] slot = orders.groupSlots(passengers);
+        int[] stop = new int[passengers.size()*2];
+        feasibilityKernel.reset();
+        for (int k = 0; k < orders.orderCount(); k++) {
+            orders.route(k, originOrDest, slot, stop);
+            feasibilityKernel.computeFeasiblePath(driver, passengers, originOrDest, stop);
+        }
+        SFP sfp = feasibilityKernel.best();
+        if (sfp == null)
+            return null;
+        return Alg.newMatch(driver, 0, sfp);
     }
     
     private Match constructMatch(Driver driver, Set<Passenger> passengers) {
         List<Pair<Passenger, Boolean>> originOrDest = new ArrayList<>(passengers.size()*2); // <(Passenger), (false = origin, true = destination)>
         int[] indexes = new int[passengers.size()*2];
         Pair<Passenger, Boolean> temp;
-        bestSFP = null;
-        currentBestDist = Long.MAX_VALUE;
+        feasibilityKernel.reset();
         
         //int numValidRoutes = 1;
         //int count = 1;
@@ -245,8 +307,9 @@ public class DriverConsumer implements Runnable {
         }
         
         //System.out.println("Number of permutations: " + count +". Number of valid routes tested: " + numValidRoutes);
-        if (bestSFP == null)
+        SFP sfp = feasibilityKernel.best();
+        if (sfp == null)
             return null;
-        return new Match(bestSFP);
+        return Alg.newMatch(driver, 0, sfp);
     }
 }
\ No newline at end of file
@@ -2,7 +2,6 @@ package simulation;
 
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 
@@ -12,12 +11,12 @@ public class DriverConsumerDP implements Runnable {
     private final Algorithms Alg;
     private final Driver driver;
     //private long startTime = 0L;
-    private SFP bestSFP = null;
-    private long currentBestDist = Long.MAX_VALUE;
+    private final FeasibilityKernel feasibilityKernel;
 
     public DriverConsumerDP(Algorithms alg, Driver driver) {
         Alg = alg;
         this.driver = driver;
+        this.feasibilityKernel = new FeasibilityKernel(alg, false);
     }
     
     @Override
@@ -30,30 +29,41 @@ public class DriverConsumerDP implements Runnable {
         
         long startTime = System.currentTimeMillis();
         List<Passenger> passengerList;
-        Set<Passenger> currentMatchPassengers;
-        Set<Passenger> extendMatchPassengers;
+        List<long[]> matchPassengers;     // passengers of each match of the driver, as bits over passengerList
+        long[] currentMatchPassengers;
+        long[] extendMatchPassengers;
+        long[] candidates;                 // passengers adjacent to every passenger of the current match
+        long[][] adjacency;                // of the passengers of the driver, null without the shareability graph
+        ProfitBound profitBound;           // null unless groups are dropped by their profit bound
+        int words;
+        PassengerGroupIndex groupIndex;        // match index of each group of the driver
         HashMap<Integer, List<FeasiblePath>> feasiblePathsForMatchAtIndex;
-        List<Integer> skipIndices;
         int capLimit;
         int endIndex;
         int startIndex;
         boolean observation = false;
         Pair<Match, List<FeasiblePath>> matchAndPaths;
-        Set<Passenger> temp;
         FeasiblePath feasiblePath;
         
         passengerList = new ArrayList<>(counter);
-        skipIndices=  new ArrayList<>(counter*2);
+        matchPassengers = new ArrayList<>(counter*2);
+        words = PassengerBits.words(counter);
+        groupIndex = new PassengerGroupIndex(words, counter*2);
         feasiblePathsForMatchAtIndex = new HashMap<>(counter);
         for (int i = 0; i < counter; i++) {	 // every match consists of 1 passenger at this point
-            passengerList.addAll(driver.getMatches().get(i).sfp.passengers);
+            passengerList.addAll(driver.getMatches().get(i).passengers());
             feasiblePathsForMatchAtIndex.put(i, new ArrayList<>(1));
             feasiblePath = new FeasiblePath();
             feasiblePath.addLocation(new Pair(passengerList.get(i),false));
             feasiblePath.addLocation(new Pair(passengerList.get(i),true));
             feasiblePathsForMatchAtIndex.get(i).add(feasiblePath);
-            skipIndices.add(i);
+            matchPassengers.add(PassengerBits.of(words, i));
+            groupIndex.add(matchPassengers.get(i), i);
         }
+        extendMatchPassengers = new long[words];
+        candidates = new long[words];
+        adjacency = Alg.shareability == null ? null : Alg.shareability.localAdjacency(passengerList, words);
+        profitBound = Alg.profitBound(driver, passengerList);
 
         capLimit = 2;
         startIndex = 0;
@@ -61,38 +71,35 @@ public class DriverConsumerDP implements Runnable {
         while (driver.getCapacity() >= capLimit) {
             endIndex = driver.getMatches().size();
             for (int i = startIndex; i < endIndex; i++) {	// grow each match, based on the previous computed/stored feasible paths
-                currentMatchPassengers = driver.getMatches().get(i).sfp.passengers;
-                for (int index = 0; index < passengerList.size(); index++) {        // grow each match with a passenger
-                    if (index <= skipIndices.get(i))
-                        continue;
+                currentMatchPassengers = matchPassengers.get(i);
+                PassengerBits.adjacentToAll(currentMatchPassengers, adjacency, candidates);
+                for (int index = PassengerBits.next(candidates, PassengerBits.last(currentMatchPassengers)+1); index >= 0 && index < passengerList.size(); index = PassengerBits.next(candidates, index+1)) {        // grow each match with a later passenger adjacent to all of its passengers
+                    // try to expand the current sigma set by including the new passenger
+                    System.arraycopy(currentMatchPassengers, 0, extendMatchPassengers, 0, words);
+                    PassengerBits.set(extendMatchPassengers, index);
 
-                    extendMatchPassengers = new HashSet<>(currentMatchPassengers);
-                    extendMatchPassengers.add(passengerList.get(index));
-
-                    temp = new HashSet<>(extendMatchPassengers);
-                    for (Passenger p: currentMatchPassengers) { // check (currentSet \setminus pID \cup passenger), and it must be true to be considered 
-                        observation = false;
-                        temp.remove(p);
-                        for (int j = startIndex; j < endIndex; j++) {
-                            if (temp.equals(driver.getMatches().get(j).sfp.passengers)) {
-                                observation = true;
-                                break;
-                            }
-                        }
+                    // check (currentSet \setminus pID \cup passenger), and it must be true to be considered
+                    for (int p = PassengerBits.next(currentMatchPassengers, 0); p >= 0; p = PassengerBits.next(currentMatchPassengers, p+1)) {
+                        PassengerBits.flip(extendMatchPassengers, p);
+                        observation = groupIndex.indexOf(extendMatchPassengers) >= 0;
+                        PassengerBits.flip(extendMatchPassengers, p);
                         if (!observation)
                             break;
-                        temp.add(p);
                     }
                     if (!observation)		// observation does not hold for this passenger
                         continue;		// skips this passenger
+                    if (profitBound != null && !profitBound.canBeNonNegative(extendMatchPassengers))
+                        continue;       // neither this group nor any group containing it can have a non-negative profit
 
                     if (feasiblePathsForMatchAtIndex.get(i) == null) {
                         System.out.println("Match at index (" +i+ ")");
                     }
                     // check if the extendMatchPassengers has a feasible shortest path                        
-                    matchAndPaths = constructMatch(driver, extendMatchPassengers, passengerList.get(index), feasiblePathsForMatchAtIndex.get(i));
+                    matchAndPaths = constructMatch(driver, PassengerBits.toSet(extendMatchPassengers, passengerList), passengerList.get(index), feasiblePathsForMatchAtIndex.get(i));
                     if (matchAndPaths != null) {
                         driver.addMatch(matchAndPaths.getP1());
+                        matchPassengers.add(extendMatchPassengers.clone());
+                        groupIndex.add(extendMatchPassengers, driver.getMatches().size()-1);
                         Alg.calculateProfit(matchAndPaths.getP1(), driver);
                         if (driver.getMatches().size() % 5000 == 0)
                             System.out.println("Driver " + driver.getID() + ": Added " + counter + " matches and taken "+(System.currentTimeMillis()- startTime) + " milliseconds.");
@@ -101,7 +108,6 @@ public class DriverConsumerDP implements Runnable {
                             driver.addIndexLevel(driver.getMatches().size());
                             return;
                         }
-                        skipIndices.add(index);
                         feasiblePathsForMatchAtIndex.put(driver.getMatches().size()-1, matchAndPaths.getP2());
                     }
                 }
@@ -117,12 +123,13 @@ public class DriverConsumerDP implements Runnable {
     }
     
     private Pair<Match, List<FeasiblePath>> constructMatch(Driver driver, Set<Passenger> passengers, Passenger passenger, List<FeasiblePath> feasiblePaths) {
+        GroupOrderMemo.GroupOrders orders = Alg.groupOrders.get(passengers);
+        if (orders != null && !orders.isFeasible())
+            return null;        // no order of the stops of the group is feasible, whatever the driver
         int size = feasiblePaths.get(0).originOrDest.size() + 2;
         List<Pair<Passenger, Boolean>> pathToBeTested = new ArrayList<>(size); // <(Passenger), (false = origin, true = destination)>
         List<FeasiblePath> newFeasiblePaths = new ArrayList<>();
-        FeasiblePath feasiblePath;
-        bestSFP = null;
-        currentBestDist = Long.MAX_VALUE;
+        feasibilityKernel.reset();
         //int count = 1;
         int startIndex;
         int endIndex;
@@ -148,10 +155,7 @@ public class DriverConsumerDP implements Runnable {
                         pathToBeTested.set(i, fp.originOrDest.get(i-2));
 
                     if (computeFeasiblePath(driver, passengers, pathToBeTested)) {
-                        feasiblePath = new FeasiblePath(size);
-                        for (Pair pair : pathToBeTested)
-                            feasiblePath.addLocation(new Pair(pair.getP1(), pair.getP2()));
-                        newFeasiblePaths.add(feasiblePath);
+                        newFeasiblePaths.add(new FeasiblePath(new ArrayList<>(pathToBeTested)));   // the stops are shared, they are never changed
                     }
                 }
                 startIndex++;
@@ -159,99 +163,13 @@ public class DriverConsumerDP implements Runnable {
         }
         
         //System.out.println("Number of permutations: " + count +". Number of valid routes tested: " + numValidRoutes);
-        if (bestSFP == null)
+        SFP sfp = feasibilityKernel.best();
+        if (sfp == null)
             return null;
-        return new Pair(new Match(bestSFP), newFeasiblePaths);
+        return new Pair(Alg.newMatch(driver, 0, sfp), newFeasiblePaths);
     }
     
     private boolean computeFeasiblePath(Driver driver, Set<Passenger> passengers, List<Pair<Passenger, Boolean>> originOrDest) {
-        int size = originOrDest.size();
-        int[] travelDistanceIndex = new int[size];
-        int[] hourIndex = new int[size];
-        long[] travelDuration = new long[size];
-        int driverIndex = Alg.tripIDtoTravelDistanceIndex.get(driver.getID());
-        int passengerIndex;
-        long driverDeparture;
-        long arrivedTime;
-        long accDuration;
-        
-        for (int i = 0; i < size; i++) {
-            passengerIndex = Alg.tripIDtoTravelDistanceIndex.get(originOrDest.get(i).getP1().getID());
-            if (originOrDest.get(i).getP2())  // destination of passenger at index j
-                travelDistanceIndex[i] = passengerIndex+Alg.passengerSize;
-            else                     // origin of passenger at index j
-                travelDistanceIndex[i] = passengerIndex;
-        }
-        
-        travelDuration[0] = (long) (Alg.travelDistance[driverIndex][travelDistanceIndex[0]] / 
-                                        Alg.Speed[Alg.currentHourIndex][driver.getStartRegion()][originOrDest.get(0).getP1().getStartRegion()]);
-        accDuration = travelDuration[0];
-        
-        driverDeparture = Math.max(driver.getDepartureTime(), originOrDest.get(0).getP1().getDepartureTime() - travelDuration[0]);    
-        arrivedTime = driverDeparture + travelDuration[0];
-        hourIndex[0] = Math.min((int)(arrivedTime / 3600.0), 23) - SimulationParameters.startHour;
-        int j;
-        for (j = 0; j < size-1; j++) {
-            if (Alg.travelDistance[travelDistanceIndex[j]][travelDistanceIndex[j+1]] == 0)
-                Alg.travelDistance[travelDistanceIndex[j]][travelDistanceIndex[j+1]] = 
-                                    (long) (Alg.ho.getDistanceBetweenTwoLocs(Alg.getPassengerODLocations(originOrDest.get(j)), Alg.getPassengerODLocations(originOrDest.get(j+1))));
-            travelDuration[j+1] = (long) (Alg.travelDistance[travelDistanceIndex[j]][travelDistanceIndex[j+1]] /
-                        Alg.Speed[hourIndex[j]][Alg.getPassengerRegionIndex(originOrDest.get(j))][Alg.getPassengerRegionIndex(originOrDest.get(j+1))]); // from l_j to l_{j+1}
-            accDuration = accDuration + travelDuration[j+1];
-            arrivedTime = driverDeparture + accDuration;     // time arrived at l_{j+1}
-            
-            if (!originOrDest.get(j+1).getP2()) {   // if this the origin of passenger at index j+1
-                // Due to earliest departure times for all drivers and passengers are in the same interval, they all have the same travel speed in the beginning.
-                //driverDeparture = Math.max(driver.getDepartureTime(), pathToBeTested.get(j+1).getP1().getDepartureTime() - accDuration);
-                if (originOrDest.get(j+1).getP1().getDepartureTime() > arrivedTime) {   // there is waiting time if firstDepartureTime is used
-                    //System.out.println("There is waiting time at Passegner origin: " + pathToBeTested.get(j+1).getP1().getID());
-                    driverDeparture =  originOrDest.get(j+1).getP1().getDepartureTime() - accDuration;
-                    arrivedTime = originOrDest.get(j+1).getP1().getDepartureTime(); // the actual time left at l_{j+1}
-                    /* total duration is not changed if driverDeparture time is set to the latest (the exact time arrived at Passenger's origin) since travel time not changed */
-                    //accDuration = accDuration + (pathToBeTested.get(j+1).getP1().getDepartureTime() - arrivedTime);   // the total duration is increased
-                }
-            }
-            hourIndex[j+1] = Math.min((int)(arrivedTime / 3600.0), 23) - SimulationParameters.startHour;
-        }
-        
-        long driverDur = accDuration + (long) (Alg.travelDistance[travelDistanceIndex[j]][driverIndex] /
-                                Alg.Speed[hourIndex[j]][Alg.getPassengerRegionIndex(originOrDest.get(j))][driver.getEndRegion()]);
-        if (driverDur > driver.getMaxTravelDuration() || driverDeparture + driverDur > driver.getArrivalTime()) {
-            return false;
-        }
-        // driver is okay, now check each passenger
-        HashMap<Passenger,Integer> passengerStartIndex = new HashMap<>();
-        HashMap<Passenger,Integer> passengerEndIndex  = new HashMap<>();
-        for (int i = 0; i < size; i++) {
-            if (originOrDest.get(i).getP2())
-                passengerEndIndex.put(originOrDest.get(i).getP1(), i+1);
-            else
-                passengerStartIndex.put(originOrDest.get(i).getP1(), i+1);
-        }
-        long passengerDur;
-        for (Passenger p : passengers) {
-            passengerDur = 0L;
-            for (int i = passengerStartIndex.get(p); i < passengerEndIndex.get(p); i++)
-                passengerDur = passengerDur + travelDuration[i];
-            if (passengerDur > p.getMaxTravelDuration())
-                return false;
-            
-            passengerDur = passengerDur + driverDeparture;
-            for (int i = 0; i < passengerStartIndex.get(p); i++)
-                passengerDur = passengerDur + travelDuration[i];
-            if (passengerDur > p.getArrivalTime())
-                return false;
-        }
-        
-        //
-        if (driverDur < currentBestDist) {
-            List<Pair<Passenger, Boolean>> originOrDestCopy = new ArrayList<>(originOrDest.size());
-            for (Pair pair : originOrDest)
-                originOrDestCopy.add(new Pair(pair.getP1(), pair.getP2()));
-
-            currentBestDist = driverDur;
-            bestSFP = new SFP(passengers, originOrDestCopy, travelDistanceIndex, hourIndex, driverDeparture);
-        }
-        return true;
+        return feasibilityKernel.computeFeasiblePath(driver, passengers, originOrDest);
     }
 }
\ No newline at end of file
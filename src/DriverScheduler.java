@@ -0,0 +1,118 @@
+package simulation;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.function.Function;
+
+/*
+ * Runs the match enumeration of every driver on a ForkJoinPool. The drivers are submitted by estimated work, heaviest first,
+ * so the longest drivers start early instead of being left for the end. A consumer may split the levels of its driver
+ * into subtasks (DriverConsumer does), which idle workers steal.
+ * After each phase the CPU time of every worker and the idle tail (from the first worker running out of work to the end) are reported.
+ */
+public class DriverScheduler {
+    private final int nThreads;
+    private final List<Worker> workers = Collections.synchronizedList(new ArrayList<>());
+    private final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+
+    public DriverScheduler(int nThreads) {
+        this.nThreads = nThreads;
+    }
+
+    /*
+     * Estimated work of the enumeration of a driver: the number of groups of 2 to capacity passengers among its base matches,
+     * each level bounded by maxNumMatchesPerDriver, weighted by the group size as routes of larger groups take longer.
+     */
+    public static double estimatedWork(Driver driver) {
+        int n = driver.getMatches().size();
+        if (n == 0 || driver.getCapacity() < 2 || n >= SimulationParameters.maxNumMatchesPerDriver)
+            return 0;
+        double work = 0;
+        double groups = n;
+        for (int k = 2; k <= driver.getCapacity() && k <= n; k++) {
+            groups = groups * (n - k + 1) / k;
+            work = work + Math.min(groups, SimulationParameters.maxNumMatchesPerDriver) * k * k;
+        }
+        return work;
+    }
+
+    // returns false if the phase was interrupted
+    public boolean run(List<Driver> drivers, Function<Driver, Runnable> consumer) {
+        List<Pair<Driver, Double>> order = new ArrayList<>(drivers.size());
+        for (Driver driver : drivers)
+            order.add(new Pair<>(driver, estimatedWork(driver)));
+        order.sort((a, b) -> Double.compare(b.getP2(), a.getP2()));
+
+        workers.clear();
+        ForkJoinPool pool = new ForkJoinPool(nThreads, Worker::new, null, false);
+        long startTime = System.nanoTime();
+        List<ForkJoinTask<?>> tasks = new ArrayList<>(order.size());
+        for (Pair<Driver, Double> entry : order) {
+            Runnable task = consumer.apply(entry.getP1());
+            tasks.add(pool.submit(() -> {
+                task.run();
+                taskDone();
+            }));
+        }
+        for (ForkJoinTask<?> task : tasks) {
+            try {
+                task.get();
+            } catch (InterruptedException e) {
+                System.out.println(e.toString());
+                pool.shutdownNow();
+                return false;
+            } catch (ExecutionException e) {     // the consumer failed on this driver, the others go on
+                e.getCause().printStackTrace();
+            }
+        }
+        long endTime = System.nanoTime();
+        displayUtilization(startTime, endTime);
+        pool.shutdown();
+        return true;
+    }
+
+    // marks the end of a task on the current worker, for the idle tail
+    public static void taskDone() {
+        if (Thread.currentThread() instanceof Worker)
+            ((Worker) Thread.currentThread()).lastTaskDone = System.nanoTime();
+    }
+
+    private void displayUtilization(long startTime, long endTime) {
+        double wall = (endTime - startTime) / 1e6;
+        long firstIdle = endTime;
+        int i = 0;
+        synchronized (workers) {
+            for (Worker worker : workers) {
+                long cpuTime = worker.cpuTime >= 0 ? worker.cpuTime : threadBean.getThreadCpuTime(worker.getId());
+                firstIdle = Math.min(firstIdle, worker.lastTaskDone);
+                if (cpuTime >= 0)
+                    System.out.format("Worker %d: %.0f ms CPU, %.1f%% of %.0f ms%n", i, cpuTime/1e6, 100.0*cpuTime/1e6/wall, wall);
+                i++;
+            }
+        }
+        System.out.format("Idle tail: %.0f ms from the first worker running out of work to the end (%d workers)%n", (endTime - firstIdle)/1e6, i);
+    }
+
+    private class Worker extends ForkJoinWorkerThread {
+        private volatile long lastTaskDone = System.nanoTime();
+        private volatile long cpuTime = -1;     // kept when the worker terminates before the report
+
+        Worker(ForkJoinPool pool) {
+            super(pool);
+            workers.add(this);
+        }
+
+        @Override
+        protected void onTermination(Throwable exception) {
+            cpuTime = threadBean.isCurrentThreadCpuTimeSupported() ? threadBean.getCurrentThreadCpuTime() : -1;
+            super.onTermination(exception);
+        }
+    }
+}
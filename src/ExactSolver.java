@@ -12,9 +12,41 @@ import java.util.Set;
 
 public class ExactSolver {
     private int numTrues = 0;
+    private SolverEdgeSink edgeSink = null;     // matches containing each passenger, from the enumeration of the matches
     
     public ExactSolver() {}
     
+    public void setEdgeSink(SolverEdgeSink edgeSink) {
+        this.edgeSink = edgeSink;
+    }
+    
+    // E_j for j in R: the edge indices of the matches containing each passenger, for the passengers with a match
+    private List<Set<Integer>> passengerEdges(List<Driver> drivers, List<Passenger> passengers, HashMap<Integer,Integer> matchIDToEdgeIndex) {
+        List<Set<Integer>> E_j = edgeSink == null ? null : edgeSink.passengerEdges(drivers, passengers);
+        if (E_j != null)
+            return E_j;
+        E_j = new ArrayList<>(passengers.size());
+        Set<Integer> temp;
+        for (Passenger passenger : passengers) {
+            temp = new HashSet<>();
+            // found out which edge/match contains this passenger
+            for (Driver driver : drivers) {
+                for (Match match : driver.getMatches()) {
+                    for (int k = 0; k < match.passengerCount(); k++) {
+                        Passenger p = match.getPassenger(k);
+                        if (passenger.getID() == p.getID()) {
+                            temp.add(matchIDToEdgeIndex.get(match.id));
+                            break;
+                        }
+                    }
+                }
+            }
+            if (!temp.isEmpty())
+                E_j.add(temp);
+        }
+        return E_j;
+    }
+    
     public Pair<Solution, Long> exact(List<Driver> drivers, List<Passenger> passengers, double profitTarget, int interval, int numMatches) {       
         numMatches = shouldConstructFormulation(drivers, numMatches);
         if (numMatches >= 0 && numMatches <= Integer.MAX_VALUE)
@@ -52,7 +84,7 @@ public class ExactSolver {
             for (Driver driver : drivers) {
                 temp = new HashSet<>(driver.getMatches().size());
                 for (Match match : driver.getMatches()) {
-                    objvals[matchIDToEdgeIndex.get(match.id)] = match.sfp.passengers.size();
+                    objvals[matchIDToEdgeIndex.get(match.id)] = match.passengerCount();
                     temp.add(matchIDToEdgeIndex.get(match.id));        // get edge id given match id, that contains this driver
                 }
                 if (!temp.isEmpty()) {
@@ -62,23 +94,9 @@ public class ExactSolver {
             }
             
             // construct E_j for j in R
-            for (Passenger passenger : passengers) {
-                temp = new HashSet<>();
-                // found out which edge/match contains this passenger
-                for (Driver driver : drivers) {
-                    for (Match match : driver.getMatches()) {
-                        for (Passenger p : match.sfp.passengers) {
-                            if (passenger.getID() == p.getID()) {
-                                temp.add(matchIDToEdgeIndex.get(match.id));
-                                break;
-                            }
-                        }
-                    }
-                }
-                if (!temp.isEmpty()) {
-                    runningSum+= temp.size();
-                    E_j.add(temp);
-                }
+            for (Set<Integer> edges : passengerEdges(drivers, passengers, matchIDToEdgeIndex)) {
+                runningSum+= edges.size();
+                E_j.add(edges);
             }
             
             // create model and solve it
@@ -107,7 +125,7 @@ public class ExactSolver {
             expr = cplex.linearNumExpr();
             for (Driver driver : drivers) {
                 for (Match match : driver.getMatches()) {
-                    expr.addTerm(match.profit, x[matchIDToEdgeIndex.get(match.id)]);
+                    expr.addTerm(match.getProfit(), x[matchIDToEdgeIndex.get(match.id)]);
                 }
             }
             cplex.addGe(expr, profitTarget);
@@ -187,7 +205,7 @@ public class ExactSolver {
             for (Driver driver : drivers) {
                 temp = new HashSet<>(driver.getMatches().size());
                 for (Match match : driver.getMatches()) {
-                    objvals[matchIDToEdgeIndex.get(match.id)] = match.profit;
+                    objvals[matchIDToEdgeIndex.get(match.id)] = match.getProfit();
                     temp.add(matchIDToEdgeIndex.get(match.id));        // get edge id given match id, that contains this driver
                 }
                 if (!temp.isEmpty()) {
@@ -196,22 +214,8 @@ public class ExactSolver {
             }
             
             // construct E_j for j in R
-            for (Passenger passenger : passengers) {
-                temp = new HashSet<>();
-                // found out which edge/match contains this passenger
-                for (Driver driver : drivers) {
-                    for (Match match : driver.getMatches()) {
-                        for (Passenger p : match.sfp.passengers) {
-                            if (passenger.getID() == p.getID()) {
-                                temp.add(matchIDToEdgeIndex.get(match.id));
-                                break;
-                            }
-                        }
-                    }
-                }
-                if (!temp.isEmpty()) {
-                    E_j.add(temp);
-                }
+            for (Set<Integer> edges : passengerEdges(drivers, passengers, matchIDToEdgeIndex)) {
+                E_j.add(edges);
             }
             //System.out.println("Constraints size: " + runningSum);
             
@@ -302,7 +306,7 @@ public class ExactSolver {
             for (Driver driver : drivers) {
                 temp = new HashSet<>(driver.getMatches().size());
                 for (Match match : driver.getMatches()) {
-                    objvals[matchIDToEdgeIndex.get(match.id)] = match.profit;
+                    objvals[matchIDToEdgeIndex.get(match.id)] = match.getProfit();
                     temp.add(matchIDToEdgeIndex.get(match.id));        // get edge id given match id, that contains this driver
                 }
                 if (!temp.isEmpty()) {
@@ -311,22 +315,8 @@ public class ExactSolver {
             }
             
             // construct E_j for j in R
-            for (Passenger passenger : passengers) {
-                temp = new HashSet<>();
-                // found out which edge/match contains this passenger
-                for (Driver driver : drivers) {
-                    for (Match match : driver.getMatches()) {
-                        for (Passenger p : match.sfp.passengers) {
-                            if (passenger.getID() == p.getID()) {
-                                temp.add(matchIDToEdgeIndex.get(match.id));
-                                break;
-                            }
-                        }
-                    }
-                }
-                if (!temp.isEmpty()) {
-                    E_j.add(temp);
-                }
+            for (Set<Integer> edges : passengerEdges(drivers, passengers, matchIDToEdgeIndex)) {
+                E_j.add(edges);
             }
             //System.out.println("Constraints size: " + runningSum);
             
@@ -428,23 +418,9 @@ public class ExactSolver {
             }
             
             // construct E_j for j in R
-            for (Passenger passenger : passengers) {
-                temp = new HashSet<>();
-                // found out which edge/match contains this passenger
-                for (Driver driver : drivers) {
-                    for (Match match : driver.getMatches()) {
-                        for (Passenger p : match.sfp.passengers) {
-                            if (passenger.getID() == p.getID()) {
-                                temp.add(matchIDToEdgeIndex.get(match.id));
-                                break;
-                            }
-                        }
-                    }
-                }
-                if (!temp.isEmpty()) {
-                    runningSum+= temp.size();
-                    E_j.add(temp);
-                }
+            for (Set<Integer> edges : passengerEdges(drivers, passengers, matchIDToEdgeIndex)) {
+                runningSum+= edges.size();
+                E_j.add(edges);
             }
             System.out.println("Constraints size: " + runningSum);
             
@@ -549,23 +525,9 @@ public class ExactSolver {
             }
             
             // construct E_j for j in R
-            for (Passenger passenger : passengers) {
-                temp = new HashSet<>();
-                // found out which edge/match contains this passenger
-                for (Driver driver : drivers) {
-                    for (Match match : driver.getMatches()) {
-                        for (Passenger p : match.sfp.passengers) {
-                            if (passenger.getID() == p.getID()) {
-                                temp.add(matchIDToEdgeIndex.get(match.id));
-                                break;
-                            }
-                        }
-                    }
-                }
-                if (!temp.isEmpty()) {
-                    runningSum+= temp.size();
-                    E_j.add(temp);
-                }
+            for (Set<Integer> edges : passengerEdges(drivers, passengers, matchIDToEdgeIndex)) {
+                runningSum+= edges.size();
+                E_j.add(edges);
             }
             System.out.println("Constraints size: " + runningSum);
             
@@ -672,7 +634,8 @@ public class ExactSolver {
                     driverIDToOutEdge.put(id, edge);
                 }
                 
-                for (Passenger p : match.sfp.passengers) {
+                for (int k = 0; k < match.passengerCount(); k++) {
+                    Passenger p = match.getPassenger(k);
                     id = p.getID();
                     if (passengerIDToInEdge.containsKey(id)) {
                         passengerIDToInEdge.get(id).add(index);
@@ -684,7 +647,7 @@ public class ExactSolver {
                 }
                 
                 matchToDriver.put(match, driver);
-                cost[index] = -match.profit;
+                cost[index] = -match.getProfit();
                 index++;
             }
         }
@@ -850,7 +813,7 @@ public class ExactSolver {
                 driversInSln.add(matchToDriver.get(match));
             }
             temp = new HashSet<>();
-            temp.addAll(Arrays.asList(match.sfp.passengers));
+            temp.addAll(Arrays.asList(match.passengers()));
             for (Passenger p : temp) {
                 if (passengersInSln.contains(p)) {
                     System.out.println("Incorrect solution- multiple passengers.");
@@ -899,7 +862,7 @@ public class ExactSolver {
         Set<Passenger> passengersInSln = new HashSet<>();
         System.out.println("solution size = " + solution.size());
         for (Map.Entry<Driver, Match> entry : solution.entrySet()) {
-            for (Passenger p : entry.getValue().sfp.passengers) {
+            for (Passenger p : entry.getValue().passengers()) {
                 if (passengersInSln.contains(p))
                     System.out.println("Incorrect solution- multiple passengers: " + p.toStringAll());
                 else
@@ -0,0 +1,182 @@
+package simulation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+/*
+ * Feasibility test of a route of a driver (computeFeasiblePath), on primitive arrays by stop position.
+ * The arrays are kept between calls and only grow, so testing a route allocates nothing; an SFP is built only
+ * for a route shorter than the best one found since the last reset. The travel distance index of a passenger is
+ * looked up once per route: its destination reuses the index of its origin, found earlier in the route.
+ * Passenger limits use accumulated durations instead of per-passenger maps.
+ * Routes tested in another order than Heap's algorithm of Algorithms.constructMatch pass their stops coded as in RouteSearch.exact, so
+ * that a route as short as the best one replaces it if the permutation search reaches it first, and the same route is kept.
+ * One instance per thread: Algorithms keeps one for the serial methods and each DriverConsumer has its own.
+ */
+public class FeasibilityKernel {
+    private final Algorithms alg;
+    private final boolean estimate;     // legs not computed yet are estimated with the Manhattan distance instead of routed
+    private Driver lastDriver;
+    private int driverIndex;
+
+    // by stop position
+    private int[] travelDistanceIndex = new int[0];
+    private int[] region = new int[0];
+    private int[] hourIndex = new int[0];
+    private int[] pickupAt = new int[0];        // position of the origin of the passenger dropped off at the position, -1 at origins
+    private long[] accDuration = new long[0];   // from the driver's origin to the position
+
+    private SFP bestSFP;
+    private long bestDuration = Long.MAX_VALUE;
+    private int[] bestStop;
+
+    public FeasibilityKernel(Algorithms alg, boolean estimate) {
+        this.alg = alg;
+        this.estimate = estimate;
+    }
+
+    public void reset() {
+        bestSFP = null;
+        bestDuration = Long.MAX_VALUE;
+        bestStop = null;
+    }
+
+    // shortest feasible route tested since the last reset, null if none
+    public SFP best() {
+        return bestSFP;
+    }
+
+    public boolean computeFeasiblePath(Driver driver, Set<Passenger> passengers, List<Pair<Passenger, Boolean>> originOrDest) {
+        return computeFeasiblePath(driver, passengers, originOrDest, null);
+    }
+
+    // heapStop: code of each stop of the route (see RouteSearch.heapOrderBefore) to break ties by Heap's order, null to keep the first route
+    public boolean computeFeasiblePath(Driver driver, Set<Passenger> passengers, List<Pair<Passenger, Boolean>> originOrDest, int[] heapStop) {
+        int size = originOrDest.size();
+        setup(driver, originOrDest);
+        if (!passesLowerBounds(driver, originOrDest)) {
+            alg.routesPrunedByLowerBounds.increment();
+            return false;
+        }
+
+        Passenger first = originOrDest.get(0).getP1();
+        long duration = (long) (alg.travelDistance.get(driverIndex, travelDistanceIndex[0]) /
+                                        alg.Speed[alg.currentHourIndex][driver.getStartRegion()][first.getStartRegion()]);
+        long driverDeparture = Math.max(driver.getDepartureTime(), first.getDepartureTime() - duration);
+        long arrivedTime = driverDeparture + duration;
+        long legDistance;
+        Pair<Passenger, Boolean> stop;
+        accDuration[0] = duration;
+        hourIndex[0] = Math.min((int)(arrivedTime / 3600.0), 23) - SimulationParameters.startHour;
+        int j;
+        for (j = 0; j < size-1; j++) {
+            stop = originOrDest.get(j+1);
+            if (estimate)
+                legDistance = alg.computeLegDistanceEstimate(travelDistanceIndex[j], travelDistanceIndex[j+1], originOrDest.get(j), stop);
+            else
+                legDistance = alg.computeLegDistance(travelDistanceIndex[j], travelDistanceIndex[j+1], originOrDest.get(j), stop);
+            accDuration[j+1] = accDuration[j] + (long) (legDistance / alg.Speed[hourIndex[j]][region[j]][region[j+1]]);
+            arrivedTime = driverDeparture + accDuration[j+1];     // time arrived at l_{j+1}
+            if (!stop.getP2() && stop.getP1().getDepartureTime() > arrivedTime) {   // waiting at the origin: the driver leaves later instead
+                driverDeparture = stop.getP1().getDepartureTime() - accDuration[j+1];
+                arrivedTime = stop.getP1().getDepartureTime();
+            }
+            hourIndex[j+1] = Math.min((int)(arrivedTime / 3600.0), 23) - SimulationParameters.startHour;
+        }
+
+        long driverDur = accDuration[j] + (long) (alg.travelDistance.get(travelDistanceIndex[j], driverIndex) /
+                                alg.Speed[hourIndex[j]][region[j]][driver.getEndRegion()]);
+        if (driverDur > driver.getMaxTravelDuration() || driverDeparture + driverDur > driver.getArrivalTime())
+            return false;
+        // driver is okay, now check each passenger at its destination
+        Passenger p;
+        for (int i = 1; i < size; i++) {
+            if (pickupAt[i] < 0)
+                continue;
+            p = originOrDest.get(i).getP1();
+            if (accDuration[i] - accDuration[pickupAt[i]] > p.getMaxTravelDuration() || driverDeparture + accDuration[i] > p.getArrivalTime())
+                return false;
+        }
+
+        if (driverDur < bestDuration || (driverDur == bestDuration && heapStop != null && RouteSearch.heapOrderBefore(heapStop, bestStop))) {
+            bestDuration = driverDur;
+            bestStop = heapStop == null ? null : Arrays.copyOf(heapStop, size);
+            bestSFP = new SFP(passengers, new ArrayList<>(originOrDest), Arrays.copyOf(travelDistanceIndex, size),
+                                Arrays.copyOf(hourIndex, size), driverDeparture);
+        }
+        return true;
+    }
+
+    private void setup(Driver driver, List<Pair<Passenger, Boolean>> originOrDest) {
+        int size = originOrDest.size();
+        if (travelDistanceIndex.length < size) {
+            travelDistanceIndex = new int[size];
+            region = new int[size];
+            hourIndex = new int[size];
+            pickupAt = new int[size];
+            accDuration = new long[size];
+        }
+        if (driver != lastDriver) {
+            lastDriver = driver;
+            driverIndex = alg.tripIDtoTravelDistanceIndex.get(driver.getID());
+        }
+        Pair<Passenger, Boolean> stop;
+        for (int i = 0; i < size; i++) {
+            stop = originOrDest.get(i);
+            pickupAt[i] = -1;
+            if (stop.getP2()) {
+                region[i] = stop.getP1().getEndRegion();
+                for (int k = i-1; k >= 0; k--) {
+                    if (originOrDest.get(k).getP1() == stop.getP1()) {
+                        pickupAt[i] = k;
+                        break;
+                    }
+                }
+                travelDistanceIndex[i] = travelDistanceIndex[pickupAt[i]] + alg.passengerSize;
+            } else {
+                region[i] = stop.getP1().getStartRegion();
+                travelDistanceIndex[i] = alg.tripIDtoTravelDistanceIndex.get(stop.getP1().getID());
+            }
+        }
+    }
+
+    /*
+     * Checks the route with lower bounds of the travel durations before any leg is routed: legs already in travelDistance and legs bounded by
+     * the great-circle distance between their endpoints, all at the highest speed. The arrival time at every stop is then no later than
+     * the one computed in computeFeasiblePath, so a route failing a driver or passenger limit here is infeasible and needs no routing.
+     */
+    private boolean passesLowerBounds(Driver driver, List<Pair<Passenger, Boolean>> originOrDest) {
+        if (alg.MaxSpeed <= 0)
+            return true;
+        int size = originOrDest.size();
+        Passenger first = originOrDest.get(0).getP1();
+        // the first leg is from the base match, as in computeFeasiblePath
+        long duration = (long) (alg.travelDistance.get(driverIndex, travelDistanceIndex[0]) /
+                                        alg.Speed[alg.currentHourIndex][driver.getStartRegion()][first.getStartRegion()]);
+        long arrivedTime = Math.max(driver.getDepartureTime(), first.getDepartureTime() - duration) + duration;
+        long legDistance;
+        Passenger p;
+        accDuration[0] = duration;
+        for (int j = 0; j < size-1; j++) {
+            if (alg.travelDistance.contains(travelDistanceIndex[j], travelDistanceIndex[j+1]))
+                legDistance = alg.travelDistance.get(travelDistanceIndex[j], travelDistanceIndex[j+1]);
+            else
+                legDistance = alg.legDistanceLowerBound(originOrDest.get(j), originOrDest.get(j+1), estimate);
+            duration = (long) (legDistance / alg.MaxSpeed);
+            accDuration[j+1] = accDuration[j] + duration;
+            arrivedTime = arrivedTime + duration;
+            p = originOrDest.get(j+1).getP1();
+            if (pickupAt[j+1] < 0) {
+                arrivedTime = Math.max(arrivedTime, p.getDepartureTime());      // waiting for the passenger
+            } else if (arrivedTime > p.getArrivalTime() || accDuration[j+1] - accDuration[pickupAt[j+1]] > p.getMaxTravelDuration()) {
+                return false;
+            }
+            if (accDuration[j+1] > driver.getMaxTravelDuration() || arrivedTime > driver.getArrivalTime())
+                return false;
+        }
+        duration = (long) (alg.travelDistance.get(travelDistanceIndex[size-1], driverIndex) / alg.MaxSpeed);
+        return accDuration[size-1] + duration <= driver.getMaxTravelDuration() && arrivedTime + duration <= driver.getArrivalTime();
+    }
+}
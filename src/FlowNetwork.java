@@ -0,0 +1,231 @@
+package simulation;
+
+import java.util.Arrays;
+
+/*
+ * Residual network of unit-capacity edges for the modified successive shortest path algorithm to solve the RPC1 problem variant (RPCOne.ExactNF),
+ * in compressed sparse rows: the arcs leaving vertex v are [firstArc[v], firstArc[v+1]), so a relaxation reads contiguous int arrays.
+ * Every edge has a forward arc at its tail and a backward arc at its head, paired by reverse[]; an arc is in the residual network
+ * while its residual capacity is 1, and sending flow over an edge moves the capacity to the other arc in place.
+ * The reduced cost belongs to the edge and is kept when the edge is reversed, as its weight is zero on a shortest path.
+ * Vertex 0 is the source and vertex 1 the sink. Edges are added first, then build() lays out the arcs.
+ */
+public class FlowNetwork {
+    public static final int SOURCE = 0;
+    public static final int SINK = 1;
+    private int vertices = 2;
+    private int edges = 0;
+
+    // by edge
+    private int[] edgeTail;
+    private int[] edgeHead;
+    private int[] cost;
+    private int[] reducedCost;
+    private int[] profit;
+    private Match[] match;
+    private int[] forwardArc;
+
+    // by arc, grouped by tail
+    private int[] firstArc;
+    private int[] arcHead;
+    private int[] arcEdge;
+    private int[] residual;
+    private int[] reverse;
+
+    // shortest path tree of the last search, by vertex
+    private int[] distance;
+    private int[] predecessorArc;
+    private boolean[] permanent;
+    private IndexedHeap toBeVisited;
+
+    public FlowNetwork(int expectedVertices, int expectedEdges) {
+        edgeTail = new int[Math.max(expectedEdges, 16)];
+        edgeHead = new int[edgeTail.length];
+        cost = new int[edgeTail.length];
+        profit = new int[edgeTail.length];
+        match = new Match[edgeTail.length];
+    }
+
+    public int addVertex() {
+        return vertices++;
+    }
+
+    // edge of a match (null for the edges of the source and the sink) with its weight, the profit of the match is read now
+    public int addEdge(int tail, int head, Match m, int weight) {
+        if (edges == edgeTail.length) {
+            int length = edges * 2;
+            edgeTail = Arrays.copyOf(edgeTail, length);
+            edgeHead = Arrays.copyOf(edgeHead, length);
+            cost = Arrays.copyOf(cost, length);
+            profit = Arrays.copyOf(profit, length);
+            match = Arrays.copyOf(match, length);
+        }
+        edgeTail[edges] = tail;
+        edgeHead[edges] = head;
+        cost[edges] = weight;
+        profit[edges] = m == null ? 0 : m.getProfit();
+        match[edges] = m;
+        return edges++;
+    }
+
+    public void build() {
+        reducedCost = new int[edges];
+        forwardArc = new int[edges];
+        firstArc = new int[vertices+1];
+        for (int e = 0; e < edges; e++) {
+            firstArc[edgeTail[e]+1]++;
+            firstArc[edgeHead[e]+1]++;
+        }
+        for (int v = 0; v < vertices; v++)
+            firstArc[v+1] = firstArc[v+1] + firstArc[v];
+        int[] next = Arrays.copyOf(firstArc, vertices);
+        arcHead = new int[2*edges];
+        arcEdge = new int[2*edges];
+        residual = new int[2*edges];
+        reverse = new int[2*edges];
+        int forward;
+        int backward;
+        for (int e = 0; e < edges; e++) {
+            forward = next[edgeTail[e]]++;
+            backward = next[edgeHead[e]]++;
+            arcHead[forward] = edgeHead[e];
+            arcEdge[forward] = e;
+            residual[forward] = 1;
+            reverse[forward] = backward;
+            arcHead[backward] = edgeTail[e];
+            arcEdge[backward] = e;
+            reverse[backward] = forward;
+            forwardArc[e] = forward;
+        }
+        distance = new int[vertices];
+        predecessorArc = new int[vertices];
+        permanent = new boolean[vertices];
+        toBeVisited = new IndexedHeap(vertices);
+    }
+
+    public int vertexCount() {
+        return vertices;
+    }
+
+    // potentials by BellmanFordSpecialized make every weight non-negative, the reduced costs start from them
+    public void changeToNonNegativeWeight() {
+        int[] potential = BellmanFordSpecialized();
+        for (int e = 0; e < edges; e++) {
+            cost[e] = cost[e] + potential[edgeTail[e]] - potential[edgeHead[e]];
+            reducedCost[e] = cost[e];
+        }
+    }
+
+    // Only three iterations are required (source, drivers, passengers, sink), and detecting a negative-weight cycle is not needed.
+    private int[] BellmanFordSpecialized() {
+        int[] distanceFromRoot = new int[vertices];
+        Arrays.fill(distanceFromRoot, Integer.MAX_VALUE);
+        distanceFromRoot[SOURCE] = 0;
+        int alt;
+        for (int i = 0; i < 3; i++) {
+            for (int e = 0; e < edges; e++) {
+                if (distanceFromRoot[edgeTail[e]] != Integer.MAX_VALUE) {
+                    alt = distanceFromRoot[edgeTail[e]] + cost[e];
+                    if (alt < distanceFromRoot[edgeHead[e]])
+                        distanceFromRoot[edgeHead[e]] = alt;
+                }
+            }
+        }
+        return distanceFromRoot;
+    }
+
+    /*
+     * Dijkstra's algorithm on the reduced costs of the residual network, stopped once the sink is permanent. The distances, predecessors
+     * and the heap are those of the network, reused by every search.
+     * False if the sink cannot be reached; otherwise the path is followed back from the sink with predecessorArc and arcTail.
+     */
+    public boolean shortestPath() {
+        Arrays.fill(distance, Integer.MAX_VALUE);
+        Arrays.fill(predecessorArc, -1);
+        Arrays.fill(permanent, false);
+        toBeVisited.clear();
+        toBeVisited.insertOrDecrease(SOURCE, 0);
+        distance[SOURCE] = 0;
+
+        int u;
+        int v;
+        int alt;
+        while (!toBeVisited.isEmpty()) {
+            u = toBeVisited.removeMin();
+            permanent[u] = true;
+            if (u == SINK)
+                break;
+            for (int a = firstArc[u]; a < firstArc[u+1]; a++) {
+                if (residual[a] == 0)
+                    continue;
+                v = arcHead[a];
+                alt = distance[u] + reducedCost[arcEdge[a]];
+                if (alt < distance[v] && !permanent[v]) {
+                    distance[v] = alt;
+                    predecessorArc[v] = a;
+                    toBeVisited.insertOrDecrease(v, alt);
+                }
+            }
+        }
+        return predecessorArc[SINK] >= 0;
+    }
+
+    public int predecessorArc(int v) {
+        return predecessorArc[v];
+    }
+
+    public int arcTail(int a) {
+        return arcHead[reverse[a]];
+    }
+
+    // change of the total profit by sending flow over the arc: a backward arc takes the match out of the solution
+    public int arcProfit(int a) {
+        int e = arcEdge[a];
+        return a == forwardArc[e] ? profit[e] : -profit[e];
+    }
+
+    // moves the residual capacity of the arc to its pair and carries the reduced cost of the edge over
+    public void augment(int a) {
+        residual[a] = 0;
+        residual[reverse[a]] = 1;
+    }
+
+    // potential of each vertex made permanent by the last search, and the reduced costs of the edges not reversed
+    public void updatePotentials(int[] nodePotential) {
+        for (int v = 0; v < vertices; v++) {
+            if (permanent[v])
+                nodePotential[v] = nodePotential[v] - distance[v] + distance[SINK];
+        }
+        for (int e = 0; e < edges; e++) {
+            if (residual[forwardArc[e]] == 1)
+                reducedCost[e] = cost[e] - nodePotential[edgeTail[e]] + nodePotential[edgeHead[e]];
+        }
+    }
+
+    // edges whose reduced cost became negative, which should not happen
+    public int negativeReducedCosts() {
+        int count = 0;
+        for (int e = 0; e < edges; e++) {
+            if (reducedCost[e] < 0)
+                count++;
+        }
+        return count;
+    }
+
+    // the edge of the match carries flow (it is in the solution); its tail is the vertex of the driver
+    public boolean inSolution(int e) {
+        return match[e] != null && residual[forwardArc[e]] == 0;
+    }
+
+    public int edgeCount() {
+        return edges;
+    }
+
+    public int edgeTail(int e) {
+        return edgeTail[e];
+    }
+
+    public Match match(int e) {
+        return match[e];
+    }
+}
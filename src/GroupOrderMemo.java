@@ -0,0 +1,259 @@
+package simulation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Orders of the stops of a passenger group that may be feasible whatever the driver, shared by all drivers and threads.
+ * A group is keyed by the sorted IDs of its passengers. Its orders are found once, from lower bounds of the travel durations
+ * between its stops as in FeasibilityKernel.passesLowerBounds (legs already in travelDistance, others bounded by the great-circle
+ * distance, at the highest speed), without the driver's first and last legs: the vehicle reaches the first stop no earlier than
+ * the departure time of its passenger and waits at later origins. An order breaking an arrival time or a maximum travel duration
+ * is infeasible for every driver, and a group without any order left is infeasible.
+ * A driver then only tests the orders kept for the group, each with its own first and last legs.
+ * The memo holds at most SimulationParameters.groupMemoSize groups, half in each of two generations: when the current one is full
+ * it becomes the old one and the previous old one is dropped, and a group found in the old generation moves back to the current one.
+ * Cleared at the start of every interval.
+ */
+public class GroupOrderMemo {
+    private static final int MaxPassengers = 8;     // a stop is coded in 4 bits, 16 stops in a long
+    private static final int MaxOrders = 64;        // a group with more orders is kept as feasible without them
+
+    private final Algorithms alg;
+    private volatile ConcurrentHashMap<GroupKey, GroupOrders> current = new ConcurrentHashMap<>();
+    private volatile ConcurrentHashMap<GroupKey, GroupOrders> old = new ConcurrentHashMap<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder infeasibleHits = new LongAdder();
+
+    public GroupOrderMemo(Algorithms alg) {
+        this.alg = alg;
+    }
+
+    public void clear() {
+        current = new ConcurrentHashMap<>();
+        old = new ConcurrentHashMap<>();
+        hits.reset();
+        misses.reset();
+        infeasibleHits.reset();
+    }
+
+    // orders of the group, null if the memo is disabled or the group is not memoized (one passenger, or too many)
+    public GroupOrders get(Set<Passenger> group) {
+        if (SimulationParameters.groupMemoSize <= 0 || alg.MaxSpeed <= 0 || group.size() < 2 || group.size() > MaxPassengers)
+            return null;
+        Passenger[] passengers = group.toArray(new Passenger[group.size()]);
+        Arrays.sort(passengers, (a, b) -> Integer.compare(a.getID(), b.getID()));
+        GroupKey key = new GroupKey(passengers);
+        GroupOrders orders = current.get(key);
+        if (orders == null) {
+            orders = old.get(key);
+            if (orders != null)
+                put(key, orders);
+        }
+        if (orders != null) {
+            hits.increment();
+        } else {
+            misses.increment();
+            orders = put(key, findOrders(passengers));
+        }
+        if (!orders.isFeasible())
+            infeasibleHits.increment();
+        return orders;
+    }
+
+    private GroupOrders put(GroupKey key, GroupOrders orders) {
+        ConcurrentHashMap<GroupKey, GroupOrders> map = current;
+        if (map.size() >= Math.max(SimulationParameters.groupMemoSize / 2, 1)) {
+            synchronized (this) {
+                if (current == map) {
+                    old = map;
+                    current = new ConcurrentHashMap<>();
+                }
+                map = current;
+            }
+        }
+        GroupOrders previous = map.putIfAbsent(key, orders);
+        return previous == null ? orders : previous;
+    }
+
+    // depth-first search over the orders of the stops, dropping an order as soon as a stop is reached too late
+    private GroupOrders findOrders(Passenger[] passengers) {
+        int q = passengers.length;
+        List<Pair<Passenger, Boolean>> stops = new ArrayList<>(2*q);
+        int[] travelDistanceIndex = new int[2*q];
+        for (int s = 0; s < q; s++) {
+            stops.add(new Pair<>(passengers[s], Boolean.FALSE));
+            stops.add(new Pair<>(passengers[s], Boolean.TRUE));
+            travelDistanceIndex[2*s] = alg.tripIDtoTravelDistanceIndex.get(passengers[s].getID());
+            travelDistanceIndex[2*s+1] = travelDistanceIndex[2*s] + alg.passengerSize;
+        }
+        long[][] leg = new long[2*q][2*q];      // lower bounds of the durations between stops, -1 until computed
+        for (long[] row : leg)
+            Arrays.fill(row, -1);
+        Search search = new Search(passengers, stops, travelDistanceIndex, leg);
+        for (int s = 0; s < q && search.count <= MaxOrders; s++)
+            search.visit(2*s, 0, 0L, passengers[s].getDepartureTime(), 0L);
+        if (search.count == 0)
+            return new GroupOrders(stops, new long[0], false);
+        if (search.count > MaxOrders)
+            return new GroupOrders(stops, null, true);
+        return new GroupOrders(stops, Arrays.copyOf(search.orders, search.count), true);
+    }
+
+    private class Search {
+        private final Passenger[] passengers;
+        private final List<Pair<Passenger, Boolean>> stops;
+        private final int[] travelDistanceIndex;
+        private final long[][] leg;
+        private final long[] pickupDuration;    // accumulated duration at the origin of the passenger
+        private final boolean[] visited;
+        private long[] orders = new long[8];
+        private int count = 0;
+
+        Search(Passenger[] passengers, List<Pair<Passenger, Boolean>> stops, int[] travelDistanceIndex, long[][] leg) {
+            this.passengers = passengers;
+            this.stops = stops;
+            this.travelDistanceIndex = travelDistanceIndex;
+            this.leg = leg;
+            pickupDuration = new long[passengers.length];
+            visited = new boolean[stops.size()];
+        }
+
+        // the stop is the position-th of the order, reached at time after accDuration of travel
+        void visit(int stop, int position, long order, long time, long accDuration) {
+            Passenger p = passengers[stop >> 1];
+            if ((stop & 1) == 0) {
+                time = Math.max(time, p.getDepartureTime());
+                pickupDuration[stop >> 1] = accDuration;
+            } else if (time > p.getArrivalTime() || accDuration - pickupDuration[stop >> 1] > p.getMaxTravelDuration()) {
+                return;
+            }
+            order = order | ((long) stop << (4*position));
+            if (position == stops.size() - 1) {
+                if (count < MaxOrders) {
+                    if (count == orders.length)
+                        orders = Arrays.copyOf(orders, 2*count);
+                    orders[count] = order;
+                }
+                count++;
+                return;
+            }
+            visited[stop] = true;
+            for (int next = 0; next < stops.size() && count <= MaxOrders; next++) {
+                // a destination only after its origin
+                if (visited[next] || ((next & 1) == 1 && !visited[next - 1]))
+                    continue;
+                long duration = duration(stop, next);
+                visit(next, position + 1, order, time + duration, accDuration + duration);
+            }
+            visited[stop] = false;
+        }
+
+        private long duration(int from, int to) {
+            if (leg[from][to] < 0) {
+                long legDistance;
+                if (alg.travelDistance.contains(travelDistanceIndex[from], travelDistanceIndex[to]))
+                    legDistance = alg.travelDistance.get(travelDistanceIndex[from], travelDistanceIndex[to]);
+                else
+                    legDistance = alg.legDistanceLowerBound(stops.get(from), stops.get(to), false);
+                leg[from][to] = (long) (legDistance / alg.MaxSpeed);
+            }
+            return leg[from][to];
+        }
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    // lookups of groups without any feasible order
+    public long getInfeasibleHits() {
+        return infeasibleHits.sum();
+    }
+
+    public int size() {
+        return current.size() + old.size();
+    }
+
+    private static class GroupKey {
+        private final int[] ids;
+        private final int hash;
+
+        GroupKey(Passenger[] passengers) {
+            ids = new int[passengers.length];
+            for (int i = 0; i < passengers.length; i++)
+                ids[i] = passengers[i].getID();
+            hash = Arrays.hashCode(ids);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof GroupKey && Arrays.equals(ids, ((GroupKey) other).ids);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    public static class GroupOrders {
+        private final List<Pair<Passenger, Boolean>> stops;     // passengers by ID, origin of the i-th passenger at 2*i, its destination at 2*i+1
+        private final long[] orders;                            // 4 bits per stop from the lowest, null if too many to keep
+        private final boolean feasible;
+
+        GroupOrders(List<Pair<Passenger, Boolean>> stops, long[] orders, boolean feasible) {
+            this.stops = stops;
+            this.orders = orders;
+            this.feasible = feasible;
+        }
+
+        public boolean isFeasible() {
+            return feasible;
+        }
+
+        // whether the orders are kept, otherwise every order has to be tested
+        public boolean hasOrders() {
+            return orders != null;
+        }
+
+        public int orderCount() {
+            return orders.length;
+        }
+
+        // the k-th order into originOrDest, replacing its content, and into stop its stops coded by the group's slots (see groupSlots)
+        public void route(int k, List<Pair<Passenger, Boolean>> originOrDest, int[] slot, int[] stop) {
+            originOrDest.clear();
+            long order = orders[k];
+            int code;
+            for (int i = 0; i < stops.size(); i++) {
+                code = (int) ((order >>> (4*i)) & 0xF);
+                originOrDest.add(stops.get(code));
+                stop[i] = 2*slot[code >> 1] + (code & 1);
+            }
+        }
+
+        // position of each passenger of the memo in the iteration order of the group, the order in which Heap's algorithm starts
+        public int[] groupSlots(Set<Passenger> group) {
+            int[] slot = new int[stops.size()/2];
+            int i = 0;
+            for (Passenger p : group) {
+                for (int s = 0; s < slot.length; s++) {
+                    if (stops.get(2*s).getP1() == p)
+                        slot[s] = i;
+                }
+                i++;
+            }
+            return slot;
+        }
+    }
+}
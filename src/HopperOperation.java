@@ -1,22 +1,50 @@
 package simulation;
 
 //import java.util.ArrayList;
+import java.io.IOException;
 import java.util.Arrays;
+import java.util.List;
 import java.util.Locale;
 import com.graphhopper.GHRequest;
 import com.graphhopper.GHResponse;
 import com.graphhopper.GraphHopper;
 import com.graphhopper.ResponsePath;
+import com.graphhopper.routing.Path;
+import com.graphhopper.routing.ch.CHRoutingAlgorithmFactory;
+import com.graphhopper.routing.ev.Subnetwork;
+import com.graphhopper.routing.querygraph.QueryGraph;
+import com.graphhopper.routing.util.DefaultSnapFilter;
+import com.graphhopper.routing.util.EdgeFilter;
+import com.graphhopper.storage.BaseGraph;
+import com.graphhopper.storage.RoutingCHGraph;
+import com.graphhopper.storage.index.Snap;
 import com.graphhopper.util.*;
+import com.graphhopper.util.shapes.GHPoint;
 //import static com.graphhopper.util.Parameters.Curbsides.CURBSIDE_ANY;
 //import static com.graphhopper.util.Parameters.Curbsides.CURBSIDE_RIGHT;
 //import com.graphhopper.util.PointList;
 
 public class HopperOperation {
     private final GraphHopper hopper;
+    // request for distance/time only queries, one per thread so that it can be reused between calls
+    private final ThreadLocal<GHRequest> distanceRequest;
+    private final SnapCache snapCache = new SnapCache();
+    private RoutingCHGraph chGraph = null;
+    private EdgeFilter snapFilter = null;
+    private LegCache legCache = null;
 
     public HopperOperation(GraphHopper hopper) {
             this.hopper = hopper;
+            this.distanceRequest = ThreadLocal.withInitial(HopperOperation::createDistanceRequest);
+            chGraph = hopper.getCHGraphs().get("car");
+            if (chGraph != null)
+                snapFilter = new DefaultSnapFilter(chGraph.getWeighting(), hopper.getEncodingManager().getBooleanEncodedValue(Subnetwork.key("car")));
+    }
+    
+    // no turn instructions and no point list, only distance and time of the best path are calculated
+    private static GHRequest createDistanceRequest() {
+        return new GHRequest(2).setProfile("car").setAlgorithm(Parameters.Algorithms.DIJKSTRA_BI).
+                    putHint(Parameters.Routing.INSTRUCTIONS, false).putHint(Parameters.Routing.CALC_POINTS, false);
     }
 	
     public ResponsePath getPathBetweenTwoLocs(Location source, Location dest) throws Exception {
@@ -148,15 +176,30 @@ public class HopperOperation {
     
     // By car, in meters
     public double getDistanceBetweenTwoLocs(Location source, Location dest) {
-        GHRequest req = new GHRequest(source.getLatitude(),source.getLongitude(), dest.getLatitude(),dest.getLongitude()).
-                setProfile("car").setLocale(Locale.US).setAlgorithm(Parameters.Algorithms.DIJKSTRA_BI);
-        return route(req);
+        return getLegBetweenTwoLocs(source.getLongitude(), source.getLatitude(), dest.getLongitude(), dest.getLatitude()).distance;
     }
 
     public double getDistanceBetweenTwoLocs(double sourceLongitude, double sourceLatitude, double destLongitude, double destLatitude) {
-        GHRequest req = new GHRequest(sourceLatitude,sourceLongitude, destLatitude,destLongitude).
-                    setProfile("car").setLocale(Locale.US).setAlgorithm(Parameters.Algorithms.DIJKSTRA_BI);
-        return route(req);
+        return getLegBetweenTwoLocs(sourceLongitude, sourceLatitude, destLongitude, destLatitude).distance;
+    }
+    
+    // By car, distance in meters and time in milliseconds
+    public RouteLeg getLegBetweenTwoLocs(Location source, Location dest) {
+        return getLegBetweenTwoLocs(source.getLongitude(), source.getLatitude(), dest.getLongitude(), dest.getLatitude());
+    }
+    
+    public RouteLeg getLegBetweenTwoLocs(double sourceLongitude, double sourceLatitude, double destLongitude, double destLatitude) {
+        GHRequest req = distanceRequest.get();
+        req.getPoints().clear();
+        req.addPoint(new GHPoint(sourceLatitude, sourceLongitude)).addPoint(new GHPoint(destLatitude, destLongitude));
+        GHResponse res = hopper.route(req);
+        // handle errors
+        if (res.hasErrors()) {
+            System.out.println(res.getErrors().toString());
+            return RouteLeg.NOT_FOUND;
+        }
+        ResponsePath path = res.getBest();
+        return new RouteLeg(path.getDistance(), path.getTime());
     }
     
     // By car, in meters
@@ -172,6 +215,164 @@ public class HopperOperation {
         return route(req);
     }
     
+    // many-to-many table on the CH graph of the car profile, null if the node-based CH graph is not available (e.g., with turn costs)
+    public CHDistanceTable createDistanceTable() {
+        if (chGraph == null || chGraph.isEdgeBased()) {
+            System.out.println("Node-based CH graph for profile car is not available, legs are routed one by one.");
+            return null;
+        }
+        return new CHDistanceTable(chGraph, hopper.getLocationIndex(), snapFilter);
+    }
+    
+    // By car, in meters, between trip endpoints (origin, or destination if the flag is set) whose snapped positions are cached
+    public double getDistanceBetweenTrips(Trip from, boolean fromDestination, Trip to, boolean toDestination) {
+        return getLegBetweenTrips(from, fromDestination, to, toDestination).distance;
+    }
+    
+    public RouteLeg getLegBetweenTrips(Trip from, boolean fromDestination, Trip to, boolean toDestination) {
+        if (chGraph == null)
+            return getLegBetweenTwoLocs(fromDestination ? from.getEndLongitude() : from.getStartLongitude(), fromDestination ? from.getEndLatitude() : from.getStartLatitude(),
+                                        toDestination ? to.getEndLongitude() : to.getStartLongitude(), toDestination ? to.getEndLatitude() : to.getStartLatitude());
+        
+        Snap fromSnap = snapTripEndpoint(from, fromDestination);
+        Snap toSnap = snapTripEndpoint(to, toDestination);
+        if (!fromSnap.isValid() || !toSnap.isValid()) {
+            System.out.println("Cannot find a road close to trip " + (fromSnap.isValid() ? to.getID() : from.getID()));
+            return RouteLeg.NOT_FOUND;
+        }
+        if (legCache != null) {
+            RouteLeg leg = getLegThroughNodes(SnappedLocation.of(fromSnap, chGraph.getWeighting()), SnappedLocation.of(toSnap, chGraph.getWeighting()));
+            if (leg == RouteLeg.NOT_FOUND)
+                System.out.println("Connection between trip " + from.getID() + " and trip " + to.getID() + " not found");
+            return leg;
+        }
+        // the query graph adds virtual nodes to the snaps, so it gets its own copies and the cached snaps stay untouched
+        fromSnap = copyOf(fromSnap);
+        toSnap = copyOf(toSnap);
+        QueryGraph queryGraph = QueryGraph.create(hopper.getBaseGraph(), fromSnap, toSnap);
+        Path path = new CHRoutingAlgorithmFactory(chGraph, queryGraph).createAlgo(new PMap()).calcPath(fromSnap.getClosestNode(), toSnap.getClosestNode());
+        if (!path.isFound()) {
+            System.out.println("Connection between trip " + from.getID() + " and trip " + to.getID() + " not found");
+            return RouteLeg.NOT_FOUND;
+        }
+        return new RouteLeg(path.getDistance(), path.getTime());
+    }
+    
+    /*
+     * The best path between two snapped locations leaves the first one through an end of its edge and reaches the second one through an end of its edge
+     * (unless both are on the same edge), so it is put together from the node-to-node paths of the persistent leg cache, routed only when not stored yet.
+     */
+    private RouteLeg getLegThroughNodes(SnappedLocation from, SnappedLocation to) {
+        double bestWeight = Double.POSITIVE_INFINITY;
+        double bestDistance = 0;
+        long bestTime = 0;
+        if (from.sharesEdgeWith(to)) {
+            double toFraction = from.fractionOf(to);
+            boolean forward = toFraction >= from.fraction;
+            double edgeWeight = forward ? from.forwardWeight : from.backwardWeight;
+            if (!Double.isInfinite(edgeWeight)) {
+                double part = Math.abs(toFraction - from.fraction);
+                bestWeight = edgeWeight * part;
+                bestDistance = from.edgeLength * part;
+                bestTime = Math.round((forward ? from.forwardMillis : from.backwardMillis) * part);
+            }
+        }
+        List<SnappedLocation.EdgeEnd> arrivals = to.ends(true);
+        for (SnappedLocation.EdgeEnd departure : from.ends(false)) {
+            for (SnappedLocation.EdgeEnd arrival : arrivals) {
+                LegCache.Entry between = getPathBetweenNodes(departure.node, arrival.node);
+                double weight = departure.weight + between.weight + arrival.weight;
+                if (weight < bestWeight) {
+                    bestWeight = weight;
+                    bestDistance = departure.distance + between.distance + arrival.distance;
+                    bestTime = departure.timeInMs + between.timeInMs + arrival.timeInMs;
+                }
+            }
+        }
+        return Double.isInfinite(bestWeight) ? RouteLeg.NOT_FOUND : new RouteLeg(bestDistance, bestTime);
+    }
+    
+    // unreachable nodes are stored as well, with an infinite weight
+    private LegCache.Entry getPathBetweenNodes(int fromNode, int toNode) {
+        if (fromNode == toNode)
+            return new LegCache.Entry(0, 0, 0);
+        LegCache.Entry entry = legCache.get(fromNode, toNode);
+        if (entry == null) {
+            Path path = new CHRoutingAlgorithmFactory(chGraph).createAlgo(new PMap()).calcPath(fromNode, toNode);
+            entry = path.isFound() ? new LegCache.Entry(path.getWeight(), path.getDistance(), path.getTime()) : new LegCache.Entry(Double.POSITIVE_INFINITY, 0, 0);
+            legCache.put(fromNode, toNode, entry.weight, entry.distance, entry.timeInMs);
+        }
+        return entry;
+    }
+    
+    // node-to-node paths are cached on disk, only for a node-based CH graph (no turn costs)
+    public void openLegCache(java.nio.file.Path file) {
+        if (chGraph == null || chGraph.isEdgeBased()) {
+            System.out.println("Node-based CH graph for profile car is not available, the leg cache is not used.");
+            return;
+        }
+        BaseGraph graph = hopper.getBaseGraph();
+        long signature = 31L * (31L * graph.getNodes() + graph.getEdges()) + chGraph.getWeighting().toString().hashCode();
+        try {
+            legCache = LegCache.open(file, signature);
+            System.out.println("Leg cache " + file + " opened with " + legCache.size() + " node-to-node paths.");
+        } catch (IOException e) {
+            System.out.println("Leg cache could not be opened: " + e.getMessage());
+            legCache = null;
+        }
+    }
+    
+    public void closeLegCache() {
+        if (legCache != null) {
+            legCache.close();
+            legCache = null;
+        }
+    }
+    
+    public void displayLegCacheStatistics() {
+        if (legCache != null) {
+            long total = legCache.getHits() + legCache.getMisses();
+            System.out.format("Leg cache: %d node-to-node paths, hits = %d, misses = %d, hit rate = %.2f%%%n", 
+                                legCache.size(), legCache.getHits(), legCache.getMisses(), total == 0 ? 0 : 100.0 * legCache.getHits() / total);
+            legCache.resetStatistics();
+        }
+    }
+    
+    // distance (in meters) the trip endpoint is moved to be snapped onto a road, infinite if unknown
+    public double getSnapDistance(Trip trip, boolean destination) {
+        if (chGraph == null)
+            return Double.POSITIVE_INFINITY;
+        Snap snap = snapTripEndpoint(trip, destination);
+        return snap.isValid() ? snap.getQueryDistance() : Double.POSITIVE_INFINITY;
+    }
+    
+    private Snap snapTripEndpoint(Trip trip, boolean destination) {
+        return snapCache.get(trip, destination, () -> destination ? 
+                        hopper.getLocationIndex().findClosest(trip.getEndLatitude(), trip.getEndLongitude(), snapFilter) :
+                        hopper.getLocationIndex().findClosest(trip.getStartLatitude(), trip.getStartLongitude(), snapFilter));
+    }
+    
+    private static Snap copyOf(Snap snap) {
+        Snap copy = new Snap(snap.getQueryPoint().lat, snap.getQueryPoint().lon);
+        copy.setClosestNode(snap.getClosestNode());
+        copy.setClosestEdge(snap.getClosestEdge());
+        copy.setWayIndex(snap.getWayIndex());
+        copy.setSnappedPosition(snap.getSnappedPosition());
+        copy.setQueryDistance(snap.getQueryDistance());
+        copy.calcSnappedPoint(DistanceCalcEarth.DIST_EARTH);
+        return copy;
+    }
+    
+    // called at the start of every interval, trips of previous intervals are not queried again
+    public void clearSnapCache() {
+        snapCache.clear();
+    }
+    
+    public void displaySnapCacheStatistics() {
+        System.out.format("Snap cache: %d endpoints, hits = %d, misses = %d, hit rate = %.2f%%%n", 
+                            snapCache.size(), snapCache.getHits(), snapCache.getMisses(), snapCache.getHitRate()*100);
+    }
+    
     private double route(GHRequest req) {
         GHResponse res = hopper.route(req);
         // handle errors
@@ -0,0 +1,16 @@
+package simulation;
+
+import java.util.List;
+
+/*
+ * Keeps every match with its driver, in the column storage of the interval (MatchStore). The default.
+ */
+public class InMemoryMatchSink implements MatchSink {
+    @Override
+    public void accept(Driver driver) {
+    }
+
+    @Override
+    public void finish(List<Driver> drivers) {
+    }
+}
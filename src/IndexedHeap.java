@@ -0,0 +1,89 @@
+package simulation;
+
+import java.util.Arrays;
+
+/*
+ * Min-heap of the vertices 0..n-1 keyed by int, d-ary (4 children per node) with the position of each vertex kept, so a vertex is
+ * in the heap at most once and its key is decreased in place. Used by Dijkstra's algorithm of FlowNetwork, where the keys are
+ * distances on non-negative reduced costs; the arrays are allocated once and reused by every search.
+ */
+public class IndexedHeap {
+    private static final int D = 4;
+    private final int[] heap;           // vertices in heap order
+    private final int[] key;            // by vertex
+    private final int[] position;       // by vertex, -1 if not in the heap
+    private int size = 0;
+
+    public IndexedHeap(int n) {
+        heap = new int[n];
+        key = new int[n];
+        position = new int[n];
+        Arrays.fill(position, -1);
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        for (int i = 0; i < size; i++)
+            position[heap[i]] = -1;
+        size = 0;
+    }
+
+    // inserts the vertex, or decreases its key if it is in the heap with a larger one
+    public void insertOrDecrease(int v, int k) {
+        int i = position[v];
+        if (i < 0) {
+            i = size++;
+        } else if (k >= key[v]) {
+            return;
+        }
+        key[v] = k;
+        siftUp(v, i);
+    }
+
+    public int removeMin() {
+        int min = heap[0];
+        position[min] = -1;
+        size--;
+        if (size > 0)
+            siftDown(heap[size], 0);
+        return min;
+    }
+
+    private void siftUp(int v, int i) {
+        int parent;
+        while (i > 0) {
+            parent = (i - 1) / D;
+            if (key[heap[parent]] <= key[v])
+                break;
+            heap[i] = heap[parent];
+            position[heap[i]] = i;
+            i = parent;
+        }
+        heap[i] = v;
+        position[v] = i;
+    }
+
+    private void siftDown(int v, int i) {
+        int child;
+        int last;
+        int smallest;
+        while ((child = D * i + 1) < size) {
+            last = Math.min(child + D, size);
+            smallest = child;
+            for (int c = child + 1; c < last; c++) {
+                if (key[heap[c]] < key[heap[smallest]])
+                    smallest = c;
+            }
+            if (key[heap[smallest]] >= key[v])
+                break;
+            heap[i] = heap[smallest];
+            position[heap[i]] = i;
+            i = smallest;
+        }
+        heap[i] = v;
+        position[v] = i;
+    }
+}
@@ -0,0 +1,240 @@
+package simulation;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Persistent cache of the shortest paths between road network nodes, kept across intervals and runs.
+ * The file is an open addressing (linear probing) hash table that is memory-mapped, so lookups read the mapped pages directly.
+ * Entries are only ever added: a (fromNode, toNode) slot is written once and never updated or removed.
+ * When the table gets too full, it is rehashed into a file twice as large that replaces the old one.
+ * The header holds a signature of the graph and weighting, so a cache built on another network is discarded.
+ */
+public class LegCache {
+    private static final int MAGIC = 0x4C454743;       // "LEGC"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 32;
+    private static final int ENTRY_BYTES = 32;          // key, weight, distance, time
+    private static final int MIN_CAPACITY = 1 << 16;
+    private static final int MAX_CAPACITY = 1 << 25;    // 1 GB file, a mapped buffer cannot exceed 2 GB
+    private static final float LOAD_FACTOR = 0.6f;
+    private static final long EMPTY = 0L;               // key of (0,0), a node to itself is never stored
+
+    private final Path file;
+    private final long signature;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+    private int capacity;
+    private int size;
+    private boolean full = false;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    public static class Entry {
+        public final double weight;
+        public final double distance;
+        public final long timeInMs;
+
+        Entry(double weight, double distance, long timeInMs) {
+            this.weight = weight;
+            this.distance = distance;
+            this.timeInMs = timeInMs;
+        }
+    }
+
+    private LegCache(Path file, long signature) {
+        this.file = file;
+        this.signature = signature;
+    }
+
+    // opens (or creates) the cache file, an existing file with another signature is started over
+    public static LegCache open(Path file, long signature) throws IOException {
+        LegCache cache = new LegCache(file, signature);
+        if (Files.exists(file) && cache.load())
+            return cache;
+        cache.create(file, MIN_CAPACITY);
+        return cache;
+    }
+
+    private boolean load() throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        if (channel.size() >= HEADER_BYTES) {
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            capacity = buffer.getInt(16);
+            if (buffer.getInt(0) == MAGIC && buffer.getInt(4) == VERSION && buffer.getLong(8) == signature
+                    && Integer.bitCount(capacity) == 1 && channel.size() == HEADER_BYTES + (long) capacity * ENTRY_BYTES) {
+                size = buffer.getInt(20);
+                return true;
+            }
+            System.out.println("Leg cache " + file + " was built for another road network, starting a new one.");
+        }
+        channel.close();
+        buffer = null;
+        return false;
+    }
+
+    private void create(Path target, int newCapacity) throws IOException {
+        channel = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES + (long) newCapacity * ENTRY_BYTES);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(4, VERSION);
+        buffer.putLong(8, signature);
+        buffer.putInt(16, newCapacity);
+        buffer.putInt(20, 0);
+        capacity = newCapacity;
+        size = 0;
+    }
+
+    private static long key(int fromNode, int toNode) {
+        return ((long) fromNode << 32) | (toNode & 0xFFFFFFFFL);
+    }
+
+    // murmur3 finalizer
+    private static long mix(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return key;
+    }
+
+    private static int offset(int slot) {
+        return HEADER_BYTES + slot * ENTRY_BYTES;
+    }
+
+    // slot holding the key, or the empty slot where it would be inserted
+    private int slotOf(MappedByteBuffer table, int tableCapacity, long k) {
+        int mask = tableCapacity - 1;
+        int slot = (int) mix(k) & mask;
+        long stored;
+        while ((stored = table.getLong(offset(slot))) != EMPTY && stored != k)
+            slot = (slot + 1) & mask;
+        return slot;
+    }
+
+    // null if the path between the two nodes has not been stored yet
+    public Entry get(int fromNode, int toNode) {
+        long k = key(fromNode, toNode);
+        lock.readLock().lock();
+        try {
+            int o = offset(slotOf(buffer, capacity, k));
+            if (buffer.getLong(o) == EMPTY) {
+                misses.increment();
+                return null;
+            }
+            hits.increment();
+            return new Entry(buffer.getDouble(o + 8), buffer.getDouble(o + 16), buffer.getLong(o + 24));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public void put(int fromNode, int toNode, double weight, double distance, long timeInMs) {
+        long k = key(fromNode, toNode);
+        if (k == EMPTY)
+            return;
+        lock.writeLock().lock();
+        try {
+            if (size + 1 > capacity * LOAD_FACTOR && !grow())
+                return;
+            int o = offset(slotOf(buffer, capacity, k));
+            if (buffer.getLong(o) == k)
+                return;
+            buffer.putDouble(o + 8, weight);
+            buffer.putDouble(o + 16, distance);
+            buffer.putLong(o + 24, timeInMs);
+            buffer.putLong(o, k);
+            size++;
+            buffer.putInt(20, size);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // rehash into a table twice as large, false when the maximum size is reached (nothing more is recorded)
+    private boolean grow() {
+        if (full)
+            return false;
+        if (capacity >= MAX_CAPACITY) {
+            System.out.println("Leg cache " + file + " is full (" + size + " entries), new paths are not recorded.");
+            full = true;
+            return false;
+        }
+        FileChannel oldChannel = channel;
+        MappedByteBuffer oldBuffer = buffer;
+        int oldCapacity = capacity;
+        int oldSize = size;
+        Path grown = Paths.get(file.toString() + ".tmp");
+        try {
+            create(grown, capacity * 2);
+            for (int slot = 0; slot < oldCapacity; slot++) {
+                int from = offset(slot);
+                long k = oldBuffer.getLong(from);
+                if (k == EMPTY)
+                    continue;
+                int to = offset(slotOf(buffer, capacity, k));
+                buffer.putDouble(to + 8, oldBuffer.getDouble(from + 8));
+                buffer.putDouble(to + 16, oldBuffer.getDouble(from + 16));
+                buffer.putLong(to + 24, oldBuffer.getLong(from + 24));
+                buffer.putLong(to, k);
+            }
+            size = oldSize;
+            buffer.putInt(20, size);
+            buffer.force();
+            Files.move(grown, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            oldChannel.close();
+            return true;
+        } catch (IOException e) {
+            System.out.println("Leg cache could not grow: " + e.getMessage());
+            channel = oldChannel;
+            buffer = oldBuffer;
+            capacity = oldCapacity;
+            size = oldSize;
+            full = true;
+            return false;
+        }
+    }
+
+    // writes the mapped pages back to the file
+    public void close() {
+        lock.writeLock().lock();
+        try {
+            buffer.force();
+            channel.close();
+        } catch (IOException e) {
+            System.out.println("Leg cache was not closed smoothly: " + e.getMessage());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public void resetStatistics() {
+        hits.reset();
+        misses.reset();
+    }
+}
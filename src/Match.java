@@ -1,34 +1,163 @@
 package simulation;
 
 import java.io.Serializable;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
 
+/*
+ * A match is a row of a MatchStore: its passengers, route, revenue, cost and profit are kept in the columns of the store,
+ * so a match costs one small object instead of the sets, lists and pairs of its feasible path.
+ */
 public class Match implements Serializable {
-    private static final long serialVersionUID = 1L;
+    private static final long serialVersionUID = 2L;
     public int id;            // just indicates the id for this assignment, which is unique for the duration of an iteration
-    public double revenue;          // in dollar
-    public double cost;             // in dollar
-    public int profit;              // profit stored in cent.
-    public final SFP sfp;
+    private final MatchStore store;
+    private final int row;
     
-    public Match(SFP sfp) {
-        this.sfp = sfp;
-    }
-    
-    public Match(int id, SFP sfp) {
+    Match(int id, MatchStore store, int row) {
         this.id = id;
-        this.sfp = sfp;
+        this.store = store;
+        this.row = row;
+    }
+
+    MatchStore store() {
+        return store;
+    }
+
+    int row() {
+        return row;
+    }
+
+    public double getRevenue() {         // in dollar
+        return store.getRevenue(row);
     }
 
     public void setRevenue(double revenue) {
-        this.revenue = revenue;
+        store.setRevenue(row, revenue);
+    }
+
+    public double getCost() {            // in dollar
+        return store.getCost(row);
     }
 
     public void setCost(double cost) {
-        this.cost = cost;
+        store.setCost(row, cost);
+    }
+
+    public int getProfit() {             // profit stored in cent.
+        return store.getProfit(row);
     }
 
     public void setProfit(int profit) {
-        this.profit = profit;
+        store.setProfit(row, profit);
+    }
+
+    // index of the driver in travelDistance of the interval the match was built in
+    public int getDriverIndex() {
+        return store.getDriverIndex(row);
+    }
+
+    public long getDepartureTimeOfDriver() {
+        return store.getDepartureTimeOfDriver(row);
+    }
+
+    public int passengerCount() {
+        return store.getPassengerCount(row);
+    }
+
+    // k-th passenger, in the order of their origins on the route
+    public Passenger getPassenger(int k) {
+        return store.getPassenger(row, k);
+    }
+
+    public boolean containsPassenger(Passenger passenger) {
+        for (int k = 0; k < passengerCount(); k++) {
+            if (store.getPassenger(row, k) == passenger)
+                return true;
+        }
+        return false;
+    }
+
+    // read-only view of the passengers, equal to any set with the same passengers; a new view each call, loops use passengerCount() and getPassenger(k)
+    public Set<Passenger> passengers() {
+        return new AbstractSet<Passenger>() {
+            @Override
+            public Iterator<Passenger> iterator() {
+                return new Iterator<Passenger>() {
+                    private int k = 0;
+
+                    @Override
+                    public boolean hasNext() {
+                        return k < passengerCount();
+                    }
+
+                    @Override
+                    public Passenger next() {
+                        if (k >= passengerCount())
+                            throw new NoSuchElementException();
+                        return store.getPassenger(row, k++);
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return passengerCount();
+            }
+
+            @Override
+            public boolean contains(Object o) {
+                return o instanceof Passenger && containsPassenger((Passenger) o);
+            }
+        };
+    }
+
+    // the route has 2*passengerCount() stops, an origin and a destination for each passenger
+    public int stopCount() {
+        return 2 * passengerCount();
+    }
+
+    public Passenger getStopPassenger(int i) {
+        return store.getStopPassenger(row, i);
+    }
+
+    // k of the passenger of the stop, getPassenger(k) is getStopPassenger(i)
+    public int getStopPassengerSlot(int i) {
+        return store.getStopPassengerSlot(row, i);
+    }
+
+    // false = origin, true = destination
+    public boolean isStopDestination(int i) {
+        return store.isStopDestination(row, i);
+    }
+
+    public int getTravelDistanceIndex(int i) {
+        return store.getTravelDistanceIndex(row, i);
+    }
+
+    public int getHourIndex(int i) {
+        return store.getHourIndex(row, i);
+    }
+
+    // travel duration (in second) from the driver's origin to the stop, without waiting
+    public long getStopDuration(int i) {
+        return store.getStopDuration(row, i);
+    }
+
+    // travel distance (in meter) from the driver's origin to the stop
+    public long getStopDistance(int i) {
+        return store.getStopDistance(row, i);
+    }
+
+    // travel duration of the driver from its origin to its destination, without waiting
+    public long getRouteDuration() {
+        return store.getRouteDuration(row);
+    }
+
+    public long getRouteDistance() {
+        return store.getRouteDistance(row);
     }
     
     @Override
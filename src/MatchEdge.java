@@ -17,7 +17,7 @@ public class MatchEdge {
         this.match = match;
         this.cost = cost;
         if (match != null)
-            this.profit = match.profit;
+            this.profit = match.getProfit();
         else
             this.profit = 0;
     }
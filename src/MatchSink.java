@@ -0,0 +1,26 @@
+package simulation;
+
+import java.util.List;
+
+/**
+ * Receives the matches of each driver from computeAllMatches* as soon as the enumeration of the driver is done,
+ * on the thread that enumerated it. The enumeration needs the matches of a driver while it runs (they are the groups it extends),
+ * so a driver is handed over whole; what the sink keeps of it afterwards is up to the sink. Selected by SimulationParameters.matchSink.
+ */
+public interface MatchSink {
+    // store for the new matches of the driver while it is enumerated, null for the store of the interval
+    default MatchStore storeFor(Driver driver) {
+        return null;
+    }
+
+    // the enumeration of the driver is done, its matches are in driver.getMatches() with their profits
+    void accept(Driver driver);
+
+    // every driver was accepted; throws UncheckedIOException if matches the sink moved out of memory are lost, and the interval is skipped
+    void finish(List<Driver> drivers);
+
+    // false if the sink drops or moves matches, so they have to be numbered again
+    default boolean keepsMatches() {
+        return true;
+    }
+}
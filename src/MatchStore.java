@@ -0,0 +1,281 @@
+package simulation;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/*
+ * Column storage of the matches of an interval. A match is a row: driver index, departure time of the driver, revenue, cost, profit,
+ * duration and distance of the route of the driver, and an offset into the passenger and stop pools. The passengers of a match are at
+ * [offset, offset+n) of the passenger pool and its 2n stops at [2*offset, 2*offset+2n) of the stop pools (passenger slot in the match with
+ * the destination bit, travel distance index, hour index, and the duration and distance from the driver's origin to the stop).
+ * Columns are split into chunks that never move, so a row can be read while other threads append (appending is synchronized).
+ * Match is the view of a row; the store is serialized with the matches that refer to it.
+ * The passenger pool holds the Passenger objects rather than their trip indices: the solvers and the trip files need the passengers
+ * themselves, and an index would have to be mapped back through a table of the interval that the store does not own.
+ */
+public class MatchStore implements Serializable {
+    private static final long serialVersionUID = 2L;
+    private static final int CHUNK_BITS = 12;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;        // rows per chunk
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+    private static final int POOL_BITS = 14;
+    private static final int POOL_SIZE = 1 << POOL_BITS;          // passengers per pool chunk
+    private static final int POOL_MASK = POOL_SIZE - 1;
+
+    // row columns
+    private volatile int[][] driverIndex = new int[16][];
+    private volatile long[][] departureTimeOfDriver = new long[16][];
+    private volatile double[][] revenue = new double[16][];
+    private volatile double[][] cost = new double[16][];
+    private volatile int[][] profit = new int[16][];
+    private volatile long[][] routeDuration = new long[16][];
+    private volatile long[][] routeDistance = new long[16][];
+    private volatile int[][] offset = new int[16][];
+    private volatile byte[][] size = new byte[16][];
+    // pools, a match never spans two pool chunks
+    private volatile Passenger[][] passengers = new Passenger[16][];
+    private volatile int[][] stops = new int[16][];                  // slot of the passenger in the match << 1 | 1 for its destination
+    private volatile int[][] travelDistanceIndex = new int[16][];
+    private volatile int[][] hourIndex = new int[16][];
+    private volatile long[][] stopDuration = new long[16][];
+    private volatile long[][] stopDistance = new long[16][];
+    private transient volatile int[] profitOverlay;     // profits by row read instead of the profit column, see ProfitScenarios
+    private int rows = 0;
+    private int poolUsed = 0;           // passengers in the pool, including the unused ends of pool chunks
+
+    /*
+     * Copies the route into the store and returns the view of the new row. duration and distance are accumulated from the driver's origin:
+     * to each stop of the route, then to the driver's destination (2n+1 values).
+     */
+    public Match add(int driverIdx, int id, SFP sfp, long[] duration, long[] distance) {
+        int n = sfp.passengers.size();
+        int row;
+        synchronized (this) {
+            row = rows++;
+            if ((poolUsed & POOL_MASK) + n > POOL_SIZE)        // does not fit in the rest of the current pool chunk
+                poolUsed = (poolUsed | POOL_MASK) + 1;
+            int start = poolUsed;
+            poolUsed = poolUsed + n;
+            ensureRowChunk(row >>> CHUNK_BITS);
+            ensurePoolChunk(start >>> POOL_BITS);
+
+            int c = row >>> CHUNK_BITS, r = row & CHUNK_MASK;
+            driverIndex[c][r] = driverIdx;
+            departureTimeOfDriver[c][r] = sfp.departureTimeOfDriver;
+            offset[c][r] = start;
+            size[c][r] = (byte) n;
+            routeDuration[c][r] = duration[2*n];
+            routeDistance[c][r] = distance[2*n];
+
+            int pc = start >>> POOL_BITS, p = start & POOL_MASK;
+            Passenger[] passengerChunk = passengers[pc];
+            int[] stopChunk = stops[pc];
+            int[] distanceChunk = travelDistanceIndex[pc];
+            int[] hourChunk = hourIndex[pc];
+            long[] durationChunk = stopDuration[pc];
+            long[] distanceToStopChunk = stopDistance[pc];
+            List<Pair<Passenger, Boolean>> originOrDest = sfp.originOrDest;
+            int slots = 0;
+            Passenger passenger;
+            for (int i = 0; i < originOrDest.size(); i++) {
+                passenger = originOrDest.get(i).getP1();
+                int slot = -1;
+                for (int k = 0; k < slots; k++) {
+                    if (passengerChunk[p + k] == passenger) {
+                        slot = k;
+                        break;
+                    }
+                }
+                if (slot < 0) {
+                    slot = slots++;
+                    passengerChunk[p + slot] = passenger;
+                }
+                stopChunk[2*p + i] = slot << 1 | (originOrDest.get(i).getP2() ? 1 : 0);
+                distanceChunk[2*p + i] = sfp.travelDistanceIndex[i];
+                hourChunk[2*p + i] = sfp.hourIndex[i];
+                durationChunk[2*p + i] = duration[i];
+                distanceToStopChunk[2*p + i] = distance[i];
+            }
+        }
+        return new Match(id, this, row);
+    }
+
+    // copies a match of any store into this one, with its revenue, cost and profit
+    public Match copy(Match match) {
+        int n = match.stopCount();
+        List<Pair<Passenger, Boolean>> originOrDest = new ArrayList<>(n);
+        int[] distanceIndex = new int[n];
+        int[] hour = new int[n];
+        long[] duration = new long[n+1];
+        long[] distance = new long[n+1];
+        for (int i = 0; i < n; i++) {
+            originOrDest.add(new Pair<>(match.getStopPassenger(i), match.isStopDestination(i)));
+            distanceIndex[i] = match.getTravelDistanceIndex(i);
+            hour[i] = match.getHourIndex(i);
+            duration[i] = match.getStopDuration(i);
+            distance[i] = match.getStopDistance(i);
+        }
+        duration[n] = match.getRouteDuration();
+        distance[n] = match.getRouteDistance();
+        Match copy = add(match.getDriverIndex(), match.id, new SFP(match.passengers(), originOrDest, distanceIndex, hour, match.getDepartureTimeOfDriver()),
+                            duration, distance);
+        copy.setRevenue(match.getRevenue());
+        copy.setCost(match.getCost());
+        copy.setProfit(match.getProfit());
+        return copy;
+    }
+
+    private void ensureRowChunk(int c) {
+        if (c >= driverIndex.length) {
+            int length = driverIndex.length * 2;
+            driverIndex = Arrays.copyOf(driverIndex, length);
+            departureTimeOfDriver = Arrays.copyOf(departureTimeOfDriver, length);
+            revenue = Arrays.copyOf(revenue, length);
+            cost = Arrays.copyOf(cost, length);
+            profit = Arrays.copyOf(profit, length);
+            routeDuration = Arrays.copyOf(routeDuration, length);
+            routeDistance = Arrays.copyOf(routeDistance, length);
+            offset = Arrays.copyOf(offset, length);
+            size = Arrays.copyOf(size, length);
+        }
+        if (driverIndex[c] == null) {
+            driverIndex[c] = new int[CHUNK_SIZE];
+            departureTimeOfDriver[c] = new long[CHUNK_SIZE];
+            revenue[c] = new double[CHUNK_SIZE];
+            cost[c] = new double[CHUNK_SIZE];
+            profit[c] = new int[CHUNK_SIZE];
+            routeDuration[c] = new long[CHUNK_SIZE];
+            routeDistance[c] = new long[CHUNK_SIZE];
+            offset[c] = new int[CHUNK_SIZE];
+            size[c] = new byte[CHUNK_SIZE];
+        }
+    }
+
+    private void ensurePoolChunk(int c) {
+        if (c >= passengers.length) {
+            int length = passengers.length * 2;
+            passengers = Arrays.copyOf(passengers, length);
+            stops = Arrays.copyOf(stops, length);
+            travelDistanceIndex = Arrays.copyOf(travelDistanceIndex, length);
+            hourIndex = Arrays.copyOf(hourIndex, length);
+            stopDuration = Arrays.copyOf(stopDuration, length);
+            stopDistance = Arrays.copyOf(stopDistance, length);
+        }
+        if (passengers[c] == null) {
+            passengers[c] = new Passenger[POOL_SIZE];
+            stops[c] = new int[2*POOL_SIZE];
+            travelDistanceIndex[c] = new int[2*POOL_SIZE];
+            hourIndex[c] = new int[2*POOL_SIZE];
+            stopDuration[c] = new long[2*POOL_SIZE];
+            stopDistance[c] = new long[2*POOL_SIZE];
+        }
+    }
+
+    public synchronized int size() {
+        return rows;
+    }
+
+    int getDriverIndex(int row) {
+        return driverIndex[row >>> CHUNK_BITS][row & CHUNK_MASK];
+    }
+
+    long getDepartureTimeOfDriver(int row) {
+        return departureTimeOfDriver[row >>> CHUNK_BITS][row & CHUNK_MASK];
+    }
+
+    double getRevenue(int row) {
+        return revenue[row >>> CHUNK_BITS][row & CHUNK_MASK];
+    }
+
+    void setRevenue(int row, double value) {
+        revenue[row >>> CHUNK_BITS][row & CHUNK_MASK] = value;
+    }
+
+    double getCost(int row) {
+        return cost[row >>> CHUNK_BITS][row & CHUNK_MASK];
+    }
+
+    void setCost(int row, double value) {
+        cost[row >>> CHUNK_BITS][row & CHUNK_MASK] = value;
+    }
+
+    int getProfit(int row) {
+        int[] overlay = profitOverlay;
+        if (overlay != null && row < overlay.length)
+            return overlay[row];
+        return profit[row >>> CHUNK_BITS][row & CHUNK_MASK];
+    }
+
+    // the profit column by row
+    public synchronized int[] profits() {
+        int[] result = new int[rows];
+        for (int row = 0; row < rows; row++)
+            result[row] = profit[row >>> CHUNK_BITS][row & CHUNK_MASK];
+        return result;
+    }
+
+    // profits by row read instead of the profit column (rows past its end read the column), null to read the column again
+    public void setProfitOverlay(int[] profitByRow) {
+        profitOverlay = profitByRow;
+    }
+
+    void setProfit(int row, int value) {
+        profit[row >>> CHUNK_BITS][row & CHUNK_MASK] = value;
+    }
+
+    long getRouteDuration(int row) {
+        return routeDuration[row >>> CHUNK_BITS][row & CHUNK_MASK];
+    }
+
+    long getRouteDistance(int row) {
+        return routeDistance[row >>> CHUNK_BITS][row & CHUNK_MASK];
+    }
+
+    int getPassengerCount(int row) {
+        return size[row >>> CHUNK_BITS][row & CHUNK_MASK];
+    }
+
+    // k-th passenger of the match, in the order of their origins on the route
+    Passenger getPassenger(int row, int k) {
+        int start = offset[row >>> CHUNK_BITS][row & CHUNK_MASK];
+        return passengers[start >>> POOL_BITS][(start & POOL_MASK) + k];
+    }
+
+    Passenger getStopPassenger(int row, int i) {
+        int start = offset[row >>> CHUNK_BITS][row & CHUNK_MASK];
+        int pc = start >>> POOL_BITS, p = start & POOL_MASK;
+        return passengers[pc][p + (stops[pc][2*p + i] >>> 1)];
+    }
+
+    int getStopPassengerSlot(int row, int i) {
+        int start = offset[row >>> CHUNK_BITS][row & CHUNK_MASK];
+        return stops[start >>> POOL_BITS][2*(start & POOL_MASK) + i] >>> 1;
+    }
+
+    boolean isStopDestination(int row, int i) {
+        int start = offset[row >>> CHUNK_BITS][row & CHUNK_MASK];
+        return (stops[start >>> POOL_BITS][2*(start & POOL_MASK) + i] & 1) == 1;
+    }
+
+    int getTravelDistanceIndex(int row, int i) {
+        int start = offset[row >>> CHUNK_BITS][row & CHUNK_MASK];
+        return travelDistanceIndex[start >>> POOL_BITS][2*(start & POOL_MASK) + i];
+    }
+
+    int getHourIndex(int row, int i) {
+        int start = offset[row >>> CHUNK_BITS][row & CHUNK_MASK];
+        return hourIndex[start >>> POOL_BITS][2*(start & POOL_MASK) + i];
+    }
+
+    long getStopDuration(int row, int i) {
+        int start = offset[row >>> CHUNK_BITS][row & CHUNK_MASK];
+        return stopDuration[start >>> POOL_BITS][2*(start & POOL_MASK) + i];
+    }
+
+    long getStopDistance(int row, int i) {
+        int start = offset[row >>> CHUNK_BITS][row & CHUNK_MASK];
+        return stopDistance[start >>> POOL_BITS][2*(start & POOL_MASK) + i];
+    }
+}
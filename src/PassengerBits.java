@@ -0,0 +1,75 @@
+package simulation;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/*
+ * A group of passengers of one driver as a bitmap over the driver-local passenger indices (the position of the passenger
+ * in the list of the driver's base matches). At most maxNumBaseMatchesPerDriver passengers, so a group is a couple of words.
+ */
+public class PassengerBits {
+    private PassengerBits() {
+    }
+
+    public static int words(int numPassengers) {
+        return Math.max((numPassengers + 63) >>> 6, 1);
+    }
+
+    // the group {index}
+    public static long[] of(int words, int index) {
+        long[] bits = new long[words];
+        set(bits, index);
+        return bits;
+    }
+
+    public static void set(long[] bits, int index) {
+        bits[index >>> 6] |= 1L << index;
+    }
+
+    public static void flip(long[] bits, int index) {
+        bits[index >>> 6] ^= 1L << index;
+    }
+
+    // first passenger of the group with an index >= from, -1 if none
+    public static int next(long[] bits, int from) {
+        int w = from >>> 6;
+        if (w >= bits.length)
+            return -1;
+        long word = bits[w] & (-1L << from);
+        while (word == 0) {
+            if (++w == bits.length)
+                return -1;
+            word = bits[w];
+        }
+        return (w << 6) + Long.numberOfTrailingZeros(word);
+    }
+
+    // last passenger of the group, -1 if the group is empty
+    public static int last(long[] bits) {
+        for (int w = bits.length-1; w >= 0; w--) {
+            if (bits[w] != 0)
+                return (w << 6) + 63 - Long.numberOfLeadingZeros(bits[w]);
+        }
+        return -1;
+    }
+
+    // passengers adjacent to every passenger of the group (adjacency from ShareabilityGraph.localAdjacency), all of them if adjacency is null
+    public static void adjacentToAll(long[] bits, long[][] adjacency, long[] result) {
+        Arrays.fill(result, -1L);
+        if (adjacency == null)
+            return;
+        for (int i = next(bits, 0); i >= 0; i = next(bits, i+1)) {
+            for (int w = 0; w < result.length; w++)
+                result[w] &= adjacency[i][w];
+        }
+    }
+
+    public static Set<Passenger> toSet(long[] bits, List<Passenger> passengerList) {
+        Set<Passenger> passengers = new HashSet<>();
+        for (int i = next(bits, 0); i >= 0; i = next(bits, i+1))
+            passengers.add(passengerList.get(i));
+        return passengers;
+    }
+}
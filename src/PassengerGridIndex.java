@@ -0,0 +1,116 @@
+package simulation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/*
+ * Uniform latitude/longitude grid over the origins of the passengers, to get the passengers whose origin is within some radius of a location
+ * without testing every passenger. Passengers are returned in the order of the list the index was built from, so that the candidate pairs
+ * are visited in the same order as by a scan of all the passengers. Read-only once built (safe to share between driver threads).
+ */
+public class PassengerGridIndex {
+    private static final double KmPerDegree = 6371 * Math.PI / 180.0;      // along a meridian
+    private static final double Radian = Math.PI / 180.0;
+
+    private final List<Passenger> passengers;
+    private final double minLatitude;
+    private final double minLongitude;
+    private final double cellLatitude;      // cell size in degrees
+    private final double cellLongitude;
+    private final int rows;
+    private final int columns;
+    private final int[] cellStart;          // positions (in the passenger list) of the passengers in cell c are cellPassengers[cellStart[c] .. cellStart[c+1]-1]
+    private final int[] cellPassengers;
+
+    public PassengerGridIndex(List<Passenger> passengers, double cellSizeInKm) {
+        this.passengers = passengers;
+        double minLat = Double.POSITIVE_INFINITY, maxLat = Double.NEGATIVE_INFINITY;
+        double minLon = Double.POSITIVE_INFINITY, maxLon = Double.NEGATIVE_INFINITY;
+        for (Passenger p : passengers) {
+            minLat = Math.min(minLat, p.getStartLatitude());
+            maxLat = Math.max(maxLat, p.getStartLatitude());
+            minLon = Math.min(minLon, p.getStartLongitude());
+            maxLon = Math.max(maxLon, p.getStartLongitude());
+        }
+        if (passengers.isEmpty()) {
+            minLat = maxLat = minLon = maxLon = 0;
+        }
+        minLatitude = minLat;
+        minLongitude = minLon;
+        cellLatitude = cellSizeInKm / KmPerDegree;
+        // the cells are at least cellSizeInKm wide everywhere in the grid
+        cellLongitude = cellLatitude / Math.max(Math.cos(Math.max(Math.abs(minLat), Math.abs(maxLat)) * Radian), 1e-6);
+        rows = (int) ((maxLat - minLat) / cellLatitude) + 1;
+        columns = (int) ((maxLon - minLon) / cellLongitude) + 1;
+
+        // counting sort of the passengers by cell, positions stay in increasing order within a cell
+        int[] cellOf = new int[passengers.size()];
+        cellStart = new int[rows*columns + 1];
+        for (int i = 0; i < passengers.size(); i++) {
+            cellOf[i] = row(passengers.get(i).getStartLatitude()) * columns + column(passengers.get(i).getStartLongitude());
+            cellStart[cellOf[i]+1]++;
+        }
+        for (int c = 0; c < rows*columns; c++)
+            cellStart[c+1] = cellStart[c+1] + cellStart[c];
+        cellPassengers = new int[passengers.size()];
+        int[] next = Arrays.copyOf(cellStart, rows*columns);
+        for (int i = 0; i < passengers.size(); i++)
+            cellPassengers[next[cellOf[i]]++] = i;
+    }
+
+    private int row(double latitude) {
+        return Math.min(Math.max((int) Math.floor((latitude - minLatitude) / cellLatitude), 0), rows-1);
+    }
+
+    private int column(double longitude) {
+        return Math.min(Math.max((int) Math.floor((longitude - minLongitude) / cellLongitude), 0), columns-1);
+    }
+
+    // passengers whose origin is within radiusInKm (great-circle distance) of the location, in the order of the passenger list
+    public List<Passenger> originsWithin(double latitude, double longitude, double radiusInKm) {
+        return originsWithin(latitude, longitude, radiusInKm, null);
+    }
+
+    // only the passengers whose position (in the passenger list) is set in allowed are returned, all of them if allowed is null
+    public List<Passenger> originsWithin(double latitude, double longitude, double radiusInKm, BitSet allowed) {
+        List<Passenger> found = new ArrayList<>();
+        if (passengers.isEmpty() || radiusInKm < 0)
+            return found;
+        double deltaLatitude = radiusInKm / KmPerDegree;
+        double farthestLatitude = Math.min(Math.max(Math.abs(latitude - deltaLatitude), Math.abs(latitude + deltaLatitude)), 89.0);
+        double deltaLongitude = deltaLatitude / Math.cos(farthestLatitude * Radian);
+        if (latitude + deltaLatitude < minLatitude || latitude - deltaLatitude > minLatitude + rows*cellLatitude
+                || longitude + deltaLongitude < minLongitude || longitude - deltaLongitude > minLongitude + columns*cellLongitude)
+            return found;
+
+        int firstRow = row(latitude - deltaLatitude), lastRow = row(latitude + deltaLatitude);
+        int firstColumn = column(longitude - deltaLongitude), lastColumn = column(longitude + deltaLongitude);
+        int count = 0;
+        for (int r = firstRow; r <= lastRow; r++)
+            count = count + cellStart[r*columns + lastColumn + 1] - cellStart[r*columns + firstColumn];
+        int[] positions = new int[count];
+        count = 0;
+        Passenger p;
+        for (int r = firstRow; r <= lastRow; r++) {
+            for (int k = cellStart[r*columns + firstColumn]; k < cellStart[r*columns + lastColumn + 1]; k++) {
+                if (allowed != null && !allowed.get(cellPassengers[k]))
+                    continue;
+                p = passengers.get(cellPassengers[k]);
+                if (distance(latitude, longitude, p.getStartLatitude(), p.getStartLongitude()) <= radiusInKm)
+                    positions[count++] = cellPassengers[k];
+            }
+        }
+        Arrays.sort(positions, 0, count);
+        for (int k = 0; k < count; k++)
+            found.add(passengers.get(positions[k]));
+        return found;
+    }
+
+    // same haversine formula as Algorithms.distance, in km
+    private static double distance(double lat1, double lon1, double lat2, double lon2) {
+        double a = 0.5 - Math.cos((lat2 - lat1) * Radian)/2 +  Math.cos(lat1 * Radian) * Math.cos(lat2 * Radian) * (1 - Math.cos((lon2 - lon1) * Radian))/2;
+        return 12742 * Math.asin(Math.sqrt(a));
+    }
+}
@@ -0,0 +1,89 @@
+package simulation;
+
+import java.util.Arrays;
+
+/*
+ * Hash index from a passenger group (PassengerBits of one driver) to the index of its match in the driver's match list.
+ * Open addressing with linear probing over flat arrays; groups of different sizes never collide, so one index serves every level.
+ * Used by a single driver thread, not thread-safe.
+ */
+public class PassengerGroupIndex {
+    private final int words;
+    private long[] keys;        // words per slot
+    private int[] values;       // -1 for an empty slot
+    private int mask;
+    private int size = 0;
+
+    public PassengerGroupIndex(int words, int expectedSize) {
+        this.words = words;
+        int capacity = Integer.highestOneBit(Math.max(expectedSize*2, 16) - 1) << 1;
+        keys = new long[capacity*words];
+        values = new int[capacity];
+        Arrays.fill(values, -1);
+        mask = capacity - 1;
+    }
+
+    private int hash(long[] bits, int from) {
+        long h = 0;
+        for (int w = 0; w < words; w++)
+            h = (h ^ bits[from + w]) * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private boolean sameKey(long[] bits, int slot) {
+        for (int w = 0; w < words; w++) {
+            if (keys[slot*words + w] != bits[w])
+                return false;
+        }
+        return true;
+    }
+
+    // index of the match with exactly these passengers, -1 if there is none
+    public int indexOf(long[] bits) {
+        int slot = hash(bits, 0) & mask;
+        while (values[slot] >= 0) {
+            if (sameKey(bits, slot))
+                return values[slot];
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    public void add(long[] bits, int matchIndex) {
+        if ((size+1)*2 > values.length)
+            grow();
+        int slot = hash(bits, 0) & mask;
+        while (values[slot] >= 0) {
+            if (sameKey(bits, slot)) {
+                values[slot] = matchIndex;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        System.arraycopy(bits, 0, keys, slot*words, words);
+        values[slot] = matchIndex;
+        size++;
+    }
+
+    private void grow() {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        keys = new long[oldKeys.length*2];
+        values = new int[oldValues.length*2];
+        Arrays.fill(values, -1);
+        mask = values.length - 1;
+        for (int old = 0; old < oldValues.length; old++) {
+            if (oldValues[old] < 0)
+                continue;
+            int slot = hash(oldKeys, old*words) & mask;
+            while (values[slot] >= 0)
+                slot = (slot + 1) & mask;
+            System.arraycopy(oldKeys, old*words, keys, slot*words, words);
+            values[slot] = oldValues[old];
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+}
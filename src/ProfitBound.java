@@ -0,0 +1,60 @@
+package simulation;
+
+import java.util.Arrays;
+import java.util.List;
+
+/*
+ * Upper bound of the profit of the groups of a driver, to drop groups in computeAllMatches* that cannot have a non-negative profit
+ * (SimulationParameters.profitBoundPruning, for RPC+ only, which ignores negative matches).
+ * The revenue from a passenger is at most Algorithms.revenueUpperBound. The cost of a group is at least the cost of the base match of each
+ * of its passengers: the route of the group goes through the stops of the passenger, and shortest path distances satisfy the triangle inequality.
+ * A group is dropped when even the group with the passengers of the largest revenue bounds added up to the capacity cannot pay for it;
+ * a larger group needs it as a subgroup, so the whole branch goes.
+ * Later cost increases and revenue reductions only lower the profit, so a dropped group would have been negative anyway.
+ */
+public class ProfitBound {
+    private static final double Tolerance = 0.01;    // the profit is rounded to cents
+
+    private final Algorithms alg;
+    private final double[] revenue;         // upper bound of the revenue from each passenger, by position in passengerList
+    private final double[] cost;            // cost of the base match of each passenger
+    private final double[] topRevenue;      // topRevenue[k]: sum of the k largest revenue bounds
+    private final int capacity;
+
+    public ProfitBound(Algorithms alg, Driver driver, List<Passenger> passengerList) {
+        this.alg = alg;
+        int n = passengerList.size();
+        capacity = driver.getCapacity();
+        revenue = new double[n];
+        cost = new double[n];
+        int driverIndex = alg.tripIDtoTravelDistanceIndex.get(driver.getID());
+        Match m;
+        for (int i = 0; i < n; i++) {
+            revenue[i] = alg.revenueUpperBound(passengerList.get(i), capacity);
+            m = driver.getMatches().get(i);
+            cost[i] = driver.getCostPerMeter() * (alg.travelDistance.get(driverIndex, m.getTravelDistanceIndex(0))
+                        + alg.travelDistance.get(m.getTravelDistanceIndex(0), m.getTravelDistanceIndex(1)) + alg.travelDistance.get(m.getTravelDistanceIndex(1), driverIndex));
+        }
+        double[] sorted = revenue.clone();
+        Arrays.sort(sorted);
+        topRevenue = new double[capacity + 1];
+        for (int k = 1; k <= capacity; k++)
+            topRevenue[k] = topRevenue[k-1] + (k <= n ? sorted[n-k] : 0);
+    }
+
+    // false if neither the group nor any group of the driver containing it can have a non-negative profit
+    public boolean canBeNonNegative(long[] group) {
+        double groupRevenue = 0;
+        double groupCost = 0;
+        int size = 0;
+        for (int p = PassengerBits.next(group, 0); p >= 0; p = PassengerBits.next(group, p+1)) {
+            groupRevenue = groupRevenue + revenue[p];
+            groupCost = Math.max(groupCost, cost[p]);
+            size++;
+        }
+        if (groupRevenue + topRevenue[Math.max(capacity - size, 0)] - groupCost >= -Tolerance)
+            return true;
+        alg.groupsPrunedByProfitBound.increment();
+        return false;
+    }
+}
@@ -0,0 +1,180 @@
+package simulation;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Profits of the matches of the drivers under cost and revenue scenarios, without changing the matches. The revenue, cost and route
+ * distance of each match, and the operating cost per meter of its driver, are read once into arrays; every scenario is then evaluated
+ * in one pass over them, split between the threads. A scenario is applied as an overlay on the profits of the match store (see
+ * MatchStore.setProfitOverlay), so the solvers read its profits through Match.getProfit() while the revenue and cost stay those
+ * the matches were built with.
+ * The cost is changed as decreaseProfitByIncreasingCost changes it, then the revenue as decreaseProfitByReducingRevenue does, except that
+ * the operating cost is charged on the route distance recorded in the match and the extra cost is drawn from a stream of each match,
+ * seeded by the key of its take rates (the seed of the simulation, the interval, the driver and the passengers) and the extra cost
+ * of the scenario: the same scenario gets the same draws wherever it is in the sweep.
+ */
+public class ProfitScenarios {
+    private static final int BLOCK = 4096;      // matches per task
+    private final Match[] match;
+    private final long[] key;                           // Algorithms.takeRateKey of the match
+    private final double[] revenue;
+    private final double[] cost;
+    private final double[] distance;
+    private final double[][] maintenance;               // per meter, by operating cost type, then match
+    private final double[][] depreciation;
+    private int[][] profit;                             // by scenario, then match
+
+    public static class Scenario {
+        public final double costMultiplier;         // 1 leaves the cost as it is
+        public final double chanceForExtraCost;
+        public final double extraCost;
+        public final int operatingCostType;         // 0 for none
+        public final double revenueReduction;       // the percentage of the remaining revenue, 1 for none
+
+        public Scenario(double costMultiplier, double chanceForExtraCost, double extraCost, int operatingCostType, double revenueReduction) {
+            this.costMultiplier = costMultiplier;
+            this.chanceForExtraCost = chanceForExtraCost;
+            this.extraCost = extraCost;
+            this.operatingCostType = operatingCostType;
+            this.revenueReduction = revenueReduction;
+        }
+
+        @Override
+        public String toString() {
+            return "{costMultiplier=" + costMultiplier + ", chanceForExtraCost=" + chanceForExtraCost + ", extraCost=" + extraCost
+                    + ", operatingCostType=" + operatingCostType + ", revenueReduction=" + revenueReduction + "}";
+        }
+    }
+
+    public ProfitScenarios(Algorithms alg, List<Driver> drivers) {
+        int size = 0;
+        for (Driver driver : drivers)
+            size = size + driver.getMatches().size();
+        match = new Match[size];
+        key = new long[size];
+        revenue = new double[size];
+        cost = new double[size];
+        distance = new double[size];
+        maintenance = new double[3][size];
+        depreciation = new double[3][size];
+        int k = 0;
+        for (Driver driver : drivers) {
+            if (driver.getMatches().isEmpty())
+                continue;
+            double[] op1 = alg.operatingCostPerMeter(driver, 1);
+            double[] op2 = alg.operatingCostPerMeter(driver, 2);
+            for (Match m : driver.getMatches()) {
+                match[k] = m;
+                key[k] = alg.takeRateKey(m, driver);
+                revenue[k] = m.getRevenue();
+                cost[k] = m.getCost();
+                distance[k] = m.getRouteDistance();
+                maintenance[1][k] = op1[0];
+                depreciation[1][k] = op1[1];
+                maintenance[2][k] = op2[0];
+                depreciation[2][k] = op2[1];
+                k++;
+            }
+        }
+    }
+
+    // computes the profits of every match under every scenario
+    public int[][] evaluate(List<Scenario> scenarios) {
+        Scenario[] scenario = scenarios.toArray(new Scenario[0]);
+        profit = new int[scenario.length][match.length];
+        if (!SimulationParameters.useMultiThread || match.length <= BLOCK) {
+            evaluate(scenario, 0, match.length);
+            return profit;
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(SimulationParameters.nThreads);
+        for (int start = 0; start < match.length; start = start + BLOCK) {
+            int from = start;
+            executor.submit(() -> evaluate(scenario, from, Math.min(from + BLOCK, match.length)));
+        }
+        executor.shutdown();
+        try {
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            System.out.println(e.toString());
+        }
+        return profit;
+    }
+
+    private void evaluate(Scenario[] scenario, int from, int to) {
+        for (int s = 0; s < scenario.length; s++) {
+            Scenario sc = scenario[s];
+            int[] result = profit[s];
+            int type = sc.operatingCostType == 1 || sc.operatingCostType == 2 ? sc.operatingCostType : 0;
+            double[] maintenancePerMeter = maintenance[type];
+            double[] depreciationPerMeter = depreciation[type];
+            boolean extra = sc.chanceForExtraCost > 0 && sc.extraCost > 0;
+            // the draws depend on the match and the extra cost of the scenario, not on its place in the sweep
+            long seed = Algorithms.mix(Double.doubleToLongBits(sc.chanceForExtraCost) ^ Algorithms.mix(Double.doubleToLongBits(sc.extraCost)));
+            double c;
+            double r;
+            double temp;
+            for (int k = from; k < to; k++) {
+                c = cost[k] * sc.costMultiplier;
+                if (extra && new SplittableRandom(Algorithms.mix(key[k] ^ seed)).nextDouble() < sc.chanceForExtraCost)
+                    c = c + sc.extraCost;
+                c = c + distance[k] * maintenancePerMeter[k] + distance[k] * depreciationPerMeter[k];
+                r = sc.revenueReduction < 1 ? revenue[k] * sc.revenueReduction : revenue[k];
+                temp = Math.round((r - c)*100.0) / 100.0;
+                result[k] = (int) (temp*100.0);
+            }
+        }
+    }
+
+    public int negativeMatches(int scenario) {
+        int count = 0;
+        for (int p : profit[scenario]) {
+            if (p < 0)
+                count++;
+        }
+        return count;
+    }
+
+    // the solvers read the profits of the scenario from now on
+    public void apply(int scenario) {
+        Map<MatchStore, int[]> overlays = new IdentityHashMap<>();
+        for (int k = 0; k < match.length; k++)
+            overlays.computeIfAbsent(match[k].store(), MatchStore::profits)[match[k].row()] = profit[scenario][k];
+        for (Map.Entry<MatchStore, int[]> entry : overlays.entrySet())
+            entry.getKey().setProfitOverlay(entry.getValue());
+    }
+
+    // the profits the matches were built with
+    public void clear() {
+        for (Match m : match)
+            m.store().setProfitOverlay(null);
+    }
+
+    /*
+     * Scenarios of a sweep: CostMultiplier:ExtraCost:ChanceForExtraCost:RevenueReduction for each, separated by ';', all with the
+     * operating cost type. A malformed scenario is reported and skipped.
+     */
+    public static List<Scenario> parse(String sweep, int operatingCostType) {
+        List<Scenario> scenarios = new ArrayList<>();
+        if (sweep == null)
+            return scenarios;
+        for (String entry : sweep.split(";")) {
+            if (entry.trim().isEmpty())
+                continue;
+            String[] value = entry.trim().split(":");
+            if (value.length != 4 || !Utility.isDouble(value[0]) || !Utility.isDouble(value[1]) || !Utility.isDouble(value[2]) || !Utility.isDouble(value[3])) {
+                System.out.println("Scenario \"" + entry + "\" is skipped, expected CostMultiplier:ExtraCost:ChanceForExtraCost:RevenueReduction");
+                continue;
+            }
+            scenarios.add(new Scenario(Double.parseDouble(value[0]), Double.parseDouble(value[2]), Double.parseDouble(value[1]),
+                                        operatingCostType, Double.parseDouble(value[3])));
+        }
+        return scenarios;
+    }
+}
@@ -105,7 +105,7 @@ public class RPCOne {
         runningTimeExact[currentInterval] = endTime - startTime + pair.getP2();
         
         for (Map.Entry<Driver, Match> entry : solution.entrySet()) {
-            if (entry.getValue().profit < 0)
+            if (entry.getValue().getProfit() < 0)
                 negativeMatchesExact[currentInterval]++;
         }
         System.out.println("Number of matches: "+ solution.size() + 
@@ -168,7 +168,7 @@ public class RPCOne {
         runningTimeExactNF[currentInterval] = runningTimeExactNF[currentInterval] + endTime - startTime + pair.getP2();
         
         for (Map.Entry<Driver, Match> entry : matches.entrySet()) {
-            if (entry.getValue().profit < 0)
+            if (entry.getValue().getProfit() < 0)
                 negativeMatchesExactNF[currentInterval]++;
         }
         
@@ -199,7 +199,7 @@ public class RPCOne {
         Set<Passenger> passengersInSolution = new HashSet<>(solution.size());
         if (negativeMatches == null || negativeMatches.isEmpty()) {
             for (Map.Entry<Driver, Match> entry : solution.entrySet()) {
-                for (Passenger p : entry.getValue().sfp.passengers)
+                for (Passenger p : entry.getValue().passengers())
                     passengersInSolution.add(p);
             }
             passengerCoveredGreedy[currentInterval] = passengersInSolution.size();
@@ -210,7 +210,7 @@ public class RPCOne {
             runningTimeGreedy[currentInterval] = endTime - startTime + pair.getP2();
             
             for (Map.Entry<Driver, Match> entry : solution.entrySet()) {
-                if (entry.getValue().profit < 0)
+                if (entry.getValue().getProfit() < 0)
                     negativeMatchesGreedy[currentInterval]++;
             }
             System.out.println("Number of matches: "+ solution.size()+ ", Number of passegners: " + passengerCoveredGreedy[currentInterval] + 
@@ -228,7 +228,8 @@ public class RPCOne {
             //driversInSolution.add(match.getP1());
             if (negativeMatches.containsKey(entry.getKey()))
                 negativeMatches.remove(entry.getKey());
-            for (Passenger p : entry.getValue().sfp.passengers) {
+            for (int k = 0; k < entry.getValue().passengerCount(); k++) {
+                Passenger p = entry.getValue().getPassenger(k);
                 passengersInSolution.add(p);
                 iter = negativeMatches.entrySet().iterator();
                 while (iter.hasNext()) {
@@ -236,7 +237,7 @@ public class RPCOne {
                     matchIter = iterEntry.getValue().iterator();
                     while (matchIter.hasNext()) {
                         tempMatch = matchIter.next();
-                        if (tempMatch.sfp.passengers.contains(p)) {
+                        if (tempMatch.containsPassenger(p)) {
                             matchIter.remove();
                             break;
                         }
@@ -263,8 +264,8 @@ public class RPCOne {
             maxMatch = null;
             for (var entry : negativeMatches.entrySet()) {
                 for (Match m : entry.getValue()) {
-                    if (m.profit > maxProfit) {
-                        maxProfit = m.profit;
+                    if (m.getProfit() > maxProfit) {
+                        maxProfit = m.getProfit();
                         maxDriver = entry.getKey();
                         maxMatch = m;
                     }
@@ -275,7 +276,7 @@ public class RPCOne {
                 if (currentProfit + maxProfit >= profitTarget) {
                     currentProfit = currentProfit + maxProfit;
                     solution.put(maxDriver, maxMatch);
-                    passengersInSolution.addAll(maxMatch.sfp.passengers);
+                    passengersInSolution.addAll(maxMatch.passengers());
                     negativeMatches.remove(maxDriver);
                 } else {
                     break;
@@ -288,11 +289,13 @@ public class RPCOne {
                 matchIter = iterEntry.getValue().iterator();
                 while (matchIter.hasNext()) {
                     tempMatch = matchIter.next();
-                    for (Passenger p : tempMatch.sfp.passengers)
+                    for (int k = 0; k < tempMatch.passengerCount(); k++) {
+                        Passenger p = tempMatch.getPassenger(k);
                         if (passengersInSolution.contains(p)) {
                             matchIter.remove();
                             break;
                         }
+                    }
                 }
                 if (negativeMatches.get(iterEntry.getKey()).isEmpty())
                     iter.remove();
@@ -312,7 +315,7 @@ public class RPCOne {
         
         Alg.verifySolution(solution);
         for (Map.Entry<Driver, Match> entry : solution.entrySet()) {
-            if (entry.getValue().profit < 0)
+            if (entry.getValue().getProfit() < 0)
                 negativeMatchesGreedy[currentInterval]++;
         }
         System.out.println("Number of matches: "+ solution.size() + 
@@ -328,69 +331,46 @@ public class RPCOne {
         long endTime;
         long startTime = System.currentTimeMillis();
         // construct N(V,E): E is the set of matches, and V is the set of drivers + the set of passengers.
-        Graph N = new Graph(numDriverWithMatches + passengers.size(), numMatches);
+        FlowNetwork N = new FlowNetwork(numDriverWithMatches + passengers.size() + 2, numDriverWithMatches + passengers.size() + numMatches);
         
         HashMap<Integer,Driver> vertexToDriver = new HashMap<>(numDriverWithMatches);
         HashMap<Trip,Integer> TripToVertex = new HashMap<>(numDriverWithMatches + passengers.size());
-        int vertexId = 0;
-        int edgeId = 0;
+        int vertexId;
         
         // vertices and edges
-        N.addVertex(vertexId);
-        N.sourceVertex = vertexId;
-        vertexId++;
-        
-        N.addVertex(vertexId);
-        N.sinkVertex = vertexId;
-        vertexId++;
-        
         Passenger passenger;
         for (Driver driver : drivers) {
             if (!driver.getMatches().isEmpty()) {
+                vertexId = N.addVertex();
                 vertexToDriver.put(vertexId, driver);
                 TripToVertex.put(driver, vertexId);
-                N.addVertex(vertexId);
-                N.addEdge(new MatchEdge(edgeId, 0, vertexId, null, 0));
-                vertexId++;
-                edgeId++;
+                N.addEdge(FlowNetwork.SOURCE, vertexId, null, 0);
                 for (Match match : driver.getMatches()) {
-                    passenger = match.sfp.passengers.iterator().next();
+                    passenger = match.getPassenger(0);
                     if (!TripToVertex.containsKey(passenger)) {
+                        vertexId = N.addVertex();
                         TripToVertex.put(passenger, vertexId);
-                        N.addVertex(vertexId);
-                        N.addEdge(new MatchEdge(edgeId, vertexId, 1, null, 0));
-                        //passengerVertices++;
-                        vertexId++;
-                        edgeId++;
+                        N.addEdge(vertexId, FlowNetwork.SINK, null, 0);
                     }
                     
-                    N.addEdge(new MatchEdge(edgeId, TripToVertex.get(driver), TripToVertex.get(passenger), match, -match.profit));
-                    edgeId++;
+                    N.addEdge(TripToVertex.get(driver), TripToVertex.get(passenger), match, -match.getProfit());
                 }
                 
             }
         }
+        N.build();
          
-        //System.out.println("Number of vertices = " + N.outEdges.size() + " and number of edges = " + N.edgeSet.size());   
+        //System.out.println("Number of vertices = " + N.vertexCount() + " and number of edges = " + N.edgeCount());   
         if (numNegativeMatches != numMatches)
-            Alg.changeToNonNegativeWeight(N);
+            N.changeToNonNegativeWeight();
         
-        // successive shortest path algorithm
-        Set<MatchEdge> temporarySolution = new HashSet<>();
+        // successive shortest path algorithm, the solution is the match edges carrying flow
         HashMap<Driver, Match> solution = null;
-        //Set<MatchEdge> forwardEdges = new HashSet<>(N.edgeSet);
-        MatchEdge edge;
+        int arc;
         int totalProfit = 0;
         int previousTotalProfit = Integer.MIN_VALUE;
-        Integer temp;
-        /*for (MatchEdge e : N.edgeSet) {
-            if (e.cost > 0)
-                forwardEdges.add(e);
-        }*/
             
-        Integer[] nodePotential = new Integer[N.outEdges.size()];
-        for (Integer u : N.outEdges.keySet())
-            nodePotential[u] = 0;
+        int[] nodePotential = new int[N.vertexCount()];
         // reduced costs are changed in-place
         
         //System.out.println("Time elapsed before executing main loop: " + (System.currentTimeMillis()-startTime));
@@ -399,89 +379,41 @@ public class RPCOne {
         while (true) {
             iteration++;
             //System.out.println("This is iteration: " + iteration);
-            //Pair<Integer[], List<MatchEdge>> pair = Alg.DijkstraMinHeap(N);
-            //Pair<Integer[], List<MatchEdge>> pair = Alg.DijkstraFibonacciHeap(N);
-            Triple<Integer[], List<MatchEdge>, Set<Integer>> pair = Alg.DijkstraFibonacciHeapEarlyStop(N);
-            Integer[] distanceFromRoot = pair.getP1();
-            List<MatchEdge> st_Path = pair.getP2();
-            Set<Integer> permanent = pair.getP3();
-            if (st_Path == null) {    // s-t path does not exist
-                if (totalProfit >= profitTarget) {
-                    solution = new HashMap<>(temporarySolution.size());
-                    for (MatchEdge e : temporarySolution)
-                        solution.put(vertexToDriver.get(e.head), e.match);
-                }
+            if (!N.shortestPath()) {    // s-t path does not exist
+                if (totalProfit >= profitTarget)
+                    solution = solutionOf(N, vertexToDriver);
                 //System.out.println("SSP terminated by max-flow reached.");
                 break;
             }
-            
-            // update node potential and reduced cost
-            //for (Integer u : N.outEdges.keySet())
-                //nodePotential[u] = nodePotential[u] - distanceFromRoot[u];
                        
             // augment flow along the shortest path
             // do a total profit check first
-            for (int i = st_Path.size()-1; i >= 0; i--) {
-                edge = st_Path.get(i);
-                if (edge.reversedEdge)
-                    totalProfit -= edge.profit;
-                else
-                    totalProfit += edge.profit;
-            }
+            for (arc = N.predecessorArc(FlowNetwork.SINK); arc >= 0; arc = N.predecessorArc(N.arcTail(arc)))
+                totalProfit += N.arcProfit(arc);
             
             if (totalProfit >= profitTarget) {
                 previousTotalProfit = totalProfit;
             } else if (previousTotalProfit >= profitTarget) {
-                solution = new HashMap<>(temporarySolution.size());
-                for (MatchEdge e : temporarySolution)
-                    solution.put(vertexToDriver.get(e.head), e.match);
+                solution = solutionOf(N, vertexToDriver);
                 break;
             }
             
-            for (Integer u : N.outEdges.keySet()) {
-                if (permanent.contains(u))
-                    nodePotential[u] = nodePotential[u] - distanceFromRoot[u] + distanceFromRoot[N.sinkVertex];
+            N.updatePotentials(nodePotential);
+            // check if something went wrong, reducedCost should not be negative
+            if (N.negativeReducedCosts() > 0) {
+                System.out.println("Number of negative reduced costs: " + N.negativeReducedCosts());
+                System.out.println("Iteration: " + iteration);
+                System.out.println("totalProfit: " + totalProfit);
+                System.out.println("previousTotalProfit: " + previousTotalProfit);
             }
             
-            for (MatchEdge e : N.edgeSet) { // edge in the original graph \hat{N}
-                if (!e.reversedEdge)
-                    e.reducedCost = e.cost - nodePotential[e.tail] + nodePotential[e.head];
-                // check if something went wrong, reducedCost should not be negative
-                if (e.reducedCost < 0) { 
-                    System.out.println("c("+e.tail+", " + e.head +") = " + e.reducedCost);
-                    System.out.format("e.cost (%d) - nodePotential[e.tail] (%d) + nodePotential[e.head] (%d)%n", e.cost, nodePotential[e.tail], nodePotential[e.head]);
-                    System.out.println("Iteration: " + iteration);
-                    System.out.println("totalProfit: " + totalProfit);
-                    System.out.println("previousTotalProfit: " + previousTotalProfit);
-                    System.out.println("temporarySolution.size() = " + temporarySolution.size());
-                }
-            }
-            
-            //System.out.print("\ns-t path:");
-            for (int i = st_Path.size()-1; i >= 0; i--) {
-                edge = st_Path.get(i);
-                //System.out.print("("+edge.tail+","+edge.head+")");
-                if (edge.reversedEdge) { // the edge will be reversed, put the according match to the solution
-                    edge.reversedEdge = false;
-                    if (edge.match != null)
-                        temporarySolution.remove(edge);
-                } else {
-                    if (edge.match != null)
-                        temporarySolution.add(edge);
-                    edge.reversedEdge = true;
-                }
-                // does not need to negative the weight since it is zero
-                //edge.edgeForward ^= true;
-                N.outEdges.get(edge.head).add(edge);
-                N.outEdges.get(edge.tail).remove(edge);
-                temp = edge.head;
-                edge.head = edge.tail;
-                edge.tail = temp;
-            }
+            // the edges on the path are reversed, which puts their matches to the solution or takes them out of it
+            // does not need to negative the weight since it is zero
+            for (arc = N.predecessorArc(FlowNetwork.SINK); arc >= 0; arc = N.predecessorArc(N.arcTail(arc)))
+                N.augment(arc);
             
             //System.out.println("totalProfit: " + totalProfit);
             //System.out.println("previousTotalProfit: " + previousTotalProfit);
-            //System.out.println("temporarySolution.size() = " + temporarySolution.size());
         }
         endTime = System.currentTimeMillis();
         System.out.println("Profit: " + Alg.profitOfSolution(solution));
@@ -494,7 +426,7 @@ public class RPCOne {
             runningTimeNewExactNF[currentInterval] = endTime - startTime;
             Alg.verifySolution(solution);
             for (Map.Entry<Driver, Match> entry : solution.entrySet()) {
-                if (entry.getValue().profit < 0)
+                if (entry.getValue().getProfit() < 0)
                     negativeMatchesNewExactNF[currentInterval]++;
             }
             System.out.println("Number of matches: "+ solution.size() + 
@@ -507,6 +439,16 @@ public class RPCOne {
         return true;
     }
     
+    // the match of each driver whose edge carries flow
+    private HashMap<Driver, Match> solutionOf(FlowNetwork N, HashMap<Integer,Driver> vertexToDriver) {
+        HashMap<Driver, Match> solution = new HashMap<>();
+        for (int e = 0; e < N.edgeCount(); e++) {
+            if (N.inSolution(e))
+                solution.put(vertexToDriver.get(N.edgeTail(e)), N.match(e));
+        }
+        return solution;
+    }
+    
     public int[] getPassengerCoveredExact() {
         return passengerCoveredExact;
     }
@@ -122,7 +122,7 @@ public class RPCPlus {
         matchToDriver = new HashMap<>(numMatches);
         for (Driver driver : drivers) {
             for (Match m : driver.getMatches()) {
-                if (m.profit >= 0) {
+                if (m.getProfit() >= 0) {
                     matches.add(m);
                     matchToDriver.put(m, driver);
                 }
@@ -139,15 +139,16 @@ public class RPCPlus {
         tempMatch = matches.get(index);
         tempDriver = matchToDriver.get(tempMatch);
         //driversInSolution.add(tempDriver);
-        passengersInSolution.addAll(tempMatch.sfp.passengers);
+        passengersInSolution.addAll(tempMatch.passengers());
         solution.put(tempDriver, tempMatch);
-        profitTarget = profitTarget + tempMatch.profit;
+        profitTarget = profitTarget + tempMatch.getProfit();
         
         outerFor:
         for (index = 1; index < matches.size(); index++) {
             if (solution.containsKey(matchToDriver.get(matches.get(index))))
                 continue;
-            for (Passenger p : matches.get(index).sfp.passengers) {
+            for (int k = 0; k < matches.get(index).passengerCount(); k++) {
+                Passenger p = matches.get(index).getPassenger(k);
                 if (passengersInSolution.contains(p))
                     continue outerFor;
             }
@@ -155,9 +156,9 @@ public class RPCPlus {
             tempMatch = matches.get(index);
             tempDriver = matchToDriver.get(tempMatch);
             solution.put(tempDriver, tempMatch);
-            profitTarget = profitTarget + tempMatch.profit;
+            profitTarget = profitTarget + tempMatch.getProfit();
             //driversInSolution.add(tempDriver);
-            passengersInSolution.addAll(tempMatch.sfp.passengers);
+            passengersInSolution.addAll(tempMatch.passengers());
             if (solution.size() == drivers.size() || passengersInSolution.size() == passengers.size())
                 break;
         }
@@ -168,7 +169,7 @@ public class RPCPlus {
             if (solutionSize < solution.size()) { // update passengersInSolution
                 passengersInSolution.clear();
                 for (Map.Entry<Driver, Match> entry : solution.entrySet()) {
-                    for (Passenger p : entry.getValue().sfp.passengers)
+                    for (Passenger p : entry.getValue().passengers())
                         passengersInSolution.add(p);
                 }
             }
@@ -198,7 +199,7 @@ public class RPCPlus {
         matchToDriver = new HashMap<>(numMatches);
         for (Driver driver : drivers) {
             for (Match m : driver.getMatches()) {
-                if (m.profit >= 0) {
+                if (m.getProfit() >= 0) {
                     matches.add(m);
                     matchToDriver.put(m, driver);
                 }
@@ -218,8 +219,8 @@ public class RPCPlus {
             maxProfit = 0;
             maxMatch = null;
             for (Match match : matches) {
-                if (match.profit >= maxProfit) {
-                    maxProfit = match.profit;
+                if (match.getProfit() >= maxProfit) {
+                    maxProfit = match.getProfit();
                     maxMatch = match;
                     maxDriver = matchToDriver.get(match);
                 }
@@ -228,8 +229,8 @@ public class RPCPlus {
             // add it to the solution
             if (maxMatch != null) {
                 solution.put(maxDriver, maxMatch);
-                profitTarget = profitTarget + maxMatch.profit;
-                passengersInSolution.addAll(maxMatch.sfp.passengers);
+                profitTarget = profitTarget + maxMatch.getProfit();
+                passengersInSolution.addAll(maxMatch.passengers());
                 //driversInSolution.add(maxDriver);
                 if (solution.size() == drivers.size() || passengersInSolution.size() == passengers.size())
                     break;
@@ -243,7 +244,8 @@ public class RPCPlus {
                     matchIter.remove();
                     continue;
                 }
-                for (Passenger p : tempMatch.sfp.passengers) {
+                for (int k = 0; k < tempMatch.passengerCount(); k++) {
+                    Passenger p = tempMatch.getPassenger(k);
                     if (passengersInSolution.contains(p)) {
                         matchIter.remove();
                         break;
@@ -258,7 +260,7 @@ public class RPCPlus {
             if (solutionSize < solution.size()) { // update passengersInSolution
                 passengersInSolution.clear();
                 for (Map.Entry<Driver, Match> entry : solution.entrySet()) {
-                    for (Passenger p : entry.getValue().sfp.passengers)
+                    for (Passenger p : entry.getValue().passengers())
                         passengersInSolution.add(p);
                 }
             }
@@ -298,7 +300,7 @@ public class RPCPlus {
         
         List<Match> A = new ArrayList<>(solution.size()/10);
         for (Map.Entry<Driver, Match> entry : solution.entrySet()) {
-            if (entry.getValue().sfp.passengers.size() == 1)
+            if (entry.getValue().passengerCount() == 1)
                 A.add(entry.getValue());
         }
         if (!A.isEmpty()) {
@@ -325,7 +327,7 @@ public class RPCPlus {
         }
         Set<Passenger> passengersCovered = new HashSet<>(matches.size()*2);
         for (Map.Entry<Driver, Match> entry : matches.entrySet()) {
-            for (Passenger p : entry.getValue().sfp.passengers)
+            for (Passenger p : entry.getValue().passengers())
                 passengersCovered.add(p);
         }
 
@@ -363,7 +365,7 @@ public class RPCPlus {
         
         List<Match> A = new ArrayList<>(solution.size()/10);
         for (Map.Entry<Driver, Match> entry : solution.entrySet()) {
-            if (entry.getValue().sfp.passengers.size() == 1)
+            if (entry.getValue().passengerCount() == 1)
                 A.add(entry.getValue());
         }
         
@@ -386,17 +388,17 @@ public class RPCPlus {
         // largest match size is two
         Set<Match> improvement;
         for (Match match : A) {
-            passengersInSolution.removeAll(match.sfp.passengers);
+            passengersInSolution.removeAll(match.passengers());
             solution.remove(matchToDriver.get(match));
             improvement = findImprovementLS2(solution, match);
             if (!improvement.isEmpty()) {   // in this case, size() must be two.
                 for (Match m : improvement) {    // the driver of match is in the improvement
-                    passengersInSolution.addAll(m.sfp.passengers);
+                    passengersInSolution.addAll(m.passengers());
                     solution.put(matchToDriver.get(m), m);
                 }
             } else {
                 solution.put(matchToDriver.get(match), match);
-                passengersInSolution.addAll(match.sfp.passengers);
+                passengersInSolution.addAll(match.passengers());
             }
         }
         
@@ -406,7 +408,7 @@ public class RPCPlus {
             if (solutionSize < solution.size()) { // update passengersInSolution
                 passengersInSolution.clear();
                 for (Map.Entry<Driver, Match> entry : solution.entrySet()) {
-                    for (Passenger p : entry.getValue().sfp.passengers)
+                    for (Passenger p : entry.getValue().passengers())
                         passengersInSolution.add(p);
                 }
             }
@@ -454,7 +456,7 @@ public class RPCPlus {
         
         List<Match> A = new ArrayList<>(solution.size()/10);
         for (Map.Entry<Driver, Match> entry : solution.entrySet()) {
-            if (entry.getValue().sfp.passengers.size() == 1)
+            if (entry.getValue().passengerCount() == 1)
                 A.add(entry.getValue());
         }
         if (A.isEmpty()) {
@@ -477,25 +479,25 @@ public class RPCPlus {
         Set<Match> improvement;
         Match m;
         for (int i = 0; i < A.size(); i++) {
-            passengersInSolution.removeAll(A.get(i).sfp.passengers);
+            passengersInSolution.removeAll(A.get(i).passengers());
             solution.remove(matchToDriver.get(A.get(i)));
             improvement = findImprovement(solution, A.get(i));
             if (improvement.size() == 1) {
                 m = improvement.iterator().next();
-                passengersInSolution.addAll(m.sfp.passengers);
+                passengersInSolution.addAll(m.passengers());
                 solution.put(matchToDriver.get(m), m);
-                solutionProfit = solutionProfit + m.profit - A.get(i).profit;
+                solutionProfit = solutionProfit + m.getProfit() - A.get(i).getProfit();
             } else if (improvement.size() > 1) {    // the driver of match A.get(i) is in the improvement
                 for (Match match : improvement) {
-                    passengersInSolution.addAll(match.sfp.passengers);
+                    passengersInSolution.addAll(match.passengers());
                     solution.put(matchToDriver.get(match), match);
-                    solutionProfit = solutionProfit + match.profit;
+                    solutionProfit = solutionProfit + match.getProfit();
                 }
-                solutionProfit = solutionProfit - A.get(i).profit;
+                solutionProfit = solutionProfit - A.get(i).getProfit();
             }
             else {
                 solution.put(matchToDriver.get(A.get(i)), A.get(i));
-                passengersInSolution.addAll(A.get(i).sfp.passengers);
+                passengersInSolution.addAll(A.get(i).passengers());
             }
         }
         
@@ -505,7 +507,7 @@ public class RPCPlus {
             if (solutionSize < solution.size()) { // update passengersInSolution
                 passengersInSolution.clear();
                 for (Map.Entry<Driver, Match> entry : solution.entrySet()) {
-                    for (Passenger p : entry.getValue().sfp.passengers)
+                    for (Passenger p : entry.getValue().passengers())
                         passengersInSolution.add(p);
                 }
             }
@@ -541,16 +543,18 @@ public class RPCPlus {
         for (Match match1 : simplifiedGraph.get(match).adjacentNeighborhood) {
             if (solution.containsKey(matchToDriver.get(match1)))
                 continue;
-            for (Passenger p : match1.sfp.passengers)
+            for (int k = 0; k < match1.passengerCount(); k++) {
+                Passenger p = match1.getPassenger(k);
                 if (passengersInSolution.contains(p))
                     continue outerFor;
+            }
             
-            if (match1.sfp.passengers.size() > 1) {
-                System.out.println("Test if match1 ("+ match1.sfp.passengers.toString()+ ") is an improvement over testing match (" + match.sfp.passengers.toString()+")");
-                System.out.format("%.5f + %d - %d >= %.5f%n", solutionProfit, match1.profit, match.profit, profitTarget);
-                if (solutionProfit + match1.profit - match.profit >= profitTarget) { // match1 is an improvment
-                    if (match1.sfp.passengers.size() > maxCoveredPassengers) {
-                        maxCoveredPassengers = match1.sfp.passengers.size();
+            if (match1.passengerCount() > 1) {
+                System.out.println("Test if match1 ("+ match1.passengers().toString()+ ") is an improvement over testing match (" + match.passengers().toString()+")");
+                System.out.format("%.5f + %d - %d >= %.5f%n", solutionProfit, match1.getProfit(), match.getProfit(), profitTarget);
+                if (solutionProfit + match1.getProfit() - match.getProfit() >= profitTarget) { // match1 is an improvment
+                    if (match1.passengerCount() > maxCoveredPassengers) {
+                        maxCoveredPassengers = match1.passengerCount();
                         improvement.clear();
                         improvement.add(match1);
                     }
@@ -559,15 +563,17 @@ public class RPCPlus {
                 
             innerFor:
             for (Match match2 : simplifiedGraph.get(match).sameDriverNeighborhood) {
-                for (Passenger p : match2.sfp.passengers)
+                for (int k = 0; k < match2.passengerCount(); k++) {
+                    Passenger p = match2.getPassenger(k);
                     if (passengersInSolution.contains(p))
                         continue innerFor;
+                }
                 // if match1 and match2 can make an improvement
-                System.out.println("Test if match1 and match2 intersect?: " + match1.sfp.passengers.toString() + " x " + match2.sfp.passengers.toString());
+                System.out.println("Test if match1 and match2 intersect?: " + match1.passengers().toString() + " x " + match2.passengers().toString());
                 if (!simplifiedGraph.get(match1).adjacentNeighborhood.contains(match2)) {   // match 1 and match 2 do not intersect
-                    if (solutionProfit + match1.profit + match2.profit - match.profit >= profitTarget) {
-                        if (match1.sfp.passengers.size() + match2.sfp.passengers.size() > maxCoveredPassengers) {
-                            maxCoveredPassengers = match1.sfp.passengers.size() + match2.sfp.passengers.size();
+                    if (solutionProfit + match1.getProfit() + match2.getProfit() - match.getProfit() >= profitTarget) {
+                        if (match1.passengerCount() + match2.passengerCount() > maxCoveredPassengers) {
+                            maxCoveredPassengers = match1.passengerCount() + match2.passengerCount();
                             improvement.clear();
                             improvement.add(match1);
                             improvement.add(match2);
@@ -585,21 +591,25 @@ public class RPCPlus {
         for (Match match1 : simplifiedGraph.get(match).adjacentNeighborhood) {
             if (solution.containsKey(matchToDriver.get(match1)))
                 continue;
-            for (Passenger p : match1.sfp.passengers)
+            for (int k = 0; k < match1.passengerCount(); k++) {
+                Passenger p = match1.getPassenger(k);
                 if (passengersInSolution.contains(p))
                     continue outerFor;
+            }
                 
             innerFor:
             for (Match match2 : simplifiedGraph.get(match).sameDriverNeighborhood) {
-                for (Passenger p : match2.sfp.passengers)
+                for (int k = 0; k < match2.passengerCount(); k++) {
+                    Passenger p = match2.getPassenger(k);
                     if (passengersInSolution.contains(p))
                         continue innerFor;
+                }
                 // if match1 and match2 can make an improvement
-                System.out.println("Test if match1 and match2 intersect?: " + match1.sfp.passengers.toString() + " x " + match2.sfp.passengers.toString());
+                System.out.println("Test if match1 and match2 intersect?: " + match1.passengers().toString() + " x " + match2.passengers().toString());
                 if (!simplifiedGraph.get(match1).adjacentNeighborhood.contains(match2)) {   // match 1 and match 2 do not intersect
-                    if (match1.sfp.passengers.size() + match2.sfp.passengers.size() == 4) {
-                        if (solutionProfit + match1.profit + match2.profit - match.profit >= profitTarget) {
-                            solutionProfit = solutionProfit + match1.profit + match2.profit - match.profit;
+                    if (match1.passengerCount() + match2.passengerCount() == 4) {
+                        if (solutionProfit + match1.getProfit() + match2.getProfit() - match.getProfit() >= profitTarget) {
+                            solutionProfit = solutionProfit + match1.getProfit() + match2.getProfit() - match.getProfit();
                             improvement.add(match1);
                             improvement.add(match2);
                             return improvement;
@@ -619,7 +629,7 @@ public class RPCPlus {
         for (Driver driver : drivers) {
             size = driver.getMatches().size();
             for (Match m : driver.getMatches()) {
-                if (m.profit >= 0) {
+                if (m.getProfit() >= 0) {
                     simplifiedGraph.put(m, new Neighborhood());
                     simplifiedGraph.get(m).sameDriverNeighborhood = new HashSet<>(size-1); // this neighbor set have the same driver
                     simplifiedGraph.get(m).adjacentNeighborhood = new HashSet<>(drivers.size()); // this is the neighbor set not having the same driver
@@ -627,10 +637,10 @@ public class RPCPlus {
             }
              
             for (int i = 0; i < size; i++) {
-                if (driver.getMatches().get(i).profit < 0)
+                if (driver.getMatches().get(i).getProfit() < 0)
                     continue;
                 for (int j = i + 1; j < size; j++) {
-                    if (driver.getMatches().get(j).profit < 0)
+                    if (driver.getMatches().get(j).getProfit() < 0)
                         continue;
                     simplifiedGraph.get(driver.getMatches().get(i)).sameDriverNeighborhood.add(driver.getMatches().get(j));
                     simplifiedGraph.get(driver.getMatches().get(j)).sameDriverNeighborhood.add(driver.getMatches().get(i));
@@ -642,15 +652,16 @@ public class RPCPlus {
         size = drivers.size();
         for (int i = 0; i < size; i++) {
             for (Match match1 : drivers.get(i).getMatches()) {   
-                if (match1.profit < 0)
+                if (match1.getProfit() < 0)
                     continue;
                 for (int j = i + 1; j < size; j++) {
                     for (Match match2 : drivers.get(j).getMatches()) {
-                        if (match2.profit < 0)
+                        if (match2.getProfit() < 0)
                             continue;
                         // check if the passengers of the two matches intersect
-                        for (Passenger p : match2.sfp.passengers) {
-                            if (match1.sfp.passengers.contains(p)) {
+                        for (int k = 0; k < match2.passengerCount(); k++) {
+                            Passenger p = match2.getPassenger(k);
+                            if (match1.containsPassenger(p)) {
                                 simplifiedGraph.get(match1).adjacentNeighborhood.add(match2);
                                 simplifiedGraph.get(match2).adjacentNeighborhood.add(match1);
                                 numOfedges++;
@@ -684,7 +695,7 @@ public class RPCPlus {
         
         List<Match> A = new ArrayList<>(solution.size()/10);
         for (Map.Entry<Driver, Match> entry : solution.entrySet()) {
-            if (entry.getValue().sfp.passengers.size() == 1)
+            if (entry.getValue().passengerCount() == 1)
                 A.add(entry.getValue());
         }
         if (A.isEmpty()) {
@@ -701,13 +712,16 @@ public class RPCPlus {
         
         HashMap<Passenger, Set<Match>> passengerInNonnegativeMatches = new HashMap<>(A.size());
         for (Match m : A) {
-            for (Passenger p : m.sfp.passengers)
+            for (int k = 0; k < m.passengerCount(); k++) {
+                Passenger p = m.getPassenger(k);
                 passengerInNonnegativeMatches.put(p, new HashSet<>(p.getNAssignments()));
+            }
         }
         for (Driver d : drivers) {
             for (Match match : d.getMatches()) {
-                if (match.profit >= 0) {
-                    for (Passenger p : match.sfp.passengers) {
+                if (match.getProfit() >= 0) {
+                    for (int k = 0; k < match.passengerCount(); k++) {
+                        Passenger p = match.getPassenger(k);
                         if (passengerInNonnegativeMatches.containsKey(p))
                             passengerInNonnegativeMatches.get(p).add(match);
                     }
@@ -718,27 +732,27 @@ public class RPCPlus {
         Set<Match> improvement;
         Match m;
         for (int i = 0; i < A.size(); i++) {
-            passengersInSolution.removeAll(A.get(i).sfp.passengers);
+            passengersInSolution.removeAll(A.get(i).passengers());
             solution.remove(matchToDriver.get(A.get(i)));
             improvement = findImprovementWithoutGraph(solution, A.get(i), passengerInNonnegativeMatches);
             if (improvement.size() == 1) {
                 m = improvement.iterator().next();
-                System.out.println("An improvement is found: ("+ matchToDriver.get(m).getID()+ ", " + m.sfp.passengers.toString() + ")");
-                passengersInSolution.addAll(m.sfp.passengers);
+                System.out.println("An improvement is found: ("+ matchToDriver.get(m).getID()+ ", " + m.passengers().toString() + ")");
+                passengersInSolution.addAll(m.passengers());
                 solution.put(matchToDriver.get(m), m);
-                solutionProfit = solutionProfit + m.profit - A.get(i).profit;
+                solutionProfit = solutionProfit + m.getProfit() - A.get(i).getProfit();
             } else if (improvement.size() > 1) {    // the driver of match A.get(i) is in the improvement
                 System.out.println("An improvement consists of two matches is found:");
                 for (Match match : improvement) {
-                    System.out.println("(" + matchToDriver.get(match).getID()+ ", " + match.sfp.passengers.toString() + ")");
-                    passengersInSolution.addAll(match.sfp.passengers);
+                    System.out.println("(" + matchToDriver.get(match).getID()+ ", " + match.passengers().toString() + ")");
+                    passengersInSolution.addAll(match.passengers());
                     solution.put(matchToDriver.get(match), match);
-                    solutionProfit = solutionProfit + match.profit;
+                    solutionProfit = solutionProfit + match.getProfit();
                 }
-                solutionProfit = solutionProfit - A.get(i).profit;
+                solutionProfit = solutionProfit - A.get(i).getProfit();
             } else {
                 solution.put(matchToDriver.get(A.get(i)), A.get(i));
-                passengersInSolution.addAll(A.get(i).sfp.passengers);
+                passengersInSolution.addAll(A.get(i).passengers());
             }
         }
         
@@ -748,7 +762,7 @@ public class RPCPlus {
             if (solutionSize < solution.size()) { // update passengersInSolution
                 passengersInSolution.clear();
                 for (Map.Entry<Driver, Match> entry : solution.entrySet()) {
-                    for (Passenger p : entry.getValue().sfp.passengers)
+                    for (Passenger p : entry.getValue().passengers())
                         passengersInSolution.add(p);
                 }
             }
@@ -774,7 +788,7 @@ public class RPCPlus {
     private Set<Match> findImprovementWithoutGraph(HashMap<Driver, Match> solution, Match match, HashMap<Passenger, Set<Match>> passengerInMatches) {
         int maxCoveredPassengers = 0;
         Set<Match> improvement = new HashSet<>(2);
-        Passenger passengerInChecking = match.sfp.passengers.iterator().next();
+        Passenger passengerInChecking = match.getPassenger(0);
         Driver driverInMatch = matchToDriver.get(match);
         Set<Passenger> union;
         int profitDiff = Integer.MIN_VALUE;
@@ -787,19 +801,21 @@ public class RPCPlus {
             if (solution.containsKey(matchToDriver.get(match1)))
                 continue;
             
-            for (Passenger p : match1.sfp.passengers)
+            for (int k = 0; k < match1.passengerCount(); k++) {
+                Passenger p = match1.getPassenger(k);
                 if (passengersInSolution.contains(p))
                     continue outerFor;
+            }
             
-            if (match1.sfp.passengers.size() > 1) {
-                /*System.out.println("Test if match1 ("+ matchToDriver.get(match1).getID()+ ", " + match1.sfp.passengers.toString() + ") is an improvement over the testing match ("
-                            + matchToDriver.get(match).getID()+ ", " + match.sfp.passengers.toString() + ")");
-                System.out.format("%.3f + %d - %d >= %.3f%n", solutionProfit, match1.profit, match.profit, profitTarget);*/
-                if (solutionProfit + match1.profit - match.profit >= profitTarget) { // match1 is an improvment
-                    if (match1.sfp.passengers.size() >= maxCoveredPassengers) {
-                        if (match1.profit - match.profit > profitDiff) {
-                            maxCoveredPassengers = match1.sfp.passengers.size();
-                            profitDiff = match1.profit - match.profit;
+            if (match1.passengerCount() > 1) {
+                /*System.out.println("Test if match1 ("+ matchToDriver.get(match1).getID()+ ", " + match1.passengers().toString() + ") is an improvement over the testing match ("
+                            + matchToDriver.get(match).getID()+ ", " + match.passengers().toString() + ")");
+                System.out.format("%.3f + %d - %d >= %.3f%n", solutionProfit, match1.getProfit(), match.getProfit(), profitTarget);*/
+                if (solutionProfit + match1.getProfit() - match.getProfit() >= profitTarget) { // match1 is an improvment
+                    if (match1.passengerCount() >= maxCoveredPassengers) {
+                        if (match1.getProfit() - match.getProfit() > profitDiff) {
+                            maxCoveredPassengers = match1.passengerCount();
+                            profitDiff = match1.getProfit() - match.getProfit();
                             improvement.clear();
                             improvement.add(match1);
                         }
@@ -810,20 +826,22 @@ public class RPCPlus {
         
         forloop:
         for (Match m : driverInMatch.getMatches()) {
-            if (m.profit < 0)
+            if (m.getProfit() < 0)
                 continue;
             
-            for (Passenger p : m.sfp.passengers)
+            for (int k = 0; k < m.passengerCount(); k++) {
+                Passenger p = m.getPassenger(k);
                 if (passengersInSolution.contains(p))
                     continue forloop;
+            }
             
-            if (m.sfp.passengers.size() > 1) {
-                /*System.out.println("Test if match m ("+ matchToDriver.get(m).getID()+ ", " + m.sfp.passengers.toString() + ") is an improvement over the testing match ("
-                            + matchToDriver.get(match).getID()+ ", " + match.sfp.passengers.toString() + ")");
-                System.out.format("%.3f + %d - %d >= %.3f%n", solutionProfit, m.profit, match.profit, profitTarget);*/
-                if (solutionProfit + m.profit - match.profit >= profitTarget) { // match1 is an improvment
-                    if (m.sfp.passengers.size() > maxCoveredPassengers) {
-                        maxCoveredPassengers = m.sfp.passengers.size();
+            if (m.passengerCount() > 1) {
+                /*System.out.println("Test if match m ("+ matchToDriver.get(m).getID()+ ", " + m.passengers().toString() + ") is an improvement over the testing match ("
+                            + matchToDriver.get(match).getID()+ ", " + match.passengers().toString() + ")");
+                System.out.format("%.3f + %d - %d >= %.3f%n", solutionProfit, m.getProfit(), match.getProfit(), profitTarget);*/
+                if (solutionProfit + m.getProfit() - match.getProfit() >= profitTarget) { // match1 is an improvment
+                    if (m.passengerCount() > maxCoveredPassengers) {
+                        maxCoveredPassengers = m.passengerCount();
                         improvement.clear();
                         improvement.add(m);
                     }
@@ -838,21 +856,25 @@ public class RPCPlus {
                 if (solution.containsKey(matchToDriver.get(match1)))
                     continue;
                 
-                for (Passenger p : match1.sfp.passengers)
+                for (int k = 0; k < match1.passengerCount(); k++) {
+                    Passenger p = match1.getPassenger(k);
                     if (passengersInSolution.contains(p))
                         continue innerFor;
+                }
                 
                 // do matches m and match1 intersect without the passenger in the testing match?
-                //System.out.println("Test if m and match1 intersect?: ("+ matchToDriver.get(m).getID()+ ", " + m.sfp.passengers.toString() + ") x ("
-                  //          + matchToDriver.get(match1).getID()+ ", " + match1.sfp.passengers.toString() + ")");
+                //System.out.println("Test if m and match1 intersect?: ("+ matchToDriver.get(m).getID()+ ", " + m.passengers().toString() + ") x ("
+                  //          + matchToDriver.get(match1).getID()+ ", " + match1.passengers().toString() + ")");
                 // the intersection of matches m and match2 minus passengerInChecking is empty?
-                for (Passenger p : match1.sfp.passengers)
-                    if (m.sfp.passengers.contains(p))
+                for (int k = 0; k < match1.passengerCount(); k++) {
+                    Passenger p = match1.getPassenger(k);
+                    if (m.containsPassenger(p))
                         continue innerFor;
-                //System.out.format("%.3f + %d + %d - %d >= %.3f%n", solutionProfit, m.profit, match1.profit, match.profit, profitTarget);
-                if (solutionProfit + m.profit + match1.profit - match.profit >= profitTarget) {
-                    union = new HashSet<>(m.sfp.passengers);
-                    union.addAll(match1.sfp.passengers);
+                }
+                //System.out.format("%.3f + %d + %d - %d >= %.3f%n", solutionProfit, m.getProfit(), match1.getProfit(), match.getProfit(), profitTarget);
+                if (solutionProfit + m.getProfit() + match1.getProfit() - match.getProfit() >= profitTarget) {
+                    union = new HashSet<>(m.passengers());
+                    union.addAll(match1.passengers());
                     if (union.size() > maxCoveredPassengers) {
                         maxCoveredPassengers = union.size();
                         improvement.clear();
@@ -869,7 +891,7 @@ public class RPCPlus {
     private void changeProfitTarget(List<Match> A, double profitTargetMultiplier, double lowerBoundProfitTarget) {
         double profit = 0d;
         for (Match m : A)
-            profit = profit + m.profit;
+            profit = profit + m.getProfit();
         
         double LB = profitTarget - profit + 2 * profit / (Alg.getLargestMatchSize()+1);
         LB = Math.min(LB, lowerBoundProfitTarget*profitTarget);
@@ -989,9 +1011,9 @@ public class RPCPlus {
 
         @Override
         public int compare(Match a1, Match a2) {
-            if (a1.profit > a2.profit)
+            if (a1.getProfit() > a2.getProfit())
                 return -1;
-            else if (a1.profit < a2.profit)
+            else if (a1.getProfit() < a2.getProfit())
                 return 1;
             return 0;
         }
@@ -1003,9 +1025,9 @@ public class RPCPlus {
 
         @Override
         public int compare(Match a1, Match a2) {
-            if (a1.profit > a2.profit)
+            if (a1.getProfit() > a2.getProfit())
                 return 1;
-            else if (a1.profit < a2.profit)
+            else if (a1.getProfit() < a2.getProfit())
                 return -1;
             return 0;
         }
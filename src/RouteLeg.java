@@ -0,0 +1,14 @@
+package simulation;
+
+// distance (in meter) and travel time (in millisecond) of a routed leg, without the path geometry
+public class RouteLeg {
+    public static final RouteLeg NOT_FOUND = new RouteLeg(0, 0);
+    
+    public final double distance;
+    public final long timeInMs;
+    
+    public RouteLeg(double distance, long timeInMs) {
+        this.distance = distance;
+        this.timeInMs = timeInMs;
+    }
+}
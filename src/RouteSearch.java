@@ -0,0 +1,455 @@
+package simulation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Set;
+
+/*
+ * Alternatives to the permutation search of Algorithms.constructMatch for the route of a group of passengers.
+ * A route is built stop by stop with the same arithmetic as computeFeasiblePath (durations, waiting at origins, hour indexes),
+ * and a partial route is dropped as soon as a driver or passenger limit is exceeded, since the durations of its stops cannot get shorter.
+ *  - exact: depth-first search over every order where origins come before destinations; same route as the permutation search, which keeps
+ *    the first shortest route in the order of Heap's algorithm, so routes of equal duration are ranked in that order.
+ *  - insert: the new passenger's origin and destination are inserted into the best route of the group without it. The O(n^2) insertion
+ *    positions are tested in O(1) each with the slack of the stops of that route, first with lower bounds of the new legs so that no leg
+ *    is routed, then with the legs routed for the positions left; only the positions passing both tests are evaluated.
+ * One instance per driver and thread.
+ */
+public class RouteSearch {
+    private final Algorithms alg;
+    private final Driver driver;
+    private final int driverIndex;
+
+    // passengers of the group, by slot
+    private Passenger[] passengers;
+    private List<Pair<Passenger, Boolean>> origins;
+    private List<Pair<Passenger, Boolean>> destinations;
+    private int[] passengerIndex;
+    private int[] pickupAt;             // position of the origin of the passenger in the route, -1 if not in it yet
+    private boolean[] droppedOff;
+
+    // route under construction, by position
+    private List<Pair<Passenger, Boolean>> route;
+    private int[] travelDistanceIndex;
+    private int[] hourIndex;
+    private long[] duration;            // of the leg arriving at the position
+    private long[] accDuration;         // from the driver's origin
+    private long[] departure;           // departure time of the driver once the route up to the position is known
+    private int[] stop;                 // 2*slot for the origin of the passenger in the slot, 2*slot+1 for its destination
+
+    private SFP bestSFP;
+    private long bestDuration;
+    private boolean heapOrderTies;      // a route as short as the best one replaces it if Heap's algorithm reaches it first
+    private int[] bestStop;
+
+    public RouteSearch(Algorithms alg, Driver driver) {
+        this.alg = alg;
+        this.driver = driver;
+        this.driverIndex = alg.tripIDtoTravelDistanceIndex.get(driver.getID());
+    }
+
+    private void setup(List<Passenger> group) {
+        int n = group.size();
+        passengers = group.toArray(new Passenger[n]);
+        origins = new ArrayList<>(n);
+        destinations = new ArrayList<>(n);
+        passengerIndex = new int[n];
+        pickupAt = new int[n];
+        droppedOff = new boolean[n];
+        for (int s = 0; s < n; s++) {
+            origins.add(new Pair<>(passengers[s], Boolean.FALSE));
+            destinations.add(new Pair<>(passengers[s], Boolean.TRUE));
+            passengerIndex[s] = alg.tripIDtoTravelDistanceIndex.get(passengers[s].getID());
+        }
+        Arrays.fill(pickupAt, -1);
+        route = new ArrayList<>(2*n);
+        for (int j = 0; j < 2*n; j++)
+            route.add(null);
+        travelDistanceIndex = new int[2*n];
+        hourIndex = new int[2*n];
+        duration = new long[2*n];
+        accDuration = new long[2*n];
+        departure = new long[2*n];
+        stop = new int[2*n];
+        bestSFP = null;
+        bestDuration = Long.MAX_VALUE;
+        heapOrderTies = false;
+        bestStop = null;
+    }
+
+    // best route over all orders of the stops, null if none is feasible
+    public SFP exact(Set<Passenger> group) {
+        setup(new ArrayList<>(group));
+        heapOrderTies = true;
+        search(0, group);
+        return bestSFP;
+    }
+
+    private void search(int j, Set<Passenger> group) {
+        if (j == route.size()) {
+            finish(group);
+            return;
+        }
+        for (int s = 0; s < passengers.length; s++) {
+            if (pickupAt[s] < 0) {
+                if (step(j, s, false))
+                    search(j+1, group);
+                pickupAt[s] = -1;
+            } else if (!droppedOff[s]) {
+                if (step(j, s, true))
+                    search(j+1, group);
+                droppedOff[s] = false;
+            }
+        }
+    }
+
+    // puts the origin (or destination) of the passenger in slot s at position j, false if the route cannot be completed anymore
+    private boolean step(int j, int s, boolean destination) {
+        Passenger p = passengers[s];
+        long arrivedTime;
+        route.set(j, destination ? destinations.get(s) : origins.get(s));
+        travelDistanceIndex[j] = destination ? passengerIndex[s] + alg.passengerSize : passengerIndex[s];
+        stop[j] = destination ? 2*s + 1 : 2*s;
+        if (destination)
+            droppedOff[s] = true;
+        else
+            pickupAt[s] = j;
+        if (j == 0) {
+            duration[0] = (long) (alg.travelDistance.get(driverIndex, passengerIndex[s]) /
+                                        alg.Speed[alg.currentHourIndex][driver.getStartRegion()][p.getStartRegion()]);
+            accDuration[0] = duration[0];
+            departure[0] = Math.max(driver.getDepartureTime(), p.getDepartureTime() - duration[0]);
+            arrivedTime = departure[0] + duration[0];
+        } else {
+            long legDistance = alg.computeLegDistance(travelDistanceIndex[j-1], travelDistanceIndex[j], route.get(j-1), route.get(j));
+            duration[j] = (long) (legDistance /
+                        alg.Speed[hourIndex[j-1]][alg.getPassengerRegionIndex(route.get(j-1))][alg.getPassengerRegionIndex(route.get(j))]);
+            accDuration[j] = accDuration[j-1] + duration[j];
+            departure[j] = departure[j-1];
+            arrivedTime = departure[j] + accDuration[j];
+            if (!destination && p.getDepartureTime() > arrivedTime) {   // the driver leaves later instead of waiting
+                departure[j] = p.getDepartureTime() - accDuration[j];
+                arrivedTime = p.getDepartureTime();
+            }
+        }
+        hourIndex[j] = Math.min((int)(arrivedTime / 3600.0), 23) - SimulationParameters.startHour;
+
+        // the departure of the driver only gets later and the durations only get longer as the route grows
+        if (accDuration[j] > driver.getMaxTravelDuration() || departure[j] + accDuration[j] > driver.getArrivalTime())
+            return false;
+        if (destination && (accDuration[j] - accDuration[pickupAt[s]] > p.getMaxTravelDuration() || departure[j] + accDuration[j] > p.getArrivalTime()))
+            return false;
+        return true;
+    }
+
+    // checks the complete route as computeFeasiblePath does and keeps it if it is the shortest so far
+    private boolean finish(Set<Passenger> group) {
+        int last = route.size() - 1;
+        long driverDur = accDuration[last] + (long) (alg.travelDistance.get(travelDistanceIndex[last], driverIndex) /
+                                alg.Speed[hourIndex[last]][alg.getPassengerRegionIndex(route.get(last))][driver.getEndRegion()]);
+        long driverDeparture = departure[last];
+        if (driverDur > driver.getMaxTravelDuration() || driverDeparture + driverDur > driver.getArrivalTime())
+            return false;
+        for (int j = 0; j <= last; j++) {
+            if (route.get(j).getP2() && driverDeparture + accDuration[j] > route.get(j).getP1().getArrivalTime())
+                return false;
+        }
+        if (driverDur < bestDuration || (driverDur == bestDuration && heapOrderTies && heapOrderBefore(stop, bestStop))) {
+            bestDuration = driverDur;
+            bestStop = Arrays.copyOf(stop, route.size());
+            bestSFP = new SFP(group, new ArrayList<>(route), Arrays.copyOf(travelDistanceIndex, route.size()),
+                                Arrays.copyOf(hourIndex, route.size()), driverDeparture);
+        }
+        return true;
+    }
+
+    /*
+     * true if Algorithms.constructMatch reaches order a of the stops before order b. It starts from the order of the group (each origin
+     * followed by its destination, stop i at position i) and permutes it with Heap's algorithm: for k from the number of stops down to 2,
+     * the stop at position k-1 is fixed for k blocks of (k-1)! permutations each; between two blocks the first k-1 positions are permuted
+     * as a complete run of the algorithm on them does, then position k-1 is swapped with position c (block c, k even) or 0 (k odd).
+     * The orders are compared by their block at each k, from the top.
+     */
+    static boolean heapOrderBefore(int[] a, int[] b) {
+        int n = a.length;
+        int[] arrangementA = new int[n];
+        int[] arrangementB = new int[n];
+        for (int i = 0; i < n; i++) {
+            arrangementA[i] = i;
+            arrangementB[i] = i;
+        }
+        for (int k = n; k >= 2; k--) {
+            int blockA = heapBlock(arrangementA, a[k-1], k);
+            int blockB = heapBlock(arrangementB, b[k-1], k);
+            if (blockA != blockB)
+                return blockA < blockB;
+        }
+        return false;
+    }
+
+    // block of the run of Heap's algorithm on the first k positions where the stop is at position k-1; leaves the arrangement at its start
+    private static int heapBlock(int[] arrangement, int stop, int k) {
+        int[] run = heapRun(k-1);
+        int[] before = new int[k-1];
+        for (int c = 0; c < k; c++) {
+            if (arrangement[k-1] == stop)
+                return c;
+            System.arraycopy(arrangement, 0, before, 0, k-1);
+            for (int i = 0; i < k-1; i++)
+                arrangement[i] = before[run[i]];
+            swap(arrangement, k % 2 == 0 ? c : 0, k-1);
+        }
+        return k;       // not reached, every stop is at position k-1 in one block
+    }
+
+    // position before a complete run of Heap's algorithm on m positions of the element at each position after it
+    private static int[] heapRun(int m) {
+        int[] run = new int[m];
+        for (int i = 0; i < m; i++)
+            run[i] = i;
+        if (m < 2)
+            return run;
+        int[] inner = heapRun(m-1);
+        int[] before = new int[m-1];
+        for (int c = 0; c < m; c++) {
+            System.arraycopy(run, 0, before, 0, m-1);
+            for (int i = 0; i < m-1; i++)
+                run[i] = before[inner[i]];
+            if (c < m-1)
+                swap(run, m % 2 == 0 ? c : 0, m-1);
+        }
+        return run;
+    }
+
+    private static void swap(int[] array, int i, int j) {
+        int temp = array[i];
+        array[i] = array[j];
+        array[j] = temp;
+    }
+
+    // evaluates the stops in the given order (slot, destination) up to the end
+    private boolean evaluate(int[] slots, boolean[] destination, Set<Passenger> group) {
+        Arrays.fill(pickupAt, -1);
+        Arrays.fill(droppedOff, false);
+        for (int j = 0; j < slots.length; j++) {
+            if (!step(j, slots[j], destination[j]))
+                return false;
+        }
+        return finish(group);
+    }
+
+    // best route of the group made by inserting passenger into the route of parent (the group without passenger), null if none is feasible
+    public SFP insert(Match parent, Passenger passenger, Set<Passenger> group) {
+        int m = parent.stopCount();
+        List<Passenger> members = new ArrayList<>(parent.passengerCount() + 1);
+        HashMap<Passenger, Integer> slotOf = new HashMap<>();
+        for (int k = 0; k < parent.passengerCount(); k++) {
+            slotOf.put(parent.getPassenger(k), members.size());
+            members.add(parent.getPassenger(k));
+        }
+        int q = members.size();
+        members.add(passenger);
+        setup(members);
+
+        // schedule of the route of parent
+        int[] slots = new int[m];
+        boolean[] destination = new boolean[m];
+        for (int j = 0; j < m; j++) {
+            slots[j] = slotOf.get(parent.getStopPassenger(j));
+            destination[j] = parent.isStopDestination(j);
+            if (!step(j, slots[j], destination[j]))
+                return null;
+        }
+        Insertion insertion = new Insertion(slots, destination, q);
+
+        // positions passing the test with lower bounds of the new legs, then with the legs routed
+        List<int[]> screened = new ArrayList<>();
+        for (int a = 0; a <= m; a++) {
+            for (int b = a; b <= m; b++) {
+                if (alg.MaxSpeed <= 0 || insertion.delta(a, b, true) != Long.MAX_VALUE)
+                    screened.add(new int[] {a, b});
+            }
+        }
+        List<long[]> candidates = new ArrayList<>(screened.size());
+        for (int[] position : screened) {
+            long delta = insertion.delta(position[0], position[1], false);
+            if (delta != Long.MAX_VALUE)
+                candidates.add(new long[] {delta, position[0], position[1]});
+        }
+
+        // exact evaluation of the positions passing the test, fewest added duration first
+        candidates.sort((c1, c2) -> Long.compare(c1[0], c2[0]));
+        int[] newSlots = new int[m+2];
+        boolean[] newDestination = new boolean[m+2];
+        for (long[] candidate : candidates) {
+            int a = (int) candidate[1], b = (int) candidate[2], k = 0;
+            for (int j = 0; j <= m; j++) {
+                if (j == a) {
+                    newSlots[k] = q;
+                    newDestination[k++] = false;
+                }
+                if (j == b) {
+                    newSlots[k] = q;
+                    newDestination[k++] = true;
+                }
+                if (j < m) {
+                    newSlots[k] = slots[j];
+                    newDestination[k++] = destination[j];
+                }
+            }
+            evaluate(newSlots, newDestination, group);
+        }
+        return bestSFP;
+    }
+
+    /*
+     * Route of parent, scheduled by step, with the slack of its stops for the insertion of the passenger in slot q.
+     * The driver leaves at max(its departure, departure of each passenger - time to reach the passenger's origin), so a delay inserted
+     * before an origin can be absorbed by a later departure: arrivals are checked against the departure of the new route.
+     * Gap g is the leg arriving at stop g (gap m arrives at the driver's destination).
+     */
+    private class Insertion {
+        private final int m;
+        private final int[] slots;
+        private final boolean[] destination;
+        private final Passenger passenger;
+        private final Pair<Passenger, Boolean> qOrigin;
+        private final Pair<Passenger, Boolean> qDestination;
+        private final int qIndex;
+        private final int qDestIndex;
+        private final long[] T;
+        private final long[] legs;
+        private final int[] hours;
+        private final long[] parentDeparture;
+        private final List<Pair<Passenger, Boolean>> stops;
+        private final int[] stopIndex;
+        private final long driverDur;
+        private final long[][] deadlineMin;         // min over the destinations in [a, b) of latest arrival - time from the departure
+        private final long[][] departureMax;        // max over the origins in [a, b) of departure of the passenger - time from the departure
+        private final long[][] rideMin;             // min ride slack of the passengers on board in both gaps a and b (a <= b)
+
+        Insertion(int[] slots, boolean[] destination, int q) {
+            m = slots.length;
+            this.slots = slots;
+            this.destination = destination;
+            passenger = passengers[q];
+            qOrigin = origins.get(q);
+            qDestination = destinations.get(q);
+            qIndex = passengerIndex[q];
+            qDestIndex = qIndex + alg.passengerSize;
+            T = Arrays.copyOf(accDuration, m);
+            legs = Arrays.copyOf(duration, m+1);
+            hours = Arrays.copyOf(hourIndex, m);
+            parentDeparture = Arrays.copyOf(departure, m);
+            stops = new ArrayList<>(route.subList(0, m));
+            stopIndex = Arrays.copyOf(travelDistanceIndex, m);
+            legs[m] = (long) (alg.travelDistance.get(stopIndex[m-1], driverIndex) /
+                                    alg.Speed[hours[m-1]][alg.getPassengerRegionIndex(stops.get(m-1))][driver.getEndRegion()]);
+            driverDur = T[m-1] + legs[m];
+
+            deadlineMin = new long[m+1][m+1];
+            departureMax = new long[m+1][m+1];
+            for (int a = 0; a <= m; a++) {
+                deadlineMin[a][a] = Long.MAX_VALUE;
+                departureMax[a][a] = Long.MIN_VALUE / 2;       // no origin, still safe to subtract a delay from
+                for (int b = a+1; b <= m; b++) {
+                    deadlineMin[a][b] = deadlineMin[a][b-1];
+                    departureMax[a][b] = departureMax[a][b-1];
+                    if (destination[b-1])
+                        deadlineMin[a][b] = Math.min(deadlineMin[a][b], passengers[slots[b-1]].getArrivalTime() - T[b-1]);
+                    else
+                        departureMax[a][b] = Math.max(departureMax[a][b], passengers[slots[b-1]].getDepartureTime() - T[b-1]);
+                }
+            }
+            rideMin = new long[m+1][m+1];
+            for (long[] row : rideMin)
+                Arrays.fill(row, Long.MAX_VALUE);
+            for (int j = 0; j < m; j++) {
+                if (!destination[j])
+                    continue;
+                int u = pickupAt[slots[j]];
+                long slack = passengers[slots[j]].getMaxTravelDuration() - (T[j] - T[u]);
+                for (int a = u+1; a <= j; a++) {
+                    for (int b = a; b <= j; b++)
+                        rideMin[a][b] = Math.min(rideMin[a][b], slack);
+                }
+            }
+        }
+
+        /*
+         * O(1) test of the insertion of the origin into gap a and the destination into gap b: the added duration, Long.MAX_VALUE if a limit
+         * is broken. With bound, the new legs are lower bounds (no leg is routed) and the added durations too, so the test only drops
+         * positions that are infeasible; the departure forced by the origins after the destination of passenger is then left out of the
+         * checks of the earlier stops, as it gets later when the added duration is underestimated.
+         */
+        long delta(int a, int b, boolean bound) {
+            int hourA = a == 0 ? alg.currentHourIndex : hours[a-1];
+            long toOrigin;
+            if (a == 0)
+                toOrigin = bound ? (long) (alg.travelDistance.get(driverIndex, qIndex) / alg.MaxSpeed)
+                                 : (long) (alg.travelDistance.get(driverIndex, qIndex) /
+                                            alg.Speed[alg.currentHourIndex][driver.getStartRegion()][passenger.getStartRegion()]);
+            else
+                toOrigin = leg(stopIndex[a-1], qIndex, stops.get(a-1), qOrigin, hourA, bound);
+            long tOrigin = (a == 0 ? 0 : T[a-1]) + toOrigin;
+            // the stops before gap a are unchanged, so the time (and hour) the origin of passenger is reached is known exactly
+            long departureAtOrigin = Math.max(a == 0 ? driver.getDepartureTime() : parentDeparture[a-1], passenger.getDepartureTime() - tOrigin);
+            int hourOrigin = hour(departureAtOrigin + tOrigin);
+            long deltaA, deltaB, ride;
+            if (a == b) {
+                ride = leg(qIndex, qDestIndex, qOrigin, qDestination, hourOrigin, bound);
+                int hourDestination = hour(departureAtOrigin + tOrigin + ride);
+                long fromDest = b == m ? toDriverDestination(qDestIndex, qDestination, hourDestination, bound)
+                                       : leg(qDestIndex, stopIndex[b], qDestination, stops.get(b), hourDestination, bound);
+                deltaA = 0;
+                deltaB = toOrigin + ride + fromDest - legs[a];
+            } else {
+                deltaA = toOrigin + leg(qIndex, stopIndex[a], qOrigin, stops.get(a), hourOrigin, bound) - legs[a];
+                long toDest = leg(stopIndex[b-1], qDestIndex, stops.get(b-1), qDestination, hours[b-1], bound);
+                long fromDest = b == m ? toDriverDestination(qDestIndex, qDestination, hours[b-1], bound)
+                                       : leg(qDestIndex, stopIndex[b], qDestination, stops.get(b), hours[b-1], bound);
+                deltaB = toDest + fromDest - legs[b];
+                ride = (T[b-1] + deltaA) - tOrigin + toDest;      // stop b-1 is reached deltaA later than in parent
+            }
+            long delta = deltaA + deltaB;
+            long departureBefore = Math.max(Math.max(driver.getDepartureTime(), departureMax[0][a]), passenger.getDepartureTime() - tOrigin);
+            departureBefore = Math.max(departureBefore, departureMax[a][b] - deltaA);
+            long D = Math.max(departureBefore, departureMax[b][m] - delta);
+            long earlyD = bound ? departureBefore : D;
+            if (driverDur + delta > driver.getMaxTravelDuration() || D + driverDur + delta > driver.getArrivalTime())
+                return Long.MAX_VALUE;
+            if (ride > passenger.getMaxTravelDuration() || earlyD + tOrigin + ride > passenger.getArrivalTime())
+                return Long.MAX_VALUE;
+            if (deadlineMin[a][b] < earlyD + deltaA || deadlineMin[b][m] < D + delta)
+                return Long.MAX_VALUE;
+            if (a < b && (rideMin[a][a] < deltaA || rideMin[b][b] < deltaB || rideMin[a][b] < delta))
+                return Long.MAX_VALUE;
+            if (a == b && rideMin[a][a] < delta)
+                return Long.MAX_VALUE;
+            return delta;
+        }
+    }
+
+    // duration of the leg at the hour, routed if not stored yet; with bound, a lower bound at any hour that routes nothing
+    private long leg(int fromIndex, int toIndex, Pair<Passenger, Boolean> from, Pair<Passenger, Boolean> to, int hour, boolean bound) {
+        if (bound) {
+            long distance = alg.travelDistance.contains(fromIndex, toIndex) ? alg.travelDistance.get(fromIndex, toIndex)
+                                                                           : alg.legDistanceLowerBound(from, to, false);
+            return (long) (distance / alg.MaxSpeed);
+        }
+        return (long) (alg.computeLegDistance(fromIndex, toIndex, from, to) /
+                        alg.Speed[hour][alg.getPassengerRegionIndex(from)][alg.getPassengerRegionIndex(to)]);
+    }
+
+    private static int hour(long time) {
+        return Math.min((int)(time / 3600.0), 23) - SimulationParameters.startHour;
+    }
+
+    private long toDriverDestination(int fromIndex, Pair<Passenger, Boolean> from, int hour, boolean bound) {
+        if (bound)
+            return (long) (alg.travelDistance.get(fromIndex, driverIndex) / alg.MaxSpeed);
+        return (long) (alg.travelDistance.get(fromIndex, driverIndex) / alg.Speed[hour][alg.getPassengerRegionIndex(from)][driver.getEndRegion()]);
+    }
+}
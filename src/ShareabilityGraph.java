@@ -0,0 +1,221 @@
+package simulation;
+
+import java.util.Arrays;
+import java.util.List;
+
+/*
+ * Shareability graph of the passengers of the current base matches: an edge joins two passengers that can be served by one vehicle
+ * in some order of their four stops, whatever the driver. Only pairs of passengers sharing a driver are tested, since no other pair
+ * is ever grouped. A group of a driver is feasible only if its passengers are pairwise adjacent, so a group is extended only with
+ * passengers adjacent to all of its members.
+ * The test uses lower bounds of the travel durations, as Algorithms does before routing a group: a passenger's own leg and the
+ * great-circle distance between other stops (reduced by the snapping distances), at the highest speed, each less a margin for the
+ * truncation of the durations of the legs in between. With a vehicle leaving no earlier than the departure time of the passengers
+ * picked up so far, the stops of an order must be reached within the arrival times and maximum travel durations.
+ * Each row is a bitset over the passengers (by travel distance index), kept from its first to its last nonzero word.
+ */
+public class ShareabilityGraph {
+    private static final double Margin = 60.0;     // in seconds, for the truncation of the durations of up to 2*capacity legs
+    // orders of the stops of passengers a and b: 0 origin of a, 1 destination of a, 2 origin of b, 3 destination of b
+    private static final int[][] Orders = {{0,2,1,3}, {0,2,3,1}, {0,1,2,3}, {2,0,3,1}, {2,0,1,3}, {2,3,0,1}};
+
+    private final Algorithms alg;
+    private final int size;                 // passengers, by travel distance index minus the number of drivers
+    private final Passenger[] passengers;
+    private final double[] ride;            // lower bound of the duration of the passenger's own leg
+    private int[] firstWord;
+    private long[][] rows;
+    private long edges = 0;
+    private long testedPairs = 0;
+
+    public ShareabilityGraph(Algorithms alg, List<Driver> drivers) {
+        this.alg = alg;
+        size = alg.passengerSize;
+        passengers = new Passenger[size];
+        ride = new double[size];
+        firstWord = new int[size];
+        rows = new long[size][];
+        build(drivers);
+    }
+
+    private int graphIndex(Passenger passenger) {
+        return alg.tripIDtoTravelDistanceIndex.get(passenger.getID()) - alg.driverSize;
+    }
+
+    private void build(List<Driver> drivers) {
+        // passengers of each driver, and drivers of each passenger
+        int[][] driverPassengers = new int[drivers.size()][];
+        int[] driverCount = new int[size];
+        for (int d = 0; d < drivers.size(); d++) {
+            List<Match> matches = drivers.get(d).getMatches();
+            driverPassengers[d] = new int[matches.size()];
+            for (int i = 0; i < matches.size(); i++) {
+                Passenger passenger = matches.get(i).getPassenger(0);
+                int a = graphIndex(passenger);
+                driverPassengers[d][i] = a;
+                if (passengers[a] == null) {
+                    passengers[a] = passenger;
+                    if (alg.travelDistance.contains(a + alg.driverSize, a + alg.driverSize + size))
+                        ride[a] = duration(alg.travelDistance.get(a + alg.driverSize, a + alg.driverSize + size));
+                    else
+                        ride[a] = duration(passenger, false, passenger, true);
+                }
+                driverCount[a]++;
+            }
+        }
+        int[][] passengerDrivers = new int[size][];
+        for (int a = 0; a < size; a++)
+            passengerDrivers[a] = new int[driverCount[a]];
+        Arrays.fill(driverCount, 0);
+        for (int d = 0; d < drivers.size(); d++) {
+            for (int a : driverPassengers[d])
+                passengerDrivers[a][driverCount[a]++] = d;
+        }
+
+        // test each pair sharing a driver once, from its passenger with the lower index
+        int[][] neighbors = new int[size][];
+        int[] degree = new int[size];
+        int[] testedBy = new int[size];
+        Arrays.fill(testedBy, -1);
+        for (int a = 0; a < size; a++) {
+            if (passengers[a] == null)
+                continue;
+            for (int d : passengerDrivers[a]) {
+                for (int b : driverPassengers[d]) {
+                    if (b <= a || testedBy[b] == a)
+                        continue;
+                    testedBy[b] = a;
+                    testedPairs++;
+                    if (shareable(a, b)) {
+                        addNeighbor(neighbors, degree, a, b);
+                        addNeighbor(neighbors, degree, b, a);
+                        edges++;
+                    }
+                }
+            }
+        }
+
+        for (int a = 0; a < size; a++) {
+            if (degree[a] == 0) {
+                rows[a] = new long[0];
+                continue;
+            }
+            int first = Integer.MAX_VALUE;
+            int last = 0;
+            for (int k = 0; k < degree[a]; k++) {
+                first = Math.min(first, neighbors[a][k] >>> 6);
+                last = Math.max(last, neighbors[a][k] >>> 6);
+            }
+            firstWord[a] = first;
+            rows[a] = new long[last - first + 1];
+            for (int k = 0; k < degree[a]; k++)
+                rows[a][(neighbors[a][k] >>> 6) - first] |= 1L << neighbors[a][k];
+        }
+    }
+
+    private static void addNeighbor(int[][] neighbors, int[] degree, int a, int b) {
+        if (neighbors[a] == null)
+            neighbors[a] = new int[4];
+        else if (degree[a] == neighbors[a].length)
+            neighbors[a] = Arrays.copyOf(neighbors[a], 2*degree[a]);
+        neighbors[a][degree[a]++] = b;
+    }
+
+    // lower bound (in seconds) of the travel duration over a distance, less the margin
+    private double duration(long distance) {
+        return Math.max(0.0, distance / alg.MaxSpeed - Margin);
+    }
+
+    private double duration(Passenger from, boolean fromDestination, Passenger to, boolean toDestination) {
+        return duration(alg.legDistanceLowerBound(new Pair<>(from, fromDestination), new Pair<>(to, toDestination), false));
+    }
+
+    private boolean shareable(int a, int b) {
+        Passenger pa = passengers[a];
+        Passenger pb = passengers[b];
+        double[][] leg = new double[4][4];
+        leg[0][1] = ride[a];
+        leg[2][3] = ride[b];
+        leg[0][2] = duration(pa, false, pb, false);
+        leg[1][3] = duration(pa, true, pb, true);
+        leg[0][3] = duration(pa, false, pb, true);
+        leg[1][2] = duration(pa, true, pb, false);
+        for (int i = 0; i < 4; i++) {
+            for (int j = 0; j < i; j++)
+                leg[i][j] = leg[j][i];
+        }
+
+        double[] at = new double[4];    // lower bound of the duration from the first stop
+        int[] position = new int[4];
+        for (int[] order : Orders) {
+            at[order[0]] = 0;
+            for (int k = 1; k < 4; k++)
+                at[order[k]] = at[order[k-1]] + leg[order[k-1]][order[k]];
+            for (int k = 0; k < 4; k++)
+                position[order[k]] = k;
+            if (reachable(pa, at[0], at[1], pb, at[2], position[2] < position[1]) && reachable(pb, at[2], at[3], pa, at[0], position[0] < position[3]))
+                return true;
+        }
+        return false;
+    }
+
+    // the passenger picked up at origin and dropped off at destination, the other passenger picked up at otherOrigin
+    private static boolean reachable(Passenger passenger, double origin, double destination, Passenger other, double otherOrigin, boolean otherOnBoard) {
+        if (destination - origin > passenger.getMaxTravelDuration() || passenger.getDepartureTime() + destination - origin > passenger.getArrivalTime())
+            return false;
+        return !otherOnBoard || other.getDepartureTime() + destination - otherOrigin <= passenger.getArrivalTime();
+    }
+
+    public boolean adjacent(int a, int b) {
+        int w = (b >>> 6) - firstWord[a];
+        return w >= 0 && w < rows[a].length && (rows[a][w] & (1L << b)) != 0;
+    }
+
+    // passengers adjacent to passenger a, by graph index (travel distance index of the origin minus the number of drivers), in increasing order
+    public int[] neighbors(int a) {
+        int count = 0;
+        for (long word : rows[a])
+            count += Long.bitCount(word);
+        int[] neighbors = new int[count];
+        int k = 0;
+        long word;
+        for (int w = 0; w < rows[a].length; w++) {
+            word = rows[a][w];
+            while (word != 0) {
+                neighbors[k++] = ((firstWord[a] + w) << 6) + Long.numberOfTrailingZeros(word);
+                word &= word - 1;
+            }
+        }
+        return neighbors;
+    }
+
+    public Passenger passenger(int a) {
+        return passengers[a];
+    }
+
+    public long edges() {
+        return edges;
+    }
+
+    public long testedPairs() {
+        return testedPairs;
+    }
+
+    // adjacency of the passengers of a driver, as PassengerBits over their positions in passengerList
+    public long[][] localAdjacency(List<Passenger> passengerList, int words) {
+        int n = passengerList.size();
+        int[] index = new int[n];
+        for (int i = 0; i < n; i++)
+            index[i] = graphIndex(passengerList.get(i));
+        long[][] adjacency = new long[n][words];
+        for (int i = 0; i < n; i++) {
+            for (int j = i+1; j < n; j++) {
+                if (adjacent(index[i], index[j])) {
+                    PassengerBits.set(adjacency[i], j);
+                    PassengerBits.set(adjacency[j], i);
+                }
+            }
+        }
+        return adjacency;
+    }
+}
@@ -21,6 +21,7 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.UncheckedIOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -29,7 +30,6 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 import java.util.Properties;
 import java.util.StringJoiner;
 
@@ -46,6 +46,7 @@ public class SimulationLoader {
     private final String PASSENGERSINHOUR = "aTripsInHour.csv";
     private final String REGIONBOUNDARIES = "regionBoundaries.csv";
     private final String LOGFIlENAME = "SimulationLog.txt";
+    private final String LEGCACHE = "leg_cache.bin";
     private final boolean TurnCost = false;
     
     private boolean onlyGenerateTrips = false;          // trips are generated and matches are computed, and then written to file.
@@ -117,6 +118,8 @@ public class SimulationLoader {
                     System.out.println("Road network is not created by GraphHopper ......Aborting......");
                     System.exit(0);
                 } else {
+                    if (SimulationParameters.usePersistentLegCache)
+                        ho.openLegCache(Paths.get(currentPath, DATAFOLDER, LEGCACHE));
                     int[][][] nPassengersGenerate = null;
                     double[][][] speed;
                     double[][][] surgePricing;
@@ -147,6 +150,7 @@ public class SimulationLoader {
                     Algorithms alg = new Algorithms(ho, speed, surgePricing, averageTip);
                     SimulationOperator simOperator = new SimulationOperator(this, alg, tripGenerator, logResult);
                     simOperator.startSimulation();
+                    ho.closeLegCache();
                 }
             } catch(IOException e) {
                 System.out.println(e.toString());
@@ -210,6 +214,30 @@ public class SimulationLoader {
             if (Utility.isInt(prop.getProperty("ComputeDistanceMethod"))) {
                 SimulationParameters.computeDistanceMethod = Integer.parseInt(prop.getProperty("ComputeDistanceMethod"));
             }
+            if (Utility.isInt(prop.getProperty("RouteConstruction"))) {
+                SimulationParameters.routeConstruction = Integer.parseInt(prop.getProperty("RouteConstruction"));
+            }
+            if (Utility.isBoolean(prop.getProperty("ShareabilityGraph"))) {
+                SimulationParameters.useShareabilityGraph = Boolean.parseBoolean(prop.getProperty("ShareabilityGraph"));
+            }
+            if (Utility.isInt(prop.getProperty("GroupMemoSize"))) {
+                SimulationParameters.groupMemoSize = Integer.parseInt(prop.getProperty("GroupMemoSize"));
+            }
+            if (Utility.isBoolean(prop.getProperty("ProfitBoundPruning"))) {
+                SimulationParameters.profitBoundPruning = Boolean.parseBoolean(prop.getProperty("ProfitBoundPruning"));
+            }
+            if (Utility.isInt(prop.getProperty("MatchSink"))) {
+                SimulationParameters.matchSink = Integer.parseInt(prop.getProperty("MatchSink"));
+            }
+            if (Utility.isInt(prop.getProperty("MatchSinkTopK"))) {
+                SimulationParameters.matchSinkTopK = Integer.parseInt(prop.getProperty("MatchSinkTopK"));
+            }
+            if (Utility.isBoolean(prop.getProperty("DistanceTable"))) {
+                SimulationParameters.useDistanceTable = Boolean.parseBoolean(prop.getProperty("DistanceTable"));
+            }
+            if (Utility.isBoolean(prop.getProperty("PersistentLegCache"))) {
+                SimulationParameters.usePersistentLegCache = Boolean.parseBoolean(prop.getProperty("PersistentLegCache"));
+            }
             if (Utility.isBoolean(prop.getProperty("MultiThreading"))) {
                 SimulationParameters.useMultiThread = Boolean.parseBoolean(prop.getProperty("MultiThreading"));
             }
@@ -267,6 +295,9 @@ public class SimulationLoader {
             if (Utility.isDouble(prop.getProperty("RevenueReduction"))) {
                 SimulationParameters.revenueReduction = Double.parseDouble(prop.getProperty("RevenueReduction"));
             }
+            if (prop.getProperty("ScenarioSweep") != null) {
+                SimulationParameters.scenarioSweep = prop.getProperty("ScenarioSweep");
+            }
             if (Utility.isDouble(prop.getProperty("ProfitTargetMultiplier"))) {
                 SimulationParameters.profitTargetMultiplier = Double.parseDouble(prop.getProperty("ProfitTargetMultiplier"));
             }
@@ -736,10 +767,7 @@ public class SimulationLoader {
                 fileNamePath = Paths.get(currentPath, DATAFOLDER, tripSubfolder, slnParamters);
                 try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(fileNamePath.toFile())));
                 ) {
-                   int size = in.readInt();
-                   alg.tripIDtoTravelDistanceIndex = new HashMap<>(size);
-                   for (int i = 0; i < size; i++)
-                        alg.tripIDtoTravelDistanceIndex.put(in.readInt(), in.readInt());
+                   alg.tripIDtoTravelDistanceIndex = TripIndex.read(in);
                 } catch (EOFException ex) {
                     System.out.println(ex.toString());
                     return null;
@@ -753,11 +781,11 @@ public class SimulationLoader {
                 fileNamePath = Paths.get(currentPath, DATAFOLDER, tripSubfolder, slnParamters);
                 try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(fileNamePath.toFile())));
                 ) {
-                    alg.travelDistance = new long[currentDrivers.size() + currentPassengers.size()*2][currentDrivers.size() + currentPassengers.size()*2];
-                    for (int i = 0; i < currentDrivers.size() + currentPassengers.size()*2; i++) {
-                        for (int j = 0; j < currentDrivers.size() + currentPassengers.size()*2; j++)
-                            alg.travelDistance[i][j] = in.readLong();
-                    }
+                    // sparse format: number of legs, then (fromIndex, toIndex, distance) for each leg
+                    int numLegs = in.readInt();
+                    alg.travelDistance = new SparseDistanceStore(numLegs);
+                    for (int i = 0; i < numLegs; i++)
+                        alg.travelDistance.put(in.readInt(), in.readInt(), in.readLong());
                 } catch (EOFException ex) {
                     System.out.println(ex.toString());
                     return null;
@@ -836,17 +864,13 @@ public class SimulationLoader {
         if (Utility.transmitTripDataTo != null)
             if (!Utility.transmitTripData(fileNamePath, slnParamters))
                 return false;
-        if (SimulationParameters.problemVariant == 2 && SimulationParameters.algorithmBaseMatches && && !SimulationParameters.algorithmAllMatches) {
+        if (SimulationParameters.problemVariant == 2 && SimulationParameters.algorithmBaseMatches && !SimulationParameters.algorithmAllMatches) {
             slnParamters = slnParamters.replace("passengers", "IndexIDMapping");
             fileNamePath = Paths.get(currentPath, DATAFOLDER, tripSubfolder, slnParamters);
             try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(fileNamePath.toFile(), false)));
             ) {
-               out.writeInt(alg.tripIDtoTravelDistanceIndex.size());
                System.out.format("size of tripIDtoTravelDistanceIndex = %d%n", alg.tripIDtoTravelDistanceIndex.size());
-               for (Map.Entry<Integer, Integer> entry : alg.tripIDtoTravelDistanceIndex.entrySet()) {
-                   out.writeInt(entry.getKey());
-                   out.writeInt(entry.getValue());
-               }
+               alg.tripIDtoTravelDistanceIndex.write(out);
             } catch (Exception e) {
                 System.out.println(e.toString());
                 return false;
@@ -857,11 +881,16 @@ public class SimulationLoader {
             fileNamePath = Paths.get(currentPath, DATAFOLDER, tripSubfolder, slnParamters);
             try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(fileNamePath.toFile(), false)));
             ) {
-                for (long[] travelDistance : alg.travelDistance) {
-                    for (int j = 0; j < travelDistance.length; j++) {
-                        out.writeLong(travelDistance[j]);
+                out.writeInt(alg.travelDistance.size());
+                alg.travelDistance.forEach((fromIndex, toIndex, distance) -> {
+                    try {
+                        out.writeInt(fromIndex);
+                        out.writeInt(toIndex);
+                        out.writeLong(distance);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
                     }
-                }
+                });
             } catch (Exception e) {
                 System.out.println(e.toString());
                 return false;
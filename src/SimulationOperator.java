@@ -2,7 +2,9 @@ package simulation;
 
 //import java.util.ArrayList;
 //import java.util.Arrays;
+import java.io.UncheckedIOException;
 import java.io.Writer;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -93,6 +95,7 @@ public class SimulationOperator {
             for (currentInterval = 0; currentInterval < SimulationParameters.numberOfIntervals; currentInterval++) {
                 startTime = System.currentTimeMillis();
                 currentHour = (int) Math.floor(currentInterval * SimulationParameters.intervalInMinute / 60D) + SimulationParameters.startHour;
+                alg.currentInterval = currentInterval;
                 System.out.format("==================== Iteration #%d -- Current Hour: %d:%02d ====================%n",
                                     (currentInterval+1), currentHour, (currentInterval % (60/SimulationParameters.intervalInMinute)) * SimulationParameters.intervalInMinute);
 
@@ -639,16 +642,7 @@ public class SimulationOperator {
     }
     
     private boolean performVariantOneAlgorithms() {
-        if (SimulationParameters.costMultiplier >= 1) {
-            if (SimulationParameters.extraCost > 0 && SimulationParameters.chanceForExtraCost > 0) {
-                alg.decreaseProfitByIncreasingCost(currentDrivers, currentPassengers, costMultiplierDecider(), 
-                                                SimulationParameters.chanceForExtraCost, SimulationParameters.extraCost, SimulationParameters.operatingCostType);
-            } else if (SimulationParameters.costMultiplier > 1) {
-                alg.decreaseProfitByIncreasingCost(currentDrivers, currentPassengers, costMultiplierDecider(), SimulationParameters.operatingCostType);
-            }
-        }
-        if (SimulationParameters.revenueReduction < 1)
-            alg.decreaseProfitByReducingRevenue(currentDrivers, SimulationParameters.revenueReduction);
+        applyProfitScenarios();
         numNegativeMatches[currentInterval] = alg.getNumNegativeMatches(currentDrivers);
         System.out.println("Number of negative matches: " + numNegativeMatches[currentInterval]);
         
@@ -685,20 +679,26 @@ public class SimulationOperator {
     }
     
     private boolean computeAllMatches() {
-        switch (SimulationParameters.computeMatchMethod) {
-            case 1:
-                computeTimeAlg2[currentInterval] = alg.computeAllMatches(currentDrivers, currentPassengers);
-                break;
-            case 2:
-                if (SimulationParameters.computeDistanceMethod == 1)
-                    computeTimeAlg2[currentInterval] = alg.computeAllMatchesDP(currentDrivers, currentPassengers, true);
-                else
-                    computeTimeAlg2[currentInterval] = alg.computeAllMatchesDP(currentDrivers, currentPassengers, false);
-                break;
-            default:
-                System.out.println("Select a correct compute method for constructing all matches.");
-                return false;
+        try {
+            switch (SimulationParameters.computeMatchMethod) {
+                case 1:
+                    computeTimeAlg2[currentInterval] = alg.computeAllMatches(currentDrivers, currentPassengers);
+                    break;
+                case 2:
+                    if (SimulationParameters.computeDistanceMethod == 1)
+                        computeTimeAlg2[currentInterval] = alg.computeAllMatchesDP(currentDrivers, currentPassengers, true);
+                    else
+                        computeTimeAlg2[currentInterval] = alg.computeAllMatchesDP(currentDrivers, currentPassengers, false);
+                    break;
+                default:
+                    System.out.println("Select a correct compute method for constructing all matches.");
+                    return false;
+            }
+        } catch (UncheckedIOException e) {  // the match sink lost matches
+            System.out.println(e.toString());
+            return false;
         }
+        cplex.setEdgeSink(alg.matchSink instanceof SolverEdgeSink ? (SolverEdgeSink) alg.matchSink : null);
         numMatches[currentInterval] = alg.countCurrentMatches(currentDrivers);
         System.out.println("Total number of matches: " + numMatches[currentInterval]);
         System.out.println("Largest match size (number of passengers): " + alg.getLargestMatchSize());
@@ -809,7 +809,7 @@ public class SimulationOperator {
         } else {
             Set<Passenger> passengersInSolution = new HashSet<>(solution.size()*2);
             for (Map.Entry<Driver, Match> entry : solution.entrySet()) {
-                for (Passenger p : entry.getValue().sfp.passengers)
+                for (Passenger p : entry.getValue().passengers())
                     passengersInSolution.add(p);
             }
             passengerCoveredRP[currentInterval] = passengersInSolution.size();
@@ -820,21 +820,48 @@ public class SimulationOperator {
         maxWeightRP[currentInterval] = alg.profitOfSolution(solution);
         runningTimeRP[currentInterval] = System.currentTimeMillis() - startTime;
         
-        if (SimulationParameters.costMultiplier >= 1) {
-            if (SimulationParameters.extraCost > 0 && SimulationParameters.chanceForExtraCost > 0) {
-                alg.decreaseProfitByIncreasingCost(currentDrivers, currentPassengers, costMultiplierDecider(), 
-                                            SimulationParameters.chanceForExtraCost, SimulationParameters.extraCost, SimulationParameters.operatingCostType);
-            } else if (SimulationParameters.costMultiplier > 1) {
-                alg.decreaseProfitByIncreasingCost(currentDrivers, currentPassengers, costMultiplierDecider(), SimulationParameters.operatingCostType);
-            }
-        }
-        if (SimulationParameters.revenueReduction < 1)
-            alg.decreaseProfitByReducingRevenue(currentDrivers, SimulationParameters.revenueReduction);
+        applyProfitScenarios();
         numNegativeMatches[currentInterval] = alg.getNumNegativeMatches(currentDrivers);
         
         return true;
     }
     
+    /*
+     * Profits of the matches under the cost and revenue parameters, and under each scenario of SimulationParameters.scenarioSweep,
+     * evaluated in one pass without changing the matches. The maximum profit of each scenario of the sweep is reported, then the solvers
+     * read the profits under the parameters.
+     */
+    private void applyProfitScenarios() {
+        List<ProfitScenarios.Scenario> scenarios = new ArrayList<>();
+        scenarios.add(effectiveScenario(new ProfitScenarios.Scenario(SimulationParameters.costMultiplier, SimulationParameters.chanceForExtraCost,
+                                            SimulationParameters.extraCost, SimulationParameters.operatingCostType, SimulationParameters.revenueReduction)));
+        for (ProfitScenarios.Scenario scenario : ProfitScenarios.parse(SimulationParameters.scenarioSweep, SimulationParameters.operatingCostType))
+            scenarios.add(effectiveScenario(scenario));
+        ProfitScenarios profits = new ProfitScenarios(alg, currentDrivers);
+        profits.evaluate(scenarios);
+        Pair<Solution, Long> matching;
+        for (int s = 1; s < scenarios.size(); s++) {
+            profits.apply(s);
+            matching = cplex.maxWeight(currentDrivers, currentPassengers, currentInterval, numMatches[currentInterval]);
+            System.out.println("Scenario " + scenarios.get(s) + ": negative matches = " + profits.negativeMatches(s)
+                                + ", maximum profit = " + (matching == null ? "not found" : matching.getP1().weight));
+        }
+        profits.apply(0);
+    }
+    
+    /*
+     * The cost is changed as decreaseProfitByIncreasingCost changed it: only with a cost multiplier of at least 1, by the multiplier of the hour,
+     * and either with an extra cost or with a larger multiplier and an operating cost.
+     */
+    private ProfitScenarios.Scenario effectiveScenario(ProfitScenarios.Scenario scenario) {
+        boolean extra = scenario.extraCost > 0 && scenario.chanceForExtraCost > 0;
+        boolean operatingCost = scenario.operatingCostType == 1 || scenario.operatingCostType == 2;
+        if (scenario.costMultiplier >= 1 && (extra || (scenario.costMultiplier > 1 && operatingCost)))
+            return new ProfitScenarios.Scenario(costMultiplierDecider(scenario.costMultiplier), extra ? scenario.chanceForExtraCost : 0,
+                                                extra ? scenario.extraCost : 0, scenario.operatingCostType, scenario.revenueReduction);
+        return new ProfitScenarios.Scenario(1, 0, 0, 0, scenario.revenueReduction);
+    }
+    
     private boolean setProfitTarget() {
         Pair<Solution, Long> matching = cplex.maxWeight(currentDrivers, currentPassengers, currentInterval, numMatches[currentInterval]);
         if (matching == null) {
@@ -874,26 +901,26 @@ public class SimulationOperator {
             minMatch = null;
             maxMatch = null;
             for (Match match : driver.getMatches()) {
-                if (match.profit > max) {
-                    max = match.profit;
+                if (match.getProfit() > max) {
+                    max = match.getProfit();
                     maxMatch = match;
-                } else if (match.profit < min) {
-                    min = match.profit;
+                } else if (match.getProfit() < min) {
+                    min = match.getProfit();
                     minMatch = match;
                 }
             }
             if (maxMatch != null)
-                System.out.println("Match ID: "+maxMatch.id+" Revenue: (" + maxMatch.revenue + ") Cost: ("+ maxMatch.cost+") MAX Profit: "+ maxMatch.profit);
+                System.out.println("Match ID: "+maxMatch.id+" Revenue: (" + maxMatch.getRevenue() + ") Cost: ("+ maxMatch.getCost()+") MAX Profit: "+ maxMatch.getProfit());
             if (minMatch != null)
-                System.out.println("Match ID: "+minMatch.id+" Revenue: (" + minMatch.revenue + ") Cost: ("+ minMatch.cost+") MIN Profit: "+ minMatch.profit);
+                System.out.println("Match ID: "+minMatch.id+" Revenue: (" + minMatch.getRevenue() + ") Cost: ("+ minMatch.getCost()+") MIN Profit: "+ minMatch.getProfit());
         }
     }
     
     public void matchWithNegativeProfit() {
         for (Driver driver : currentDrivers) {
             for (Match match : driver.getMatches()) {
-                if (match.profit < 0)
-                    System.out.println("Match ID: "+match.id+", Revenue: (" + match.revenue + ") Cost: ("+ match.cost+") Profit: "+ match.profit);
+                if (match.getProfit() < 0)
+                    System.out.println("Match ID: "+match.id+", Revenue: (" + match.getRevenue() + ") Cost: ("+ match.getCost()+") Profit: "+ match.getProfit());
             }
         }
     }
@@ -901,9 +928,9 @@ public class SimulationOperator {
     public void matchesWithNegativeProfit() {
         for (Driver driver : currentDrivers) {
             for (Match match : driver.getMatches()) {
-                if (match.profit < 0) {
-                    System.out.println("Match ID: "+match.id+", Revenue: (" + match.revenue + ") Cost: ("+ match.cost+") Profit: "+ match.profit);
-                    System.out.println("Driver ID: "+driver.getID()+ ", Passenger ID: "+ match.sfp.passengers.toString());
+                if (match.getProfit() < 0) {
+                    System.out.println("Match ID: "+match.id+", Revenue: (" + match.getRevenue() + ") Cost: ("+ match.getCost()+") Profit: "+ match.getProfit());
+                    System.out.println("Driver ID: "+driver.getID()+ ", Passenger ID: "+ match.passengers().toString());
                 }
             }
         }
@@ -914,7 +941,7 @@ public class SimulationOperator {
         int profit;
         for (Driver driver : currentDrivers) {
             for (Match match : driver.getMatches()) {
-                profit = match.profit / denominator;
+                profit = match.getProfit() / denominator;
                 if (profitDistribution.containsKey(profit))
                     profitDistribution.put(profit, profitDistribution.get(profit)+1);
                 else
@@ -931,8 +958,8 @@ public class SimulationOperator {
             System.out.println("Driver ID: " + driver.getID());
             for (Match match : driver.getMatches()) {
                 count++;
-                System.out.println("Match ID: "+match.id+ " -- Passengers: "+ match.sfp.passengers.toString() + 
-                        " Revenue: (" + match.revenue + ") Cost: ("+ match.cost+") Profit: "+ match.profit);
+                System.out.println("Match ID: "+match.id+ " -- Passengers: "+ match.passengers().toString() + 
+                        " Revenue: (" + match.getRevenue() + ") Cost: ("+ match.getCost()+") Profit: "+ match.getProfit());
                 if (count >= limit)
                     break;
             }
@@ -942,8 +969,8 @@ public class SimulationOperator {
     public void displayMatchProfitOfDriver(Driver driver) {
         System.out.println("Driver ID: " + driver.getID());
         for (Match match : driver.getMatches()) {
-            System.out.println("Match ID: "+match.id+ " -- Passengers: "+ match.sfp.passengers.toString() + 
-                    " Revenue: (" + match.revenue + ") Cost: ("+ match.cost+") Profit: "+ match.profit);
+            System.out.println("Match ID: "+match.id+ " -- Passengers: "+ match.passengers().toString() + 
+                    " Revenue: (" + match.getRevenue() + ") Cost: ("+ match.getCost()+") Profit: "+ match.getProfit());
         }
     }
     
@@ -952,8 +979,8 @@ public class SimulationOperator {
             if (driver.getID() == driverID) {
                 System.out.println("Driver ID: " + driver.getID());
                 for (Match match : driver.getMatches()) {
-                    System.out.println("Match ID: "+match.id+ " -- Passengers: "+ match.sfp.passengers.toString() + 
-                            " Revenue: (" + match.revenue + ") Cost: ("+ match.cost+") Profit: "+ match.profit);
+                    System.out.println("Match ID: "+match.id+ " -- Passengers: "+ match.passengers().toString() + 
+                            " Revenue: (" + match.getRevenue() + ") Cost: ("+ match.getCost()+") Profit: "+ match.getProfit());
                 }
                 break;
             }
@@ -964,8 +991,8 @@ public class SimulationOperator {
         for (Driver driver : currentDrivers) {
             System.out.println("Driver ID: " + driver.getID());
             for (Match match : driver.getMatches()) {
-                System.out.println("Match ID: "+match.id+ " -- Passengers: "+ match.sfp.passengers.toString() + 
-                        " Revenue: (" + match.revenue + ") Cost: ("+ match.cost+") Profit: "+ match.profit);
+                System.out.println("Match ID: "+match.id+ " -- Passengers: "+ match.passengers().toString() + 
+                        " Revenue: (" + match.getRevenue() + ") Cost: ("+ match.getCost()+") Profit: "+ match.getProfit());
             }
         }
     }
@@ -977,10 +1004,10 @@ public class SimulationOperator {
                     System.out.println("Driver: " + driver.toStringAll() + ", Match ID: "+match.id);
                     int ind;
                     System.out.print("[[ ");
-                    for (ind = 0; ind < match.sfp.originOrDest.size()-1; ind++)
-                        System.out.print("Passenger "+ match.sfp.originOrDest.get(ind).getP1().getID() + "("+match.sfp.originOrDest.get(ind).getP2()+") -- ");
-                    System.out.println("Passenger "+ match.sfp.originOrDest.get(ind).getP1().getID() + "("+match.sfp.originOrDest.get(ind).getP2()+") ]]");
-                    for (Passenger p : match.sfp.passengers)
+                    for (ind = 0; ind < match.stopCount()-1; ind++)
+                        System.out.print("Passenger "+ match.getStopPassenger(ind).getID() + "("+match.isStopDestination(ind)+") -- ");
+                    System.out.println("Passenger "+ match.getStopPassenger(ind).getID() + "("+match.isStopDestination(ind)+") ]]");
+                    for (Passenger p : match.passengers())
                         System.out.println(p.toStringAll());
                     break;
                 }
@@ -1002,16 +1029,16 @@ public class SimulationOperator {
         return (currentInterval * SimulationParameters.intervalInMinute + SimulationParameters.startHour*60) * 60;
     }
     
-    private double costMultiplierDecider() {
+    private double costMultiplierDecider(double costMultiplier) {
         switch(ProfileHours.get(currentHour)) {
             case MorningPeak:
             case AfternoonPeak:
-                return SimulationParameters.costMultiplier+0.2;
+                return costMultiplier+0.2;
             case MorningNoon:
             case Night:
-                return SimulationParameters.costMultiplier;
+                return costMultiplier;
             default:
-                return SimulationParameters.costMultiplier+0.1;
+                return costMultiplier+0.1;
         }
     }
     
@@ -10,8 +10,16 @@ public class SimulationParameters {
     
     public static int computeMatchMethod = 1;
     public static int computeDistanceMethod = 0;
+    public static int routeConstruction = 0;                    // route of a group for ComputeMatchMethod=1: 0 all permutations, 1 insertion, 2 exact search
+    public static boolean useShareabilityGraph = true;          // extend a group only with passengers that can share a vehicle with each of its passengers
+    public static int groupMemoSize = 100000;                   // passenger groups whose feasible stop orders are kept for all drivers, 0 to disable
+    public static boolean profitBoundPruning = false;           // RPC+ only: drop groups whose profit bound is negative, with all groups containing them
+    public static int matchSink = 0;                            // 0: keep all matches in memory, 1: keep the top matchSinkTopK of each driver, 2: hand the edges over to ExactSolver, 3: spill to disk
+    public static int matchSinkTopK = 1000;                     // matches kept per driver by matchSink=1
     public static boolean useMultiThread = false;
     public static int nThreads = 4;
+    public static boolean useDistanceTable = false;             // fill candidate legs with batched many-to-many CH searches
+    public static boolean usePersistentLegCache = false;        // node-to-node paths are kept on disk across intervals and runs
     
     public static int minNumBaseMatchesPerDriver = 25;
     public static int maxNumBaseMatchesPerDriver = 100;
@@ -29,6 +37,7 @@ public class SimulationParameters {
     public static double extraCost = 0d;
     public static int operatingCostType = 0;
     public static double revenueReduction = 1.0;
+    public static String scenarioSweep = "";                    // CostMultiplier:ExtraCost:ChanceForExtraCost:RevenueReduction of each scenario, separated by ';'
     public static double profitTargetMultiplier = 1.0;
     public static double lowerBoundProfitTarget = 0.6;
     
@@ -38,9 +47,9 @@ public class SimulationParameters {
         return "Parameters:" + Utility.newline
                 +"{problemVariant="+problemVariant + ", startHour="+startHour + ", numberOfIntervals="+numberOfIntervals + ", intervalInMinute="+intervalInMinute +"}"+ Utility.newline
                 +"{candidateTest="+candidateTest +", distanceRadius="+distanceRadius +"}"+ Utility.newline
-                +"{computeMatchMethod="+computeMatchMethod +", computeDistanceMethod="+computeDistanceMethod +", useMultiThread="+useMultiThread +", nThreads="+nThreads +"}"+ Utility.newline
+                +"{computeMatchMethod="+computeMatchMethod +", computeDistanceMethod="+computeDistanceMethod +", routeConstruction="+routeConstruction +", useShareabilityGraph="+useShareabilityGraph +", groupMemoSize="+groupMemoSize +", profitBoundPruning="+profitBoundPruning +", matchSink="+matchSink +", matchSinkTopK="+matchSinkTopK +", useMultiThread="+useMultiThread +", nThreads="+nThreads +", useDistanceTable="+useDistanceTable +", usePersistentLegCache="+usePersistentLegCache +"}"+ Utility.newline
                 +"{minBaseMatchesPerDriver="+minNumBaseMatchesPerDriver +", maxBaseMatchesPerDriver="+maxNumBaseMatchesPerDriver +", maxMatchesPerDriver="+maxNumMatchesPerDriver +", maxBaseMatchesPerPassenger="+thresholdMatchesForEachPassenger +"}"+ Utility.newline
                 +"{algorithmBaseMatches="+algorithmBaseMatches + ", algorithmReduceBaseMatches="+algorithmReduceBaseMatches + ", algorithmAllMatches="+algorithmAllMatches+ ", algorithmComputeSolutions="+algorithmComputeSolutions + ", algorithmRP="+algorithmRP +"}"+ Utility.newline
-                +"{costMultiplier="+costMultiplier + ", chanceForExtraCost="+chanceForExtraCost + ", extraCost="+extraCost + ", operatingCostType="+operatingCostType + ", revenueReduction="+revenueReduction + ", profitTargetMultiplier="+profitTargetMultiplier + ", lowerBoundProfitTarget="+lowerBoundProfitTarget +"}";
+                +"{costMultiplier="+costMultiplier + ", chanceForExtraCost="+chanceForExtraCost + ", extraCost="+extraCost + ", operatingCostType="+operatingCostType + ", revenueReduction="+revenueReduction + ", scenarioSweep="+scenarioSweep + ", profitTargetMultiplier="+profitTargetMultiplier + ", lowerBoundProfitTarget="+lowerBoundProfitTarget +"}";
     }
 }
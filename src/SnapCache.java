@@ -0,0 +1,56 @@
+package simulation;
+
+import com.graphhopper.storage.index.Snap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/*
+ * Snapped road network position of trip endpoints, keyed by trip ID and origin/destination flag (drivers and passengers apart).
+ * Cleared at the start of every interval; hits and misses are counted to report the saving on the location index.
+ */
+public class SnapCache {
+    private final ConcurrentHashMap<Long, Snap> snaps = new ConcurrentHashMap<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    
+    private static long key(Trip trip, boolean destination) {
+        return ((long) trip.getID() << 2) | (trip instanceof Driver ? 2 : 0) | (destination ? 1 : 0);
+    }
+    
+    public Snap get(Trip trip, boolean destination, Supplier<Snap> snapper) {
+        long k = key(trip, destination);
+        Snap snap = snaps.get(k);
+        if (snap != null) {
+            hits.increment();
+            return snap;
+        }
+        misses.increment();
+        snap = snapper.get();
+        Snap previous = snaps.putIfAbsent(k, snap);
+        return previous == null ? snap : previous;
+    }
+    
+    public void clear() {
+        snaps.clear();
+        hits.reset();
+        misses.reset();
+    }
+    
+    public int size() {
+        return snaps.size();
+    }
+    
+    public long getHits() {
+        return hits.sum();
+    }
+    
+    public long getMisses() {
+        return misses.sum();
+    }
+    
+    public double getHitRate() {
+        long total = hits.sum() + misses.sum();
+        return total == 0 ? 0 : (double) hits.sum() / total;
+    }
+}
@@ -0,0 +1,110 @@
+package simulation;
+
+import com.graphhopper.routing.weighting.Weighting;
+import com.graphhopper.storage.index.Snap;
+import com.graphhopper.util.DistanceCalcEarth;
+import com.graphhopper.util.EdgeIteratorState;
+import com.graphhopper.util.FetchMode;
+import com.graphhopper.util.PointList;
+import com.graphhopper.util.shapes.GHPoint3D;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * A location snapped onto an edge at the given fraction (of the edge length, from edgeBase); edge is -1 when snapped onto a node.
+ * Leaving the location towards edgeAdj costs (1 - fraction) of the edge, towards edgeBase costs fraction of the edge.
+ */
+public class SnappedLocation {
+    int edge = -1;
+    int edgeBase;
+    int edgeAdj;
+    double fraction;
+    double edgeLength;
+    double forwardWeight;      // edge weight from edgeBase to edgeAdj
+    double backwardWeight;     // edge weight from edgeAdj to edgeBase
+    long forwardMillis;
+    long backwardMillis;
+
+    // a node at an end of the snapped edge and the cost of the part of the edge between the location and that node
+    public static class EdgeEnd {
+        public final int node;
+        public final double weight;
+        public final double distance;
+        public final long timeInMs;
+
+        EdgeEnd(int node, double weight, double distance, long timeInMs) {
+            this.node = node;
+            this.weight = weight;
+            this.distance = distance;
+            this.timeInMs = timeInMs;
+        }
+    }
+
+    // null if the snap is not valid
+    public static SnappedLocation of(Snap snap, Weighting weighting) {
+        if (!snap.isValid())
+            return null;
+        SnappedLocation snapped = new SnappedLocation();
+        if (snap.getSnappedPosition() == Snap.Position.TOWER) {
+            snapped.edgeBase = snap.getClosestNode();
+            return snapped;
+        }
+
+        EdgeIteratorState edge = snap.getClosestEdge();
+        PointList points = edge.fetchWayGeometry(FetchMode.ALL);
+        GHPoint3D snappedPoint = snap.getSnappedPoint();
+        double fromBase = 0;
+        double length = 0;
+        for (int k = 0; k < points.size()-1; k++) {
+            if (k == snap.getWayIndex())
+                fromBase = length + DistanceCalcEarth.DIST_EARTH.calcDist(points.getLat(k), points.getLon(k), snappedPoint.lat, snappedPoint.lon);
+            length = length + DistanceCalcEarth.DIST_EARTH.calcDist(points.getLat(k), points.getLon(k), points.getLat(k+1), points.getLon(k+1));
+        }
+        snapped.edge = edge.getEdge();
+        snapped.edgeBase = edge.getBaseNode();
+        snapped.edgeAdj = edge.getAdjNode();
+        snapped.edgeLength = length;
+        snapped.fraction = length > 0 ? Math.min(fromBase / length, 1) : 0;
+        snapped.forwardWeight = weighting.calcEdgeWeightWithAccess(edge, false);
+        snapped.backwardWeight = weighting.calcEdgeWeightWithAccess(edge, true);
+        if (!Double.isInfinite(snapped.forwardWeight))
+            snapped.forwardMillis = weighting.calcEdgeMillis(edge, false);
+        if (!Double.isInfinite(snapped.backwardWeight))
+            snapped.backwardMillis = weighting.calcEdgeMillis(edge, true);
+        return snapped;
+    }
+
+    // nodes through which the location is left (arriving = false) or reached (arriving = true)
+    public List<EdgeEnd> ends(boolean arriving) {
+        List<EdgeEnd> ends = new ArrayList<>(2);
+        if (onNode()) {
+            ends.add(new EdgeEnd(edgeBase, 0, 0, 0));
+            return ends;
+        }
+        // leaving towards edgeAdj and arriving from edgeAdj travel the edge in opposite directions
+        boolean forwardAtAdj = !arriving;
+        double weightAtAdj = forwardAtAdj ? forwardWeight : backwardWeight;
+        double weightAtBase = forwardAtAdj ? backwardWeight : forwardWeight;
+        long millisAtAdj = forwardAtAdj ? forwardMillis : backwardMillis;
+        long millisAtBase = forwardAtAdj ? backwardMillis : forwardMillis;
+        if (!Double.isInfinite(weightAtAdj))
+            ends.add(new EdgeEnd(edgeAdj, weightAtAdj * (1 - fraction), edgeLength * (1 - fraction), Math.round(millisAtAdj * (1 - fraction))));
+        if (!Double.isInfinite(weightAtBase))
+            ends.add(new EdgeEnd(edgeBase, weightAtBase * fraction, edgeLength * fraction, Math.round(millisAtBase * fraction)));
+        return ends;
+    }
+
+    public boolean onNode() {
+        return edge < 0;
+    }
+
+    // the target is on the same edge and can be reached without passing any node
+    public boolean sharesEdgeWith(SnappedLocation target) {
+        return edge >= 0 && edge == target.edge;
+    }
+
+    // fraction of the target on this edge, measured from edgeBase of this location
+    public double fractionOf(SnappedLocation target) {
+        return target.edgeBase == edgeBase ? target.fraction : 1 - target.fraction;
+    }
+}
@@ -0,0 +1,84 @@
+package simulation;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+ * Keeps every match with its driver, as InMemoryMatchSink does, and hands the hypergraph of the matches over to ExactSolver: the matches
+ * (edges) containing each passenger, which ExactSolver otherwise finds by scanning every match for every passenger. The passengers of the
+ * matches of a driver are listed on the thread that enumerated it, as soon as it is done; at the end the edges are numbered in the order
+ * of the drivers and their matches, as ExactSolver numbers them.
+ */
+public class SolverEdgeSink implements MatchSink {
+    private final ConcurrentHashMap<Driver, DriverEdges> edgesOfDriver = new ConcurrentHashMap<>();
+    private List<Driver> drivers;
+    private HashMap<Passenger, Set<Integer>> edgesOfPassenger;
+
+    @Override
+    public void accept(Driver driver) {
+        edgesOfDriver.put(driver, new DriverEdges(driver.getMatches()));
+    }
+
+    @Override
+    public void finish(List<Driver> drivers) {
+        this.drivers = drivers;
+        edgesOfPassenger = new HashMap<>();
+        int offset = 0;
+        for (Driver driver : drivers) {
+            DriverEdges edges = edgesOfDriver.get(driver);
+            for (int i = 0; i < edges.passenger.length; i++)
+                edgesOfPassenger.computeIfAbsent(edges.passenger[i], p -> new HashSet<>()).add(offset + edges.edge[i]);
+            offset = offset + edges.count;
+        }
+    }
+
+    /*
+     * E_j of every passenger with a match, in the order of the passengers: the edge indices of the matches containing the passenger.
+     * Null if the matches of the drivers changed since the enumeration, and then they have to be scanned.
+     */
+    public List<Set<Integer>> passengerEdges(List<Driver> drivers, List<Passenger> passengers) {
+        if (edgesOfPassenger == null || this.drivers == null || drivers.size() != this.drivers.size())
+            return null;
+        for (int d = 0; d < drivers.size(); d++) {
+            DriverEdges edges = edgesOfDriver.get(drivers.get(d));
+            if (drivers.get(d) != this.drivers.get(d) || edges.matches != drivers.get(d).getMatches() || edges.count != edges.matches.size())
+                return null;
+        }
+        List<Set<Integer>> result = new ArrayList<>(passengers.size());
+        for (Passenger passenger : passengers) {
+            Set<Integer> edges = edgesOfPassenger.get(passenger);
+            if (edges != null)
+                result.add(edges);
+        }
+        return result;
+    }
+
+    private static class DriverEdges {
+        private final List<Match> matches;
+        private final int count;
+        private final Passenger[] passenger;    // the passengers of the matches, each with the index of its match in the driver's list
+        private final int[] edge;
+
+        DriverEdges(List<Match> matches) {
+            this.matches = matches;
+            count = matches.size();
+            int size = 0;
+            for (Match m : matches)
+                size = size + m.passengerCount();
+            passenger = new Passenger[size];
+            edge = new int[size];
+            int k = 0;
+            for (int i = 0; i < count; i++) {
+                Match m = matches.get(i);
+                for (int j = 0; j < m.passengerCount(); j++) {
+                    passenger[k] = m.getPassenger(j);
+                    edge[k++] = i;
+                }
+            }
+        }
+    }
+}
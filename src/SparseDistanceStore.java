@@ -0,0 +1,250 @@
+package simulation;
+
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Open addressing (linear probing) store of the travel distance for the legs evaluated so far.
+ * The (fromIndex, toIndex) pair is packed into a single long key. Keys are split over segments, 
+ * each guarded by its own lock, so that driver threads can write legs concurrently.
+ * Legs being routed are tracked as in-flight futures, so a leg requested by several threads is routed only once.
+ */
+public class SparseDistanceStore implements DistanceStore {
+    private static final long EMPTY = -1L;            // indices are never negative, so (-1,-1) is never a valid key
+    private static final long MISSING = Long.MIN_VALUE;
+    private static final float LOAD_FACTOR = 0.6f;
+    private static final int SEGMENT_BITS = 6;
+    private static final int NUM_SEGMENTS = 1 << SEGMENT_BITS;
+    
+    private final Segment[] segments;
+    private final ConcurrentHashMap<Long, CompletableFuture<Long>> inFlight = new ConcurrentHashMap<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder duplicatesSuppressed = new LongAdder();
+    
+    public SparseDistanceStore() {
+        this(1024);
+    }
+    
+    public SparseDistanceStore(int expectedLegs) {
+        segments = new Segment[NUM_SEGMENTS];
+        int perSegment = Math.max(16, expectedLegs / NUM_SEGMENTS);
+        for (int i = 0; i < NUM_SEGMENTS; i++)
+            segments[i] = new Segment(perSegment);
+    }
+    
+    private static long key(int fromIndex, int toIndex) {
+        return ((long) fromIndex << 32) | (toIndex & 0xFFFFFFFFL);
+    }
+    
+    // murmur3 finalizer, the high bits select the segment and the low bits the slot
+    private static long mix(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return key;
+    }
+    
+    private Segment segmentFor(long hash) {
+        return segments[(int) (hash >>> (64 - SEGMENT_BITS))];
+    }
+    
+    @Override
+    public long get(int fromIndex, int toIndex) {
+        long k = key(fromIndex, toIndex);
+        long h = mix(k);
+        return segmentFor(h).get(k, (int) h);
+    }
+    
+    @Override
+    public void put(int fromIndex, int toIndex, long distance) {
+        long k = key(fromIndex, toIndex);
+        long h = mix(k);
+        segmentFor(h).put(k, (int) h, distance);
+    }
+    
+    @Override
+    public boolean contains(int fromIndex, int toIndex) {
+        long k = key(fromIndex, toIndex);
+        long h = mix(k);
+        return segmentFor(h).contains(k, (int) h);
+    }
+    
+    @Override
+    public long computeIfAbsent(int fromIndex, int toIndex, LongSupplier router) {
+        long k = key(fromIndex, toIndex);
+        long h = mix(k);
+        Segment segment = segmentFor(h);
+        long distance = segment.getOrMissing(k, (int) h);
+        if (distance != MISSING) {
+            hits.increment();
+            return distance;
+        }
+        
+        CompletableFuture<Long> mine = new CompletableFuture<>();
+        CompletableFuture<Long> other = inFlight.putIfAbsent(k, mine);
+        if (other != null) {
+            // another thread is routing this leg, wait for its result
+            duplicatesSuppressed.increment();
+            return other.join();
+        }
+        try {
+            // the owner of the previous future may have stored the leg between the lookup and putIfAbsent
+            distance = segment.getOrMissing(k, (int) h);
+            if (distance == MISSING) {
+                misses.increment();
+                distance = router.getAsLong();
+                segment.put(k, (int) h, distance);
+            } else
+                hits.increment();
+            mine.complete(distance);
+            return distance;
+        } catch (RuntimeException e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(k, mine);
+        }
+    }
+    
+    @Override
+    public int size() {
+        int size = 0;
+        for (Segment s : segments)
+            size += s.size();
+        return size;
+    }
+    
+    @Override
+    public void clear() {
+        for (Segment s : segments)
+            s.clear();
+    }
+    
+    @Override
+    public void forEach(LegConsumer consumer) {
+        for (Segment s : segments)
+            s.forEach(consumer);
+    }
+    
+    @Override
+    public long getHits() {
+        return hits.sum();
+    }
+    
+    @Override
+    public long getMisses() {
+        return misses.sum();
+    }
+    
+    @Override
+    public long getDuplicatesSuppressed() {
+        return duplicatesSuppressed.sum();
+    }
+    
+    @Override
+    public void resetStatistics() {
+        hits.reset();
+        misses.reset();
+        duplicatesSuppressed.reset();
+    }
+    
+    private static final class Segment {
+        private long[] keys;
+        private long[] values;
+        private int size = 0;
+        private int threshold;
+        
+        Segment(int expected) {
+            allocate(tableSizeFor((int) (expected / LOAD_FACTOR) + 1));
+        }
+        
+        private static int tableSizeFor(int n) {
+            int capacity = Integer.highestOneBit(Math.max(n, 2) - 1) << 1;
+            return capacity < 0 ? 1 << 30 : capacity;
+        }
+        
+        private void allocate(int capacity) {
+            keys = new long[capacity];
+            values = new long[capacity];
+            Arrays.fill(keys, EMPTY);
+            threshold = (int) (capacity * LOAD_FACTOR);
+        }
+        
+        synchronized long get(long key, int hash) {
+            long value = getOrMissing(key, hash);
+            return value == MISSING ? 0 : value;
+        }
+        
+        synchronized long getOrMissing(long key, int hash) {
+            int mask = keys.length - 1;
+            for (int i = hash & mask; ; i = (i + 1) & mask) {
+                if (keys[i] == key)
+                    return values[i];
+                if (keys[i] == EMPTY)
+                    return MISSING;
+            }
+        }
+        
+        synchronized boolean contains(long key, int hash) {
+            int mask = keys.length - 1;
+            for (int i = hash & mask; ; i = (i + 1) & mask) {
+                if (keys[i] == key)
+                    return true;
+                if (keys[i] == EMPTY)
+                    return false;
+            }
+        }
+        
+        synchronized void put(long key, int hash, long value) {
+            int mask = keys.length - 1;
+            int i;
+            for (i = hash & mask; keys[i] != EMPTY; i = (i + 1) & mask) {
+                if (keys[i] == key) {
+                    values[i] = value;
+                    return;
+                }
+            }
+            keys[i] = key;
+            values[i] = value;
+            if (++size > threshold)
+                rehash();
+        }
+        
+        private void rehash() {
+            long[] oldKeys = keys;
+            long[] oldValues = values;
+            allocate(oldKeys.length << 1);
+            int mask = keys.length - 1;
+            for (int j = 0; j < oldKeys.length; j++) {
+                if (oldKeys[j] == EMPTY)
+                    continue;
+                int i = (int) mix(oldKeys[j]) & mask;
+                while (keys[i] != EMPTY)
+                    i = (i + 1) & mask;
+                keys[i] = oldKeys[j];
+                values[i] = oldValues[j];
+            }
+        }
+        
+        synchronized int size() {
+            return size;
+        }
+        
+        synchronized void clear() {
+            Arrays.fill(keys, EMPTY);
+            size = 0;
+        }
+        
+        synchronized void forEach(LegConsumer consumer) {
+            for (int i = 0; i < keys.length; i++)
+                if (keys[i] != EMPTY)
+                    consumer.accept((int) (keys[i] >>> 32), (int) keys[i], values[i]);
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package simulation;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+ * Writes the matches of each driver to a temporary file as soon as the driver is done, and releases them. The new matches of a driver
+ * are built in a store of its own, so during the enumeration only the drivers being enumerated hold matches in memory.
+ * At the end the matches are read back into one store, the store of the interval, for the solvers and for writing the trips to file:
+ * the sink lowers the memory of the enumeration only, the solvers still hold every match. A driver whose matches could not be written
+ * keeps them in memory, and so does every later one; their matches are moved into the store of the interval as well.
+ * Block of a driver: driver ID, number of matches, then for each match its ID, driver index, departure time of the driver, revenue, cost,
+ * profit, duration and distance of the route, number of stops and, for each stop, the passenger ID, the destination flag, the travel distance
+ * index, the hour index, and the duration and distance from the driver's origin.
+ */
+public class SpillMatchSink implements MatchSink {
+    private final Algorithms alg;
+    private final ConcurrentHashMap<Driver, MatchStore> working = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Integer, Passenger> passengers = new ConcurrentHashMap<>();
+    private Path file;
+    private DataOutputStream out;       // null once writing failed
+    private int blocks = 0;             // drivers written completely
+    private long spilled = 0;
+
+    public SpillMatchSink(Algorithms alg) {
+        this.alg = alg;
+        try {
+            file = Files.createTempFile("matches", ".bin");
+            file.toFile().deleteOnExit();
+            out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), 1 << 16));
+        } catch (IOException e) {
+            System.out.println(e.toString());
+            file = null;
+            out = null;
+        }
+    }
+
+    @Override
+    public MatchStore storeFor(Driver driver) {
+        return working.computeIfAbsent(driver, d -> new MatchStore());
+    }
+
+    @Override
+    public void accept(Driver driver) {
+        List<Match> matches = driver.getMatches();
+        synchronized (this) {
+            if (out == null)
+                return;
+            try {
+                out.writeInt(driver.getID());
+                out.writeInt(matches.size());
+                for (Match m : matches) {
+                    out.writeInt(m.id);
+                    out.writeInt(m.getDriverIndex());
+                    out.writeLong(m.getDepartureTimeOfDriver());
+                    out.writeDouble(m.getRevenue());
+                    out.writeDouble(m.getCost());
+                    out.writeInt(m.getProfit());
+                    out.writeLong(m.getRouteDuration());
+                    out.writeLong(m.getRouteDistance());
+                    out.writeInt(m.stopCount());
+                    for (int i = 0; i < m.stopCount(); i++) {
+                        passengers.putIfAbsent(m.getStopPassenger(i).getID(), m.getStopPassenger(i));
+                        out.writeInt(m.getStopPassenger(i).getID());
+                        out.writeBoolean(m.isStopDestination(i));
+                        out.writeInt(m.getTravelDistanceIndex(i));
+                        out.writeInt(m.getHourIndex(i));
+                        out.writeLong(m.getStopDuration(i));
+                        out.writeLong(m.getStopDistance(i));
+                    }
+                }
+                out.flush();
+                blocks++;
+                spilled = spilled + matches.size();
+            } catch (IOException e) {
+                // the file is not usable past a partial block
+                System.out.println(e.toString());
+                closeQuietly();
+                return;
+            }
+        }
+        driver.setMatches(new ArrayList<>());
+        working.remove(driver);
+    }
+
+    /*
+     * Reads the spilled matches back into the store of the interval, and copies there the matches of the drivers that kept them in
+     * memory. Throws UncheckedIOException if the file cannot be read back, since the spilled drivers have no matches left.
+     */
+    @Override
+    public void finish(List<Driver> drivers) {
+        MatchStore store = new MatchStore();
+        HashSet<Driver> readBack = new HashSet<>(blocks*2);
+        if (file != null) {
+            HashMap<Integer, Driver> driverOfID = new HashMap<>(drivers.size()*2);
+            for (Driver driver : drivers)
+                driverOfID.put(driver.getID(), driver);
+            try {
+                if (out != null)
+                    out.close();
+                else
+                    System.out.println("Writing spilled matches failed, the drivers after the failure kept their matches in memory.");
+                out = null;
+                try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+                    for (int b = 0; b < blocks; b++) {
+                        Driver driver = driverOfID.get(in.readInt());
+                        driver.setMatches(readMatches(in, store));
+                        readBack.add(driver);
+                    }
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException("Reading back the matches of " + blocks + " spilled drivers failed", e);
+            } finally {
+                try {
+                    Files.deleteIfExists(file);
+                } catch (IOException e) {
+                    System.out.println(e.toString());
+                }
+            }
+        }
+        int kept = 0;
+        for (Driver driver : drivers) {
+            working.remove(driver);
+            if (readBack.contains(driver) || driver.getMatches().isEmpty())
+                continue;
+            ArrayList<Match> matches = new ArrayList<>(driver.getMatches().size());
+            for (Match m : driver.getMatches())
+                matches.add(store.copy(m));
+            driver.setMatches(matches);
+            kept = kept + matches.size();
+        }
+        alg.matchStore = store;
+        System.out.println("Spill match sink: " + spilled + " matches written to disk during the enumeration and read back, " + kept + " kept in memory.");
+    }
+
+    private ArrayList<Match> readMatches(DataInputStream in, MatchStore store) throws IOException {
+        int count = in.readInt();
+        ArrayList<Match> matches = new ArrayList<>(count);
+        for (int k = 0; k < count; k++) {
+            int id = in.readInt();
+            int driverIndex = in.readInt();
+            long departureTimeOfDriver = in.readLong();
+            double revenue = in.readDouble();
+            double cost = in.readDouble();
+            int profit = in.readInt();
+            long routeDuration = in.readLong();
+            long routeDistance = in.readLong();
+            int n = in.readInt();
+            List<Pair<Passenger, Boolean>> originOrDest = new ArrayList<>(n);
+            ArrayList<Passenger> group = new ArrayList<>(n/2);
+            int[] travelDistanceIndex = new int[n];
+            int[] hourIndex = new int[n];
+            long[] duration = new long[n+1];
+            long[] distance = new long[n+1];
+            for (int i = 0; i < n; i++) {
+                Passenger passenger = passengers.get(in.readInt());
+                boolean destination = in.readBoolean();
+                if (!destination)
+                    group.add(passenger);
+                originOrDest.add(new Pair<>(passenger, destination));
+                travelDistanceIndex[i] = in.readInt();
+                hourIndex[i] = in.readInt();
+                duration[i] = in.readLong();
+                distance[i] = in.readLong();
+            }
+            duration[n] = routeDuration;
+            distance[n] = routeDistance;
+            Match m = store.add(driverIndex, id, new SFP(new HashSet<>(group), originOrDest, travelDistanceIndex, hourIndex, departureTimeOfDriver),
+                                duration, distance);
+            m.setRevenue(revenue);
+            m.setCost(cost);
+            m.setProfit(profit);
+            matches.add(m);
+        }
+        return matches;
+    }
+
+    private void closeQuietly() {
+        try {
+            out.close();
+        } catch (IOException e) {
+            System.out.println(e.toString());
+        }
+        out = null;
+    }
+
+    @Override
+    public boolean keepsMatches() {
+        return false;
+    }
+}
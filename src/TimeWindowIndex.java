@@ -0,0 +1,70 @@
+package simulation;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/*
+ * Index over the time windows of the passengers, to skip the passengers that no driver leaving at departureTime and arriving by arrivalTime can serve.
+ * A passenger is picked up no earlier than its departure time and no earlier than the driver's departure, and its ride lasts at least minRideDuration
+ * (its own leg at the highest speed), so the pair is feasible only if max(driver departure, passenger departure) + minRideDuration is at most
+ * min(passenger arrival, driver arrival). Passengers are sorted by earliest drop-off (departure + minRideDuration) so that a query stops at
+ * the driver's arrival time, the latest pick-up (arrival - minRideDuration) is checked against the driver's departure.
+ */
+public class TimeWindowIndex {
+    private final long[] earliestDropoff;       // sorted in increasing order
+    private final long[] latestPickup;
+    private final long[] minRideDuration;
+    private final int[] position;               // position in the passenger list the index was built from
+    private final int size;
+
+    // minRideDuration[i] is a lower bound of the ride duration (in seconds) of passengers.get(i)
+    public TimeWindowIndex(List<Passenger> passengers, long[] minRideDuration) {
+        Integer[] order = new Integer[passengers.size()];
+        int n = 0;
+        Passenger p;
+        for (int i = 0; i < passengers.size(); i++) {
+            p = passengers.get(i);
+            // a passenger that cannot reach its destination in time is never a candidate
+            if (p.getDepartureTime() + minRideDuration[i] <= p.getArrivalTime() && minRideDuration[i] <= p.getMaxTravelDuration())
+                order[n++] = i;
+        }
+        size = n;
+        Arrays.sort(order, 0, size, (a, b) -> Long.compare(passengers.get(a).getDepartureTime() + minRideDuration[a], passengers.get(b).getDepartureTime() + minRideDuration[b]));
+        earliestDropoff = new long[size];
+        latestPickup = new long[size];
+        this.minRideDuration = new long[size];
+        position = new int[size];
+        for (int k = 0; k < size; k++) {
+            p = passengers.get(order[k]);
+            position[k] = order[k];
+            this.minRideDuration[k] = minRideDuration[order[k]];
+            earliestDropoff[k] = p.getDepartureTime() + this.minRideDuration[k];
+            latestPickup[k] = p.getArrivalTime() - this.minRideDuration[k];
+        }
+    }
+
+    // positions of the passengers whose time window is compatible with the driver's
+    public BitSet compatibleWith(Driver driver) {
+        BitSet compatible = new BitSet();
+        long departure = driver.getDepartureTime();
+        long arrival = driver.getArrivalTime();
+        // number of passengers with earliestDropoff <= arrival
+        int low = 0, high = size, mid;
+        while (low < high) {
+            mid = (low + high) >>> 1;
+            if (earliestDropoff[mid] <= arrival)
+                low = mid + 1;
+            else
+                high = mid;
+        }
+        for (int k = 0; k < low; k++)
+            if (latestPickup[k] >= departure && departure + minRideDuration[k] <= arrival && minRideDuration[k] <= driver.getMaxTravelDuration())
+                compatible.set(position[k]);
+        return compatible;
+    }
+
+    public int size() {
+        return size;
+    }
+}
@@ -0,0 +1,80 @@
+package simulation;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Keeps the k most profitable matches of each driver (a bounded heap on the profit, the earlier match kept on a tie), for RPC+
+ * where the solvers look for profitable matches. The new matches of a driver are built in a store of its own, and the kept ones are
+ * copied into the store of the sink, which becomes the store of the interval at the end: besides the kept matches, only the drivers
+ * being enumerated hold matches. The kept matches stay in the order of the enumeration, and the levels of the driver are counted again.
+ */
+public class TopKMatchSink implements MatchSink {
+    private final Algorithms alg;
+    private final int k;
+    private final MatchStore kept = new MatchStore();
+    private final ConcurrentHashMap<Driver, MatchStore> working = new ConcurrentHashMap<>();
+    private final LongAdder dropped = new LongAdder();
+
+    public TopKMatchSink(Algorithms alg, int k) {
+        this.alg = alg;
+        this.k = k;
+    }
+
+    @Override
+    public MatchStore storeFor(Driver driver) {
+        return working.computeIfAbsent(driver, d -> new MatchStore());
+    }
+
+    @Override
+    public void accept(Driver driver) {
+        List<Match> matches = driver.getMatches();
+        int n = matches.size();
+        // the least profitable match at the head, the later one first on a tie
+        PriorityQueue<Integer> heap = new PriorityQueue<>(Math.min(n, k) + 1, (a, b) -> {
+            int byProfit = Integer.compare(matches.get(a).getProfit(), matches.get(b).getProfit());
+            return byProfit != 0 ? byProfit : Integer.compare(b, a);
+        });
+        for (int i = 0; i < n; i++) {
+            heap.add(i);
+            if (heap.size() > k)
+                heap.poll();
+        }
+        boolean[] keep = new boolean[n];
+        for (int i : heap)
+            keep[i] = true;
+        ArrayList<Match> result = new ArrayList<>(heap.size());
+        for (int i = 0; i < n; i++) {
+            if (keep[i])
+                result.add(kept.copy(matches.get(i)));
+        }
+        dropped.add(n - result.size());
+
+        // level l ends after the matches of at most l+1 passengers
+        List<Integer> levels = driver.getIndexLevel();
+        for (int l = 0; l < levels.size(); l++) {
+            int count = 0;
+            for (Match m : result) {
+                if (m.passengerCount() <= l+1)
+                    count++;
+            }
+            driver.setIndexLevel(l, count);
+        }
+        driver.setMatches(result);
+        working.remove(driver);
+    }
+
+    @Override
+    public void finish(List<Driver> drivers) {
+        alg.matchStore = kept;
+        System.out.println("Top-" + k + " match sink: " + kept.size() + " matches kept, " + dropped.sum() + " dropped.");
+    }
+
+    @Override
+    public boolean keepsMatches() {
+        return false;
+    }
+}
@@ -0,0 +1,117 @@
+package simulation;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/*
+ * Index of each trip (driver or passenger) in travelDistance, by trip ID. Trip IDs come from the increasing counter of TripGenerator,
+ * so the trips of an interval cover a narrow range of IDs: the mapping is an int array offset by the smallest ID, and a lookup is one
+ * array access without boxing. The range grows when an ID outside it is added.
+ * Written once per interval and then only read, by any thread.
+ */
+public class TripIndex {
+    private static final int DenseFormat = -1;  // first int of a persisted dense mapping; the old format starts with the number of pairs
+    private int firstID;
+    private int[] index;        // -1 for an ID without a trip
+    private int size = 0;
+
+    public TripIndex() {
+        this(0, -1);
+    }
+
+    // for IDs from firstID to lastID
+    public TripIndex(int firstID, int lastID) {
+        this.firstID = firstID;
+        index = new int[Math.max(lastID - firstID + 1, 0)];
+        Arrays.fill(index, -1);
+    }
+
+    public void put(int id, int tripIndex) {
+        if (id < firstID || id - firstID >= index.length)
+            grow(id);
+        if (index[id - firstID] < 0)
+            size++;
+        index[id - firstID] = tripIndex;
+    }
+
+    private void grow(int id) {
+        int first = size == 0 ? id : Math.min(firstID, id);
+        int last = size == 0 ? id : Math.max(firstID + 2*index.length - 1, id);     // room for the next IDs of the counter
+        int[] grown = new int[last - first + 1];
+        Arrays.fill(grown, -1);
+        if (size > 0)
+            System.arraycopy(index, 0, grown, firstID - first, index.length);
+        firstID = first;
+        index = grown;
+    }
+
+    // index of the trip; an ID without a trip is an error, as the index would be read from travelDistance (contains to probe)
+    public int get(int id) {
+        int offset = id - firstID;
+        if (offset < 0 || offset >= index.length || index[offset] < 0)
+            throw new IllegalArgumentException("Trip " + id + " has no index in travelDistance");
+        return index[offset];
+    }
+
+    public boolean contains(int id) {
+        int offset = id - firstID;
+        return offset >= 0 && offset < index.length && index[offset] >= 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void forEach(TripConsumer consumer) {
+        for (int i = 0; i < index.length; i++) {
+            if (index[i] >= 0)
+                consumer.accept(firstID + i, index[i]);
+        }
+    }
+
+    // DenseFormat, first ID, length of the range, then the index of every ID of the range (-1 for none)
+    public void write(DataOutputStream out) throws IOException {
+        out.writeInt(DenseFormat);
+        out.writeInt(firstID);
+        out.writeInt(index.length);
+        for (int i = 0; i < index.length; i++)
+            out.writeInt(index[i]);
+    }
+
+    // reads both the dense format and the old one (number of pairs, then (trip ID, index) pairs)
+    public static TripIndex read(DataInputStream in) throws IOException {
+        int header = in.readInt();
+        TripIndex tripIndex;
+        if (header == DenseFormat) {
+            int first = in.readInt();
+            int length = in.readInt();
+            tripIndex = new TripIndex(first, first + length - 1);
+            for (int i = 0; i < length; i++) {
+                int value = in.readInt();
+                if (value >= 0)
+                    tripIndex.put(first + i, value);
+            }
+        } else {
+            int[] ids = new int[header];
+            int[] values = new int[header];
+            int first = Integer.MAX_VALUE;
+            int last = Integer.MIN_VALUE;
+            for (int i = 0; i < header; i++) {
+                ids[i] = in.readInt();
+                values[i] = in.readInt();
+                first = Math.min(first, ids[i]);
+                last = Math.max(last, ids[i]);
+            }
+            tripIndex = header == 0 ? new TripIndex() : new TripIndex(first, last);
+            for (int i = 0; i < header; i++)
+                tripIndex.put(ids[i], values[i]);
+        }
+        return tripIndex;
+    }
+
+    public interface TripConsumer {
+        void accept(int id, int tripIndex);
+    }
+}